@@ -14,7 +14,9 @@ framework: Yaw-reactive.
                        SceneRenderer
                        InputCallback)
            (yaw.engine.light AmbientLight DirectionalLight PointLight SpotLight LightModel)
-           (yaw.engine.camera Camera))
+           (yaw.engine.camera Camera)
+           (java.util.concurrent CompletableFuture TimeUnit TimeoutException)
+           (java.util.function Function))
   
   (:require [yaw.util :as u]
             [yaw.geom :as geom]
@@ -77,6 +79,45 @@ framework: Yaw-reactive.
                  "" ;; XXX : for now, no texture support
                  )))
 
+(defn- deref-future
+  "A deref-able view of the future `fut` of a model loaded in the `world`
+  (with timeout, and `realized?`), its value is transformed by `f`.
+
+  The game loop completes the future, so a blocking `deref` from the loop
+  (e.g. in the update callback) throws instead of waiting forever."
+  [world ^CompletableFuture fut f]
+  (let [fut (.thenApply fut (reify Function (apply [_ v] (f v))))
+        loader (.getModelLoader world)]
+    (reify
+      clojure.lang.IDeref
+      (deref [_]
+        (when (and (not (.isDone fut)) (.isUploadThread loader))
+          (throw (IllegalStateException.
+                  "Cannot wait for a model in the game loop (poll with realized?)")))
+        (.get fut))
+      clojure.lang.IBlockingDeref
+      (deref [_ ms timeout-val]
+        (try (.get fut (long ms) TimeUnit/MILLISECONDS)
+             (catch TimeoutException _ timeout-val)))
+      clojure.lang.IPending
+      (isRealized [_] (.isDone fut)))))
+
+(defn load-meshes!
+  "Load the meshes of a model (a .obj file or resource) in the background,
+  they are uploaded to the GPU by the game loop of the `world`.
+
+  Returns at once a deref-able, the vector of the meshes once loaded.
+  A failed load is thrown by `deref`.
+
+  The meshes are uploaded by the game loop : from the update callback
+  (which runs in the loop), poll with `realized?` and deref only once
+  realized, a blocking `deref` would wait for the loop itself (it throws).
+  From other threads, `@(load-meshes! world \"/resources/models/cube.obj\")`
+  waits for the upload."
+  [world file & {:keys [shadows]
+                 :or   {shadows false}}]
+  (deref-future world (.loadModelAsync world file (boolean shadows)) vec))
+
 ;;; ==========================================================================
 ;;; Items and groups
 ;;; ==========================================================================
@@ -91,6 +132,18 @@ framework: Yaw-reactive.
          scale (get props :scale 1)]
      (.createItemObject world (str id) px py pz scale mesh))))
 
+(defn load-items!
+  "Load a model (a .obj file or resource) in the background, and
+  create an item in the `world` for each of its meshes, with the
+  `properties` (see [[create-item!]]) once they are uploaded.
+
+  Returns at once a deref-able, the vector of the items once created
+  (from the update callback, poll with `realized?`, see [[load-meshes!]])."
+  [world file props]
+  (deref-future world (.loadModelAsync world file (boolean (get props :shadows false)))
+                (fn [meshes]
+                  (mapv #(create-item! world % props) meshes))))
+
 (defn remove-item!
   "Remove the specified `item` from the `world`"
   [world item]
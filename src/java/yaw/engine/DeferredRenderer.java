@@ -0,0 +1,323 @@
+package yaw.engine;
+
+import org.joml.Matrix4f;
+import org.lwjgl.BufferUtils;
+import yaw.engine.camera.Camera;
+import yaw.engine.geom.GeomLib;
+import yaw.engine.geom.Geometry;
+import yaw.engine.light.LightClusters;
+import yaw.engine.light.LightModel;
+import yaw.engine.light.PointLight;
+import yaw.engine.light.SpotLight;
+import yaw.engine.shader.ShaderProgramDeferred;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+import static org.lwjgl.opengl.GL32.*;
+
+/**
+ * Deferred shading : the scene is first rendered in a G-buffer, then the point and spot lights
+ * are drawn as light volumes, so that the cost of each light only depends on the pixels it covers.
+ *
+ * The geometry pass uses the ADS programs (with the deferred property) and the render queue of the scene.
+ * It writes in the G-buffer :
+ * <pre>
+ *   0 : lighting accumulation (RGBA16F) : ambient, directional (with shadows) and emissive lighting
+ *   1 : normal and shininess (RGBA16F)
+ *   2 : diffuse color (RGBA8), multiplied by the base color
+ *   3 : specular color (RGBA8), multiplied by the base color
+ *   depth (DEPTH24_STENCIL8), from which the positions are rebuilt
+ * </pre>
+ * The light passes add the point and spot lights to the accumulation : the lights with a range
+ * (see {@link LightClusters#getRange(PointLight)}) as instanced spheres, and the lights without attenuation
+ * as full-screen triangles. Finally, the accumulation and the depth are copied to the default framebuffer,
+ * for the helpers and the skybox.
+ */
+public class DeferredRenderer {
+    private static final int SPHERE_SEGMENTS = 16;
+    private static final int SPHERE_RINGS = 8;
+
+    private int width;
+    private int height;
+
+    /* the G-buffer (geometry pass) and the accumulation only (light passes) */
+    private int gBufferId;
+    private int lightBufferId;
+    /* accumulation, normal, diffuse, specular, then depth */
+    private final int[] textureIds = new int[5];
+
+    /* unit sphere (circumscribed), and full-screen triangle */
+    private int sphereVaoId;
+    private int sphereVboId;
+    private int sphereIboId;
+    private int sphereIndexCount;
+    private int triangleVaoId;
+    private int triangleVboId;
+
+    /* the lights : the lights with a range first, then the others */
+    private ShaderProgramDeferred program;
+    private int lightsBufferId;
+    private int lightsTextureId;
+    private float[] lightData;
+    private FloatBuffer lightUpload;
+    private int boundedLights;
+    private int unboundedLights;
+    private LightModel uploadedLights;
+    private long uploadedVersion;
+
+    private final Matrix4f invWorldMatrix;
+
+    public DeferredRenderer() {
+        invWorldMatrix = new Matrix4f();
+        lightData = new float[LightClusters.LIGHT_FLOATS * 16];
+    }
+
+    private void init() {
+        program = new ShaderProgramDeferred();
+        program.init();
+
+        // the faces of the sphere are inside the unit sphere, it is scaled to contain it
+        Geometry sphere = GeomLib.makeSphere(1, SPHERE_SEGMENTS, SPHERE_RINGS).build();
+        float scale = (float) (1 / (Math.cos(Math.PI / SPHERE_SEGMENTS) * Math.cos(Math.PI / (2 * SPHERE_RINGS))));
+        float[] vertices = sphere.getVertices();
+        for (int i = 0; i < vertices.length; i++) {
+            vertices[i] *= scale;
+        }
+        sphereIndexCount = sphere.getIndices().length;
+        sphereVaoId = glGenVertexArrays();
+        glBindVertexArray(sphereVaoId);
+        sphereVboId = glGenBuffers();
+        glBindBuffer(GL_ARRAY_BUFFER, sphereVboId);
+        glBufferData(GL_ARRAY_BUFFER, vertices, GL_STATIC_DRAW);
+        glVertexAttribPointer(0, 3, GL_FLOAT, false, 0, 0);
+        glEnableVertexAttribArray(0);
+        sphereIboId = glGenBuffers();
+        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, sphereIboId);
+        glBufferData(GL_ELEMENT_ARRAY_BUFFER, sphere.getIndices(), GL_STATIC_DRAW);
+
+        triangleVaoId = glGenVertexArrays();
+        glBindVertexArray(triangleVaoId);
+        triangleVboId = glGenBuffers();
+        glBindBuffer(GL_ARRAY_BUFFER, triangleVboId);
+        glBufferData(GL_ARRAY_BUFFER, new float[]{-1, -1, 0, 3, -1, 0, -1, 3, 0}, GL_STATIC_DRAW);
+        glVertexAttribPointer(0, 3, GL_FLOAT, false, 0, 0);
+        glEnableVertexAttribArray(0);
+        glBindVertexArray(0);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+
+        lightsBufferId = glGenBuffers();
+        lightsTextureId = glGenTextures();
+        gBufferId = glGenFramebuffers();
+        lightBufferId = glGenFramebuffers();
+        glGenTextures(textureIds);
+    }
+
+    /**
+     * (Re)allocate the G-buffer textures at the size of the window
+     */
+    private void resize(int pWidth, int pHeight) {
+        width = pWidth;
+        height = pHeight;
+        allocate(textureIds[0], GL_RGBA16F, GL_RGBA, GL_FLOAT);
+        allocate(textureIds[1], GL_RGBA16F, GL_RGBA, GL_FLOAT);
+        allocate(textureIds[2], GL_RGBA8, GL_RGBA, GL_UNSIGNED_BYTE);
+        allocate(textureIds[3], GL_RGBA8, GL_RGBA, GL_UNSIGNED_BYTE);
+        // the format of the default depth buffer, for the copy
+        allocate(textureIds[4], GL_DEPTH24_STENCIL8, GL_DEPTH_STENCIL, GL_UNSIGNED_INT_24_8);
+
+        glBindFramebuffer(GL_FRAMEBUFFER, gBufferId);
+        for (int i = 0; i < 4; i++) {
+            glFramebufferTexture2D(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0 + i, GL_TEXTURE_2D, textureIds[i], 0);
+        }
+        glFramebufferTexture2D(GL_FRAMEBUFFER, GL_DEPTH_STENCIL_ATTACHMENT, GL_TEXTURE_2D, textureIds[4], 0);
+        glDrawBuffers(new int[]{GL_COLOR_ATTACHMENT0, GL_COLOR_ATTACHMENT1, GL_COLOR_ATTACHMENT2, GL_COLOR_ATTACHMENT3});
+        if (glCheckFramebufferStatus(GL_FRAMEBUFFER) != GL_FRAMEBUFFER_COMPLETE) {
+            throw new Error("Incomplete G-buffer");
+        }
+        // the depth is read by the light passes, it is not attached there
+        glBindFramebuffer(GL_FRAMEBUFFER, lightBufferId);
+        glFramebufferTexture2D(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, textureIds[0], 0);
+        if (glCheckFramebufferStatus(GL_FRAMEBUFFER) != GL_FRAMEBUFFER_COMPLETE) {
+            throw new Error("Incomplete light buffer");
+        }
+        glBindFramebuffer(GL_FRAMEBUFFER, 0);
+    }
+
+    private void allocate(int textureId, int internalFormat, int format, int type) {
+        glBindTexture(GL_TEXTURE_2D, textureId);
+        glTexImage2D(GL_TEXTURE_2D, 0, internalFormat, width, height, 0, format, type, (ByteBuffer) null);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+        glBindTexture(GL_TEXTURE_2D, 0);
+    }
+
+    /**
+     * Start the geometry pass : the G-buffer is bound and cleared (the accumulation with the clear color
+     * of the default framebuffer)
+     */
+    public void beginGeometryPass() {
+        if (program == null) {
+            init();
+        }
+        if (Window.getWidth() != width || Window.getHeight() != height) {
+            resize(Window.getWidth(), Window.getHeight());
+        }
+        glBindFramebuffer(GL_FRAMEBUFFER, gBufferId);
+        glDepthMask(true);
+        glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
+    }
+
+    /**
+     * Add the point and spot lights to the accumulation, then copy the accumulation and the depth
+     * to the default framebuffer (which is bound afterwards)
+     *
+     * @param pCamera    the camera
+     * @param lightModel the lights, updated for the frame
+     */
+    public void lightPasses(Camera pCamera, LightModel lightModel) {
+        uploadLights(lightModel);
+        if (boundedLights + unboundedLights > 0) {
+            glBindFramebuffer(GL_FRAMEBUFFER, lightBufferId);
+            glDepthMask(false);
+            glDisable(GL_DEPTH_TEST);
+            glEnable(GL_BLEND);
+            glBlendFunc(GL_ONE, GL_ONE);
+            bindTextures();
+            program.bind();
+            pCamera.getWorldMat().invert(invWorldMatrix);
+
+            if (boundedLights > 0) {
+                // the back faces, so that the camera can be inside the volumes (clamped to the far plane)
+                glEnable(GL_CULL_FACE);
+                glCullFace(GL_FRONT);
+                glEnable(GL_DEPTH_CLAMP);
+                program.setupLights(invWorldMatrix, 0, false);
+                glBindVertexArray(sphereVaoId);
+                glDrawElementsInstanced(GL_TRIANGLES, sphereIndexCount, GL_UNSIGNED_INT, 0, boundedLights);
+                glDisable(GL_DEPTH_CLAMP);
+            }
+            if (unboundedLights > 0) {
+                glCullFace(GL_BACK);
+                program.setupLights(invWorldMatrix, boundedLights, true);
+                glBindVertexArray(triangleVaoId);
+                glDrawArraysInstanced(GL_TRIANGLES, 0, 3, unboundedLights);
+            }
+
+            glBindVertexArray(0);
+            program.unbind();
+            glActiveTexture(GL_TEXTURE0);
+            glCullFace(GL_BACK);
+            glDisable(GL_BLEND);
+            glEnable(GL_DEPTH_TEST);
+            glDepthMask(true);
+        }
+
+        glBindFramebuffer(GL_READ_FRAMEBUFFER, gBufferId);
+        glReadBuffer(GL_COLOR_ATTACHMENT0);
+        glBindFramebuffer(GL_DRAW_FRAMEBUFFER, 0);
+        glBlitFramebuffer(0, 0, width, height, 0, 0, width, height,
+                GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT, GL_NEAREST);
+        glBindFramebuffer(GL_FRAMEBUFFER, 0);
+    }
+
+    private void bindTextures() {
+        bindTexture(ShaderProgramDeferred.NORMAL_TEXTURE_UNIT, textureIds[1]);
+        bindTexture(ShaderProgramDeferred.DIFFUSE_TEXTURE_UNIT, textureIds[2]);
+        bindTexture(ShaderProgramDeferred.SPECULAR_TEXTURE_UNIT, textureIds[3]);
+        bindTexture(ShaderProgramDeferred.DEPTH_TEXTURE_UNIT, textureIds[4]);
+        glActiveTexture(GL_TEXTURE0 + ShaderProgramDeferred.LIGHTS_TEXTURE_UNIT);
+        glBindTexture(GL_TEXTURE_BUFFER, lightsTextureId);
+    }
+
+    private static void bindTexture(int unit, int textureId) {
+        glActiveTexture(GL_TEXTURE0 + unit);
+        glBindTexture(GL_TEXTURE_2D, textureId);
+    }
+
+    /**
+     * Write the lights in the light buffer, if they changed since the last upload
+     */
+    private void uploadLights(LightModel lightModel) {
+        if (lightModel == uploadedLights && lightModel.getVersion() == uploadedVersion) {
+            return;
+        }
+        int count = lightModel.getNbPointLights() + lightModel.getNbSpotLights();
+        if (lightData.length < count * LightClusters.LIGHT_FLOATS) {
+            lightData = new float[count * LightClusters.LIGHT_FLOATS * 2];
+        }
+        // the lights with a range from the start, the others from the end
+        boundedLights = 0;
+        unboundedLights = 0;
+        for (int i = 0; i < lightModel.getNbPointLights(); i++) {
+            putLight(lightModel.getPointLight(i), null, count);
+        }
+        for (int i = 0; i < lightModel.getNbSpotLights(); i++) {
+            SpotLight spotLight = lightModel.getSpotLight(i);
+            // bounded by the sphere of its range
+            putLight(spotLight, spotLight, count);
+        }
+        // the unbounded lights follow the bounded lights
+        System.arraycopy(lightData, (count - unboundedLights) * LightClusters.LIGHT_FLOATS,
+                lightData, boundedLights * LightClusters.LIGHT_FLOATS, unboundedLights * LightClusters.LIGHT_FLOATS);
+
+        // empty buffers are not valid texture storage, at least one light is uploaded
+        int floats = Math.max(boundedLights + unboundedLights, 1) * LightClusters.LIGHT_FLOATS;
+        if (lightUpload == null || lightUpload.capacity() < floats) {
+            lightUpload = BufferUtils.createFloatBuffer(Math.max(floats, lightUpload == null ? 0 : 2 * lightUpload.capacity()));
+        }
+        lightUpload.clear();
+        lightUpload.put(lightData, 0, floats).flip();
+        glBindBuffer(GL_TEXTURE_BUFFER, lightsBufferId);
+        // orphan the previous storage, the last frame may still read it
+        glBufferData(GL_TEXTURE_BUFFER, lightUpload, GL_STREAM_DRAW);
+        glBindBuffer(GL_TEXTURE_BUFFER, 0);
+        glBindTexture(GL_TEXTURE_BUFFER, lightsTextureId);
+        glTexBuffer(GL_TEXTURE_BUFFER, GL_RGBA32F, lightsBufferId);
+        glBindTexture(GL_TEXTURE_BUFFER, 0);
+
+        uploadedLights = lightModel;
+        uploadedVersion = lightModel.getVersion();
+    }
+
+    private void putLight(PointLight pointLight, SpotLight spotLight, int count) {
+        float range = LightClusters.getRange(pointLight);
+        if (range < 0) {
+            // no significant contribution
+            return;
+        }
+        int light;
+        if (range == Float.POSITIVE_INFINITY) {
+            unboundedLights++;
+            light = count - unboundedLights;
+        } else {
+            light = boundedLights++;
+        }
+        LightClusters.putLight(lightData, light, pointLight, spotLight);
+        // the range in the last float (unused by the lights)
+        lightData[(light + 1) * LightClusters.LIGHT_FLOATS - 1] = Math.min(range, Float.MAX_VALUE);
+    }
+
+    public void cleanUp() {
+        if (program == null) {
+            return;
+        }
+        program.cleanup();
+        program = null;
+        glDeleteFramebuffers(gBufferId);
+        glDeleteFramebuffers(lightBufferId);
+        glDeleteTextures(textureIds);
+        glDeleteTextures(lightsTextureId);
+        glDeleteBuffers(lightsBufferId);
+        glDeleteBuffers(sphereVboId);
+        glDeleteBuffers(sphereIboId);
+        glDeleteBuffers(triangleVboId);
+        glDeleteVertexArrays(sphereVaoId);
+        glDeleteVertexArrays(triangleVaoId);
+        width = 0;
+        height = 0;
+        uploadedLights = null;
+    }
+}
@@ -0,0 +1,210 @@
+package yaw.engine;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GLCapabilities;
+import yaw.engine.items.ItemObject;
+import yaw.engine.mesh.GeometryArena;
+import yaw.engine.mesh.Mesh;
+import yaw.engine.shader.ShaderProgramADS;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+import static org.lwjgl.opengl.GL43.*;
+
+/**
+ * Consecutive draws of shared meshes (of the same arena, with the same program, texture and material),
+ * submitted together.
+ *
+ * The model and normal matrices of the draws are written in a per-draw buffer, read by the program
+ * through a buffer texture ({@link ShaderProgramADS#DRAW_DATA_TEXELS} texels per draw) at the index
+ * of the draw. With indirect multi-draw (GL 4.3), the draws of a batch are a single glMultiDrawElementsIndirect
+ * call, and the index of the draw is the base instance of its command. Otherwise (GL 3.3), there is
+ * a glDrawElementsBaseVertex call per draw from the shared VAO, and the index of the draw is a constant
+ * vertex attribute.
+ *
+ * The buffers are orphaned at the first batch of a frame, the batches of a frame use consecutive ranges.
+ */
+public class DrawBatch {
+    private static final int DRAW_FLOATS = ShaderProgramADS.DRAW_DATA_TEXELS * 4;
+    /* count, instance count, first index, base vertex, base instance */
+    private static final int COMMAND_INTS = 5;
+
+    private Mesh[] meshes;
+    private ItemObject[] items;
+    private int size;
+
+    private FloatBuffer drawData;
+    private IntBuffer commands;
+    private int dataBufferId;
+    private int dataTextureId;
+    private int indirectBufferId;
+    private boolean multiDrawIndirect;
+
+    /* draws of the frame : capacity of the buffers, and first free draw */
+    private int frameDraws;
+    private int frameCapacity;
+    private int frameCursor;
+    private boolean frameStarted;
+
+    private int submissions;
+
+    public DrawBatch() {
+        meshes = new Mesh[64];
+        items = new ItemObject[64];
+    }
+
+    /**
+     * Start a new frame
+     *
+     * @param maxDraws an upper bound of the number of draws of the frame
+     */
+    public void beginFrame(int maxDraws) {
+        frameDraws = maxDraws;
+        frameCursor = 0;
+        frameStarted = false;
+        submissions = 0;
+    }
+
+    /**
+     * Add a draw to the batch (the mesh must be shared, and initialized)
+     *
+     * @param mesh the mesh
+     * @param item the item
+     */
+    public void add(Mesh mesh, ItemObject item) {
+        if (size == meshes.length) {
+            meshes = Arrays.copyOf(meshes, 2 * size);
+            items = Arrays.copyOf(items, 2 * size);
+        }
+        meshes[size] = mesh;
+        items[size] = item;
+        size++;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Submit the draws of the batch, with the (bound) program. The VAO of the arena must be bound.
+     *
+     * @param program the program, with per-draw data
+     */
+    public void flush(ShaderProgramADS program) {
+        if (size == 0) {
+            return;
+        }
+        if (!frameStarted) {
+            startFrame();
+        }
+        int first = frameCursor;
+        if (first + size > frameCapacity) {
+            // more draws than announced : restart from a new storage
+            frameDraws = Math.max(frameDraws, first + size);
+            startFrame();
+            first = 0;
+        }
+
+        drawData.clear();
+        for (int i = 0; i < size; i++) {
+            ItemObject item = items[i];
+            item.getModelMatrix().get(i * DRAW_FLOATS, drawData);
+            item.getNormalMatrix().get3x4(i * DRAW_FLOATS + 16, drawData);
+        }
+        drawData.limit(size * DRAW_FLOATS);
+        glBindBuffer(GL_TEXTURE_BUFFER, dataBufferId);
+        glBufferSubData(GL_TEXTURE_BUFFER, (long) first * DRAW_FLOATS * Float.BYTES, drawData);
+        glBindBuffer(GL_TEXTURE_BUFFER, 0);
+        glActiveTexture(GL_TEXTURE0 + ShaderProgramADS.DRAW_DATA_TEXTURE_UNIT);
+        glBindTexture(GL_TEXTURE_BUFFER, dataTextureId);
+        glActiveTexture(GL_TEXTURE0);
+        program.setupDrawData(ShaderProgramADS.DRAW_DATA_TEXTURE_UNIT);
+
+        GeometryArena arena = meshes[0].getArena();
+        if (multiDrawIndirect && arena.isMultiDrawIndirect()) {
+            arena.ensureDrawIndexCapacity(first + size);
+            commands.clear();
+            for (int i = 0; i < size; i++) {
+                Mesh mesh = meshes[i];
+                commands.put(mesh.getIndexCount())
+                        .put(1)
+                        .put((int) (mesh.getIndexOffset() / Integer.BYTES))
+                        .put(mesh.getBaseVertex())
+                        .put(first + i);
+            }
+            commands.flip();
+            glBindBuffer(GL_DRAW_INDIRECT_BUFFER, indirectBufferId);
+            glBufferSubData(GL_DRAW_INDIRECT_BUFFER, (long) first * COMMAND_INTS * Integer.BYTES, commands);
+            glMultiDrawElementsIndirect(GL_TRIANGLES, GL_UNSIGNED_INT, (long) first * COMMAND_INTS * Integer.BYTES, size, 0);
+            glBindBuffer(GL_DRAW_INDIRECT_BUFFER, 0);
+        } else {
+            for (int i = 0; i < size; i++) {
+                glVertexAttribI1i(ShaderProgramADS.DRAW_INDEX_LOCATION, first + i);
+                meshes[i].drawElements(GL_TRIANGLES);
+            }
+        }
+        submissions++;
+        frameCursor = first + size;
+        Arrays.fill(meshes, 0, size, null);
+        Arrays.fill(items, 0, size, null);
+        size = 0;
+    }
+
+    /**
+     * Orphan the buffers (they are grown if needed) : the draws of the previous frames may still read them
+     */
+    private void startFrame() {
+        if (dataBufferId == 0) {
+            GLCapabilities caps = GL.getCapabilities();
+            multiDrawIndirect = caps.OpenGL43 || (caps.GL_ARB_multi_draw_indirect && caps.GL_ARB_base_instance);
+            dataBufferId = glGenBuffers();
+            dataTextureId = glGenTextures();
+            if (multiDrawIndirect) {
+                indirectBufferId = glGenBuffers();
+            }
+        }
+        if (frameDraws > frameCapacity) {
+            frameCapacity = Math.max(frameDraws, 2 * frameCapacity);
+            drawData = BufferUtils.createFloatBuffer(frameCapacity * DRAW_FLOATS);
+            commands = BufferUtils.createIntBuffer(frameCapacity * COMMAND_INTS);
+        }
+        glBindBuffer(GL_TEXTURE_BUFFER, dataBufferId);
+        glBufferData(GL_TEXTURE_BUFFER, (long) frameCapacity * DRAW_FLOATS * Float.BYTES, GL_STREAM_DRAW);
+        glBindBuffer(GL_TEXTURE_BUFFER, 0);
+        glBindTexture(GL_TEXTURE_BUFFER, dataTextureId);
+        glTexBuffer(GL_TEXTURE_BUFFER, GL_RGBA32F, dataBufferId);
+        glBindTexture(GL_TEXTURE_BUFFER, 0);
+        if (multiDrawIndirect) {
+            glBindBuffer(GL_DRAW_INDIRECT_BUFFER, indirectBufferId);
+            glBufferData(GL_DRAW_INDIRECT_BUFFER, (long) frameCapacity * COMMAND_INTS * Integer.BYTES, GL_STREAM_DRAW);
+            glBindBuffer(GL_DRAW_INDIRECT_BUFFER, 0);
+        }
+        frameCursor = 0;
+        frameStarted = true;
+    }
+
+    /**
+     * @return the number of batches submitted during the frame
+     */
+    public int getSubmissions() {
+        return submissions;
+    }
+
+    public void cleanUp() {
+        if (dataBufferId == 0) {
+            return;
+        }
+        glDeleteTextures(dataTextureId);
+        glDeleteBuffers(dataBufferId);
+        if (indirectBufferId != 0) {
+            glDeleteBuffers(indirectBufferId);
+        }
+        dataTextureId = 0;
+        dataBufferId = 0;
+        indirectBufferId = 0;
+        frameCapacity = 0;
+    }
+}
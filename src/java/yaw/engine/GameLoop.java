@@ -9,13 +9,13 @@ import yaw.engine.items.ItemGroup;
 import yaw.engine.items.ItemObject;
 import yaw.engine.light.LightModel;
 import yaw.engine.mesh.Texture;
+import yaw.engine.mesh.TextureCache;
+import yaw.engine.resources.ModelLoader;
 import yaw.engine.shader.ShaderManager;
-import yaw.engine.shader.ShaderProgram;
 import yaw.engine.shader.ShaderProgramADS;
 import yaw.engine.skybox.Skybox;
 
 import java.util.Vector;
-import java.util.concurrent.ConcurrentHashMap;
 
 import static org.lwjgl.glfw.GLFW.glfwGetTime;
 import static org.lwjgl.opengl.GL11.glClearColor;
@@ -32,7 +32,10 @@ public class GameLoop implements Runnable {
     private Renderer mRenderer;
     private Vector<ItemGroup> mItemGroupArrayList;
     private Skybox mSkybox = null;
-    private ConcurrentHashMap<String, Texture> mStringTextureConcurrentHashMap;
+    /* the textures of the resources, shared by file name */
+    private final TextureCache mTextureCache;
+    /* the models loaded in the background, uploaded by the loop */
+    private final ModelLoader mModelLoader;
     private boolean mLoop;
     private int initX, initY, initWidth, initHeight;
     private boolean initVSYNC;
@@ -99,7 +102,8 @@ public class GameLoop implements Runnable {
         this.mSkyboxToBeRemoved = new Vector<>();
         this.mLoop = false;
         this.initVSYNC = true;
-        this.mStringTextureConcurrentHashMap = new ConcurrentHashMap<>();
+        this.mTextureCache = new TextureCache();
+        this.mModelLoader = new ModelLoader();
         this.updateCallback = null;
         this.inputCallback = null;
         initialized = false;
@@ -137,8 +141,16 @@ public class GameLoop implements Runnable {
         return mSceneRenderer.getLightModel();
     }
 
-    /* package */ synchronized Texture fetchTexture(String textureName) {
-        return mStringTextureConcurrentHashMap.get(textureName);
+    /* package */ Texture fetchTexture(String textureName) {
+        return mTextureCache.get(textureName);
+    }
+
+    /* package */ TextureCache getTextureCache() {
+        return mTextureCache;
+    }
+
+    /* package */ ModelLoader getModelLoader() {
+        return mModelLoader;
     }
 
     /* package */ synchronized void removeSkybox() {
@@ -298,6 +310,10 @@ public class GameLoop implements Runnable {
 
             glClearColor(bgndRed, bgndGreen, bgndBlue, 0.0f);
 
+            /* Upload the models loaded since the last frame (within the budget), outside of the critical
+               section : the completed futures may add items to the scene */
+            mModelLoader.update();
+
            /*  Input of critical section, allows to protect the creation of our logic of Game .
                1 Maximum thread in Synchronize -> mutual exclusion.*/
             synchronized (mSceneRenderer) {
@@ -305,6 +321,8 @@ public class GameLoop implements Runnable {
                 //mSceneRenderer.getLightModel().renderShadowMap(mSceneRenderer, mCamera, shaderManager);
                 mRenderer.render(mSceneRenderer, isResized, mCamera, mSkybox, shaderManager);
             }
+            /* The textures no longer drawn are kept within the budget */
+            mTextureCache.evict();
 
            /*  Rendered with vSync (vertical Synchronization)
                Update the window's picture */
@@ -316,15 +334,13 @@ public class GameLoop implements Runnable {
     private void initShaderManager() {
         shaderManager = new ShaderManager();
         // register helpers
-        ShaderProgram helper = new HelperVerticesShaders();
-        helper.init();
-        shaderManager.register("VertexHelper", helper);
-        helper = new HelperNormalsShaders();
-        helper.init();
-        shaderManager.register("NormalHelper", helper);
-        helper = new HelperAxesShaders();
-        helper.init();
-        shaderManager.register("AxisHelper", helper);
+        shaderManager.create("VertexHelper", new HelperVerticesShaders());
+        shaderManager.create("NormalHelper", new HelperNormalsShaders());
+        shaderManager.create("AxisHelper", new HelperAxesShaders());
+        // compile (or load) the mesh programs now rather than at their first frame
+        if (mSceneRenderer != null) {
+            shaderManager.prewarm(mSceneRenderer.getLightModel(), mSceneRenderer.isDeferred());
+        }
     }
 
     public void installScene(SceneRenderer sceneRenderer) {
@@ -351,6 +367,8 @@ public class GameLoop implements Runnable {
         /* Deallocations renderer, SceneVertex and Skybox. */
         //mRenderer.cleanUp();
         cleanupScene();
+        mTextureCache.cleanUp();
+        mModelLoader.cleanUp();
 
         if (mSkybox != null) mSkybox.cleanUp();
         /* Deallocation of the window's resources. */
@@ -0,0 +1,326 @@
+package yaw.engine;
+
+import org.joml.Vector3f;
+import yaw.engine.camera.Camera;
+import yaw.engine.items.ItemObject;
+import yaw.engine.mesh.Material;
+import yaw.engine.mesh.Mesh;
+import yaw.engine.mesh.Texture;
+import yaw.engine.mesh.TextureLoader;
+import yaw.engine.shader.ShaderProgramADS;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The draws of a frame, sorted by rendering state.
+ *
+ * Each draw (an item, or a whole batch for instanced meshes) is given a packed 64-bit key,
+ * from the most significant to the least significant bits :
+ * <pre>
+ *   program (12 bits) | texture (12 bits) | material (12 bits) | VAO (12 bits) | depth (16 bits)
+ * </pre>
+ * The keys are radix-sorted once per frame, so that the draws sharing a program, a texture, etc.
+ * are consecutive (and front to back within a state), and the states are only changed at the boundaries.
+ * The key fields are truncated identifiers : a collision only makes the grouping less efficient,
+ * the submission compares the actual objects.
+ *
+ * The consecutive draws of shared meshes (same program, texture, material and arena VAO)
+ * are gathered in a {@link DrawBatch}, submitted when the state changes.
+ */
+public class RenderQueue {
+    private static final int PROGRAM_SHIFT = 52;
+    private static final int TEXTURE_SHIFT = 40;
+    private static final int MATERIAL_SHIFT = 28;
+    private static final int VAO_SHIFT = 16;
+    private static final long FIELD_MASK = 0xFFFL;
+    private static final int DEPTH_MAX = 0xFFFF;
+
+    private static final int RADIX_BITS = 8;
+    private static final int RADIX_SIZE = 1 << RADIX_BITS;
+    private static final int RADIX_PASSES = Long.SIZE / RADIX_BITS;
+
+    /* the draws, the keys are sorted together with the index of the draw */
+    private long[] keys;
+    private int[] order;
+    private ShaderProgramADS[] programs;
+    private Mesh[] meshes;
+    private ItemObject[] items;
+    private List<ItemObject>[] batches;
+    private int size;
+
+    /* sort buffers */
+    private long[] tmpKeys;
+    private int[] tmpOrder;
+    private final int[] histograms;
+
+    /* depth quantization */
+    private final Vector3f cameraPosition;
+    private float depthScale;
+
+    private int programSwitches;
+    private int textureSwitches;
+
+    private final DrawBatch drawBatch;
+    /* the textures are loaded asynchronously if set, synchronously otherwise */
+    private TextureLoader textureLoader;
+
+    public RenderQueue() {
+        histograms = new int[RADIX_PASSES * RADIX_SIZE];
+        drawBatch = new DrawBatch();
+        cameraPosition = new Vector3f();
+        allocate(256);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        order = new int[capacity];
+        tmpKeys = new long[capacity];
+        tmpOrder = new int[capacity];
+        programs = new ShaderProgramADS[capacity];
+        meshes = new Mesh[capacity];
+        items = new ItemObject[capacity];
+        batches = (List<ItemObject>[]) new List[capacity];
+    }
+
+    private void ensureCapacity() {
+        if (size < keys.length) {
+            return;
+        }
+        int capacity = keys.length * 2;
+        keys = Arrays.copyOf(keys, capacity);
+        order = Arrays.copyOf(order, capacity);
+        tmpKeys = new long[capacity];
+        tmpOrder = new int[capacity];
+        programs = Arrays.copyOf(programs, capacity);
+        meshes = Arrays.copyOf(meshes, capacity);
+        items = Arrays.copyOf(items, capacity);
+        batches = Arrays.copyOf(batches, capacity);
+    }
+
+    /**
+     * Empty the queue for a new frame.
+     *
+     * @param pCamera the camera of the frame (for the depth of the draws)
+     */
+    public void begin(Camera pCamera) {
+        // release the references of the previous frame
+        Arrays.fill(items, 0, size, null);
+        Arrays.fill(batches, 0, size, null);
+        size = 0;
+        pCamera.getPosition(cameraPosition);
+        depthScale = DEPTH_MAX / Math.max(pCamera.getzFar(), 1.0e-3f);
+    }
+
+    /**
+     * Add the draw of a single item.
+     *
+     * @param program the program of the mesh
+     * @param mesh    the mesh of the item
+     * @param item    the item
+     */
+    public void add(ShaderProgramADS program, Mesh mesh, ItemObject item) {
+        float distance = cameraPosition.distance(item.getWorldSphereCenter()) - item.getWorldSphereRadius();
+        push(program, mesh, item, null, distance);
+    }
+
+    /**
+     * Add the draw of all the (visible) items of an instanced mesh.
+     * The batch is not depth-sorted : it is drawn first among the draws with the same state.
+     *
+     * @param program the program of the mesh
+     * @param mesh    the mesh, in instanced mode
+     * @param batch   the items of the mesh
+     */
+    public void addBatch(ShaderProgramADS program, Mesh mesh, List<ItemObject> batch) {
+        push(program, mesh, null, batch, 0);
+    }
+
+    private void push(ShaderProgramADS program, Mesh mesh, ItemObject item, List<ItemObject> batch, float distance) {
+        ensureCapacity();
+        mesh.retainTexture();
+        programs[size] = program;
+        meshes[size] = mesh;
+        items[size] = item;
+        batches[size] = batch;
+        keys[size] = makeKey(program, mesh, distance);
+        order[size] = size;
+        size++;
+    }
+
+    private long makeKey(ShaderProgramADS program, Mesh mesh, float distance) {
+        Material material = mesh.getMaterial();
+        Texture texture = material != null ? material.getTexture() : null;
+        int textureId = texture != null && texture.isActivated() ? texture.getId() : 0;
+        int materialId = material != null ? material.getId() : 0;
+        long depth = (long) Math.min(Math.max(distance * depthScale, 0), DEPTH_MAX);
+        return ((program.getProgramId() & FIELD_MASK) << PROGRAM_SHIFT)
+                | ((textureId & FIELD_MASK) << TEXTURE_SHIFT)
+                | ((materialId & FIELD_MASK) << MATERIAL_SHIFT)
+                | ((mesh.getVaoId() & FIELD_MASK) << VAO_SHIFT)
+                | depth;
+    }
+
+    /**
+     * Sort the draws by key : LSD radix sort on 8-bit digits,
+     * the passes on digits shared by all the keys are skipped.
+     */
+    public void sort() {
+        Arrays.fill(histograms, 0);
+        for (int i = 0; i < size; i++) {
+            long key = keys[i];
+            for (int pass = 0; pass < RADIX_PASSES; pass++) {
+                histograms[pass * RADIX_SIZE + (int) ((key >>> (pass * RADIX_BITS)) & (RADIX_SIZE - 1))]++;
+            }
+        }
+        long[] srcKeys = keys;
+        int[] srcOrder = order;
+        long[] dstKeys = tmpKeys;
+        int[] dstOrder = tmpOrder;
+        for (int pass = 0; pass < RADIX_PASSES; pass++) {
+            int base = pass * RADIX_SIZE;
+            int shift = pass * RADIX_BITS;
+            if (size == 0 || histograms[base + (int) ((srcKeys[0] >>> shift) & (RADIX_SIZE - 1))] == size) {
+                continue;
+            }
+            // prefix sums : offset of each digit
+            int offset = 0;
+            for (int d = 0; d < RADIX_SIZE; d++) {
+                int count = histograms[base + d];
+                histograms[base + d] = offset;
+                offset += count;
+            }
+            for (int i = 0; i < size; i++) {
+                long key = srcKeys[i];
+                int dst = histograms[base + (int) ((key >>> shift) & (RADIX_SIZE - 1))]++;
+                dstKeys[dst] = key;
+                dstOrder[dst] = srcOrder[i];
+            }
+            long[] swapKeys = srcKeys;
+            srcKeys = dstKeys;
+            dstKeys = swapKeys;
+            int[] swapOrder = srcOrder;
+            srcOrder = dstOrder;
+            dstOrder = swapOrder;
+        }
+        keys = srcKeys;
+        order = srcOrder;
+        tmpKeys = dstKeys;
+        tmpOrder = dstOrder;
+    }
+
+    /**
+     * Render the (sorted) draws. The program, the texture, the material and the VAO
+     * are only changed when they differ from the previous draw, and the pending batch
+     * of shared meshes is submitted before any change.
+     */
+    public void submit() {
+        programSwitches = 0;
+        textureSwitches = 0;
+        drawBatch.beginFrame(size);
+        ShaderProgramADS currentProgram = null;
+        Material currentMaterial = null;
+        Texture currentTexture = null;
+        boolean textureBound = false;
+        Mesh currentMesh = null;
+        int currentVao = 0;
+        for (int i = 0; i < size; i++) {
+            int draw = order[i];
+            ShaderProgramADS program = programs[draw];
+            Mesh mesh = meshes[draw];
+            if (program != currentProgram) {
+                drawBatch.flush(currentProgram);
+                /* The camera and the lights are shared uniform blocks, only the program is bound */
+                program.bind();
+                currentProgram = program;
+                // the material and vertex format uniforms belong to the program
+                currentMaterial = null;
+                currentMesh = null;
+                programSwitches++;
+            }
+            Material material = mesh.getMaterial();
+            Texture texture = material != null ? material.getTexture() : null;
+            if (!textureBound || texture != currentTexture) {
+                drawBatch.flush(currentProgram);
+                if (textureLoader != null) {
+                    mesh.bindTexture(textureLoader);
+                } else {
+                    mesh.bindTexture();
+                }
+                currentTexture = texture;
+                textureBound = true;
+                textureSwitches++;
+            }
+            if (material != currentMaterial) {
+                drawBatch.flush(currentProgram);
+                mesh.setupMaterial(program);
+                currentMaterial = material;
+            }
+            if (mesh != currentMesh) {
+                if (mesh.isShared()) {
+                    mesh.refreshVertexLayout();
+                }
+                // the shared meshes of an arena have the same VAO
+                if (!mesh.isShared() || mesh.getVaoId() != currentVao) {
+                    drawBatch.flush(currentProgram);
+                    mesh.bindVertexArray();
+                    currentVao = mesh.getVaoId();
+                }
+                mesh.setupVertexFormat(program);
+                currentMesh = mesh;
+            }
+            if (items[draw] == null) {
+                mesh.renderItems(batches[draw], program);
+            } else if (mesh.isShared()) {
+                drawBatch.add(mesh, items[draw]);
+            } else {
+                mesh.renderItem(items[draw], program);
+            }
+        }
+        drawBatch.flush(currentProgram);
+        if (currentMesh != null) {
+            currentMesh.unbindVertexArray();
+            currentProgram.unbind();
+        }
+    }
+
+    /**
+     * @return the number of draws in the queue
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of program changes during the last submission
+     */
+    public int getProgramSwitches() {
+        return programSwitches;
+    }
+
+    /**
+     * @return the number of texture changes during the last submission
+     */
+    public int getTextureSwitches() {
+        return textureSwitches;
+    }
+
+    /**
+     * @return the number of batches of shared meshes submitted during the last submission
+     */
+    public int getBatchSubmissions() {
+        return drawBatch.getSubmissions();
+    }
+
+    /**
+     * @param textureLoader the loader of the textures of the draws, or null to load them synchronously
+     */
+    public void setTextureLoader(TextureLoader textureLoader) {
+        this.textureLoader = textureLoader;
+    }
+
+    public void cleanUp() {
+        drawBatch.cleanUp();
+    }
+}
@@ -26,10 +26,7 @@ public class Renderer {
      */
     public void render(SceneRenderer pSceneRenderer, boolean isResized, Camera pCamera, Skybox pSkybox, ShaderManager shaderManager) {
 
-        //Preparation of the camera
-        if (isResized || pSceneRenderer.isItemAdded()) {
-            pCamera.updateProjectionMat();
-        }
+        /* The camera matrices are cached, and updated by the camera itself when the window is resized. */
 
         /* Initialization of the window we currently use. */
         glViewport(0, 0, Window.getWidth(), Window.getHeight());
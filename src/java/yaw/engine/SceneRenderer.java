@@ -1,19 +1,29 @@
 package yaw.engine;
 
 
-import org.joml.Matrix4f;
 import yaw.engine.camera.Camera;
+import yaw.engine.culling.FrustumCuller;
+import yaw.engine.culling.OcclusionBuffer;
+import yaw.engine.helper.HelperAxesShaders;
+import yaw.engine.helper.HelperNormalsShaders;
+import yaw.engine.helper.HelperShaders;
 import yaw.engine.items.ItemObject;
+import yaw.engine.light.LightClusters;
 import yaw.engine.light.LightModel;
+import yaw.engine.mesh.GeometryArena;
+import yaw.engine.mesh.LodChain;
 import yaw.engine.mesh.Mesh;
+import yaw.engine.mesh.TextureLoader;
+import yaw.engine.shader.CameraBlock;
+import yaw.engine.shader.ClusterBlock;
+import yaw.engine.shader.LightBlock;
 import yaw.engine.shader.ShaderManager;
-import yaw.engine.shader.ShaderProgram;
 import yaw.engine.shader.ShaderProgramADS;
-import yaw.engine.shader.ShaderProperties;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Class representing a scene
@@ -29,11 +39,60 @@ public class SceneRenderer {
 
     private final LightModel lightModel;
 
+    private final FrustumCuller frustumCuller;
+    /* CPU occlusion culling (created when the first occluder is found) */
+    private OcclusionBuffer occlusionBuffer;
+    private boolean occlusionCulling;
+    /* the visible items of each mesh (the lists are reused from one frame to the next) */
+    private final HashMap<Mesh, List<ItemObject>> mVisibleMap;
+    /* the items kept by the frustum and the occlusion culling at the last frame */
+    private int renderedCount;
+
+    private final RenderQueue renderQueue;
+    /* the textures are decoded by workers, and uploaded at the beginning of the frames */
+    private final TextureLoader textureLoader;
+
+    /* the camera and the lights, shared by all the programs (created at first rendering) */
+    private CameraBlock cameraBlock;
+    private LightBlock lightBlock;
+    /* the light clusters (clustered light models only), and the camera and the lights they were binned for */
+    private LightClusters lightClusters;
+    private ClusterBlock clusterBlock;
+    private Camera clusteredCamera;
+    private long clusteredCameraVersion;
+    private long clusteredLightsVersion;
+    /* deferred shading (created at first rendering in deferred mode) */
+    private boolean deferred;
+    private DeferredRenderer deferredRenderer;
+
+    /* per-frame working lists */
+    private final List<Mesh> meshesToRemove;
+    private final List<ItemObject> vertexHelpers;
+    private final List<ItemObject> normalHelpers;
+    private final List<ItemObject> axisHelpers;
+    private final List<Mesh> dynamicMeshes;
+    /* the visible items of each level of detail of instanced meshes, and the programs of the levels */
+    private final HashMap<Mesh, List<ItemObject>> mLodBatches;
+    private ShaderProgramADS[] lodPrograms;
+
 
     public SceneRenderer(LightModel lightModel) {
         mMeshMap = new HashMap<>();
         notInit = new ArrayList<>();
         this.lightModel = lightModel;
+        frustumCuller = new FrustumCuller();
+        occlusionCulling = true;
+        mVisibleMap = new HashMap<>();
+        renderQueue = new RenderQueue();
+        textureLoader = new TextureLoader();
+        renderQueue.setTextureLoader(textureLoader);
+        meshesToRemove = new ArrayList<>();
+        vertexHelpers = new ArrayList<>();
+        normalHelpers = new ArrayList<>();
+        axisHelpers = new ArrayList<>();
+        dynamicMeshes = new ArrayList<>();
+        mLodBatches = new HashMap<>();
+        lodPrograms = new ShaderProgramADS[4];
     }
 
     /**
@@ -73,6 +132,28 @@ public class SceneRenderer {
         for (Mesh lMesh : mMeshMap.keySet()) {
             lMesh.cleanUp();
         }
+        renderQueue.cleanUp();
+        textureLoader.cleanUp();
+        GeometryArena.cleanUpAll();
+        if (occlusionBuffer != null) {
+            occlusionBuffer.cleanUp();
+            occlusionBuffer = null;
+        }
+        if (cameraBlock != null) {
+            cameraBlock.cleanUp();
+            lightBlock.cleanUp();
+            cameraBlock = null;
+            lightBlock = null;
+        }
+        if (clusterBlock != null) {
+            clusterBlock.cleanUp();
+            clusterBlock = null;
+            clusteredCamera = null;
+        }
+        if (deferredRenderer != null) {
+            deferredRenderer.cleanUp();
+            deferredRenderer = null;
+        }
     }
 
     /**
@@ -96,68 +177,240 @@ public class SceneRenderer {
 
         /* Rendering of meshes */
 
-        //ShaderProgram shaderProgram =shaderManager.fetch("ADS");
-        List<Mesh> meshesToRemove = new ArrayList<>();
-
-        for (Mesh mesh : mMeshMap.keySet()) {
-            ShaderProperties meshProps = mesh.getShaderProperties(lightModel);
-            // TODO : ugly cast, fix when support for e.g. PBR materials
-            ShaderProgramADS meshProgram = (ShaderProgramADS) shaderManager.fetch(meshProps);
-            if (meshProgram == null) {
-                // create a shader program for this scene / mesh
-                meshProgram = new ShaderProgramADS(meshProps);
-                shaderManager.register(meshProps, meshProgram);
-                meshProgram.init();
-            }
-            /* Setup lights */
-            lightModel.setupShader(new Matrix4f().identity(), meshProgram);
-
-            List<ItemObject> lItems = mMeshMap.get(mesh);
-            List<ItemObject> vertexHelpers = new ArrayList<>();
-            List<ItemObject> normalHelpers = new ArrayList<>();
-            List<ItemObject> axisHelpers = new ArrayList<>();
+        meshesToRemove.clear();
+        dynamicMeshes.clear();
+        renderedCount = 0;
+
+        /* Upload the textures decoded since the last frame (within the budget) */
+        textureLoader.update();
+
+        frustumCuller.beginFrame(pCamera);
+        renderQueue.begin(pCamera);
+        boolean withOcclusion = occlusionCulling && rasterizeOccluders(pCamera);
+
+        /* Per-frame uniforms : camera, and lights if they changed */
+        if (cameraBlock == null) {
+            cameraBlock = new CameraBlock();
+            lightBlock = new LightBlock(lightModel);
+        }
+        cameraBlock.update(pCamera);
+        long lightsVersion = lightModel.update();
+        lightBlock.update(lightModel);
+        if (lightModel.clustered && !deferred) {
+            updateClusters(pCamera, lightsVersion);
+        }
+
+        for (Map.Entry<Mesh, List<ItemObject>> entry : mMeshMap.entrySet()) {
+            Mesh mesh = entry.getKey();
+            List<ItemObject> lItems = entry.getValue();
             if (lItems.isEmpty()) {
                 meshesToRemove.add(mesh);
-            } else {
-                if (notInit.contains(mesh)) {
-                    mesh.initBuffers();
-                    notInit.remove(mesh);
-                }
-                mesh.renderSetup(pCamera, meshProgram);
-                for (ItemObject item : lItems) {
-                    mesh.renderItem(item, meshProgram);
-                    if (item.showVertexHelpers()) {
-                        vertexHelpers.add(item);
-                    }
-                    if (item.showNormalHelpers()) {
-                        normalHelpers.add(item);
-                    }
-                    if (item.showAxisHelpers()) {
-                        axisHelpers.add(item);
-                    }
+                continue;
+            }
+
+            /* Culling, before any state is set */
+            List<ItemObject> visibleItems = mVisibleMap.computeIfAbsent(mesh, m -> new ArrayList<>());
+            visibleItems.clear();
+            for (ItemObject item : lItems) {
+                if (frustumCuller.isVisible(item)
+                        && (!withOcclusion || item.isOccluder() || occlusionBuffer.isVisible(item))) {
+                    visibleItems.add(item);
                 }
+            }
+            if (visibleItems.isEmpty()) {
+                continue;
+            }
+            renderedCount += visibleItems.size();
+
+            // the meshes of the models loaded in the background are already uploaded
+            if (notInit.remove(mesh) && !mesh.isInitialized()) {
+                mesh.initBuffers();
+            }
+            if (mesh.isDynamic()) {
+                // stream the updates of the geometry before the draws
+                mesh.commitUpdates();
+                dynamicMeshes.add(mesh);
+            }
 
-                mesh.renderCleanup(meshProgram);
+            LodChain lodChain = mesh.getLodChain();
+            if (lodChain != null) {
+                enqueueLevels(lodChain, visibleItems, shaderManager);
+                continue;
+            }
 
-                if (!vertexHelpers.isEmpty()) {
-                    mesh.renderHelperVertices(vertexHelpers, pCamera, shaderManager.fetch("VertexHelper"));
-                }
-                if (!normalHelpers.isEmpty()) {
-                    mesh.renderHelperNormals(normalHelpers, pCamera, shaderManager.fetch("NormalHelper"));
-                }
-                if (!axisHelpers.isEmpty()) {
-                    mesh.renderHelperAxes(axisHelpers, pCamera, shaderManager.fetch("AxisHelper"));
+            ShaderProgramADS meshProgram = fetchProgram(mesh, shaderManager);
+            if (mesh.isInstanced()) {
+                renderQueue.addBatch(meshProgram, mesh, visibleItems);
+            } else {
+                for (ItemObject item : visibleItems) {
+                    renderQueue.add(meshProgram, mesh, item);
                 }
             }
         }
+
+        /* Draw, sorted by state */
+        renderQueue.sort();
+        if (deferred) {
+            if (deferredRenderer == null) {
+                deferredRenderer = new DeferredRenderer();
+            }
+            deferredRenderer.beginGeometryPass();
+            renderQueue.submit();
+            deferredRenderer.lightPasses(pCamera, lightModel);
+        } else {
+            if (clusterBlock != null) {
+                clusterBlock.bindTextures();
+            }
+            renderQueue.submit();
+        }
+
         /*Clean then remove*/
         for (Mesh lMesh : meshesToRemove) {
+            LodChain lodChain = lMesh.getLodChain();
+            if (lodChain != null) {
+                for (int level = 0; level < lodChain.getLevelCount(); level++) {
+                    mLodBatches.remove(lodChain.getLevel(level));
+                }
+            }
             lMesh.cleanUp();
             mMeshMap.remove(lMesh);
+            mVisibleMap.remove(lMesh);
+        }
+
+        /* Helpers, on top of the scene */
+        for (Map.Entry<Mesh, List<ItemObject>> entry : mVisibleMap.entrySet()) {
+            Mesh mesh = entry.getKey();
+            vertexHelpers.clear();
+            normalHelpers.clear();
+            axisHelpers.clear();
+            for (ItemObject item : entry.getValue()) {
+                if (item.showVertexHelpers()) {
+                    vertexHelpers.add(item);
+                }
+                if (item.showNormalHelpers()) {
+                    normalHelpers.add(item);
+                }
+                if (item.showAxisHelpers()) {
+                    axisHelpers.add(item);
+                }
+            }
+            if (!vertexHelpers.isEmpty()) {
+                mesh.renderHelperVertices(vertexHelpers, pCamera, (HelperShaders) shaderManager.fetch("VertexHelper"));
+            }
+            if (!normalHelpers.isEmpty()) {
+                mesh.renderHelperNormals(normalHelpers, pCamera, (HelperNormalsShaders) shaderManager.fetch("NormalHelper"));
+            }
+            if (!axisHelpers.isEmpty()) {
+                mesh.renderHelperAxes(axisHelpers, pCamera, (HelperAxesShaders) shaderManager.fetch("AxisHelper"));
+            }
+        }
+
+        /* The streamed buffers of the frame must not be overwritten until the GPU is done with them */
+        for (Mesh mesh : dynamicMeshes) {
+            mesh.fenceUpdates();
         }
 
     }
 
+    /**
+     * Bin the lights in the clusters and upload them, if the camera or the lights changed since the last binning
+     */
+    private void updateClusters(Camera pCamera, long lightsVersion) {
+        if (clusterBlock == null) {
+            lightClusters = new LightClusters();
+            clusterBlock = new ClusterBlock();
+        }
+        // the version of the camera also changes with its projection
+        if (pCamera == clusteredCamera && pCamera.getVersion() == clusteredCameraVersion
+                && lightsVersion == clusteredLightsVersion) {
+            return;
+        }
+        lightClusters.update(pCamera.getViewMat(), pCamera.getProjectionMat(), pCamera.getzNear(), pCamera.getzFar(), lightModel);
+        clusterBlock.update(lightClusters);
+        clusteredCamera = pCamera;
+        clusteredCameraVersion = pCamera.getVersion();
+        clusteredLightsVersion = lightsVersion;
+    }
+
+    /**
+     * Rasterize the occluders of the scene in the occlusion buffer
+     *
+     * @return true if there are occluders
+     */
+    private boolean rasterizeOccluders(Camera pCamera) {
+        boolean withOccluders = false;
+        for (List<ItemObject> lItems : mMeshMap.values()) {
+            for (ItemObject item : lItems) {
+                if (!item.isOccluder()) {
+                    continue;
+                }
+                if (!withOccluders) {
+                    if (occlusionBuffer == null) {
+                        occlusionBuffer = new OcclusionBuffer();
+                    }
+                    occlusionBuffer.beginFrame(pCamera.getWorldMat());
+                    withOccluders = true;
+                }
+                occlusionBuffer.addOccluder(item);
+            }
+        }
+        if (withOccluders) {
+            occlusionBuffer.rasterize();
+        }
+        return withOccluders;
+    }
+
+    /**
+     * Select the level of detail of the visible items of a mesh from their size on screen,
+     * and add the draws of each level to the queue.
+     */
+    private void enqueueLevels(LodChain lodChain, List<ItemObject> visibleItems, ShaderManager shaderManager) {
+        int levelCount = lodChain.getLevelCount();
+        if (lodPrograms.length < levelCount) {
+            lodPrograms = new ShaderProgramADS[levelCount];
+        }
+        for (int level = 0; level < levelCount; level++) {
+            lodPrograms[level] = null;
+        }
+        boolean instanced = lodChain.getLevel(0).isInstanced();
+        for (ItemObject item : visibleItems) {
+            int level = lodChain.selectLevel(frustumCuller.getScreenSize(item), item.getLodLevel());
+            item.setLodLevel(level);
+            Mesh levelMesh = lodChain.getLevel(level);
+            if (lodPrograms[level] == null) {
+                // first item of the level in this frame
+                if (!levelMesh.isInitialized()) {
+                    levelMesh.initBuffers();
+                }
+                lodPrograms[level] = fetchProgram(levelMesh, shaderManager);
+                if (instanced) {
+                    mLodBatches.computeIfAbsent(levelMesh, m -> new ArrayList<>()).clear();
+                }
+            }
+            if (instanced) {
+                mLodBatches.get(levelMesh).add(item);
+            } else {
+                renderQueue.add(lodPrograms[level], levelMesh, item);
+            }
+        }
+        if (instanced) {
+            for (int level = 0; level < levelCount; level++) {
+                if (lodPrograms[level] != null) {
+                    Mesh levelMesh = lodChain.getLevel(level);
+                    renderQueue.addBatch(lodPrograms[level], levelMesh, mLodBatches.get(levelMesh));
+                }
+            }
+        }
+    }
+
+    /**
+     * Fetch the program of a mesh, for the current lights,
+     * the program is created and registered at first use.
+     */
+    private ShaderProgramADS fetchProgram(Mesh mesh, ShaderManager shaderManager) {
+        return shaderManager.fetchOrCreate(mesh.getShaderProperties(lightModel, deferred));
+    }
+
     /**
      * Retrieve all the items of the scene
      *
@@ -180,4 +433,93 @@ public class SceneRenderer {
     public LightModel getLightModel() {
         return lightModel;
     }
+
+    /**
+     * Get the view-frustum culler of the scene, e.g. to disable culling or
+     * to set its screen-size threshold.
+     *
+     * @return the frustum culler
+     */
+    public FrustumCuller getFrustumCuller() {
+        return frustumCuller;
+    }
+
+    /**
+     * @return the number of items culled by the frustum during the last frame
+     */
+    public int getCulledCount() {
+        return frustumCuller.getCulledCount();
+    }
+
+    /**
+     * @return the number of items rendered during the last frame : the items that passed the frustum test,
+     * minus the items hidden by the occluders (see {@link #getOccludedCount()})
+     */
+    public int getVisibleCount() {
+        return renderedCount;
+    }
+
+    /**
+     * @return the number of program changes during the last frame
+     */
+    public int getProgramSwitches() {
+        return renderQueue.getProgramSwitches();
+    }
+
+    /**
+     * @return the number of texture changes during the last frame
+     */
+    public int getTextureSwitches() {
+        return renderQueue.getTextureSwitches();
+    }
+
+    /**
+     * @return the loader of the textures (e.g. to change its budget of bytes per frame)
+     */
+    public TextureLoader getTextureLoader() {
+        return textureLoader;
+    }
+
+    public boolean isOcclusionCulling() {
+        return occlusionCulling;
+    }
+
+    /**
+     * Enable or disable the occlusion culling (enabled by default, it only applies when
+     * some items are occluders, see {@link ItemObject#setOccluder(boolean)})
+     *
+     * @param occlusionCulling true to enable the occlusion culling
+     */
+    public void setOcclusionCulling(boolean occlusionCulling) {
+        this.occlusionCulling = occlusionCulling;
+    }
+
+    /**
+     * @return the number of items hidden by the occluders during the last frame
+     */
+    public int getOccludedCount() {
+        return occlusionBuffer != null && occlusionCulling ? occlusionBuffer.getOccludedCount() : 0;
+    }
+
+    public boolean isDeferred() {
+        return deferred;
+    }
+
+    /**
+     * Select the deferred renderer (G-buffer, then light volumes) instead of the forward renderer (default).
+     * The deferred renderer suits the scenes with many point and spot lights : the cost of a light
+     * only depends on the pixels it covers, and the maximum numbers of lights are not compiled in the programs.
+     *
+     * @param deferred true for deferred shading
+     */
+    public void setDeferred(boolean deferred) {
+        this.deferred = deferred;
+    }
+
+    /**
+     * @return the number of batches of shared meshes submitted during the last frame
+     */
+    public int getBatchSubmissions() {
+        return renderQueue.getBatchSubmissions();
+    }
 }
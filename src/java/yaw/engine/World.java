@@ -10,11 +10,14 @@ import yaw.engine.items.ItemObject;
 import yaw.engine.light.LightModel;
 import yaw.engine.mesh.Material;
 import yaw.engine.mesh.Mesh;
-import yaw.engine.mesh.Texture;
+import yaw.engine.mesh.TextureAtlas;
+import yaw.engine.mesh.TextureCache;
 import yaw.engine.mesh.strategy.DefaultDrawingStrategy;
+import yaw.engine.resources.ModelLoader;
 import yaw.engine.skybox.Skybox;
 
 import java.util.Vector;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * This is the facade of the engine, most Clojure calls are
@@ -27,6 +30,8 @@ public class World  {
     private Thread mloopThread = null;
     private boolean isRunning = false;
     private boolean sceneInstalled = false;
+    /* the images packed in a shared texture (null if none) */
+    private volatile TextureAtlas textureAtlas;
 
     /**
      * Initializes the elements to create the window
@@ -117,6 +122,54 @@ public class World  {
         sceneInstalled = true;
     }
 
+    /**
+     * @return the cache of the textures (e.g. to change its memory budget)
+     */
+    public TextureCache getTextureCache() {
+        return gameLoop.getTextureCache();
+    }
+
+    /**
+     * @return the memory used by the resident textures of the cache, in bytes
+     */
+    public long getTextureMemoryUsage() {
+        return gameLoop.getTextureCache().getMemoryUsage();
+    }
+
+    /**
+     * Pack the textures of the next meshes in an atlas : the meshes created with one of its images
+     * (and texture coordinates in [0, 1]) share its texture, and are drawn without texture changes
+     *
+     * @param atlas the atlas, or null to stop packing
+     */
+    public void installTextureAtlas(TextureAtlas atlas) {
+        this.textureAtlas = atlas;
+    }
+
+    /**
+     * Load an OBJ model in the background : it is parsed by the workers of the {@link ModelLoader},
+     * and its meshes are uploaded by the game loop, within a budget per frame.
+     * The meshes are not added to the scene (see {@link #createItemObject}).
+     *
+     * @param path        the OBJ file, or a resource if there is no such file
+     * @param withShadows true if the materials of the meshes cast shadows
+     * @return the future meshes, completed by the thread of the game loop once uploaded
+     */
+    public CompletableFuture<Mesh[]> loadModelAsync(String path, boolean withShadows) {
+        return gameLoop.getModelLoader().load(path, withShadows);
+    }
+
+    public CompletableFuture<Mesh[]> loadModelAsync(String path) {
+        return loadModelAsync(path, false);
+    }
+
+    /**
+     * @return the loader of the models (e.g. to change its upload budget)
+     */
+    public ModelLoader getModelLoader() {
+        return gameLoop.getModelLoader();
+    }
+
     /**
      * Create an item with the specified parameters and add it to the  world
      *
@@ -158,14 +211,13 @@ public class World  {
         Material lMaterial = new Material(lMaterialColor);
         
         //Texture part
-        if (pTextureName != null && !(pTextureName.matches("Material.*") || pTextureName.isEmpty())) {
-            Texture lTexture = gameLoop.fetchTexture(pTextureName);
-            if (lTexture == null) {
-                lTexture = new Texture(pTextureName);
-            } else {
-                System.err.println("[Warning] Texture not found: " + pTextureName);
-            }
-            lMaterial.setTexture(lTexture);
+        TextureAtlas atlas = textureAtlas;
+        if (atlas != null && pTextureName != null && pTextCoords != null && atlas.accepts(pTextureName, pTextCoords)) {
+            lMaterial.setTexture(atlas.getTexture());
+            pTextCoords = atlas.remap(pTextureName, pTextCoords);
+        } else if (pTextureName != null && !(pTextureName.matches("Material.*") || pTextureName.isEmpty())) {
+            // shared with the other meshes of the same file
+            lMaterial.setTexture(gameLoop.fetchTexture(pTextureName));
         }
         Geometry geom = new Geometry(pVertices, pTextCoords, pNormals, pIndices);
         Mesh lMesh = new Mesh(geom, lMaterial);
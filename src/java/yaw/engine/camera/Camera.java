@@ -1,5 +1,6 @@
 package yaw.engine.camera;
 
+import org.joml.FrustumIntersection;
 import org.joml.Matrix4f;
 import org.joml.Vector3f;
 import yaw.engine.Window;
@@ -8,10 +9,27 @@ import yaw.engine.Window;
  * Class which will hold the position and rotation state of our camera.
  * To move from a world described in 3D to a window with 2D pixels we must lose a dimension and therefore project.
  * The perspective is defined by the pyramid clipping.
+ *
+ * The derived matrices (view, projection, view-projection) and the frustum planes are cached :
+ * they are only recomputed when the camera matrix, the perspective parameters or the aspect ratio
+ * of the window change, and each change increments the version of the camera.
+ * The returned matrices are owned by the camera and must not be modified
+ * (except the camera matrix, whose changes are detected).
  */
 public class Camera {
-    private Matrix4f projectionMat;
+    private final Matrix4f projectionMat;
     private final Matrix4f cameraMat;
+
+    /* Cache of the derived matrices */
+    private final Matrix4f viewMat;
+    private final Matrix4f worldMat;
+    private final FrustumIntersection frustum;
+    /* the camera matrix and aspect ratio of the cached matrices */
+    private final Matrix4f cachedCameraMat;
+    private float cachedAspectRatio;
+    private boolean projectionDirty;
+    private long version;
+
     /* Angle of the field of view
        A small angle gives a zoom effect.
        Like a zoom on a pair of binoculars.. */
@@ -37,9 +55,52 @@ public class Camera {
         this.zNear = zNear;
         cameraMat = new Matrix4f().identity();
 
+        projectionMat = new Matrix4f();
+        viewMat = new Matrix4f();
+        worldMat = new Matrix4f();
+        frustum = new FrustumIntersection();
+        cachedCameraMat = new Matrix4f();
+        version = 0;
+
         updateProjectionMat();
     }
 
+    /**
+     * Recompute the derived matrices if the camera changed
+     */
+    private void update() {
+        boolean changed = false;
+        float aspectRatio = (float) Window.aspectRatio();
+        if (projectionDirty || Float.floatToIntBits(aspectRatio) != Float.floatToIntBits(cachedAspectRatio)) {
+            projectionMat.setPerspective(fieldOfView, aspectRatio, zNear, zFar);
+            cachedAspectRatio = aspectRatio;
+            projectionDirty = false;
+            changed = true;
+        }
+        if (changed || !cachedCameraMat.equals(cameraMat)) {
+            cachedCameraMat.set(cameraMat);
+            cameraMat.invert(viewMat);
+            changed = true;
+        }
+        if (changed) {
+            projectionMat.mul(viewMat, worldMat);
+            frustum.set(worldMat);
+            version++;
+        }
+    }
+
+    /**
+     * Get the version of the camera, incremented each time the camera
+     * (position, orientation or projection) changed.
+     * Consumers can compare it with the version of their last update to skip their work.
+     *
+     * @return the version
+     */
+    public long getVersion() {
+        update();
+        return version;
+    }
+
     public Camera(float zNear, float zFar) {
         this((float) Math.toRadians(60.0f), zNear, zFar);
     }
@@ -54,14 +115,16 @@ public class Camera {
      * @return projection matrix
      */
     public Matrix4f getProjectionMat() {
+        update();
         return projectionMat;
     }
 
     /**
      * Updates the projection matrix of the scene.
+     * (it is not required when the window is resized, the aspect ratio is checked at each access)
      */
     public void updateProjectionMat() {
-        projectionMat = new Matrix4f().perspective(fieldOfView, (float) Window.aspectRatio(), zNear, zFar);
+        projectionDirty = true;
     }
 
 
@@ -80,7 +143,8 @@ public class Camera {
      * @return view matrix
      */
     public Matrix4f getViewMat() {
-        return new Matrix4f(cameraMat).invert();
+        update();
+        return viewMat;
     }
 
 
@@ -88,6 +152,16 @@ public class Camera {
         return cameraMat.getTranslation(new Vector3f());
     }
 
+    /**
+     * Get the position of the camera without allocation
+     *
+     * @param dest will hold the position
+     * @return dest
+     */
+    public Vector3f getPosition(Vector3f dest) {
+        return cameraMat.getTranslation(dest);
+    }
+
     public void setPosition(Vector3f pos) {
         translate(pos.sub(getPosition()));
     }
@@ -209,9 +283,23 @@ public class Camera {
         updateProjectionMat();
     }
 
+    /**
+     * Get the Matrix that transforms from world space to screenspace (projection * view)
+     *
+     * @return view-projection matrix
+     */
     public Matrix4f getWorldMat() {
-        Matrix4f worldMatrix = new Matrix4f(projectionMat);
-        worldMatrix.mul(getViewMat());
-        return worldMatrix;
+        update();
+        return worldMat;
+    }
+
+    /**
+     * Get the frustum planes of the camera (world space)
+     *
+     * @return the frustum
+     */
+    public FrustumIntersection getFrustum() {
+        update();
+        return frustum;
     }
 }
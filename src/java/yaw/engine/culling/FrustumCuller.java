@@ -0,0 +1,157 @@
+package yaw.engine.culling;
+
+import org.joml.FrustumIntersection;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import yaw.engine.camera.Camera;
+import yaw.engine.items.ItemObject;
+
+/**
+ * View-frustum culling of items, based on their world-space bounding volumes.
+ *
+ * The culler is updated once per frame from the camera, and then rejects
+ * the items that are outside the frustum, or (optionally) too small on screen to matter.
+ * The number of culled and visible items of the frame is recorded.
+ */
+public class FrustumCuller {
+    private final FrustumIntersection frustum;
+    private final Vector3f cameraPosition;
+    /* Vertical scale factor of the projection : cotangent of the half field of view */
+    private float projectionScale;
+
+    /* Minimal projected diameter (as a fraction of the viewport height), 0 to disable */
+    private float minScreenSize;
+
+    private boolean enabled;
+
+    private int culledCount;
+    private int visibleCount;
+
+    /* the camera (and its version) of the current frustum */
+    private Camera frameCamera;
+    private long frameCameraVersion;
+
+    public FrustumCuller() {
+        frustum = new FrustumIntersection();
+        cameraPosition = new Vector3f();
+        minScreenSize = 0;
+        enabled = true;
+    }
+
+    /**
+     * Setup the frustum for a new frame and reset the counters.
+     *
+     * @param pCamera the camera of the frame
+     */
+    public void beginFrame(Camera pCamera) {
+        long version = pCamera.getVersion();
+        if (pCamera == frameCamera && version == frameCameraVersion) {
+            // same frustum as the last frame
+            culledCount = 0;
+            visibleCount = 0;
+            return;
+        }
+        beginFrame(pCamera.getWorldMat(), pCamera.getPosition(cameraPosition),
+                pCamera.getProjectionMat().m11());
+        frameCamera = pCamera;
+        frameCameraVersion = version;
+    }
+
+    /**
+     * Setup the frustum for a new frame and reset the counters.
+     *
+     * @param viewProjection  the projection * view matrix
+     * @param position        the position of the camera (world space)
+     * @param projectionScale the vertical scale factor of the projection (element m11)
+     */
+    public void beginFrame(Matrix4f viewProjection, Vector3f position, float projectionScale) {
+        frustum.set(viewProjection);
+        cameraPosition.set(position);
+        frameCamera = null;
+        this.projectionScale = projectionScale;
+        culledCount = 0;
+        visibleCount = 0;
+    }
+
+    /**
+     * Check if an item must be rendered, and count it.
+     *
+     * @param item the item to check
+     * @return true if the item is (potentially) visible
+     */
+    public boolean isVisible(ItemObject item) {
+        if (!enabled) {
+            visibleCount++;
+            return true;
+        }
+        Vector3f center = item.getWorldSphereCenter();
+        float radius = item.getWorldSphereRadius();
+        boolean visible = frustum.testSphere(center, radius)
+                && frustum.testAab(item.getWorldAabbMin(), item.getWorldAabbMax());
+        if (visible && minScreenSize > 0) {
+            float distance = cameraPosition.distance(center);
+            // the camera is not inside the sphere : compare the projected diameter
+            if (distance > radius && (radius * projectionScale / distance) < minScreenSize) {
+                visible = false;
+            }
+        }
+        if (visible) {
+            visibleCount++;
+        } else {
+            culledCount++;
+        }
+        return visible;
+    }
+
+    /**
+     * Compute the projected diameter of an item, as a fraction of the viewport height
+     * (the frame must have begun).
+     *
+     * @param item the item
+     * @return the projected size, infinite if the camera is inside the bounding sphere
+     */
+    public float getScreenSize(ItemObject item) {
+        float radius = item.getWorldSphereRadius();
+        float distance = cameraPosition.distance(item.getWorldSphereCenter());
+        if (distance <= radius) {
+            return Float.POSITIVE_INFINITY;
+        }
+        return radius * projectionScale / distance;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public float getMinScreenSize() {
+        return minScreenSize;
+    }
+
+    /**
+     * Set the screen-size threshold : items whose projected diameter is smaller than
+     * this fraction of the viewport height are culled.
+     *
+     * @param minScreenSize the threshold (0 to disable)
+     */
+    public void setMinScreenSize(float minScreenSize) {
+        this.minScreenSize = minScreenSize;
+    }
+
+    /**
+     * @return the number of items culled since the beginning of the frame
+     */
+    public int getCulledCount() {
+        return culledCount;
+    }
+
+    /**
+     * @return the number of visible items since the beginning of the frame
+     */
+    public int getVisibleCount() {
+        return visibleCount;
+    }
+}
@@ -0,0 +1,407 @@
+package yaw.engine.culling;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import yaw.engine.geom.Geometry;
+import yaw.engine.items.ItemObject;
+import yaw.engine.mesh.LodChain;
+import yaw.engine.mesh.Mesh;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Occlusion culling with a low-resolution depth buffer, rasterized on the CPU.
+ *
+ * At each frame, the triangles of the occluders (a few large items, designated with
+ * {@link ItemObject#setOccluder(boolean)}) are projected and rasterized in the buffer, keeping the nearest
+ * depth (NDC z) of each pixel. The rows of the buffer are split in bands rasterized in parallel by worker threads,
+ * with incremental edge functions over flat float arrays. The maximum depth of each tile of 8x8 pixels is kept,
+ * so that most tests only read the tiles.
+ *
+ * An item is occluded if its bounding box is behind the buffer on all the pixels covered by its projection.
+ * The test is conservative : the boxes crossing the near plane are visible.
+ */
+public class OcclusionBuffer {
+    public static final int DEFAULT_WIDTH = 256;
+    public static final int DEFAULT_HEIGHT = 128;
+    private static final int TILE_SIZE = 8;
+    /* screen-space triangles : x, y, z of the 3 vertices */
+    private static final int TRIANGLE_FLOATS = 9;
+
+    private final int width;
+    private final int height;
+    private final float[] depth;
+    private final int tilesX;
+    private final int tilesY;
+    private final float[] tileMax;
+
+    private final Matrix4f viewProjection;
+    private final Matrix4f modelViewProjection;
+    private float[] triangles;
+    private int triangleCount;
+    /* projected vertices of the current occluder */
+    private float[] projected;
+
+    private final ExecutorService workers;
+    private final int bands;
+    private final List<Callable<Void>> bandTasks;
+
+    private int occludedCount;
+    private int testedCount;
+
+    /**
+     * @param width   the width of the buffer (a multiple of 8)
+     * @param height  the height of the buffer (a multiple of 8)
+     * @param threads the number of worker threads, 1 to rasterize in the calling thread
+     */
+    public OcclusionBuffer(int width, int height, int threads) {
+        if (width % TILE_SIZE != 0 || height % TILE_SIZE != 0) {
+            throw new Error("The size of the occlusion buffer must be a multiple of " + TILE_SIZE);
+        }
+        this.width = width;
+        this.height = height;
+        depth = new float[width * height];
+        tilesX = width / TILE_SIZE;
+        tilesY = height / TILE_SIZE;
+        tileMax = new float[tilesX * tilesY];
+        Arrays.fill(depth, Float.POSITIVE_INFINITY);
+        Arrays.fill(tileMax, Float.POSITIVE_INFINITY);
+        viewProjection = new Matrix4f();
+        modelViewProjection = new Matrix4f();
+        triangles = new float[TRIANGLE_FLOATS * 256];
+        projected = new float[3 * 64];
+
+        // each band is a range of tile rows
+        bands = Math.min(Math.max(threads, 1) * 2, tilesY);
+        bandTasks = new ArrayList<>();
+        for (int b = 0; b < bands; b++) {
+            int firstTileRow = b * tilesY / bands;
+            int lastTileRow = (b + 1) * tilesY / bands;
+            bandTasks.add(() -> {
+                rasterizeBand(firstTileRow * TILE_SIZE, lastTileRow * TILE_SIZE);
+                return null;
+            });
+        }
+        if (threads > 1) {
+            workers = Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, "occlusion-raster");
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            workers = null;
+        }
+    }
+
+    public OcclusionBuffer() {
+        this(DEFAULT_WIDTH, DEFAULT_HEIGHT, Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+    }
+
+    /**
+     * Start a new frame : remove the occluders and reset the counters
+     *
+     * @param pViewProjection the projection * view matrix of the camera
+     */
+    public void beginFrame(Matrix4f pViewProjection) {
+        viewProjection.set(pViewProjection);
+        triangleCount = 0;
+        occludedCount = 0;
+        testedCount = 0;
+    }
+
+    /**
+     * Add an occluder, rendered with the coarsest level of detail of its mesh
+     *
+     * @param item the item
+     */
+    public void addOccluder(ItemObject item) {
+        Mesh mesh = item.getMesh();
+        LodChain lodChain = mesh.getLodChain();
+        if (lodChain != null) {
+            mesh = lodChain.getLevel(lodChain.getLevelCount() - 1);
+        }
+        addOccluder(mesh.getGeometry(), item.getModelMatrix());
+    }
+
+    /**
+     * Add the triangles of an occluder. The triangles in front of the near plane are kept,
+     * the others are ignored (an occluder only needs to be conservative).
+     *
+     * @param geometry    the geometry
+     * @param modelMatrix the model matrix
+     */
+    public void addOccluder(Geometry geometry, Matrix4f modelMatrix) {
+        viewProjection.mul(modelMatrix, modelViewProjection);
+        Matrix4f m = modelViewProjection;
+        float[] vertices = geometry.getVertices();
+        int vertexCount = geometry.getVertexCount();
+        if (projected.length < 3 * vertexCount) {
+            projected = new float[3 * vertexCount];
+        }
+        for (int v = 0; v < vertexCount; v++) {
+            float x = vertices[3 * v], y = vertices[3 * v + 1], z = vertices[3 * v + 2];
+            float cx = m.m00() * x + m.m10() * y + m.m20() * z + m.m30();
+            float cy = m.m01() * x + m.m11() * y + m.m21() * z + m.m31();
+            float cz = m.m02() * x + m.m12() * y + m.m22() * z + m.m32();
+            float cw = m.m03() * x + m.m13() * y + m.m23() * z + m.m33();
+            if (cz < -cw || cw <= 0) {
+                // behind the near plane
+                projected[3 * v + 2] = Float.NaN;
+                continue;
+            }
+            projected[3 * v] = (cx / cw * 0.5f + 0.5f) * width;
+            projected[3 * v + 1] = (cy / cw * 0.5f + 0.5f) * height;
+            projected[3 * v + 2] = cz / cw;
+        }
+        int[] indices = geometry.getIndices();
+        for (int i = 0; i + 2 < indices.length; i += 3) {
+            int a = 3 * indices[i], b = 3 * indices[i + 1], c = 3 * indices[i + 2];
+            if (Float.isNaN(projected[a + 2]) || Float.isNaN(projected[b + 2]) || Float.isNaN(projected[c + 2])) {
+                continue;
+            }
+            float minX = Math.min(projected[a], Math.min(projected[b], projected[c]));
+            float maxX = Math.max(projected[a], Math.max(projected[b], projected[c]));
+            float minY = Math.min(projected[a + 1], Math.min(projected[b + 1], projected[c + 1]));
+            float maxY = Math.max(projected[a + 1], Math.max(projected[b + 1], projected[c + 1]));
+            if (maxX < 0 || minX > width || maxY < 0 || minY > height) {
+                continue;
+            }
+            if (triangles.length < (triangleCount + 1) * TRIANGLE_FLOATS) {
+                triangles = Arrays.copyOf(triangles, 2 * triangles.length);
+            }
+            int t = triangleCount * TRIANGLE_FLOATS;
+            System.arraycopy(projected, a, triangles, t, 3);
+            System.arraycopy(projected, b, triangles, t + 3, 3);
+            System.arraycopy(projected, c, triangles, t + 6, 3);
+            triangleCount++;
+        }
+    }
+
+    /**
+     * Rasterize the occluders of the frame, the items can be tested afterwards
+     */
+    public void rasterize() {
+        if (workers == null) {
+            for (Callable<Void> task : bandTasks) {
+                try {
+                    task.call();
+                } catch (Exception e) {
+                    throw new Error("Occlusion rasterization failed", e);
+                }
+            }
+            return;
+        }
+        try {
+            for (Future<Void> band : workers.invokeAll(bandTasks)) {
+                band.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new Error("Occlusion rasterization interrupted", e);
+        } catch (ExecutionException e) {
+            throw new Error("Occlusion rasterization failed", e.getCause());
+        }
+    }
+
+    /* clear and rasterize the rows [rowStart, rowEnd[, then compute the maximum depth of their tiles */
+    private void rasterizeBand(int rowStart, int rowEnd) {
+        Arrays.fill(depth, rowStart * width, rowEnd * width, Float.POSITIVE_INFINITY);
+        for (int t = 0; t < triangleCount; t++) {
+            int o = t * TRIANGLE_FLOATS;
+            float x0 = triangles[o], y0 = triangles[o + 1], z0 = triangles[o + 2];
+            float x1 = triangles[o + 3], y1 = triangles[o + 4], z1 = triangles[o + 5];
+            float x2 = triangles[o + 6], y2 = triangles[o + 7], z2 = triangles[o + 8];
+            float area = (x1 - x0) * (y2 - y0) - (x2 - x0) * (y1 - y0);
+            if (area == 0) {
+                continue;
+            }
+            if (area < 0) {
+                // both orientations are rasterized : swap to counter-clockwise
+                float sx = x1, sy = y1, sz = z1;
+                x1 = x2;
+                y1 = y2;
+                z1 = z2;
+                x2 = sx;
+                y2 = sy;
+                z2 = sz;
+                area = -area;
+            }
+            // pixels whose center (x + 0.5, y + 0.5) may be covered
+            int minX = Math.max(0, (int) Math.ceil(Math.min(x0, Math.min(x1, x2)) - 0.5f));
+            int maxX = Math.min(width - 1, (int) Math.floor(Math.max(x0, Math.max(x1, x2)) - 0.5f));
+            int minY = Math.max(rowStart, (int) Math.ceil(Math.min(y0, Math.min(y1, y2)) - 0.5f));
+            int maxY = Math.min(rowEnd - 1, (int) Math.floor(Math.max(y0, Math.max(y1, y2)) - 0.5f));
+            if (minX > maxX || minY > maxY) {
+                continue;
+            }
+            // edge functions (w0 opposite to vertex 0, ...), normalized so that w0 + w1 + w2 = 1
+            float inv = 1 / area;
+            float a0 = (y1 - y2) * inv, b0 = (x2 - x1) * inv;
+            float a1 = (y2 - y0) * inv, b1 = (x0 - x2) * inv;
+            float a2 = (y0 - y1) * inv, b2 = (x1 - x0) * inv;
+            float px = minX + 0.5f;
+            for (int y = minY; y <= maxY; y++) {
+                float py = y + 0.5f;
+                float w0 = a0 * (px - x1) + b0 * (py - y1);
+                float w1 = a1 * (px - x2) + b1 * (py - y2);
+                float w2 = a2 * (px - x0) + b2 * (py - y0);
+                int row = y * width;
+                // branch-free span, the loop body is a candidate for auto-vectorization
+                for (int x = minX; x <= maxX; x++) {
+                    float z = w0 * z0 + w1 * z1 + w2 * z2;
+                    boolean inside = w0 >= 0 && w1 >= 0 && w2 >= 0;
+                    float current = depth[row + x];
+                    depth[row + x] = inside && z < current ? z : current;
+                    w0 += a0;
+                    w1 += a1;
+                    w2 += a2;
+                }
+            }
+        }
+        for (int ty = rowStart / TILE_SIZE; ty < rowEnd / TILE_SIZE; ty++) {
+            for (int tx = 0; tx < tilesX; tx++) {
+                float max = Float.NEGATIVE_INFINITY;
+                for (int y = ty * TILE_SIZE; y < (ty + 1) * TILE_SIZE; y++) {
+                    int row = y * width + tx * TILE_SIZE;
+                    for (int x = 0; x < TILE_SIZE; x++) {
+                        max = Math.max(max, depth[row + x]);
+                    }
+                }
+                tileMax[ty * tilesX + tx] = max;
+            }
+        }
+    }
+
+    /**
+     * Test an item against the occluders of the frame (they must be rasterized), and count it
+     *
+     * @param item the item
+     * @return false if the item is hidden by the occluders
+     */
+    public boolean isVisible(ItemObject item) {
+        testedCount++;
+        boolean visible = isVisible(item.getWorldAabbMin(), item.getWorldAabbMax());
+        if (!visible) {
+            occludedCount++;
+        }
+        return visible;
+    }
+
+    /**
+     * Test a bounding box against the occluders of the frame (they must be rasterized)
+     *
+     * @param min the minimum corner of the box (world space)
+     * @param max the maximum corner of the box (world space)
+     * @return false if the box is hidden by the occluders
+     */
+    public boolean isVisible(Vector3f min, Vector3f max) {
+        if (triangleCount == 0) {
+            return true;
+        }
+        Matrix4f m = viewProjection;
+        float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+        float minZ = Float.POSITIVE_INFINITY;
+        for (int corner = 0; corner < 8; corner++) {
+            float x = (corner & 1) == 0 ? min.x : max.x;
+            float y = (corner & 2) == 0 ? min.y : max.y;
+            float z = (corner & 4) == 0 ? min.z : max.z;
+            float cz = m.m02() * x + m.m12() * y + m.m22() * z + m.m32();
+            float cw = m.m03() * x + m.m13() * y + m.m23() * z + m.m33();
+            if (cz < -cw || cw <= 0) {
+                // crosses the near plane
+                return true;
+            }
+            float cx = m.m00() * x + m.m10() * y + m.m20() * z + m.m30();
+            float cy = m.m01() * x + m.m11() * y + m.m21() * z + m.m31();
+            float sx = (cx / cw * 0.5f + 0.5f) * width;
+            float sy = (cy / cw * 0.5f + 0.5f) * height;
+            minX = Math.min(minX, sx);
+            maxX = Math.max(maxX, sx);
+            minY = Math.min(minY, sy);
+            maxY = Math.max(maxY, sy);
+            minZ = Math.min(minZ, cz / cw);
+        }
+        int x0 = Math.max(0, (int) Math.floor(minX));
+        int x1 = Math.min(width - 1, (int) Math.floor(maxX));
+        int y0 = Math.max(0, (int) Math.floor(minY));
+        int y1 = Math.min(height - 1, (int) Math.floor(maxY));
+        if (x0 > x1 || y0 > y1) {
+            // outside of the screen : left to the frustum culling
+            return true;
+        }
+        for (int ty = y0 / TILE_SIZE; ty <= y1 / TILE_SIZE; ty++) {
+            for (int tx = x0 / TILE_SIZE; tx <= x1 / TILE_SIZE; tx++) {
+                if (tileMax[ty * tilesX + tx] <= minZ) {
+                    // the whole tile is in front of the box
+                    continue;
+                }
+                int yStart = Math.max(y0, ty * TILE_SIZE), yEnd = Math.min(y1, ty * TILE_SIZE + TILE_SIZE - 1);
+                int xStart = Math.max(x0, tx * TILE_SIZE), xEnd = Math.min(x1, tx * TILE_SIZE + TILE_SIZE - 1);
+                for (int y = yStart; y <= yEnd; y++) {
+                    int row = y * width;
+                    for (int x = xStart; x <= xEnd; x++) {
+                        if (depth[row + x] > minZ) {
+                            return true;
+                        }
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param x the column
+     * @param y the row (from the bottom)
+     * @return the depth (NDC z) of the nearest occluder at the pixel, infinite if none
+     */
+    public float getDepth(int x, int y) {
+        return depth[y * width + x];
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return the number of occluder triangles of the frame
+     */
+    public int getTriangleCount() {
+        return triangleCount;
+    }
+
+    /**
+     * @return the number of items found occluded since the beginning of the frame
+     */
+    public int getOccludedCount() {
+        return occludedCount;
+    }
+
+    /**
+     * @return the number of items tested since the beginning of the frame
+     */
+    public int getTestedCount() {
+        return testedCount;
+    }
+
+    /**
+     * Stop the worker threads
+     */
+    public void cleanUp() {
+        if (workers != null) {
+            workers.shutdown();
+        }
+    }
+}
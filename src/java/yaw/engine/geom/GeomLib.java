@@ -82,6 +82,46 @@ public class GeomLib {
         return makeCuboid(length, length, length);
     }
 
+    /**
+     * A UV sphere centered on the origin, with the triangles facing outward
+     *
+     * @param radius   the radius
+     * @param segments the number of vertices around each ring
+     * @param rings    the number of slices from pole to pole
+     * @return the sphere
+     */
+    public static GeometryBuilder makeSphere(float radius, int segments, int rings) {
+        GeometryBuilder sphere = new GeometryBuilder();
+        sphere.addVertex(0, radius, 0);
+        sphere.addNormal(0, 1, 0);
+        for (int r = 1; r < rings; r++) {
+            float theta = (float) (Math.PI * r / rings);
+            for (int s = 0; s < segments; s++) {
+                float phi = (float) (2 * Math.PI * s / segments);
+                float x = Math.sin(theta) * Math.sin(phi);
+                float y = Math.cos(theta);
+                float z = Math.sin(theta) * Math.cos(phi);
+                sphere.addVertex(radius * x, radius * y, radius * z);
+                sphere.addNormal(x, y, z);
+            }
+        }
+        int bottom = sphere.addVertex(0, -radius, 0);
+        sphere.addNormal(0, -1, 0);
+
+        for (int s = 0; s < segments; s++) {
+            int next = (s + 1) % segments;
+            sphere.addTriangle(0, 1 + s, 1 + next);
+            for (int r = 0; r < rings - 2; r++) {
+                int a = 1 + r * segments;
+                int b = a + segments;
+                sphere.addTriangles(a + s, b + s, b + next, a + s, b + next, a + next);
+            }
+            int last = 1 + (rings - 2) * segments;
+            sphere.addTriangle(last + s, bottom, last + next);
+        }
+        return sphere;
+    }
+
     public static GeometryBuilder makeRectangle(float xLength, float yLength) {
         GeometryBuilder rect = new GeometryBuilder();
         // vertices
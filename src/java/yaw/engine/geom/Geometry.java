@@ -8,6 +8,14 @@ public class Geometry {
     private int[] indices;
     private float[] textCoords;
 
+    /* Bounding volumes (model space), computed lazily */
+    private Vector3f aabbMin;
+    private Vector3f aabbMax;
+    private Vector3f sphereCenter;
+    private float sphereRadius;
+    /* incremented when the vertices are modified, so that the bounds of the items are recomputed */
+    private int boundsVersion;
+
     /**
      * Construct a Geometry
      *
@@ -78,6 +86,108 @@ public class Geometry {
         return normals;
     }
 
+    /**
+     * Compute the axis-aligned bounding box and the bounding sphere of the vertices.
+     * The sphere is centered on the box, with the smallest radius enclosing all the vertices.
+     */
+    private void computeBounds() {
+        Vector3f min = new Vector3f(Float.POSITIVE_INFINITY);
+        Vector3f max = new Vector3f(Float.NEGATIVE_INFINITY);
+        for (int i = 0; i + 2 < vertices.length; i += 3) {
+            min.x = Math.min(min.x, vertices[i]);
+            min.y = Math.min(min.y, vertices[i + 1]);
+            min.z = Math.min(min.z, vertices[i + 2]);
+            max.x = Math.max(max.x, vertices[i]);
+            max.y = Math.max(max.y, vertices[i + 1]);
+            max.z = Math.max(max.z, vertices[i + 2]);
+        }
+        if (vertices.length < 3) {
+            min.zero();
+            max.zero();
+        }
+        Vector3f center = new Vector3f(min).add(max).mul(0.5f);
+        float radiusSq = 0;
+        for (int i = 0; i + 2 < vertices.length; i += 3) {
+            float dx = vertices[i] - center.x;
+            float dy = vertices[i + 1] - center.y;
+            float dz = vertices[i + 2] - center.z;
+            radiusSq = Math.max(radiusSq, dx * dx + dy * dy + dz * dz);
+        }
+        aabbMin = min;
+        aabbMax = max;
+        sphereCenter = center;
+        sphereRadius = (float) Math.sqrt(radiusSq);
+    }
+
+    /**
+     * Notify that the vertices have been modified (e.g. by a dynamic mesh) :
+     * the bounding volumes are recomputed at the next access.
+     */
+    public void invalidateBounds() {
+        aabbMin = null;
+        aabbMax = null;
+        sphereCenter = null;
+        boundsVersion++;
+    }
+
+    /**
+     * @return the version of the bounding volumes, incremented by {@link #invalidateBounds()}
+     */
+    public int getBoundsVersion() {
+        return boundsVersion;
+    }
+
+    /**
+     * @return the minimum corner of the bounding box (must not be modified)
+     */
+    public Vector3f getAabbMin() {
+        if (aabbMin == null) {
+            computeBounds();
+        }
+        return aabbMin;
+    }
+
+    /**
+     * @return the maximum corner of the bounding box (must not be modified)
+     */
+    public Vector3f getAabbMax() {
+        if (aabbMax == null) {
+            computeBounds();
+        }
+        return aabbMax;
+    }
+
+    /**
+     * @return the center of the bounding sphere (must not be modified)
+     */
+    public Vector3f getBoundingSphereCenter() {
+        if (sphereCenter == null) {
+            computeBounds();
+        }
+        return sphereCenter;
+    }
+
+    public float getBoundingSphereRadius() {
+        if (sphereCenter == null) {
+            computeBounds();
+        }
+        return sphereRadius;
+    }
+
+    /**
+     * @return the number of vertices
+     */
+    public int getVertexCount() {
+        return vertices.length / 3;
+    }
+
+    /**
+     * @return true if the geometry has texture coordinates for all its vertices
+     */
+    public boolean hasTextCoords() {
+        return textCoords.length > 1 && textCoords.length >= 2 * getVertexCount();
+    }
+
     public float[] getVertices() {
         return vertices;
     }
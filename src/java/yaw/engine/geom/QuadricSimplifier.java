@@ -0,0 +1,530 @@
+package yaw.engine.geom;
+
+import org.joml.Vector3f;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Mesh simplification by edge collapses, ordered by quadric error metrics (Garland and Heckbert).
+ *
+ * The vertices are first welded by position, so that the seams of the geometry (vertices with the same
+ * position but different normals or texture coordinates) are collapsed together. Each welded vertex
+ * accumulates the quadrics of the planes of its triangles, and the boundary edges add constraint planes
+ * so that the borders are preserved. The edge of lowest error is collapsed at each step, to its optimal
+ * position, unless it would flip a triangle. The corners of the remaining triangles keep the attributes
+ * (normal, texture coordinates) of the original vertex closest to the collapsed one.
+ *
+ * The simplification only reads the geometry : it can run in a background thread.
+ */
+public class QuadricSimplifier {
+    /* weight of the boundary constraint planes, relative to the triangle planes */
+    private static final double BOUNDARY_WEIGHT = 1000.0;
+    /* a collapse is rejected if it rotates the normal of a triangle by more than ~78 degrees */
+    private static final double MIN_NORMAL_COS = 0.2;
+
+    /* source vertices */
+    private final float[] normals;
+    private final float[] textCoords;
+    private final boolean withTextCoords;
+
+    /* welded vertices : position, quadric (10 coefficients of the symmetric 4x4 matrix), version */
+    private final int[] groupOf;
+    private int groupCount;
+    private double[] positions;
+    private double[] quadrics;
+    private int[] versions;
+    private boolean[] removed;
+    /* source vertices of each welded vertex, and triangles around each welded vertex */
+    private int[][] groupVertices;
+    private int[] groupVertexCount;
+    private int[][] adjacency;
+    private int[] adjacencySize;
+
+    /* triangles : welded and source vertices of the corners */
+    private final int[] triGroups;
+    private final int[] triVertices;
+    private final boolean[] triRemoved;
+    private int liveTriangles;
+
+    private final PriorityQueue<Collapse> heap;
+
+    /* a candidate collapse of the edge (a, b) to the given position */
+    private static class Collapse implements Comparable<Collapse> {
+        final int a;
+        final int b;
+        final int versionA;
+        final int versionB;
+        final double cost;
+        final double x;
+        final double y;
+        final double z;
+
+        Collapse(int a, int b, int versionA, int versionB, double cost, double x, double y, double z) {
+            this.a = a;
+            this.b = b;
+            this.versionA = versionA;
+            this.versionB = versionB;
+            this.cost = cost;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+
+        @Override
+        public int compareTo(Collapse o) {
+            return Double.compare(cost, o.cost);
+        }
+    }
+
+    private QuadricSimplifier(Geometry geometry) {
+        float[] vertices = geometry.getVertices();
+        int[] indices = geometry.getIndices();
+        normals = geometry.getNormals();
+        textCoords = geometry.getTextCoords();
+        withTextCoords = geometry.hasTextCoords();
+        int vertexCount = geometry.getVertexCount();
+
+        // weld the vertices by position
+        groupOf = new int[vertexCount];
+        Map<Vector3f, Integer> welded = new HashMap<>();
+        positions = new double[3 * vertexCount];
+        for (int v = 0; v < vertexCount; v++) {
+            Vector3f position = new Vector3f(vertices[3 * v], vertices[3 * v + 1], vertices[3 * v + 2]);
+            Integer group = welded.get(position);
+            if (group == null) {
+                group = groupCount++;
+                welded.put(position, group);
+                positions[3 * group] = position.x;
+                positions[3 * group + 1] = position.y;
+                positions[3 * group + 2] = position.z;
+            }
+            groupOf[v] = group;
+        }
+        positions = Arrays.copyOf(positions, 3 * groupCount);
+        quadrics = new double[10 * groupCount];
+        versions = new int[groupCount];
+        removed = new boolean[groupCount];
+        groupVertices = new int[groupCount][];
+        groupVertexCount = new int[groupCount];
+        adjacency = new int[groupCount][];
+        adjacencySize = new int[groupCount];
+        for (int v = 0; v < vertexCount; v++) {
+            push(groupVertices, groupVertexCount, groupOf[v], v);
+        }
+
+        // triangles, without the degenerate ones
+        int triangleCount = indices.length / 3;
+        triGroups = new int[3 * triangleCount];
+        triVertices = new int[3 * triangleCount];
+        triRemoved = new boolean[triangleCount];
+        for (int t = 0; t < triangleCount; t++) {
+            for (int c = 0; c < 3; c++) {
+                triVertices[3 * t + c] = indices[3 * t + c];
+                triGroups[3 * t + c] = groupOf[indices[3 * t + c]];
+            }
+            int g0 = triGroups[3 * t];
+            int g1 = triGroups[3 * t + 1];
+            int g2 = triGroups[3 * t + 2];
+            if (g0 == g1 || g1 == g2 || g0 == g2) {
+                triRemoved[t] = true;
+                continue;
+            }
+            liveTriangles++;
+            for (int c = 0; c < 3; c++) {
+                push(adjacency, adjacencySize, triGroups[3 * t + c], t);
+            }
+        }
+        heap = new PriorityQueue<>();
+    }
+
+    /**
+     * Simplify a geometry
+     *
+     * @param geometry        the geometry
+     * @param targetTriangles the maximum number of triangles of the result
+     * @return the simplified geometry, or the geometry itself if it has at most the target number of triangles
+     */
+    public static Geometry simplify(Geometry geometry, int targetTriangles) {
+        if (geometry.getIndices().length / 3 <= targetTriangles) {
+            return geometry;
+        }
+        QuadricSimplifier simplifier = new QuadricSimplifier(geometry);
+        simplifier.computeQuadrics();
+        simplifier.initCollapses();
+        simplifier.collapse(Math.max(targetTriangles, 1));
+        return simplifier.build();
+    }
+
+    /**
+     * Simplify a geometry
+     *
+     * @param geometry the geometry
+     * @param ratio    the fraction of the triangles to keep, in ]0, 1]
+     * @return the simplified geometry
+     */
+    public static Geometry simplify(Geometry geometry, float ratio) {
+        return simplify(geometry, (int) (geometry.getIndices().length / 3 * ratio));
+    }
+
+    private static void push(int[][] lists, int[] sizes, int list, int value) {
+        int[] values = lists[list];
+        if (values == null) {
+            values = new int[4];
+            lists[list] = values;
+        } else if (sizes[list] == values.length) {
+            values = Arrays.copyOf(values, 2 * values.length);
+            lists[list] = values;
+        }
+        values[sizes[list]++] = value;
+    }
+
+    /* add the quadric of the plane (nx, ny, nz, d), with a weight, to a welded vertex */
+    private void addPlane(int group, double nx, double ny, double nz, double d, double weight) {
+        int q = 10 * group;
+        quadrics[q] += weight * nx * nx;
+        quadrics[q + 1] += weight * nx * ny;
+        quadrics[q + 2] += weight * nx * nz;
+        quadrics[q + 3] += weight * nx * d;
+        quadrics[q + 4] += weight * ny * ny;
+        quadrics[q + 5] += weight * ny * nz;
+        quadrics[q + 6] += weight * ny * d;
+        quadrics[q + 7] += weight * nz * nz;
+        quadrics[q + 8] += weight * nz * d;
+        quadrics[q + 9] += weight * d * d;
+    }
+
+    private void computeQuadrics() {
+        double[] n = new double[3];
+        // edges used by a single triangle (in each direction) : key of the directed edge -> triangle
+        Map<Long, Integer> directedEdges = new HashMap<>();
+        for (int t = 0; t < triRemoved.length; t++) {
+            if (triRemoved[t]) {
+                continue;
+            }
+            double area = triangleNormal(triGroups[3 * t], triGroups[3 * t + 1], triGroups[3 * t + 2], n);
+            if (area == 0) {
+                continue;
+            }
+            int g0 = triGroups[3 * t];
+            double d = -(n[0] * positions[3 * g0] + n[1] * positions[3 * g0 + 1] + n[2] * positions[3 * g0 + 2]);
+            for (int c = 0; c < 3; c++) {
+                addPlane(triGroups[3 * t + c], n[0], n[1], n[2], d, area);
+                directedEdges.put(edgeKey(triGroups[3 * t + c], triGroups[3 * t + (c + 1) % 3]), t);
+            }
+        }
+        // boundary edges : the opposite directed edge does not exist, constrain with the plane
+        // containing the edge and perpendicular to its triangle
+        for (Map.Entry<Long, Integer> edge : directedEdges.entrySet()) {
+            int a = (int) (edge.getKey() >>> 32);
+            int b = (int) (edge.getKey() & 0xFFFFFFFFL);
+            if (directedEdges.containsKey(edgeKey(b, a))) {
+                continue;
+            }
+            int t = edge.getValue();
+            triangleNormal(triGroups[3 * t], triGroups[3 * t + 1], triGroups[3 * t + 2], n);
+            double ex = positions[3 * b] - positions[3 * a];
+            double ey = positions[3 * b + 1] - positions[3 * a + 1];
+            double ez = positions[3 * b + 2] - positions[3 * a + 2];
+            double px = ey * n[2] - ez * n[1];
+            double py = ez * n[0] - ex * n[2];
+            double pz = ex * n[1] - ey * n[0];
+            double length = Math.sqrt(px * px + py * py + pz * pz);
+            if (length == 0) {
+                continue;
+            }
+            px /= length;
+            py /= length;
+            pz /= length;
+            double d = -(px * positions[3 * a] + py * positions[3 * a + 1] + pz * positions[3 * a + 2]);
+            double weight = BOUNDARY_WEIGHT * (ex * ex + ey * ey + ez * ez);
+            addPlane(a, px, py, pz, d, weight);
+            addPlane(b, px, py, pz, d, weight);
+        }
+    }
+
+    private static long edgeKey(int a, int b) {
+        return ((long) a << 32) | (b & 0xFFFFFFFFL);
+    }
+
+    /* unit normal of a triangle of welded vertices in n, returns its area (0 if degenerate) */
+    private double triangleNormal(int g0, int g1, int g2, double[] n) {
+        return triangleNormal(positions[3 * g0], positions[3 * g0 + 1], positions[3 * g0 + 2],
+                positions[3 * g1], positions[3 * g1 + 1], positions[3 * g1 + 2],
+                positions[3 * g2], positions[3 * g2 + 1], positions[3 * g2 + 2], n);
+    }
+
+    private static double triangleNormal(double x0, double y0, double z0, double x1, double y1, double z1,
+                                         double x2, double y2, double z2, double[] n) {
+        double ux = x1 - x0, uy = y1 - y0, uz = z1 - z0;
+        double vx = x2 - x0, vy = y2 - y0, vz = z2 - z0;
+        double nx = uy * vz - uz * vy;
+        double ny = uz * vx - ux * vz;
+        double nz = ux * vy - uy * vx;
+        double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+        if (length == 0) {
+            n[0] = n[1] = n[2] = 0;
+            return 0;
+        }
+        n[0] = nx / length;
+        n[1] = ny / length;
+        n[2] = nz / length;
+        return length / 2;
+    }
+
+    private void initCollapses() {
+        Set<Long> edges = new HashSet<>();
+        for (int t = 0; t < triRemoved.length; t++) {
+            if (triRemoved[t]) {
+                continue;
+            }
+            for (int c = 0; c < 3; c++) {
+                int a = triGroups[3 * t + c];
+                int b = triGroups[3 * t + (c + 1) % 3];
+                if (edges.add(edgeKey(Math.min(a, b), Math.max(a, b)))) {
+                    heap.add(evaluate(a, b));
+                }
+            }
+        }
+    }
+
+    /* error of the position p for the sum of the quadrics of a and b */
+    private double error(double[] q, double x, double y, double z) {
+        return q[0] * x * x + 2 * q[1] * x * y + 2 * q[2] * x * z + 2 * q[3] * x
+                + q[4] * y * y + 2 * q[5] * y * z + 2 * q[6] * y
+                + q[7] * z * z + 2 * q[8] * z + q[9];
+    }
+
+    /* evaluate the collapse of the edge (a, b) : optimal position if the quadric is invertible and the position
+     * is not too far from the edge, otherwise the best of the endpoints and the middle */
+    private Collapse evaluate(int a, int b) {
+        double[] q = new double[10];
+        for (int i = 0; i < 10; i++) {
+            q[i] = quadrics[10 * a + i] + quadrics[10 * b + i];
+        }
+        double ax = positions[3 * a], ay = positions[3 * a + 1], az = positions[3 * a + 2];
+        double bx = positions[3 * b], by = positions[3 * b + 1], bz = positions[3 * b + 2];
+        double mx = (ax + bx) / 2, my = (ay + by) / 2, mz = (az + bz) / 2;
+
+        double bestX = mx, bestY = my, bestZ = mz;
+        double best = error(q, mx, my, mz);
+        double cost = error(q, ax, ay, az);
+        if (cost < best) {
+            best = cost;
+            bestX = ax;
+            bestY = ay;
+            bestZ = az;
+        }
+        cost = error(q, bx, by, bz);
+        if (cost < best) {
+            best = cost;
+            bestX = bx;
+            bestY = by;
+            bestZ = bz;
+        }
+
+        // solve A p = -b (Cramer), A being the upper-left 3x3 block of the quadric
+        double det = q[0] * (q[4] * q[7] - q[5] * q[5])
+                - q[1] * (q[1] * q[7] - q[5] * q[2])
+                + q[2] * (q[1] * q[5] - q[4] * q[2]);
+        if (Math.abs(det) > 1.0e-12) {
+            double rx = -q[3], ry = -q[6], rz = -q[8];
+            double x = (rx * (q[4] * q[7] - q[5] * q[5]) - q[1] * (ry * q[7] - q[5] * rz) + q[2] * (ry * q[5] - q[4] * rz)) / det;
+            double y = (q[0] * (ry * q[7] - q[5] * rz) - rx * (q[1] * q[7] - q[5] * q[2]) + q[2] * (q[1] * rz - ry * q[2])) / det;
+            double z = (q[0] * (q[4] * rz - ry * q[5]) - q[1] * (q[1] * rz - ry * q[2]) + rx * (q[1] * q[5] - q[4] * q[2])) / det;
+            double lengthSq = (bx - ax) * (bx - ax) + (by - ay) * (by - ay) + (bz - az) * (bz - az);
+            double distanceSq = (x - mx) * (x - mx) + (y - my) * (y - my) + (z - mz) * (z - mz);
+            cost = error(q, x, y, z);
+            if (distanceSq <= lengthSq && cost < best) {
+                best = cost;
+                bestX = x;
+                bestY = y;
+                bestZ = z;
+            }
+        }
+        return new Collapse(a, b, versions[a], versions[b], Math.max(best, 0), bestX, bestY, bestZ);
+    }
+
+    private void collapse(int targetTriangles) {
+        double[] oldNormal = new double[3];
+        double[] newNormal = new double[3];
+        while (liveTriangles > targetTriangles && !heap.isEmpty()) {
+            Collapse collapse = heap.poll();
+            int a = collapse.a;
+            int b = collapse.b;
+            if (removed[a] || removed[b] || versions[a] != collapse.versionA || versions[b] != collapse.versionB) {
+                // outdated
+                continue;
+            }
+            if (flips(a, b, collapse, oldNormal, newNormal) || flips(b, a, collapse, oldNormal, newNormal)) {
+                continue;
+            }
+            merge(a, b, collapse);
+        }
+    }
+
+    /* check if moving the vertex a to the position of the collapse flips one of its triangles not containing b */
+    private boolean flips(int a, int b, Collapse collapse, double[] oldNormal, double[] newNormal) {
+        for (int i = 0; i < adjacencySize[a]; i++) {
+            int t = adjacency[a][i];
+            if (triRemoved[t]) {
+                continue;
+            }
+            int g0 = triGroups[3 * t], g1 = triGroups[3 * t + 1], g2 = triGroups[3 * t + 2];
+            if (g0 == b || g1 == b || g2 == b) {
+                continue;
+            }
+            if (triangleNormal(g0, g1, g2, oldNormal) == 0) {
+                continue;
+            }
+            double[] p = new double[9];
+            int[] corners = {g0, g1, g2};
+            for (int c = 0; c < 3; c++) {
+                if (corners[c] == a) {
+                    p[3 * c] = collapse.x;
+                    p[3 * c + 1] = collapse.y;
+                    p[3 * c + 2] = collapse.z;
+                } else {
+                    p[3 * c] = positions[3 * corners[c]];
+                    p[3 * c + 1] = positions[3 * corners[c] + 1];
+                    p[3 * c + 2] = positions[3 * corners[c] + 2];
+                }
+            }
+            if (triangleNormal(p[0], p[1], p[2], p[3], p[4], p[5], p[6], p[7], p[8], newNormal) == 0) {
+                return true;
+            }
+            double cos = oldNormal[0] * newNormal[0] + oldNormal[1] * newNormal[1] + oldNormal[2] * newNormal[2];
+            if (cos < MIN_NORMAL_COS) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* collapse a into b */
+    private void merge(int a, int b, Collapse collapse) {
+        positions[3 * b] = collapse.x;
+        positions[3 * b + 1] = collapse.y;
+        positions[3 * b + 2] = collapse.z;
+        for (int i = 0; i < 10; i++) {
+            quadrics[10 * b + i] += quadrics[10 * a + i];
+        }
+        removed[a] = true;
+        versions[b]++;
+
+        for (int i = 0; i < adjacencySize[a]; i++) {
+            int t = adjacency[a][i];
+            if (triRemoved[t]) {
+                continue;
+            }
+            boolean withB = false;
+            for (int c = 0; c < 3; c++) {
+                if (triGroups[3 * t + c] == b) {
+                    withB = true;
+                }
+            }
+            if (withB) {
+                // the triangles of the edge degenerate
+                triRemoved[t] = true;
+                liveTriangles--;
+                continue;
+            }
+            for (int c = 0; c < 3; c++) {
+                if (triGroups[3 * t + c] == a) {
+                    triGroups[3 * t + c] = b;
+                    triVertices[3 * t + c] = closestVertex(b, triVertices[3 * t + c]);
+                }
+            }
+            push(adjacency, adjacencySize, b, t);
+        }
+        adjacency[a] = null;
+        adjacencySize[a] = 0;
+
+        // remove the dead triangles around b, and re-evaluate the edges from b
+        int[] around = adjacency[b];
+        int size = 0;
+        Set<Integer> neighbours = new HashSet<>();
+        for (int i = 0; i < adjacencySize[b]; i++) {
+            int t = around[i];
+            if (triRemoved[t]) {
+                continue;
+            }
+            around[size++] = t;
+            for (int c = 0; c < 3; c++) {
+                int g = triGroups[3 * t + c];
+                if (g != b) {
+                    neighbours.add(g);
+                }
+            }
+        }
+        adjacencySize[b] = size;
+        for (int n : neighbours) {
+            heap.add(evaluate(b, n));
+        }
+    }
+
+    /* the source vertex of the welded vertex b with the attributes closest to the source vertex v */
+    private int closestVertex(int b, int v) {
+        int best = groupVertices[b][0];
+        double bestDistance = Double.MAX_VALUE;
+        for (int i = 0; i < groupVertexCount[b]; i++) {
+            int candidate = groupVertices[b][i];
+            double distance = 1 - (normals[3 * v] * normals[3 * candidate]
+                    + normals[3 * v + 1] * normals[3 * candidate + 1]
+                    + normals[3 * v + 2] * normals[3 * candidate + 2]);
+            if (withTextCoords) {
+                double du = textCoords[2 * v] - textCoords[2 * candidate];
+                double dv = textCoords[2 * v + 1] - textCoords[2 * candidate + 1];
+                distance += du * du + dv * dv;
+            }
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+    private Geometry build() {
+        int[] remap = new int[groupOf.length];
+        Arrays.fill(remap, -1);
+        int[] indices = new int[3 * liveTriangles];
+        int indexCount = 0;
+        int vertexCount = 0;
+        for (int t = 0; t < triRemoved.length; t++) {
+            if (triRemoved[t]) {
+                continue;
+            }
+            for (int c = 0; c < 3; c++) {
+                int v = triVertices[3 * t + c];
+                if (remap[v] < 0) {
+                    remap[v] = vertexCount++;
+                }
+                indices[indexCount++] = remap[v];
+            }
+        }
+        float[] newVertices = new float[3 * vertexCount];
+        float[] newNormals = new float[3 * vertexCount];
+        float[] newTextCoords = withTextCoords ? new float[2 * vertexCount] : null;
+        for (int v = 0; v < groupOf.length; v++) {
+            int r = remap[v];
+            if (r < 0) {
+                continue;
+            }
+            int g = groupOf[v];
+            for (int k = 0; k < 3; k++) {
+                newVertices[3 * r + k] = (float) positions[3 * g + k];
+                newNormals[3 * r + k] = normals[3 * v + k];
+            }
+            if (withTextCoords) {
+                newTextCoords[2 * r] = textCoords[2 * v];
+                newTextCoords[2 * r + 1] = textCoords[2 * v + 1];
+            }
+        }
+        return new Geometry(newVertices, newTextCoords, newNormals, indices);
+    }
+}
@@ -0,0 +1,402 @@
+package yaw.engine.geom;
+
+import java.util.Arrays;
+
+/**
+ * Reordering of the triangles and the vertices of a geometry for the GPU, in three passes :
+ *
+ *  - the triangles are reordered for the post-transform vertex cache (Forsyth's linear-speed algorithm) :
+ *  the next triangle is the one of best score, the score of a vertex grows with its recency in a simulated
+ *  LRU cache and with its number of remaining triangles ;
+ *
+ *  - optionally, the triangles are then sorted for the overdraw (as Tootle and Tipsify do) : the order is cut
+ *  in clusters where the cache is flushed or where its efficiency is close to the average, and the clusters
+ *  facing outwards are drawn first, so that they hide the others ;
+ *
+ *  - the vertices are renumbered in their order of first use, for the vertex fetch.
+ *
+ * The efficiency is measured by the ACMR (average cache miss ratio : the number of vertex transformations per
+ * triangle, from 0.5 for an ideal order of a regular grid to 3), on a FIFO cache as the one of most GPUs.
+ */
+public class VertexCacheOptimizer {
+    /** the size of the simulated FIFO cache, for the ACMR */
+    public static final int DEFAULT_CACHE_SIZE = 16;
+    /** the clusters of the overdraw sort have an ACMR within this factor of the average */
+    public static final float DEFAULT_OVERDRAW_THRESHOLD = 1.05f;
+
+    /* the scoring of Forsyth, for a LRU cache of 32 vertices */
+    private static final int LRU_SIZE = 32;
+    private static final float CACHE_DECAY_POWER = 1.5f;
+    private static final float LAST_TRIANGLE_SCORE = 0.75f;
+    private static final float VALENCE_BOOST_SCALE = 2.0f;
+    private static final float VALENCE_BOOST_POWER = 0.5f;
+
+    private VertexCacheOptimizer() {
+    }
+
+    /**
+     * Optimize a geometry for the vertex cache and the vertex fetch
+     *
+     * @param geometry a geometry
+     * @return the geometry with the same triangles and vertices, reordered
+     */
+    public static Geometry optimize(Geometry geometry) {
+        return optimize(geometry, false);
+    }
+
+    /**
+     * Optimize a geometry for the vertex cache (and the overdraw) and the vertex fetch
+     *
+     * @param geometry a geometry
+     * @param overdraw true to sort the triangles for the overdraw too (the cache is less efficient)
+     * @return the geometry with the same triangles and vertices, reordered
+     */
+    public static Geometry optimize(Geometry geometry, boolean overdraw) {
+        int[] indices = geometry.getIndices();
+        if (indices.length < 6 || indices.length % 3 != 0) {
+            return geometry;
+        }
+        indices = reorderTriangles(indices, geometry.getVertexCount());
+        if (overdraw) {
+            indices = reorderForOverdraw(geometry.getVertices(), indices, DEFAULT_CACHE_SIZE, DEFAULT_OVERDRAW_THRESHOLD);
+        }
+        return reorderVertices(geometry, indices);
+    }
+
+    /**
+     * Simulate a FIFO vertex cache
+     *
+     * @param indices   the triangles
+     * @param cacheSize the number of vertices in the cache
+     * @return the number of vertices transformed
+     */
+    public static int cacheMisses(int[] indices, int cacheSize) {
+        return cacheMisses(indices, 0, indices.length / 3, cacheSize, new int[maxIndex(indices) + 1]);
+    }
+
+    /**
+     * @param indices   the triangles
+     * @param cacheSize the number of vertices in the FIFO cache
+     * @return the average number of vertices transformed per triangle
+     */
+    public static float acmr(int[] indices, int cacheSize) {
+        return indices.length < 3 ? 0 : (float) cacheMisses(indices, cacheSize) / (indices.length / 3);
+    }
+
+    /* FIFO cache of the triangles [first, last), the entries of a vertex are its insertion times (plus one) */
+    private static int cacheMisses(int[] indices, int first, int last, int cacheSize, int[] timestamps) {
+        Arrays.fill(timestamps, 0);
+        int time = cacheSize + 1;
+        int misses = 0;
+        for (int i = 3 * first; i < 3 * last; i++) {
+            int vertex = indices[i];
+            if (time - timestamps[vertex] > cacheSize) {
+                timestamps[vertex] = time++;
+                misses++;
+            }
+        }
+        return misses;
+    }
+
+    private static int maxIndex(int[] indices) {
+        int max = -1;
+        for (int index : indices) {
+            max = Math.max(max, index);
+        }
+        return max;
+    }
+
+    private static float vertexScore(int cachePosition, int remainingTriangles) {
+        if (remainingTriangles == 0) {
+            return -1;
+        }
+        float score = 0;
+        if (cachePosition >= 0) {
+            if (cachePosition < 3) {
+                // the vertices of the last triangle have a fixed score, so that the strips are not favoured
+                score = LAST_TRIANGLE_SCORE;
+            } else {
+                score = (float) Math.pow(1 - (cachePosition - 3) / (float) (LRU_SIZE - 3), CACHE_DECAY_POWER);
+            }
+        }
+        // the vertices with few remaining triangles are finished first
+        return score + VALENCE_BOOST_SCALE * (float) Math.pow(remainingTriangles, -VALENCE_BOOST_POWER);
+    }
+
+    /**
+     * Reorder the triangles for the vertex cache (Forsyth)
+     *
+     * @param indices     the triangles
+     * @param vertexCount the number of vertices
+     * @return the same triangles (with the same orientation), reordered
+     */
+    public static int[] reorderTriangles(int[] indices, int vertexCount) {
+        int triangleCount = indices.length / 3;
+        vertexCount = Math.max(vertexCount, maxIndex(indices) + 1);
+
+        // the triangles of each vertex (the remaining ones first)
+        int[] remaining = new int[vertexCount];
+        for (int index : indices) {
+            remaining[index]++;
+        }
+        int[] offsets = new int[vertexCount + 1];
+        for (int v = 0; v < vertexCount; v++) {
+            offsets[v + 1] = offsets[v] + remaining[v];
+        }
+        int[] triangles = new int[indices.length];
+        int[] filled = new int[vertexCount];
+        for (int t = 0; t < triangleCount; t++) {
+            for (int k = 0; k < 3; k++) {
+                int v = indices[3 * t + k];
+                triangles[offsets[v] + filled[v]++] = t;
+            }
+        }
+
+        int[] cachePosition = new int[vertexCount];
+        Arrays.fill(cachePosition, -1);
+        float[] vertexScores = new float[vertexCount];
+        for (int v = 0; v < vertexCount; v++) {
+            vertexScores[v] = vertexScore(-1, remaining[v]);
+        }
+        boolean[] added = new boolean[triangleCount];
+        int best = -1;
+        float bestScore = -1;
+        for (int t = 0; t < triangleCount; t++) {
+            float score = vertexScores[indices[3 * t]] + vertexScores[indices[3 * t + 1]]
+                    + vertexScores[indices[3 * t + 2]];
+            if (score > bestScore) {
+                bestScore = score;
+                best = t;
+            }
+        }
+
+        int[] result = new int[3 * triangleCount];
+        int[] cache = new int[LRU_SIZE + 3];
+        int[] nextCache = new int[LRU_SIZE + 3];
+        int cacheCount = 0;
+        int cursor = 0;
+        for (int out = 0; out < triangleCount; out++) {
+            if (best < 0) {
+                // nothing left around the cache : the next triangle in the input order
+                while (added[cursor]) {
+                    cursor++;
+                }
+                best = cursor;
+            }
+            added[best] = true;
+            System.arraycopy(indices, 3 * best, result, 3 * out, 3);
+
+            // the vertices of the triangle go to the front of the cache
+            int nextCount = 0;
+            for (int k = 0; k < 3; k++) {
+                int v = indices[3 * best + k];
+                nextCache[nextCount++] = v;
+                // the triangle is not remaining any more
+                int last = offsets[v] + remaining[v] - 1;
+                for (int i = offsets[v]; i <= last; i++) {
+                    if (triangles[i] == best) {
+                        triangles[i] = triangles[last];
+                        triangles[last] = best;
+                        break;
+                    }
+                }
+                remaining[v]--;
+            }
+            for (int i = 0; i < cacheCount; i++) {
+                int v = cache[i];
+                if (v != nextCache[0] && v != nextCache[1] && v != nextCache[2]) {
+                    nextCache[nextCount++] = v;
+                }
+            }
+            int[] swap = cache;
+            cache = nextCache;
+            nextCache = swap;
+            cacheCount = nextCount;
+
+            // new scores of the vertices in the cache (the evicted ones are out of it), and of their triangles
+            for (int i = 0; i < cacheCount; i++) {
+                int v = cache[i];
+                cachePosition[v] = i < LRU_SIZE ? i : -1;
+                vertexScores[v] = vertexScore(cachePosition[v], remaining[v]);
+            }
+            best = -1;
+            bestScore = -1;
+            for (int i = 0; i < cacheCount; i++) {
+                int v = cache[i];
+                for (int j = offsets[v]; j < offsets[v] + remaining[v]; j++) {
+                    int t = triangles[j];
+                    float score = vertexScores[indices[3 * t]] + vertexScores[indices[3 * t + 1]]
+                            + vertexScores[indices[3 * t + 2]];
+                    if (score > bestScore) {
+                        bestScore = score;
+                        best = t;
+                    }
+                }
+            }
+            cacheCount = Math.min(cacheCount, LRU_SIZE);
+        }
+        return result;
+    }
+
+    /**
+     * Sort the clusters of triangles for the overdraw, those facing outwards first (after
+     * {@link #reorderTriangles(int[], int)} : the cache efficiency is mostly kept within the clusters)
+     *
+     * @param vertices  the positions of the vertices
+     * @param indices   the triangles, in the order of the vertex cache
+     * @param cacheSize the number of vertices in the FIFO cache
+     * @param threshold a cluster ends when its ACMR is within this factor of the ACMR of its region (e.g. 1.05)
+     * @return the same triangles, reordered
+     */
+    public static int[] reorderForOverdraw(float[] vertices, int[] indices, int cacheSize, float threshold) {
+        int triangleCount = indices.length / 3;
+        int[] timestamps = new int[Math.max(maxIndex(indices) + 1, vertices.length / 3)];
+
+        // hard boundaries : the cache is flushed (all the vertices of the triangle are missed)
+        int[] clusters = new int[triangleCount + 1];
+        int clusterCount = 0;
+        Arrays.fill(timestamps, 0);
+        int time = cacheSize + 1;
+        for (int t = 0; t < triangleCount; t++) {
+            int misses = 0;
+            for (int k = 0; k < 3; k++) {
+                int vertex = indices[3 * t + k];
+                if (time - timestamps[vertex] > cacheSize) {
+                    timestamps[vertex] = time++;
+                    misses++;
+                }
+            }
+            if (misses == 3 || t == 0) {
+                clusters[clusterCount++] = t;
+            }
+        }
+        clusters[clusterCount] = triangleCount;
+
+        // soft boundaries : the part of a region drawn from a cold cache is as efficient as the region
+        int[] softClusters = new int[triangleCount + 1];
+        int softCount = 0;
+        for (int c = 0; c < clusterCount; c++) {
+            int first = clusters[c];
+            int last = clusters[c + 1];
+            float limit = threshold * cacheMisses(indices, first, last, cacheSize, timestamps) / (last - first);
+            int start = first;
+            int misses = 0;
+            Arrays.fill(timestamps, 0);
+            time = cacheSize + 1;
+            softClusters[softCount++] = first;
+            for (int t = first; t < last; t++) {
+                for (int k = 0; k < 3; k++) {
+                    int vertex = indices[3 * t + k];
+                    if (time - timestamps[vertex] > cacheSize) {
+                        timestamps[vertex] = time++;
+                        misses++;
+                    }
+                }
+                if (t + 1 < last && misses <= limit * (t + 1 - start)) {
+                    start = t + 1;
+                    misses = 0;
+                    // the next cluster starts from a cold cache
+                    time += cacheSize + 1;
+                    softClusters[softCount++] = start;
+                }
+            }
+        }
+        softClusters[softCount] = triangleCount;
+
+        // the centroid of the geometry, and the sort keys of the clusters
+        double cx = 0, cy = 0, cz = 0;
+        int used = 0;
+        Arrays.fill(timestamps, 0);
+        for (int index : indices) {
+            if (timestamps[index] == 0) {
+                timestamps[index] = 1;
+                cx += vertices[3 * index];
+                cy += vertices[3 * index + 1];
+                cz += vertices[3 * index + 2];
+                used++;
+            }
+        }
+        cx /= used;
+        cy /= used;
+        cz /= used;
+        float[] dots = new float[softCount];
+        for (int c = 0; c < softCount; c++) {
+            double area = 0, px = 0, py = 0, pz = 0, nx = 0, ny = 0, nz = 0;
+            for (int t = softClusters[c]; t < softClusters[c + 1]; t++) {
+                int a = 3 * indices[3 * t];
+                int b = 3 * indices[3 * t + 1];
+                int d = 3 * indices[3 * t + 2];
+                double ux = vertices[b] - vertices[a], uy = vertices[b + 1] - vertices[a + 1], uz = vertices[b + 2] - vertices[a + 2];
+                double vx = vertices[d] - vertices[a], vy = vertices[d + 1] - vertices[a + 1], vz = vertices[d + 2] - vertices[a + 2];
+                double tx = uy * vz - uz * vy, ty = uz * vx - ux * vz, tz = ux * vy - uy * vx;
+                double triangleArea = Math.sqrt(tx * tx + ty * ty + tz * tz);
+                px += triangleArea * (vertices[a] + vertices[b] + vertices[d]) / 3;
+                py += triangleArea * (vertices[a + 1] + vertices[b + 1] + vertices[d + 1]) / 3;
+                pz += triangleArea * (vertices[a + 2] + vertices[b + 2] + vertices[d + 2]) / 3;
+                nx += tx;
+                ny += ty;
+                nz += tz;
+                area += triangleArea;
+            }
+            double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+            if (area > 0 && length > 0) {
+                dots[c] = (float) (((px / area - cx) * nx + (py / area - cy) * ny + (pz / area - cz) * nz) / length);
+            }
+        }
+
+        // the most outward first, stable
+        Integer[] order = new Integer[softCount];
+        for (int c = 0; c < softCount; c++) {
+            order[c] = c;
+        }
+        Arrays.sort(order, (c1, c2) -> Float.compare(dots[c2], dots[c1]));
+        int[] result = new int[3 * triangleCount];
+        int out = 0;
+        for (int c : order) {
+            int first = softClusters[c];
+            int last = softClusters[c + 1];
+            System.arraycopy(indices, 3 * first, result, out, 3 * (last - first));
+            out += 3 * (last - first);
+        }
+        return result;
+    }
+
+    /**
+     * Renumber the vertices in their order of first use (the unused vertices are kept at the end)
+     *
+     * @param geometry a geometry
+     * @param indices  its triangles, reordered
+     * @return the geometry with the vertices reordered
+     */
+    public static Geometry reorderVertices(Geometry geometry, int[] indices) {
+        int vertexCount = geometry.getVertexCount();
+        int[] remap = new int[vertexCount];
+        Arrays.fill(remap, -1);
+        int next = 0;
+        int[] newIndices = new int[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            int vertex = indices[i];
+            if (remap[vertex] < 0) {
+                remap[vertex] = next++;
+            }
+            newIndices[i] = remap[vertex];
+        }
+        for (int vertex = 0; vertex < vertexCount; vertex++) {
+            if (remap[vertex] < 0) {
+                remap[vertex] = next++;
+            }
+        }
+        boolean withTextCoords = geometry.hasTextCoords();
+        return new Geometry(remapAttribute(geometry.getVertices(), 3, remap),
+                withTextCoords ? remapAttribute(geometry.getTextCoords(), 2, remap) : null,
+                remapAttribute(geometry.getNormals(), 3, remap), newIndices);
+    }
+
+    private static float[] remapAttribute(float[] values, int stride, int[] remap) {
+        float[] result = new float[values.length];
+        for (int vertex = 0; vertex < remap.length; vertex++) {
+            System.arraycopy(values, stride * vertex, result, stride * remap[vertex], stride);
+        }
+        return result;
+    }
+}
@@ -1,11 +1,13 @@
 package yaw.engine.helper;
 
+import org.joml.Vector3f;
 import yaw.engine.mesh.Material;
 import yaw.engine.shader.ShaderCode;
-import yaw.engine.shader.ShaderProgram;
+import yaw.engine.shader.Uniform;
 
-public class HelperAxesShaders extends ShaderProgram {
+public class HelperAxesShaders extends HelperShaders {
     private ShaderCode gs;
+    private Uniform.Vec3 center;
     /**
      * Create a draw helper for axes
      */
@@ -83,11 +85,11 @@ public class HelperAxesShaders extends ShaderProgram {
         createFragmentShader(fragmentShader());
 
         link();
-        createUniform("projectionMatrix");
-        createUniform("viewMatrix");
-        createUniform("modelMatrix");
-        createUniform("center");
+        createHelperUniforms();
+        center = createVec3Uniform("center");
     }
 
+    public void setCenter(Vector3f pCenter) {
+        center.set(pCenter);
+    }
 }
-
@@ -1,11 +1,16 @@
 package yaw.engine.helper;
 
+import org.joml.Vector3f;
 import yaw.engine.mesh.Material;
 import yaw.engine.shader.ShaderCode;
-import yaw.engine.shader.ShaderProgram;
+import yaw.engine.shader.ShaderProgramADS;
+import yaw.engine.shader.Uniform;
 
-public class HelperNormalsShaders extends ShaderProgram {
+public class HelperNormalsShaders extends HelperShaders {
     private ShaderCode gs;
+    private Uniform.Int octahedralNormals;
+    private Uniform.Vec3 quantOffset;
+    private Uniform.Vec3 quantScale;
     public HelperNormalsShaders() {
     }
 
@@ -20,13 +25,21 @@ public class HelperNormalsShaders extends ShaderProgram {
                 .l("uniform mat4 viewMatrix;")
                 .l("uniform mat4 modelMatrix;")
                 .l()
+                .cmt("Vertex format (quantized meshes)")
+                .l("uniform bool octahedralNormals;")
+                .l("uniform vec3 quantOffset;")
+                .l("uniform vec3 quantScale;")
+                .l()
                 .cmt("Outputs")
                 .l("out vec3 vNormal;\n")
+                .l();
+        ShaderProgramADS.octahedralDecode(code)
                 .l()
                 .beginMain()
-                .l("vec4 mvPos = modelMatrix * vec4(position, 1.0);")
+                .l("vec3 n = octahedralNormals ? octahedralDecode(normal.xy) : normal;")
+                .l("vec4 mvPos = modelMatrix * vec4(quantOffset + position * quantScale, 1.0);")
                 .l("gl_Position = projectionMatrix * viewMatrix * mvPos;")
-                .l("vNormal = normalize(transpose(inverse(mat3(modelMatrix))) * normal);")
+                .l("vNormal = normalize(transpose(inverse(mat3(modelMatrix))) * n);")
                 .endMain()
                 ;
         return code;
@@ -69,9 +82,23 @@ public class HelperNormalsShaders extends ShaderProgram {
 
         link();
 
-        createUniform("projectionMatrix");
-        createUniform("viewMatrix");
-        createUniform("modelMatrix");
+        createHelperUniforms();
+        octahedralNormals = createIntUniform("octahedralNormals");
+        quantOffset = createVec3Uniform("quantOffset");
+        quantScale = createVec3Uniform("quantScale");
+    }
+
+    /**
+     * Set the vertex format of the mesh (the program must be bound)
+     *
+     * @param pOctahedralNormals true if the normals are octahedral-encoded
+     * @param pOffset            the offset of the (quantized) positions
+     * @param pScale             the scale of the (quantized) positions
+     */
+    public void setupVertexFormat(boolean pOctahedralNormals, Vector3f pOffset, Vector3f pScale) {
+        octahedralNormals.set(pOctahedralNormals ? 1 : 0);
+        quantOffset.set(pOffset);
+        quantScale.set(pScale);
     }
 
 }
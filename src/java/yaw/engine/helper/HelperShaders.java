@@ -0,0 +1,38 @@
+package yaw.engine.helper;
+
+import org.joml.Matrix4f;
+import yaw.engine.camera.Camera;
+import yaw.engine.shader.ShaderProgram;
+import yaw.engine.shader.Uniform;
+
+/**
+ * Common base of the helper shaders : the camera matrices and the model matrix of the item
+ */
+public abstract class HelperShaders extends ShaderProgram {
+    private Uniform.Mat4 projectionMatrix;
+    private Uniform.Mat4 viewMatrix;
+    private Uniform.Mat4 modelMatrix;
+
+    /**
+     * Create the common uniforms (after linking)
+     */
+    protected void createHelperUniforms() {
+        projectionMatrix = createMat4Uniform("projectionMatrix");
+        viewMatrix = createMat4Uniform("viewMatrix");
+        modelMatrix = createMat4Uniform("modelMatrix");
+    }
+
+    /**
+     * Set the camera matrices (the program must be bound)
+     *
+     * @param pCamera the camera
+     */
+    public void setupCamera(Camera pCamera) {
+        projectionMatrix.set(pCamera.getProjectionMat());
+        viewMatrix.set(pCamera.getViewMat());
+    }
+
+    public void setModelMatrix(Matrix4f pModelMatrix) {
+        modelMatrix.set(pModelMatrix);
+    }
+}
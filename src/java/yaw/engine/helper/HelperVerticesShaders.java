@@ -1,9 +1,8 @@
 package yaw.engine.helper;
 
 import yaw.engine.shader.ShaderCode;
-import yaw.engine.shader.ShaderProgram;
 
-public class HelperVerticesShaders extends ShaderProgram {
+public class HelperVerticesShaders extends HelperShaders {
 
     public HelperVerticesShaders() {
     }
@@ -39,9 +38,7 @@ public class HelperVerticesShaders extends ShaderProgram {
 
         link();
 
-        createUniform("projectionMatrix");
-        createUniform("viewMatrix");
-        createUniform("modelMatrix");
+        createHelperUniforms();
     }
 }
 
@@ -1,6 +1,9 @@
 package yaw.engine.items;
 
 import org.joml.*;
+import org.joml.Math;
+import yaw.engine.geom.Geometry;
+import yaw.engine.mesh.LodChain;
 import yaw.engine.mesh.Mesh;
 
 /**
@@ -14,12 +17,34 @@ public class ItemObject extends Item {
     /** The transformation matrix to world coordinates */
     private Matrix4f modelMatrix;
 
+    /** The transformation matrix of the normals : transpose of the inverse of the model matrix (3x3) */
+    private final Matrix3f normalMatrix = new Matrix3f();
+
+    /** The transformations only mark the matrices (and the bounds) as dirty,
+     * they are rebuilt when they are needed (e.g. at most once per frame) */
+    private boolean modelDirty;
+    private boolean normalDirty;
+    private boolean boundsDirty;
+    private int boundsVersion;
+
+    /** World-space bounding volumes (refreshed with the model matrix) */
+    private final Vector3f worldAabbMin = new Vector3f();
+    private final Vector3f worldAabbMax = new Vector3f();
+    private final Vector3f worldSphereCenter = new Vector3f();
+    private float worldSphereRadius;
+
     private boolean vertexHelpers;
     private boolean normalHelpers;
     private boolean axisHelpers;
 
     private boolean castShadows = true;
 
+    /* rasterized in the occlusion buffer, to hide the items behind it */
+    private boolean occluder;
+
+    /* level of detail selected at the last frame (meshes with levels of detail) */
+    private int lodLevel;
+
     public ItemObject(String id, Vector3f position, Quaternionf orientation, float scale, Mesh mesh) {
         super(id, position, orientation, scale);
         this.mesh= mesh;
@@ -57,13 +82,88 @@ public class ItemObject extends Item {
                 .scale(getScale());
     }
 
+    /**
+     * @return the transformation matrix to world coordinates, rebuilt if the item moved (must not be modified)
+     */
     public Matrix4f getModelMatrix() {
+        if (modelDirty) {
+            modelDirty = false;
+            buildWorldMatrix();
+        }
         return modelMatrix;
     }
 
+    /**
+     * @return the transformation matrix of the normals, rebuilt if the item moved (must not be modified)
+     */
+    public Matrix3f getNormalMatrix() {
+        if (normalDirty) {
+            normalDirty = false;
+            float lengthSquared = orientation.lengthSquared();
+            if (scale != 0 && Math.abs(lengthSquared - 1.0f) < 1.0e-4f) {
+                // uniform scale : the inverse transpose of (rotation * scale) is rotation / scale
+                normalMatrix.set(orientation).scale(1.0f / scale);
+            } else {
+                normalMatrix.set(getModelMatrix()).invert().transpose();
+            }
+        }
+        return normalMatrix;
+    }
+
     @Override
     public void invalidate() {
-        buildWorldMatrix();
+        modelDirty = true;
+        normalDirty = true;
+        boundsDirty = true;
+    }
+
+    /**
+     * Transform the (cached) bounding volumes of the mesh geometry to world space
+     */
+    private void updateWorldBounds() {
+        Geometry geom = mesh.getGeometry();
+        // the geometry of a dynamic mesh may have changed
+        if (!boundsDirty && boundsVersion == geom.getBoundsVersion()) {
+            return;
+        }
+        boundsDirty = false;
+        boundsVersion = geom.getBoundsVersion();
+        Matrix4f modelMatrix = getModelMatrix();
+        Vector3f min = geom.getAabbMin();
+        Vector3f max = geom.getAabbMax();
+        modelMatrix.transformAab(min.x, min.y, min.z, max.x, max.y, max.z, worldAabbMin, worldAabbMax);
+        modelMatrix.transformPosition(geom.getBoundingSphereCenter(), worldSphereCenter);
+        // the scale of an item is uniform
+        worldSphereRadius = geom.getBoundingSphereRadius() * Math.abs(getScale());
+    }
+
+    /**
+     * @return the minimum corner of the world-space bounding box (must not be modified)
+     */
+    public Vector3f getWorldAabbMin() {
+        updateWorldBounds();
+        return worldAabbMin;
+    }
+
+    /**
+     * @return the maximum corner of the world-space bounding box (must not be modified)
+     */
+    public Vector3f getWorldAabbMax() {
+        updateWorldBounds();
+        return worldAabbMax;
+    }
+
+    /**
+     * @return the center of the world-space bounding sphere (must not be modified)
+     */
+    public Vector3f getWorldSphereCenter() {
+        updateWorldBounds();
+        return worldSphereCenter;
+    }
+
+    public float getWorldSphereRadius() {
+        updateWorldBounds();
+        return worldSphereRadius;
     }
 
     public void repelBy(Vector3f center, float dist) {
@@ -74,6 +174,7 @@ public class ItemObject extends Item {
             dif.mul(move);
             dif.add(center);
             position = dif;
+            invalidate();
         }
     }
 
@@ -238,5 +339,39 @@ public class ItemObject extends Item {
         this.castShadows = castShadows;
     }
 
+    public boolean isOccluder() {
+        return occluder;
+    }
+
+    /**
+     * Designate the item as an occluder : the items hidden behind it are not rendered. The occluders themselves
+     * are always rendered (when in the view), even if hidden behind other occluders.
+     * The occluders should be a few large items with simple geometries (e.g. walls, buildings).
+     *
+     * @param occluder true for an occluder
+     */
+    public void setOccluder(boolean occluder) {
+        this.occluder = occluder;
+    }
+
+    /**
+     * @return the level of detail of the item at the last frame (0 for full detail)
+     */
+    public int getLodLevel() {
+        return lodLevel;
+    }
+
+    public void setLodLevel(int lodLevel) {
+        this.lodLevel = lodLevel;
+    }
+
+    /**
+     * @return the mesh of the level of detail of the item
+     */
+    public Mesh getLodMesh() {
+        LodChain chain = mesh.getLodChain();
+        return chain != null ? chain.getLevel(lodLevel) : mesh;
+    }
+
 
 }
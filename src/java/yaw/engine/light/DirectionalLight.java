@@ -4,7 +4,7 @@ import org.joml.Vector3f;
 import yaw.engine.SceneRenderer;
 import yaw.engine.camera.Camera;
 import yaw.engine.shader.ShaderManager;
-import yaw.engine.shader.ShaderProgram;
+import yaw.engine.shader.ShaderProgramADS;
 
 /**
  * all the objects in the 3D the space are hit by parallel ray lights coming from a specific direction.
@@ -78,7 +78,7 @@ public class DirectionalLight extends AmbientLight {
         }
     }
 
-    public void bindShadowMap(ShaderProgram shaderProgram) {
+    public void bindShadowMap(ShaderProgramADS shaderProgram) {
         if (mShadowMap != null) {
             mShadowMap.bind(shaderProgram);
         }
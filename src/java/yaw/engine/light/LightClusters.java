@@ -0,0 +1,319 @@
+package yaw.engine.light;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import java.util.Arrays;
+
+/**
+ * Binning of the point and spot lights in a 3D grid of clusters (froxels), for clustered forward lighting.
+ *
+ * The view frustum is divided in tiles on screen, and in slices along the view depth, with an exponential
+ * distribution between the near and the far planes. Each light is bounded by a sphere (the distance where
+ * its contribution falls under a threshold), and is added to the clusters that the sphere may touch.
+ * The result is the list of the lights of each cluster (an offset and a count in a shared index list),
+ * and the data of the lights, so that a fragment only computes the lights of its cluster.
+ *
+ * The binning is done on the CPU at each frame (if the camera or the lights changed).
+ */
+public class LightClusters {
+    public static final int DEFAULT_SIZE_X = 16;
+    public static final int DEFAULT_SIZE_Y = 9;
+    public static final int DEFAULT_SIZE_Z = 24;
+    /** floats per light : color and intensity, position and constant attenuation,
+     * linear and quadratic attenuations and cosine of the cutoff (spot lights), cone direction */
+    public static final int LIGHT_FLOATS = 16;
+    /** cutoff value of the point lights (the cosine of the spot lights is at least -1) */
+    public static final float POINT_LIGHT_CUTOFF = -2;
+    /* the lights are ignored where their contribution is below this fraction */
+    private static final float CONTRIBUTION_THRESHOLD = 1.0f / 256;
+
+    private final int sizeX;
+    private final int sizeY;
+    private final int sizeZ;
+    private float near;
+    private float far;
+    private float sliceScale;
+
+    /* per cluster : offset and count in the index list */
+    private final int[] ranges;
+    private int[] indices;
+    private int indexCount;
+    private float[] lightData;
+    private int lightCount;
+
+    /* per light : the ranges of tiles and slices x0, x1, y0, y1, z0, z1 (empty if x0 > x1) */
+    private int[] lightBounds;
+    private final Vector3f center;
+
+    public LightClusters(int sizeX, int sizeY, int sizeZ) {
+        this.sizeX = sizeX;
+        this.sizeY = sizeY;
+        this.sizeZ = sizeZ;
+        ranges = new int[2 * sizeX * sizeY * sizeZ];
+        indices = new int[1024];
+        lightData = new float[LIGHT_FLOATS * 16];
+        lightBounds = new int[6 * 16];
+        center = new Vector3f();
+    }
+
+    public LightClusters() {
+        this(DEFAULT_SIZE_X, DEFAULT_SIZE_Y, DEFAULT_SIZE_Z);
+    }
+
+    /**
+     * Bin the lights for a camera
+     *
+     * @param viewMatrix       the view matrix of the camera
+     * @param projectionMatrix the (symmetric perspective) projection matrix of the camera
+     * @param zNear            the near distance of the camera
+     * @param zFar             the far distance of the camera
+     * @param lightModel       the lights
+     */
+    public void update(Matrix4f viewMatrix, Matrix4f projectionMatrix, float zNear, float zFar, LightModel lightModel) {
+        near = zNear;
+        far = zFar;
+        sliceScale = (float) (sizeZ / Math.log(zFar / zNear));
+        lightCount = lightModel.getNbPointLights() + lightModel.getNbSpotLights();
+        if (lightData.length < lightCount * LIGHT_FLOATS) {
+            lightData = new float[lightCount * LIGHT_FLOATS * 2];
+            lightBounds = new int[lightCount * 6 * 2];
+        }
+
+        float scaleX = projectionMatrix.m00();
+        float scaleY = projectionMatrix.m11();
+        for (int i = 0; i < lightModel.getNbPointLights(); i++) {
+            PointLight pointLight = lightModel.getPointLight(i);
+            putLight(lightData, i, pointLight, null);
+            bound(i, pointLight, viewMatrix, scaleX, scaleY);
+        }
+        for (int i = 0; i < lightModel.getNbSpotLights(); i++) {
+            int light = lightModel.getNbPointLights() + i;
+            SpotLight spotLight = lightModel.getSpotLight(i);
+            putLight(lightData, light, spotLight, spotLight);
+            // bounded as a point light (conservative)
+            bound(light, spotLight, viewMatrix, scaleX, scaleY);
+        }
+
+        // count the lights of each cluster, then fill the index list at the offsets (prefix sums)
+        Arrays.fill(ranges, 0);
+        int total = 0;
+        for (int light = 0; light < lightCount; light++) {
+            int b = 6 * light;
+            for (int z = lightBounds[b + 4]; z <= lightBounds[b + 5]; z++) {
+                for (int y = lightBounds[b + 2]; y <= lightBounds[b + 3]; y++) {
+                    for (int x = lightBounds[b]; x <= lightBounds[b + 1]; x++) {
+                        ranges[2 * cluster(x, y, z) + 1]++;
+                        total++;
+                    }
+                }
+            }
+        }
+        if (indices.length < total) {
+            indices = new int[Math.max(total, 2 * indices.length)];
+        }
+        int offset = 0;
+        for (int c = 0; c < ranges.length; c += 2) {
+            ranges[c] = offset;
+            offset += ranges[c + 1];
+            ranges[c + 1] = 0;
+        }
+        for (int light = 0; light < lightCount; light++) {
+            int b = 6 * light;
+            for (int z = lightBounds[b + 4]; z <= lightBounds[b + 5]; z++) {
+                for (int y = lightBounds[b + 2]; y <= lightBounds[b + 3]; y++) {
+                    for (int x = lightBounds[b]; x <= lightBounds[b + 1]; x++) {
+                        int c = 2 * cluster(x, y, z);
+                        indices[ranges[c] + ranges[c + 1]++] = light;
+                    }
+                }
+            }
+        }
+        indexCount = total;
+    }
+
+    /**
+     * Write the data of a light ({@link #LIGHT_FLOATS} floats, the last float of the second
+     * and fourth texels are left to 0)
+     *
+     * @param data       the light data
+     * @param light      the index of the light in the data
+     * @param pointLight the light
+     * @param spotLight  the light if it is a spot light, null otherwise
+     */
+    public static void putLight(float[] data, int light, PointLight pointLight, SpotLight spotLight) {
+        int k = light * LIGHT_FLOATS;
+        put(data, k, pointLight.getColor());
+        data[k + 3] = pointLight.getIntensity();
+        put(data, k + 4, pointLight.getPosition());
+        data[k + 7] = pointLight.getConstantAtt();
+        data[k + 8] = pointLight.getLinearAtt();
+        data[k + 9] = pointLight.getQuadraticAtt();
+        if (spotLight != null) {
+            // the cutoff angle is given in degrees, the shader compares cosines
+            data[k + 10] = (float) Math.cos(Math.toRadians(spotLight.getCutoffAngle()));
+            put(data, k + 12, spotLight.getConedir());
+        } else {
+            data[k + 10] = POINT_LIGHT_CUTOFF;
+            Arrays.fill(data, k + 12, k + 15, 0);
+        }
+        data[k + 11] = 0;
+        data[k + 15] = 0;
+    }
+
+    private static void put(float[] data, int k, Vector3f v) {
+        data[k] = v.x;
+        data[k + 1] = v.y;
+        data[k + 2] = v.z;
+    }
+
+    /**
+     * @return the distance where the contribution of the light falls under the threshold (may be infinite),
+     * or a negative value if the light has no significant contribution
+     */
+    public static float getRange(PointLight pointLight) {
+        Vector3f color = pointLight.getColor();
+        float maxContribution = pointLight.getIntensity() * Math.max(color.x, Math.max(color.y, color.z));
+        // constant + linear * d + quadratic * d^2 = maxContribution / threshold
+        float k = maxContribution / CONTRIBUTION_THRESHOLD;
+        float constant = pointLight.getConstantAtt();
+        float linear = pointLight.getLinearAtt();
+        float quadratic = pointLight.getQuadraticAtt();
+        if (maxContribution <= 0 || constant >= k) {
+            return -1;
+        }
+        if (quadratic > 0) {
+            return (float) ((-linear + Math.sqrt(linear * linear - 4 * quadratic * (constant - k))) / (2 * quadratic));
+        }
+        if (linear > 0) {
+            return (k - constant) / linear;
+        }
+        return Float.POSITIVE_INFINITY;
+    }
+
+    private void bound(int light, PointLight pointLight, Matrix4f viewMatrix, float scaleX, float scaleY) {
+        int b = 6 * light;
+        // empty by default
+        lightBounds[b] = 0;
+        lightBounds[b + 1] = -1;
+        lightBounds[b + 2] = 0;
+        lightBounds[b + 3] = -1;
+        lightBounds[b + 4] = 0;
+        lightBounds[b + 5] = -1;
+        float radius = getRange(pointLight);
+        if (radius < 0) {
+            return;
+        }
+        viewMatrix.transformPosition(pointLight.getPosition(), center);
+        float depth = -center.z;
+        float minDepth = depth - radius;
+        float maxDepth = depth + radius;
+        if (maxDepth < near || minDepth > far) {
+            return;
+        }
+        int z0 = slice(Math.max(minDepth, near));
+        int z1 = slice(Math.min(maxDepth, far));
+        int x0 = 0, x1 = sizeX - 1, y0 = 0, y1 = sizeY - 1;
+        if (minDepth > near) {
+            // the extremes of the projection of the bounding box of the sphere are at its corners
+            float minX = Float.POSITIVE_INFINITY, maxX = Float.NEGATIVE_INFINITY;
+            float minY = Float.POSITIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+            for (float d : new float[]{minDepth, maxDepth}) {
+                minX = Math.min(minX, scaleX * (center.x - radius) / d);
+                maxX = Math.max(maxX, scaleX * (center.x + radius) / d);
+                minY = Math.min(minY, scaleY * (center.y - radius) / d);
+                maxY = Math.max(maxY, scaleY * (center.y + radius) / d);
+            }
+            if (maxX < -1 || minX > 1 || maxY < -1 || minY > 1) {
+                return;
+            }
+            x0 = tile(minX, sizeX);
+            x1 = tile(maxX, sizeX);
+            y0 = tile(minY, sizeY);
+            y1 = tile(maxY, sizeY);
+        }
+        lightBounds[b] = x0;
+        lightBounds[b + 1] = x1;
+        lightBounds[b + 2] = y0;
+        lightBounds[b + 3] = y1;
+        lightBounds[b + 4] = z0;
+        lightBounds[b + 5] = z1;
+    }
+
+    private static int tile(float ndc, int size) {
+        return Math.min(Math.max((int) Math.floor((ndc * 0.5f + 0.5f) * size), 0), size - 1);
+    }
+
+    /**
+     * @param depth the view depth (distance along the view direction)
+     * @return the slice of the depth
+     */
+    public int slice(float depth) {
+        int z = (int) Math.floor(Math.log(depth / near) * sliceScale);
+        return Math.min(Math.max(z, 0), sizeZ - 1);
+    }
+
+    public int cluster(int x, int y, int z) {
+        return (z * sizeY + y) * sizeX + x;
+    }
+
+    /**
+     * @return the offset and the count of the lights of each cluster (2 ints per cluster)
+     */
+    public int[] getRanges() {
+        return ranges;
+    }
+
+    /**
+     * @return the light indices of the clusters (the first {@link #getIndexCount()} are valid)
+     */
+    public int[] getIndices() {
+        return indices;
+    }
+
+    public int getIndexCount() {
+        return indexCount;
+    }
+
+    /**
+     * @return the data of the lights, {@link #LIGHT_FLOATS} per light (the first {@link #getLightCount()} are valid)
+     */
+    public float[] getLightData() {
+        return lightData;
+    }
+
+    public int getLightCount() {
+        return lightCount;
+    }
+
+    public int getSizeX() {
+        return sizeX;
+    }
+
+    public int getSizeY() {
+        return sizeY;
+    }
+
+    public int getSizeZ() {
+        return sizeZ;
+    }
+
+    public int getClusterCount() {
+        return sizeX * sizeY * sizeZ;
+    }
+
+    public float getNear() {
+        return near;
+    }
+
+    public float getFar() {
+        return far;
+    }
+
+    /**
+     * @return the factor from the logarithm of the depth (relative to the near distance) to the slice
+     */
+    public float getSliceScale() {
+        return sliceScale;
+    }
+}
@@ -3,9 +3,9 @@ package yaw.engine.light;
 import yaw.engine.SceneRenderer;
 import yaw.engine.camera.Camera;
 import yaw.engine.shader.*;
-import org.joml.Matrix4f;
 import org.joml.Vector3f;
-import org.joml.Vector4f;
+
+import java.util.Arrays;
 
 public class LightModel {
     private AmbientLight ambientLight;
@@ -21,12 +21,24 @@ public class LightModel {
     private SpotLight[] spotLights;
     private int nbSpotLights;
 
+    /** the point and spot lights are binned in clusters and read from buffers, instead of the light block */
+    public final boolean clustered;
+
+    /* version of the lights, and snapshot of the light values of the last change */
+    private long version;
+    private float[] lightState;
+    private float[] scratchState;
+    private int lightStateSize;
+
     /**
      * Constructor without parameters, it used to create the maximum of point light and spot light.
+     * With clustered lighting, the maximums only bound the lights of the model : they are not
+     * compiled in the shaders, and each fragment only computes the lights of its cluster.
      */
-    public LightModel(boolean hasDirectionalLight, int maxPointLights, int maxSpotLights) {
+    public LightModel(boolean hasDirectionalLight, int maxPointLights, int maxSpotLights, boolean clustered) {
         ambientLight = new AmbientLight();
         this.hasDirectionalLight = hasDirectionalLight;
+        this.clustered = clustered;
         directionalLight = null;
 
         this.maxPointLights = maxPointLights;
@@ -37,6 +49,17 @@ public class LightModel {
 
         this.spotLights = new SpotLight[maxSpotLights];
         nbSpotLights = 0;
+
+        // ambient, light counts, directional light, then 10 floats per point light and 14 per spot light
+        int stateSize = 3 + 2 + 8 + maxPointLights * 10 + maxSpotLights * 14;
+        lightState = new float[stateSize];
+        scratchState = new float[stateSize];
+        lightStateSize = -1;
+        version = 0;
+    }
+
+    public LightModel(boolean hasDirectionalLight, int maxPointLights, int maxSpotLights) {
+        this(hasDirectionalLight, maxPointLights, maxSpotLights, false);
     }
 
     public LightModel() {
@@ -48,62 +71,70 @@ public class LightModel {
     }
 
     /**
-     * Set to the render the different light
+     * Check if a light changed since the last frame, in which case the version of the lights is incremented.
+     * It must be called once per frame, before the lights are uploaded to the programs.
+     * The lights are public mutable objects, so the check compares the light values to a snapshot of the last frame.
      *
-     * @param viewMatrix viewMatrix
+     * @return the version of the lights
      */
-    public void setupShader(Matrix4f viewMatrix, ShaderProgram shaderProgram) {
-        shaderProgram.bind();
-        shaderProgram.setUniform("ambientLight", ambientLight);
-
-        // Process Point Lights
+    public long update() {
+        int k = 0;
+        k = put(scratchState, k, ambientLight.getShaderValue());
+        scratchState[k++] = nbPointLights;
+        scratchState[k++] = nbSpotLights;
+        if (hasDirectionalLight) {
+            if (directionalLight != null) {
+                scratchState[k++] = 1;
+                k = put(scratchState, k, directionalLight.getColor());
+                k = put(scratchState, k, directionalLight.mDirection);
+                scratchState[k++] = directionalLight.getIntensity();
+            } else {
+                Arrays.fill(scratchState, k, k + 8, 0);
+                k += 8;
+            }
+        }
         for (int i = 0; i < nbPointLights; i++) {
-            // Get a copy of the point light object and transform its position to view coordinates
-            PointLight currPointLight = new PointLight(pointLights[i]);
-            Vector3f lightPos = new Vector3f(currPointLight.getPosition());
-            Vector4f aux = new Vector4f(lightPos, 1);
-            aux.mul(viewMatrix);
-            lightPos.x = aux.x;
-            lightPos.y = aux.y;
-            lightPos.z = aux.z;
-
-            //Bug correction
-            currPointLight.setPosition(lightPos);
-
-            shaderProgram.setUniform("pointLights", currPointLight, i);
+            k = put(scratchState, k, pointLights[i]);
         }
-
-        // Process Spot Ligths
         for (int i = 0; i < nbSpotLights; i++) {
-            // Get a copy of the spot light object and transform its position and cone direction to view coordinates
-            SpotLight currSpotLight = new SpotLight(spotLights[i]);
-            Vector4f dir = new Vector4f(currSpotLight.mConedir, 0);
-            dir.mul(viewMatrix);
-            currSpotLight.mConedir = new Vector3f(dir.x, dir.y, dir.z);
-            currSpotLight.mCutoffAngle = (float) Math.cos(Math.toRadians(currSpotLight.mCutoffAngle));
-            Vector3f lightPos = new Vector3f(currSpotLight.getPosition());
-            Vector4f aux = new Vector4f(lightPos, 1);
-            aux.mul(viewMatrix);
-            lightPos.x = aux.x;
-            lightPos.y = aux.y;
-            lightPos.z = aux.z;
-
-            //Bug Correction
-            currSpotLight.setPosition(lightPos);
-
-            shaderProgram.setUniform("spotLights", currSpotLight, i);
+            SpotLight spotLight = spotLights[i];
+            k = put(scratchState, k, spotLight);
+            k = put(scratchState, k, spotLight.mConedir);
+            scratchState[k++] = spotLight.mCutoffAngle;
         }
-
-        // Get a copy of the directional light object and transform its position to view coordinates
-        if (hasDirectionalLight && directionalLight != null) {
-            DirectionalLight currDirLight = new DirectionalLight(directionalLight);
-            Vector4f dir = new Vector4f(currDirLight.mDirection, 0);
-            dir.mul(viewMatrix);
-            currDirLight.mDirection = new Vector3f(dir.x, dir.y, dir.z);
-            shaderProgram.setUniform("directionalLight", currDirLight);
-            //directionalLight.bindShadowMap(shaderProgram);
+        if (!Arrays.equals(scratchState, 0, k, lightState, 0, k) || k != lightStateSize) {
+            // keep the new snapshot (swap, to avoid copying)
+            float[] swap = lightState;
+            lightState = scratchState;
+            scratchState = swap;
+            lightStateSize = k;
+            version++;
         }
+        return version;
+    }
+
+    private static int put(float[] state, int k, Vector3f v) {
+        state[k] = v.x;
+        state[k + 1] = v.y;
+        state[k + 2] = v.z;
+        return k + 3;
+    }
 
+    private static int put(float[] state, int k, PointLight pointLight) {
+        k = put(state, k, pointLight.mColor);
+        k = put(state, k, pointLight.mPosition);
+        state[k] = pointLight.mIntensity;
+        state[k + 1] = pointLight.mConstantAtt;
+        state[k + 2] = pointLight.mLinearAtt;
+        state[k + 3] = pointLight.mQuadraticAtt;
+        return k + 4;
+    }
+
+    /**
+     * @return the version of the lights, incremented by {@link #update()} when a light changed
+     */
+    public long getVersion() {
+        return version;
     }
 
     public AmbientLight getAmbientLight() {
@@ -126,10 +157,11 @@ public class LightModel {
     }
 
     public int addPointLight(PointLight pointLight) {
-        if (nbSpotLights >= maxSpotLights) {
+        if (nbPointLights >= maxPointLights) {
             throw new Error("Cannot add point light: maximum number reached");
         }
         pointLights[nbPointLights] = pointLight;
+        nbPointLights++;
         return nbPointLights - 1;
     }
 
@@ -138,6 +170,23 @@ public class LightModel {
             throw new Error("Cannot add spot light: maximum number reached");
         }
         spotLights[nbSpotLights] = spotLight;
+        nbSpotLights++;
         return nbSpotLights - 1;
     }
+
+    public int getNbPointLights() {
+        return nbPointLights;
+    }
+
+    public int getNbSpotLights() {
+        return nbSpotLights;
+    }
+
+    public PointLight getPointLight(int index) {
+        return pointLights[index];
+    }
+
+    public SpotLight getSpotLight(int index) {
+        return spotLights[index];
+    }
 }
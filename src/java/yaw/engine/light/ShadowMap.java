@@ -21,12 +21,25 @@ import static org.lwjgl.opengl.GL30.*;
 public class ShadowMap {
 
     private class ShadowShaderProgram extends ShaderProgram {
+        private Uniform.Mat4 projectionMatrix;
+        private Uniform.Mat4 viewMatrix;
+        private Uniform.Mat4 modelMatrix;
 
         public ShadowShaderProgram() {
             super();
         }
 
-        public void init() {}
+        public void init() {
+            createVertexShader(shadowVertShader.SHADER_STRING);
+            createFragmentShader(shadowFragShader.SHADER_STRING);
+
+            /* Binds the code and checks that everything has been done correctly. */
+            link();
+
+            projectionMatrix = createMat4Uniform("projectionMatrix");
+            viewMatrix = createMat4Uniform("viewMatrix");
+            modelMatrix = createMat4Uniform("modelMatrix");
+        }
 
     }
 
@@ -56,6 +69,8 @@ public class ShadowMap {
 
     private Matrix4f projection = new Matrix4f();
     private Matrix4f view = new Matrix4f();
+    private final Matrix4f shadowMatrix = new Matrix4f();
+    private final Matrix4f positionMatrix = new Matrix4f();
 
     private ShadowShaderProgram mShaderProgram;
 
@@ -71,15 +86,7 @@ public class ShadowMap {
     public void init(ShaderManager shaderManager) throws Exception {
 
         mShaderProgram = new ShadowShaderProgram();
-        mShaderProgram.createVertexShader(shadowVertShader.SHADER_STRING);
-        mShaderProgram.createFragmentShader(shadowFragShader.SHADER_STRING);
-
-        /* Binds the code and checks that everything has been done correctly. */
-        mShaderProgram.link();
-
-        mShaderProgram.createUniform("projectionMatrix");
-        mShaderProgram.createUniform("viewMatrix");
-        mShaderProgram.createUniform("modelMatrix");
+        mShaderProgram.init();
 
         depthMap = glGenTextures();
         glBindTexture(GL_TEXTURE_2D, depthMap);
@@ -129,8 +136,8 @@ public class ShadowMap {
         createProjection();
 
         /* Set the camera to render. */
-        mShaderProgram.setUniform("projectionMatrix", projection);
-        mShaderProgram.setUniform("viewMatrix", view);
+        mShaderProgram.projectionMatrix.set(projection);
+        mShaderProgram.viewMatrix.set(view);
 
         Map<Mesh, List<ItemObject>> meshMap = pSceneRenderer.getMeshMap();
 
@@ -144,33 +151,37 @@ public class ShadowMap {
             }
             if(castingItems.isEmpty()) continue;
 
-            try {
-                // XXX : this will fail
-                ShaderProgramADS shaderProgram = (ShaderProgramADS) shaderManager.fetch("ADS");
-                lMesh.renderSetup(pCamera, shaderProgram);
-                for(ItemObject item : castingItems) {
-                    lMesh.renderItem(item, shaderProgram);
+            // only the depth is rendered, with the shadow program
+            if (!lMesh.isInitialized()) continue;
+            Mesh boundMesh = lMesh;
+            lMesh.bindVertexArray();
+            for(ItemObject item : castingItems) {
+                // the level of detail selected for the camera, if initialized
+                Mesh itemMesh = item.getLodMesh();
+                if (!itemMesh.isInitialized()) itemMesh = lMesh;
+                if (itemMesh != boundMesh) {
+                    itemMesh.bindVertexArray();
+                    boundMesh = itemMesh;
                 }
-                lMesh.renderCleanup(shaderProgram);
-            } catch (Exception e) {
-                System.out.println("Erreur ShadowMap");
+                // the dequantization of the positions (if any) is folded in the model matrix
+                mShaderProgram.modelMatrix.set(itemMesh.getPositionMatrix(item, positionMatrix));
+                itemMesh.drawElements(GL_TRIANGLES);
             }
+            boundMesh.unbindVertexArray();
         }
 
 
+        mShaderProgram.unbind();
         glBindFramebuffer(GL_FRAMEBUFFER, 0);
 
         glEnable(GL_CULL_FACE);
 
     }
 
-    public void bind(ShaderProgram shaderProgram) {
+    public void bind(ShaderProgramADS shaderProgram) {
         if(!initialized) return;
 
-        shaderProgram.setUniform("directionalShadowMatrix", new Matrix4f(projection).mul(view));
-
-        shaderProgram.setUniform("shadowMapSampler", 1);
-        shaderProgram.setUniform("shadowBias", bias);
+        shaderProgram.setupShadows(projection.mul(view, shadowMatrix), ShaderProgramADS.SHADOW_MAP_TEXTURE_UNIT, bias);
 
         glActiveTexture(GL_TEXTURE1);
         glBindTexture(GL_TEXTURE_2D, depthMap);
@@ -0,0 +1,311 @@
+package yaw.engine.mesh;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GLCapabilities;
+import yaw.engine.geom.Geometry;
+import yaw.engine.shader.ShaderProgramADS;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.lwjgl.opengl.GL33.*;
+
+/**
+ * Shared vertex and index buffers for the meshes of a given vertex layout.
+ *
+ * The meshes of an arena all use the same VAO : drawing several of them requires no VAO change,
+ * and the draws can be submitted together (see {@link yaw.engine.DrawBatch}).
+ * The vertices and the indices are sub-allocated with free lists. When there is no free range large enough,
+ * the buffers are rebuilt : the live ranges are copied (on the GPU) and packed at the start of new buffers,
+ * which are larger if the free space is not sufficient.
+ *
+ * The VAO also holds the per-draw index attribute, read from a buffer of consecutive integers
+ * with a divisor of 1, so that the base instance of an indirect draw gives the index of the draw.
+ */
+public class GeometryArena {
+    private static final int INITIAL_VERTICES = 1 << 16;
+    private static final int INITIAL_INDICES = 3 << 16;
+    private static final int INITIAL_DRAWS = 1024;
+
+    /* one arena per vertex layout (the layouts of the meshes are shared constants) */
+    private static final Map<VertexLayout, GeometryArena> arenas = new HashMap<>();
+
+    /**
+     * The ranges of a mesh in the arena, updated when the arena is rebuilt
+     */
+    public static class Allocation {
+        private int firstVertex;
+        private int vertexCount;
+        private int firstIndex;
+        private int indexCount;
+
+        public int getFirstVertex() {
+            return firstVertex;
+        }
+
+        public int getVertexCount() {
+            return vertexCount;
+        }
+
+        public int getFirstIndex() {
+            return firstIndex;
+        }
+
+        public int getIndexCount() {
+            return indexCount;
+        }
+    }
+
+    private final VertexLayout layout;
+    private int vaoId;
+    private int vertexVboId;
+    private int indexVboId;
+    private RangeAllocator vertexAllocator;
+    private RangeAllocator indexAllocator;
+    private final List<Allocation> allocations;
+
+    /* indirect multi-draw support (GL 4.3), and the per-draw index buffer */
+    private boolean multiDrawIndirect;
+    private int drawIndexVboId;
+    private int drawIndexCapacity;
+
+    private GeometryArena(VertexLayout layout) {
+        this.layout = layout;
+        this.allocations = new ArrayList<>();
+    }
+
+    /**
+     * @param layout the vertex layout
+     * @return the arena of the layout (created at first use)
+     */
+    public static GeometryArena get(VertexLayout layout) {
+        return arenas.computeIfAbsent(layout, GeometryArena::new);
+    }
+
+    /**
+     * Delete the buffers of all the arenas
+     */
+    public static void cleanUpAll() {
+        for (GeometryArena arena : arenas.values()) {
+            arena.cleanUp();
+        }
+        arenas.clear();
+    }
+
+    private void init() {
+        GLCapabilities caps = GL.getCapabilities();
+        multiDrawIndirect = caps.OpenGL43 || (caps.GL_ARB_multi_draw_indirect && caps.GL_ARB_base_instance);
+        vaoId = glGenVertexArrays();
+        vertexAllocator = new RangeAllocator(0);
+        indexAllocator = new RangeAllocator(0);
+        rebuild(INITIAL_VERTICES, INITIAL_INDICES);
+        if (multiDrawIndirect) {
+            drawIndexVboId = glGenBuffers();
+            ensureDrawIndexCapacity(INITIAL_DRAWS);
+            glBindVertexArray(vaoId);
+            glBindBuffer(GL_ARRAY_BUFFER, drawIndexVboId);
+            glVertexAttribIPointer(ShaderProgramADS.DRAW_INDEX_LOCATION, 1, GL_INT, 0, 0);
+            glVertexAttribDivisor(ShaderProgramADS.DRAW_INDEX_LOCATION, 1);
+            glEnableVertexAttribArray(ShaderProgramADS.DRAW_INDEX_LOCATION);
+            glBindVertexArray(0);
+            glBindBuffer(GL_ARRAY_BUFFER, 0);
+        }
+    }
+
+    /**
+     * Allocate the ranges of a geometry and upload it
+     *
+     * @param geometry the geometry
+     * @return the allocation
+     */
+    public Allocation allocate(Geometry geometry) {
+        if (vaoId == 0) {
+            init();
+        }
+        int vertexCount = geometry.getVertexCount();
+        int[] indices = geometry.getIndices();
+        ensureSpace(vertexCount, indices.length);
+
+        Allocation allocation = new Allocation();
+        allocation.vertexCount = vertexCount;
+        allocation.indexCount = indices.length;
+        allocation.firstVertex = vertexAllocator.allocate(Math.max(vertexCount, 1));
+        allocation.firstIndex = indexAllocator.allocate(Math.max(indices.length, 1));
+        allocations.add(allocation);
+
+        // the copy targets do not interfere with the bindings of the VAOs
+        ByteBuffer vertexBuffer = BufferUtils.createByteBuffer(vertexCount * layout.getStride());
+        layout.interleave(geometry, vertexBuffer);
+        vertexBuffer.flip();
+        glBindBuffer(GL_COPY_WRITE_BUFFER, vertexVboId);
+        glBufferSubData(GL_COPY_WRITE_BUFFER, (long) allocation.firstVertex * layout.getStride(), vertexBuffer);
+        IntBuffer indexBuffer = BufferUtils.createIntBuffer(indices.length);
+        indexBuffer.put(indices).flip();
+        glBindBuffer(GL_COPY_WRITE_BUFFER, indexVboId);
+        glBufferSubData(GL_COPY_WRITE_BUFFER, (long) allocation.firstIndex * Integer.BYTES, indexBuffer);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+        return allocation;
+    }
+
+    /**
+     * Free the ranges of a mesh
+     *
+     * @param allocation the allocation
+     */
+    public void free(Allocation allocation) {
+        if (!allocations.remove(allocation)) {
+            return;
+        }
+        vertexAllocator.free(allocation.firstVertex);
+        indexAllocator.free(allocation.firstIndex);
+    }
+
+    /**
+     * Pack the allocated ranges at the start of the buffers
+     */
+    public void compact() {
+        if (vaoId != 0) {
+            rebuild(vertexAllocator.getCapacity(), indexAllocator.getCapacity());
+        }
+    }
+
+    private void ensureSpace(int vertexCount, int indexCount) {
+        vertexCount = Math.max(vertexCount, 1);
+        indexCount = Math.max(indexCount, 1);
+        if (vertexAllocator.getLargestFreeRange() >= vertexCount && indexAllocator.getLargestFreeRange() >= indexCount) {
+            return;
+        }
+        // compact, and grow if the free space is not sufficient
+        int vertexCapacity = vertexAllocator.getCapacity();
+        if (vertexAllocator.getFree() < vertexCount) {
+            vertexCapacity = Math.max(2 * vertexCapacity, vertexAllocator.getUsed() + vertexCount);
+        }
+        int indexCapacity = indexAllocator.getCapacity();
+        if (indexAllocator.getFree() < indexCount) {
+            indexCapacity = Math.max(2 * indexCapacity, indexAllocator.getUsed() + indexCount);
+        }
+        rebuild(vertexCapacity, indexCapacity);
+    }
+
+    /**
+     * Create new buffers, copy the allocated ranges packed at their start, and point the VAO to them
+     */
+    private void rebuild(int vertexCapacity, int indexCapacity) {
+        int stride = layout.getStride();
+        int newVertexVboId = glGenBuffers();
+        glBindBuffer(GL_COPY_WRITE_BUFFER, newVertexVboId);
+        glBufferData(GL_COPY_WRITE_BUFFER, (long) vertexCapacity * stride, GL_STATIC_DRAW);
+        int newIndexVboId = glGenBuffers();
+        glBindBuffer(GL_COPY_WRITE_BUFFER, newIndexVboId);
+        glBufferData(GL_COPY_WRITE_BUFFER, (long) indexCapacity * Integer.BYTES, GL_STATIC_DRAW);
+
+        RangeAllocator newVertexAllocator = new RangeAllocator(vertexCapacity);
+        RangeAllocator newIndexAllocator = new RangeAllocator(indexCapacity);
+        for (Allocation allocation : allocations) {
+            int firstVertex = newVertexAllocator.allocate(Math.max(allocation.vertexCount, 1));
+            int firstIndex = newIndexAllocator.allocate(Math.max(allocation.indexCount, 1));
+            glBindBuffer(GL_COPY_READ_BUFFER, vertexVboId);
+            glBindBuffer(GL_COPY_WRITE_BUFFER, newVertexVboId);
+            glCopyBufferSubData(GL_COPY_READ_BUFFER, GL_COPY_WRITE_BUFFER, (long) allocation.firstVertex * stride,
+                    (long) firstVertex * stride, (long) allocation.vertexCount * stride);
+            glBindBuffer(GL_COPY_READ_BUFFER, indexVboId);
+            glBindBuffer(GL_COPY_WRITE_BUFFER, newIndexVboId);
+            glCopyBufferSubData(GL_COPY_READ_BUFFER, GL_COPY_WRITE_BUFFER, (long) allocation.firstIndex * Integer.BYTES,
+                    (long) firstIndex * Integer.BYTES, (long) allocation.indexCount * Integer.BYTES);
+            allocation.firstVertex = firstVertex;
+            allocation.firstIndex = firstIndex;
+        }
+        glBindBuffer(GL_COPY_READ_BUFFER, 0);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+        if (vertexVboId != 0) {
+            glDeleteBuffers(vertexVboId);
+            glDeleteBuffers(indexVboId);
+        }
+        vertexVboId = newVertexVboId;
+        indexVboId = newIndexVboId;
+        vertexAllocator = newVertexAllocator;
+        indexAllocator = newIndexAllocator;
+
+        glBindVertexArray(vaoId);
+        glBindBuffer(GL_ARRAY_BUFFER, vertexVboId);
+        layout.setupPointers();
+        layout.enableAttributes();
+        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, indexVboId);
+        glBindVertexArray(0);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * Make sure that the per-draw index buffer covers the given number of draws (indirect multi-draw only)
+     *
+     * @param draws the number of draws
+     */
+    public void ensureDrawIndexCapacity(int draws) {
+        if (!multiDrawIndirect || draws <= drawIndexCapacity) {
+            return;
+        }
+        int capacity = Math.max(draws, 2 * drawIndexCapacity);
+        IntBuffer drawIndices = BufferUtils.createIntBuffer(capacity);
+        for (int i = 0; i < capacity; i++) {
+            drawIndices.put(i);
+        }
+        drawIndices.flip();
+        glBindBuffer(GL_COPY_WRITE_BUFFER, drawIndexVboId);
+        glBufferData(GL_COPY_WRITE_BUFFER, drawIndices, GL_STATIC_DRAW);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+        drawIndexCapacity = capacity;
+    }
+
+    /**
+     * @return true if the draws can be submitted with glMultiDrawElementsIndirect
+     */
+    public boolean isMultiDrawIndirect() {
+        return multiDrawIndirect;
+    }
+
+    public VertexLayout getLayout() {
+        return layout;
+    }
+
+    public int getVaoId() {
+        return vaoId;
+    }
+
+    /**
+     * @return the number of allocated vertices
+     */
+    public int getUsedVertices() {
+        return vertexAllocator != null ? vertexAllocator.getUsed() : 0;
+    }
+
+    /**
+     * @return the number of meshes in the arena
+     */
+    public int getAllocationCount() {
+        return allocations.size();
+    }
+
+    private void cleanUp() {
+        if (vaoId == 0) {
+            return;
+        }
+        glBindVertexArray(0);
+        glDeleteBuffers(vertexVboId);
+        glDeleteBuffers(indexVboId);
+        if (drawIndexVboId != 0) {
+            glDeleteBuffers(drawIndexVboId);
+        }
+        glDeleteVertexArrays(vaoId);
+        vaoId = 0;
+        vertexVboId = 0;
+        indexVboId = 0;
+        drawIndexVboId = 0;
+        drawIndexCapacity = 0;
+        allocations.clear();
+    }
+}
@@ -0,0 +1,157 @@
+package yaw.engine.mesh;
+
+import yaw.engine.geom.Geometry;
+import yaw.engine.geom.QuadricSimplifier;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The levels of detail of a mesh : the mesh itself (level 0), then meshes of simplified geometries.
+ *
+ * A level is selected from the projected size of an item (the diameter of its bounding sphere,
+ * as a fraction of the viewport height) : level i + 1 is used below the switch size i. The switch sizes
+ * are widened by the hysteresis around the current level of the item, so that an item moving
+ * around a switch size does not change its level at each frame.
+ */
+public class LodChain {
+    /** default fraction of the triangles kept at each level */
+    public static final float[] DEFAULT_RATIOS = {0.5f, 0.25f, 0.1f};
+    /** default switch sizes (fraction of the viewport height) */
+    public static final float[] DEFAULT_SWITCH_SIZES = {0.3f, 0.12f, 0.04f};
+    /** default hysteresis (relative margin around the switch sizes) */
+    public static final float DEFAULT_HYSTERESIS = 0.15f;
+
+    private final List<Mesh> levels;
+    private final float[] switchSizes;
+    private float hysteresis;
+
+    /**
+     * @param levels      the meshes, from the finest (the base mesh) to the coarsest
+     * @param switchSizes the screen sizes below which the next level is used, decreasing (one less than the levels)
+     */
+    public LodChain(List<Mesh> levels, float[] switchSizes) {
+        if (levels.isEmpty() || switchSizes.length != levels.size() - 1) {
+            throw new Error("Wrong number of switch sizes: " + switchSizes.length + " for " + levels.size() + " levels");
+        }
+        for (int i = 1; i < switchSizes.length; i++) {
+            if (switchSizes[i] > switchSizes[i - 1]) {
+                throw new Error("The switch sizes must be decreasing");
+            }
+        }
+        this.levels = levels;
+        this.switchSizes = switchSizes.clone();
+        this.hysteresis = DEFAULT_HYSTERESIS;
+    }
+
+    /**
+     * Build the chain of a mesh, by simplification of its geometry. The simplified meshes have
+     * the material and the vertex format options of the mesh.
+     *
+     * @param base        the mesh (level 0)
+     * @param ratios      the fraction of the triangles of the base mesh kept at each level, decreasing
+     * @param switchSizes the screen sizes below which each level is used, decreasing
+     * @return the chain
+     */
+    public static LodChain build(Mesh base, float[] ratios, float[] switchSizes) {
+        if (ratios.length != switchSizes.length) {
+            throw new Error("One switch size is needed per simplified level");
+        }
+        if (base.isDynamic()) {
+            throw new Error("A dynamic mesh cannot have levels of detail");
+        }
+        List<Mesh> levels = new ArrayList<>();
+        levels.add(base);
+        Geometry geometry = base.getGeometry();
+        int triangles = geometry.getIndices().length / 3;
+        for (float ratio : ratios) {
+            // each level is simplified from the previous one, which is cheaper and keeps them consistent
+            geometry = QuadricSimplifier.simplify(geometry, Math.max((int) (triangles * ratio), 1));
+            Mesh level = new Mesh(geometry, base.getMaterial());
+            level.setQuantized(base.isQuantized());
+            level.setInstanced(base.isInstanced());
+            level.setShared(base.isShared());
+            levels.add(level);
+        }
+        return new LodChain(levels, switchSizes);
+    }
+
+    public static LodChain build(Mesh base) {
+        return build(base, DEFAULT_RATIOS, DEFAULT_SWITCH_SIZES);
+    }
+
+    /**
+     * Build the chain of a mesh in a background thread, and attach it to the mesh once built :
+     * the mesh is rendered at full detail until then.
+     *
+     * @param base        the mesh (level 0)
+     * @param ratios      the fraction of the triangles kept at each level
+     * @param switchSizes the screen sizes below which each level is used
+     * @return the chain, once built and attached
+     */
+    public static CompletableFuture<LodChain> buildAsync(Mesh base, float[] ratios, float[] switchSizes) {
+        return CompletableFuture.supplyAsync(() -> {
+            LodChain chain = build(base, ratios, switchSizes);
+            base.setLodChain(chain);
+            return chain;
+        });
+    }
+
+    public static CompletableFuture<LodChain> buildAsync(Mesh base) {
+        return buildAsync(base, DEFAULT_RATIOS, DEFAULT_SWITCH_SIZES);
+    }
+
+    /**
+     * Select the level of an item
+     *
+     * @param screenSize   the projected size of the item (fraction of the viewport height)
+     * @param currentLevel the level of the item at the previous frame
+     * @return the level
+     */
+    public int selectLevel(float screenSize, int currentLevel) {
+        int level = 0;
+        for (int i = 0; i < switchSizes.length; i++) {
+            // coming from a coarser level, the item must grow above the margin to switch back (and conversely)
+            float threshold = switchSizes[i] * (currentLevel > i ? 1 + hysteresis : 1 - hysteresis);
+            if (screenSize < threshold) {
+                level = i + 1;
+            } else {
+                break;
+            }
+        }
+        return level;
+    }
+
+    public Mesh getLevel(int level) {
+        return levels.get(Math.min(level, levels.size() - 1));
+    }
+
+    public int getLevelCount() {
+        return levels.size();
+    }
+
+    public float getHysteresis() {
+        return hysteresis;
+    }
+
+    /**
+     * @param hysteresis the relative margin around the switch sizes, e.g. 0.15 for 15%
+     */
+    public void setHysteresis(float hysteresis) {
+        this.hysteresis = hysteresis;
+    }
+
+    /**
+     * Delete the buffers of the simplified levels (the base mesh is not cleaned)
+     */
+    void cleanUp() {
+        for (int i = 1; i < levels.size(); i++) {
+            Mesh level = levels.get(i);
+            if (level.isInitialized()) {
+                level.deleteBuffers();
+            }
+            level.releaseTexture();
+        }
+    }
+}
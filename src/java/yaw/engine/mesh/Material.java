@@ -2,12 +2,19 @@ package yaw.engine.mesh;
 
 import org.joml.Vector3f;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * More complex material classes:
  * ColorMapping, TextMapping, ProceduralMapping (material generator with reuse of images)
  */
 
 public class Material {
+    private static final AtomicInteger ID_COUNTER = new AtomicInteger();
+
+    /** unique identifier of the material (e.g. for sorting draws) */
+    private final int id = ID_COUNTER.incrementAndGet();
+
     private Vector3f baseColor;
     private Texture texture;
     private Vector3f ambient;
@@ -91,6 +98,10 @@ public class Material {
     }
 
 
+    public int getId() {
+        return id;
+    }
+
     public Texture getTexture() {
         return texture;
     }
@@ -99,4 +110,4 @@ public class Material {
         this.texture = texture;
     }
 
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -1,26 +1,33 @@
 package yaw.engine.mesh;
 
-import org.joml.Matrix3f;
 import org.joml.Matrix4f;
+import org.joml.Vector3f;
 import org.lwjgl.BufferUtils;
 import yaw.engine.camera.Camera;
 import yaw.engine.geom.Geometry;
+import yaw.engine.helper.HelperAxesShaders;
+import yaw.engine.helper.HelperNormalsShaders;
+import yaw.engine.helper.HelperShaders;
 import yaw.engine.items.ItemObject;
 import yaw.engine.light.LightModel;
 import yaw.engine.mesh.strategy.DefaultDrawingStrategy;
+import yaw.engine.mesh.strategy.InstancedDrawingStrategy;
 import yaw.engine.shader.ShaderProgram;
 import yaw.engine.shader.ShaderProgramADS;
 import yaw.engine.shader.ShaderProperties;
 import yaw.engine.util.LoggerYAW;
 
+import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.logging.Logger;
 
-import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL33.*;
 
 /**
  * A Mesh is the visual component of a 3D object. It comprises :
@@ -39,6 +46,8 @@ public class Mesh {
     private Geometry geometry;
 
     private Material material;
+    /* the texture counted for the mesh (the texture of the material when it was last bound) */
+    private Texture retainedTexture;
 
     private final Map<String, String> attributes;
 
@@ -46,6 +55,45 @@ public class Mesh {
     private MeshDrawingStrategy drawingStrategy;
     private boolean drawADS;
 
+    /* Instanced rendering : model and normal matrices of the items are streamed
+       in an instance VBO (16 + 9 floats per item) and drawn in a single call */
+    private static final int INSTANCE_FLOATS = 16 + 9;
+    private boolean instanced;
+    private int instanceVboId;
+    private FloatBuffer instanceBuffer;
+    private int instanceCount;
+
+    /* The format of the vertex buffer, chosen when the buffers are initialized if not set */
+    private VertexLayout vertexLayout;
+    private boolean autoVertexLayout;
+
+    /* Quantization (opt-in) : compact vertex formats and 16-bit indices when possible */
+    private boolean quantized;
+    private int indexType = GL_UNSIGNED_INT;
+    private final Vector3f quantOffset = new Vector3f();
+    private final Vector3f quantScale = new Vector3f(1);
+    private long bufferBytes;
+
+    /* Dynamic meshes : the vertices and indices are streamed (ring buffers), and can be updated at each frame */
+    private boolean dynamic;
+    private StreamBuffer vertexStream;
+    private StreamBuffer indexStream;
+    /* the number of indices to draw (dynamic meshes), -1 for all the indices of the geometry */
+    private int dynamicIndexCount = -1;
+    private final Matrix4f helperMatrix = new Matrix4f();
+
+    /* shared mode : the buffers are ranges of the geometry arena of the layout */
+    private boolean shared;
+    private GeometryArena arena;
+    private GeometryArena.Allocation allocation;
+
+    /* levels of detail (may be attached by a background thread) */
+    private volatile LodChain lodChain;
+
+    /* Cached shader properties, and the light model they were computed for */
+    private ShaderProperties shaderProperties;
+    private LightModel shaderPropertiesLights;
+
     /**
      * Construct a Mesh
      *
@@ -66,86 +114,193 @@ public class Mesh {
     }
 
     public ShaderProperties getShaderProperties(LightModel lightModel) {
-        return new ShaderProperties(lightModel.hasDirectionalLight,
-                lightModel.maxPointLights,
-                lightModel.maxSpotLights,
-                material.isTextured(),
-                material.withShadows && lightModel.hasDirectionalLight);
+        return getShaderProperties(lightModel, false);
     }
 
     /**
-     * Initialize  vertex, mNormals, mIndices and mTextureCoordinate buffer
+     * @param lightModel the lights of the scene
+     * @param deferred   true for the geometry pass of the deferred renderer
+     * @return the properties of the program of the mesh
+     */
+    public ShaderProperties getShaderProperties(LightModel lightModel, boolean deferred) {
+        // the properties are only rebuilt if something they depend on has changed
+        if (shaderProperties == null || shaderPropertiesLights != lightModel
+                || shaderProperties.deferred != deferred
+                || shaderProperties.hasTexture != material.isTextured()
+                || shaderProperties.withShadows != (material.withShadows && lightModel.hasDirectionalLight)
+                || shaderProperties.instanced != instanced
+                || shaderProperties.quantized != quantized
+                || shaderProperties.perDrawData != shared) {
+            shaderProperties = ShaderProperties.of(lightModel, material.isTextured(), material.withShadows,
+                    instanced, quantized, shared, deferred);
+            shaderPropertiesLights = lightModel;
+        }
+        return shaderProperties;
+    }
+
+    /**
+     * Initialize the vertex buffer (interleaved, in the format of the vertex layout)
+     * and the index buffer
      */
     public void initBuffers() {
         //initialization order is important do not change unless you know what to do
+        if (vertexLayout == null || autoVertexLayout) {
+            vertexLayout = VertexLayout.select(geometry, material, quantized);
+            autoVertexLayout = true;
+        }
+        if (shared) {
+            initSharedBuffers();
+            return;
+        }
         vaoId = glGenVertexArrays();
         glBindVertexArray(vaoId);
 
-        //Initialization of VBO
-
-        //VBO of vertex layout 0 in vertShader.vs
-        float[] vertices = geometry.getVertices();
-        FloatBuffer verticeBuffer = BufferUtils.createFloatBuffer(vertices.length);
-        verticeBuffer.put(vertices).flip();
-        int lVboVertexId = glGenBuffers();
-        vboIdList.add(lVboVertexId);
-        glBindBuffer(GL_ARRAY_BUFFER, lVboVertexId);
-        glBufferData(GL_ARRAY_BUFFER, verticeBuffer, GL_STATIC_DRAW);
-
-        //We explain to OpenGL how to read our Buffers.
-        glVertexAttribPointer(0, 3, GL_FLOAT, false, 0, 0);
-
-        // Texture coordinates VBO
-        int lVboCoordTextureId = glGenBuffers();
-        vboIdList.add(lVboCoordTextureId);
-        float[] textCoords = geometry.getTextCoords();
-        FloatBuffer textCoordsBuffer = BufferUtils.createFloatBuffer(textCoords.length);
-        textCoordsBuffer.put(textCoords).flip();
-        glBindBuffer(GL_ARRAY_BUFFER, lVboCoordTextureId);
-        glBufferData(GL_ARRAY_BUFFER, textCoordsBuffer, GL_STATIC_DRAW);
-        glVertexAttribPointer(1, 2, GL_FLOAT, false, 0, 0);
-
-        //VBO of mNormals layout 2 in vertShader.vs
-        float[] normals = geometry.getNormals();
-        FloatBuffer normBuffer = BufferUtils.createFloatBuffer(normals.length);
-        normBuffer.put(normals).flip();
-        int lVboNormId = glGenBuffers();
-        vboIdList.add(lVboNormId);
-        glBindBuffer(GL_ARRAY_BUFFER, lVboNormId);
-        glBufferData(GL_ARRAY_BUFFER, normBuffer, GL_STATIC_DRAW);
-
-        //We explain to OpenGL how to read our Buffers.
-        glVertexAttribPointer(2, 3, GL_FLOAT, false, 0, 0);
-
-        //VBO of mIndices
         int[] indices = geometry.getIndices();
-        IntBuffer indicesBuffer = BufferUtils.createIntBuffer(indices.length);
-        indicesBuffer.put(indices).flip();
-        int lVboIndicesId = glGenBuffers();
-        vboIdList.add(lVboIndicesId);
-        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, lVboIndicesId);
-        glBufferData(GL_ELEMENT_ARRAY_BUFFER, indicesBuffer, GL_STATIC_DRAW);
+        if (dynamic) {
+            initStreamBuffers();
+        } else {
+            //VBO of the vertices, all the attributes of a vertex are consecutive
+            ByteBuffer vertexBuffer = BufferUtils.createByteBuffer(geometry.getVertexCount() * vertexLayout.getStride());
+            vertexLayout.interleave(geometry, vertexBuffer);
+            vertexBuffer.flip();
+            int lVboVertexId = glGenBuffers();
+            vboIdList.add(lVboVertexId);
+            glBindBuffer(GL_ARRAY_BUFFER, lVboVertexId);
+            glBufferData(GL_ARRAY_BUFFER, vertexBuffer, GL_STATIC_DRAW);
+
+            //We explain to OpenGL how to read our Buffers.
+            vertexLayout.setupPointers();
+
+            //VBO of mIndices, in 16 bits if the mesh is quantized and small enough
+            int lVboIndicesId = glGenBuffers();
+            vboIdList.add(lVboIndicesId);
+            glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, lVboIndicesId);
+            indexType = selectIndexType();
+            if (indexType == GL_UNSIGNED_SHORT) {
+                ShortBuffer indicesBuffer = BufferUtils.createShortBuffer(indices.length);
+                for (int index : indices) {
+                    indicesBuffer.put((short) index);
+                }
+                indicesBuffer.flip();
+                glBufferData(GL_ELEMENT_ARRAY_BUFFER, indicesBuffer, GL_STATIC_DRAW);
+            } else {
+                IntBuffer indicesBuffer = BufferUtils.createIntBuffer(indices.length);
+                indicesBuffer.put(indices).flip();
+                glBufferData(GL_ELEMENT_ARRAY_BUFFER, indicesBuffer, GL_STATIC_DRAW);
+            }
+        }
+
+        // the positions are dequantized relatively to the bounding box
+        if (vertexLayout.isQuantized()) {
+            quantOffset.set(geometry.getAabbMin());
+            quantScale.set(geometry.getAabbMax()).sub(geometry.getAabbMin());
+        } else {
+            quantOffset.zero();
+            quantScale.set(1);
+        }
+        bufferBytes = (long) geometry.getVertexCount() * vertexLayout.getStride()
+                + (long) indices.length * (indexType == GL_UNSIGNED_SHORT ? Short.BYTES : Integer.BYTES);
+        if (quantized) {
+            Logger lLogger = LoggerYAW.getLogger();
+            if (lLogger != null) {
+                lLogger.info(getQuantizationReport());
+            }
+        }
+
+        if (instanced) {
+            initInstanceBuffer();
+        }
 
         glBindBuffer(GL_ARRAY_BUFFER, 0);
         glBindVertexArray(0);
 
     }
 
+    /**
+     * Allocate the vertices and the indices in the arena of the vertex layout, the VAO is the one of the arena
+     */
+    private void initSharedBuffers() {
+        arena = GeometryArena.get(vertexLayout);
+        allocation = arena.allocate(geometry);
+        vaoId = arena.getVaoId();
+        indexType = GL_UNSIGNED_INT;
+        quantOffset.zero();
+        quantScale.set(1);
+        bufferBytes = (long) geometry.getVertexCount() * vertexLayout.getStride()
+                + (long) geometry.getIndices().length * Integer.BYTES;
+    }
+
+    /**
+     * Initialize the streamed vertex and index buffers of a dynamic mesh (the VAO must be bound)
+     */
+    private void initStreamBuffers() {
+        vertexStream = new StreamBuffer(GL_ARRAY_BUFFER, geometry.getVertexCount() * vertexLayout.getStride());
+        vertexLayout.interleave(geometry, vertexStream.getShadow());
+        vertexStream.getShadow().clear();
+        vertexStream.init();
+        // the pointers are relative to the first region, the draws select the region with a base vertex
+        vertexLayout.setupPointers();
+
+        int[] indices = geometry.getIndices();
+        indexStream = new StreamBuffer(GL_ELEMENT_ARRAY_BUFFER, indices.length * Integer.BYTES);
+        indexStream.getShadow().asIntBuffer().put(indices);
+        indexStream.init();
+        indexType = GL_UNSIGNED_INT;
+    }
+
+    /**
+     * Initialize the per-instance VBO (the VAO must be bound)
+     */
+    private void initInstanceBuffer() {
+        instanceVboId = glGenBuffers();
+        vboIdList.add(instanceVboId);
+        glBindBuffer(GL_ARRAY_BUFFER, instanceVboId);
+        int stride = INSTANCE_FLOATS * Float.BYTES;
+        // a mat4 attribute is read as 4 consecutive vec4 columns
+        for (int col = 0; col < 4; col++) {
+            int location = ShaderProgramADS.INSTANCE_MODEL_LOCATION + col;
+            glVertexAttribPointer(location, 4, GL_FLOAT, false, stride, (long) col * 4 * Float.BYTES);
+            glVertexAttribDivisor(location, 1);
+        }
+        // and a mat3 as 3 consecutive vec3 columns
+        for (int col = 0; col < 3; col++) {
+            int location = ShaderProgramADS.INSTANCE_NORMAL_LOCATION + col;
+            glVertexAttribPointer(location, 3, GL_FLOAT, false, stride, (long) (16 + col * 3) * Float.BYTES);
+            glVertexAttribDivisor(location, 1);
+        }
+    }
+
     public void renderSetup(Camera pCamera, ShaderProgramADS shaderProgram) {
         initRender();
         shaderProgram.bind();
-        /* Set the camera to render. */
-        shaderProgram.setUniform("worldMatrix", pCamera.getWorldMat());
-        shaderProgram.setUniform("camera_pos", pCamera.getPosition());
+        /* The camera is read from the shared camera block (uploaded once per frame). */
+
+        setupMaterial(shaderProgram);
+        setupVertexFormat(shaderProgram);
+    }
 
-        shaderProgram.setUniform("material", material);
+    /**
+     * Set the material uniforms of the (bound) program
+     *
+     * @param shaderProgram the program
+     */
+    public void setupMaterial(ShaderProgramADS shaderProgram) {
+        shaderProgram.setupMaterial(material);
+    }
+
+    /**
+     * Set the vertex format uniforms of the (bound) program, i.e. the dequantization of the positions
+     *
+     * @param shaderProgram the program
+     */
+    public void setupVertexFormat(ShaderProgramADS shaderProgram) {
+        if (quantized) {
+            shaderProgram.setupQuantization(quantOffset, quantScale);
+        }
     }
 
-    public void renderItem(ItemObject item, ShaderProgram shaderProgram) {
-        shaderProgram.setUniform("modelMatrix", item.getModelMatrix());
-        Matrix3f normalMatrix = new Matrix3f(item.getModelMatrix());
-        normalMatrix.invert().transpose();
-        shaderProgram.setUniform("normalMatrix", normalMatrix);
+    public void renderItem(ItemObject item, ShaderProgramADS shaderProgram) {
+        shaderProgram.setupItem(item.getModelMatrix(), item.getNormalMatrix());
         if (drawingStrategy != null) {
             //delegate the drawing
             drawingStrategy.drawMesh(this);
@@ -155,21 +310,66 @@ public class Mesh {
         }
     }
 
+    /**
+     * Render all the items of the mesh. In instanced mode, the item matrices are
+     * streamed to the instance buffer and drawn with a single call, otherwise
+     * each item is rendered in turn.
+     *
+     * @param items the items sharing this mesh
+     * @param shaderProgram the (bound) program
+     */
+    public void renderItems(List<ItemObject> items, ShaderProgramADS shaderProgram) {
+        if (!instanced) {
+            for (ItemObject item : items) {
+                renderItem(item, shaderProgram);
+            }
+            return;
+        }
+        instanceCount = items.size();
+        if (instanceCount == 0) {
+            return;
+        }
+        int required = instanceCount * INSTANCE_FLOATS;
+        if (instanceBuffer == null || instanceBuffer.capacity() < required) {
+            // grow geometrically to avoid reallocating when a few items are added
+            int capacity = INSTANCE_FLOATS * Math.max(instanceCount, instanceBuffer == null ? 16 : 2 * instanceBuffer.capacity() / INSTANCE_FLOATS);
+            instanceBuffer = BufferUtils.createFloatBuffer(capacity);
+        }
+        instanceBuffer.clear();
+        for (int i = 0; i < instanceCount; i++) {
+            ItemObject item = items.get(i);
+            item.getModelMatrix().get(i * INSTANCE_FLOATS, instanceBuffer);
+            item.getNormalMatrix().get(i * INSTANCE_FLOATS + 16, instanceBuffer);
+        }
+        instanceBuffer.limit(required);
+
+        glBindBuffer(GL_ARRAY_BUFFER, instanceVboId);
+        // orphan the previous storage so that the driver does not wait for the last frame
+        glBufferData(GL_ARRAY_BUFFER, (long) instanceBuffer.capacity() * Float.BYTES, GL_STREAM_DRAW);
+        glBufferSubData(GL_ARRAY_BUFFER, 0, instanceBuffer);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+
+        if (drawingStrategy != null) {
+            drawingStrategy.drawMesh(this);
+        } else {
+            LoggerYAW.getLogger().severe("No drawing strategy has been set for the mesh");
+            throw new RuntimeException("No drawing strategy has been set for the mesh");
+        }
+    }
+
     public void renderCleanup(ShaderProgram shaderProgram) {
         shaderProgram.unbind();
         endRender();
     }
 
-    public void renderHelperVertices(List<ItemObject> pItems, Camera pCamera, ShaderProgram helperProgram) {
+    public void renderHelperVertices(List<ItemObject> pItems, Camera pCamera, HelperShaders helperProgram) {
         //initRender
         initRender();
         helperProgram.bind();
-        helperProgram.setUniform("projectionMatrix", pCamera.getProjectionMat());
-        Matrix4f viewMat = pCamera.getViewMat();
-        helperProgram.setUniform("viewMatrix", viewMat);
+        helperProgram.setupCamera(pCamera);
         for (ItemObject lItem : pItems) {
-            helperProgram.setUniform("modelMatrix", lItem.getModelMatrix());
-            glDrawElements(GL_POINTS, geometry.getIndices().length, GL_UNSIGNED_INT, 0);
+            helperProgram.setModelMatrix(getPositionMatrix(lItem, helperMatrix));
+            drawElements(GL_POINTS);
         }
 
         helperProgram.unbind();
@@ -177,34 +377,31 @@ public class Mesh {
 
     }
 
-    public void renderHelperNormals(List<ItemObject> pItems, Camera pCamera, ShaderProgram helperProgram) {
+    public void renderHelperNormals(List<ItemObject> pItems, Camera pCamera, HelperNormalsShaders helperProgram) {
         //initRender
         initRender();
 
         helperProgram.bind();
-        helperProgram.setUniform("projectionMatrix", pCamera.getProjectionMat());
-        Matrix4f viewMat = pCamera.getViewMat();
-        helperProgram.setUniform("viewMatrix", viewMat);
+        helperProgram.setupCamera(pCamera);
+        // the normals are transformed with the model matrix : the positions are dequantized by the shader
+        helperProgram.setupVertexFormat(vertexLayout.isQuantized(), quantOffset, quantScale);
         for (ItemObject lItem : pItems) {
-            helperProgram.setUniform("modelMatrix", lItem.getModelMatrix());
-            glDrawElements(GL_POINTS, geometry.getIndices().length, GL_UNSIGNED_INT, 0);
+            helperProgram.setModelMatrix(lItem.getModelMatrix());
+            drawElements(GL_POINTS);
         }
 
         helperProgram.unbind();
         endRender();
     }
 
-    public void renderHelperAxes(List<ItemObject> pItems, Camera pCamera, ShaderProgram helperProgram) {
+    public void renderHelperAxes(List<ItemObject> pItems, Camera pCamera, HelperAxesShaders helperProgram) {
         initRender();
         helperProgram.bind();
-        helperProgram.setUniform("projectionMatrix", pCamera.getProjectionMat());
-
-        Matrix4f viewMat = pCamera.getViewMat();
-        helperProgram.setUniform("viewMatrix", viewMat);
+        helperProgram.setupCamera(pCamera);
         for (ItemObject lItem : pItems) {
-            helperProgram.setUniform("center", lItem.getPosition());
-            helperProgram.setUniform("modelMatrix", lItem.getModelMatrix());
-            glDrawElements(GL_LINES, geometry.getIndices().length, GL_UNSIGNED_INT, 0);
+            helperProgram.setCenter(lItem.getPosition());
+            helperProgram.setModelMatrix(getPositionMatrix(lItem, helperMatrix));
+            drawElements(GL_LINES);
         }
 
         helperProgram.unbind();
@@ -216,20 +413,64 @@ public class Mesh {
         //de-allocation of VAO and VBO
         glDisableVertexAttribArray(0);
 
+        deleteBuffers();
+        if (lodChain != null) {
+            lodChain.cleanUp();
+        }
+        releaseTexture();
+    }
+
+    /**
+     * Count the mesh as a user of the texture of its material (when it is drawn),
+     * so that the texture is not deleted while the mesh uses it
+     */
+    public void retainTexture() {
+        retainTexture(material != null ? material.getTexture() : null);
+    }
+
+    /* the texture is deleted if no other mesh uses it (and it is not cached) */
+    void releaseTexture() {
+        retainTexture(null);
+    }
+
+    private void retainTexture(Texture texture) {
+        if (texture != retainedTexture) {
+            if (texture != null) {
+                texture.retain();
+            }
+            if (retainedTexture != null) {
+                retainedTexture.release();
+            }
+            retainedTexture = texture;
+        }
+    }
+
+    void deleteBuffers() {
+        glBindVertexArray(0);
+        if (allocation != null) {
+            // the VAO belongs to the arena
+            arena.free(allocation);
+            allocation = null;
+            arena = null;
+            vaoId = 0;
+            return;
+        }
+        if (vertexStream != null) {
+            vertexStream.cleanUp();
+            indexStream.cleanUp();
+            vertexStream = null;
+            indexStream = null;
+        }
         // Delete the VBO
         glBindBuffer(GL_ARRAY_BUFFER, 0);
         for (int vboId : vboIdList) {
             glDeleteBuffers(vboId);
         }
-        Texture texture = material.getTexture();
-        if (texture != null) {
-            texture.cleanup();
-        }
         // Delete the VAO
         glBindVertexArray(0);
         glDeleteVertexArrays(vaoId);
-
-
+        vaoId = 0;
+        vboIdList.clear();
     }
 
     /**
@@ -256,40 +497,108 @@ public class Mesh {
     }
 
     public void initRender() {
+        bindTexture();
+        bindVertexArray();
+    }
+
+    /**
+     * Bind the texture of the material (if any) to the first texture unit,
+     * or unbind the texture otherwise.
+     */
+    public void bindTexture() {
 
         glActiveTexture(GL_TEXTURE0);
-        glBindTexture(GL_TEXTURE_2D, 0);
 
         Texture texture = material != null ? material.getTexture() : null;
+        retainTexture(texture);
         if (texture != null) {
             //load the texture if needed
             if (!texture.isActivated()) {
                 texture.init();
             }
-            // Activate first texture bank
-            glActiveTexture(GL_TEXTURE0);
-
 
             // Bind the texture
             texture.bind();
+        } else {
+            glBindTexture(GL_TEXTURE_2D, 0);
+        }
+    }
+
+    /**
+     * Bind the texture of the material (if any) to the first texture unit, or unbind the texture otherwise.
+     * The texture is loaded asynchronously : a placeholder is bound until it is resident.
+     *
+     * @param loader the texture loader of the scene
+     */
+    public void bindTexture(TextureLoader loader) {
+        glActiveTexture(GL_TEXTURE0);
+
+        Texture texture = material != null ? material.getTexture() : null;
+        retainTexture(texture);
+        if (texture != null) {
+            loader.bind(texture);
+        } else {
+            glBindTexture(GL_TEXTURE_2D, 0);
         }
+    }
 
+    /**
+     * Bind the VAO of the mesh and enable its vertex attributes
+     */
+    public void bindVertexArray() {
+        refreshVertexLayout();
         // Draw the mesh
         glBindVertexArray(vaoId);
-        glEnableVertexAttribArray(0);
-        glEnableVertexAttribArray(1);
-        glEnableVertexAttribArray(2);
+        vertexLayout.enableAttributes();
+        if (instanced) {
+            for (int i = 0; i < 7; i++) {
+                glEnableVertexAttribArray(ShaderProgramADS.INSTANCE_MODEL_LOCATION + i);
+            }
+        }
 
     }
 
     protected void endRender() {
+        unbindVertexArray();
+
+        //glBindTexture(GL_TEXTURE_2D, 0);
+    }
+
+    /**
+     * Reload the buffers if the mesh has been textured after its initialization (automatic layout only),
+     * so that the vertices include the texture coordinates
+     */
+    public void refreshVertexLayout() {
+        if (autoVertexLayout && !vertexLayout.hasAttribute(VertexLayout.TEXT_COORDS_LOCATION)
+                && material != null && material.isTextured() && geometry.hasTextCoords()) {
+            deleteBuffers();
+            initBuffers();
+        }
+    }
+
+    /**
+     * Disable the vertex attributes and unbind the VAO
+     */
+    public void unbindVertexArray() {
         // Restore state
-        glDisableVertexAttribArray(0);
-        glDisableVertexAttribArray(1);
-        glDisableVertexAttribArray(2);
+        vertexLayout.disableAttributes();
+        if (instanced) {
+            for (int i = 0; i < 7; i++) {
+                glDisableVertexAttribArray(ShaderProgramADS.INSTANCE_MODEL_LOCATION + i);
+            }
+        }
         glBindVertexArray(0);
+    }
 
-        //glBindTexture(GL_TEXTURE_2D, 0);
+    /**
+     * @return true if the buffers of the mesh are loaded on the GPU
+     */
+    public boolean isInitialized() {
+        return vaoId != 0;
+    }
+
+    public int getVaoId() {
+        return vaoId;
     }
 
     public Material getMaterial() {
@@ -301,10 +610,386 @@ public class Mesh {
     }
 
     public void setDrawingStrategy(MeshDrawingStrategy pDrawingStrategy) {
+        if (shared && !(pDrawingStrategy instanceof DefaultDrawingStrategy)) {
+            throw new Error("A shared mesh uses the default drawing strategy");
+        }
         drawingStrategy = pDrawingStrategy;
     }
 
     public Geometry getGeometry() {
         return geometry;
     }
+
+    private int selectIndexType() {
+        // 16-bit indices can address 65536 vertices
+        return quantized && geometry.getVertexCount() <= 0x10000 ? GL_UNSIGNED_SHORT : GL_UNSIGNED_INT;
+    }
+
+    /**
+     * @return the number of indices to draw
+     */
+    public int getIndexCount() {
+        return dynamicIndexCount >= 0 ? dynamicIndexCount : geometry.getIndices().length;
+    }
+
+    /**
+     * @return the offset (in bytes) of the indices to draw in the index buffer
+     */
+    public long getIndexOffset() {
+        if (allocation != null) {
+            return (long) allocation.getFirstIndex() * Integer.BYTES;
+        }
+        return indexStream != null ? indexStream.getRegionOffset() : 0;
+    }
+
+    /**
+     * @return the value added to the indices to draw, i.e. the first vertex of the current region
+     * of the vertex buffer for dynamic meshes
+     */
+    public int getBaseVertex() {
+        if (allocation != null) {
+            return allocation.getFirstVertex();
+        }
+        return vertexStream != null ? vertexStream.getRegion() * geometry.getVertexCount() : 0;
+    }
+
+    /**
+     * Draw the elements of the mesh (the VAO must be bound)
+     *
+     * @param mode the primitive type, e.g. GL_TRIANGLES
+     */
+    public void drawElements(int mode) {
+        glDrawElementsBaseVertex(mode, getIndexCount(), indexType, getIndexOffset(), getBaseVertex());
+    }
+
+    /**
+     * Draw several instances of the elements of the mesh (the VAO must be bound)
+     *
+     * @param mode      the primitive type, e.g. GL_TRIANGLES
+     * @param instances the number of instances
+     */
+    public void drawElementsInstanced(int mode, int instances) {
+        glDrawElementsInstancedBaseVertex(mode, getIndexCount(), indexType, getIndexOffset(), instances, getBaseVertex());
+    }
+
+    /**
+     * Switch the mesh to (or from) the dynamic mode : the vertices and the indices can be modified
+     * after the initialization of the mesh, with {@link #updateVertices(int, int)} and
+     * {@link #updateIndices(int, int)}. The updates are streamed to the GPU once per frame, without
+     * stalling on the previous frames. The number of vertices and indices cannot grow, and the
+     * vertices are not quantized. This must be decided before the mesh is initialized.
+     *
+     * @param pDynamic true for a dynamic mesh
+     */
+    public void setDynamic(boolean pDynamic) {
+        if (vaoId != 0) {
+            throw new Error("Cannot change the dynamic mode of an initialized mesh");
+        }
+        if (pDynamic && quantized) {
+            throw new Error("A dynamic mesh cannot be quantized");
+        }
+        if (pDynamic && shared) {
+            throw new Error("A shared mesh cannot be dynamic");
+        }
+        dynamic = pDynamic;
+    }
+
+    public boolean isDynamic() {
+        return dynamic;
+    }
+
+    /**
+     * Switch the mesh to (or from) the shared mode : the vertices and the indices are stored in the
+     * {@link GeometryArena} of the vertex layout, with the meshes of the same format, and the draws of the
+     * shared meshes are submitted in batches (see {@link yaw.engine.DrawBatch}) : the model and normal matrices
+     * are read by the program from a per-draw buffer. A shared mesh cannot be instanced, dynamic or quantized,
+     * and uses the default drawing strategy. This must be decided before the mesh is initialized.
+     *
+     * @param pShared true for a shared mesh
+     */
+    public void setShared(boolean pShared) {
+        if (vaoId != 0) {
+            throw new Error("Cannot change the shared mode of an initialized mesh");
+        }
+        if (pShared && (instanced || dynamic || quantized)) {
+            throw new Error("A shared mesh cannot be instanced, dynamic or quantized");
+        }
+        if (pShared && !(drawingStrategy instanceof DefaultDrawingStrategy)) {
+            throw new Error("A shared mesh uses the default drawing strategy");
+        }
+        shared = pShared;
+    }
+
+    public boolean isShared() {
+        return shared;
+    }
+
+    /**
+     * @return the levels of detail of the mesh, or null if it has none
+     */
+    public LodChain getLodChain() {
+        return lodChain;
+    }
+
+    /**
+     * Attach levels of detail to the mesh : its items are rendered with the level selected from
+     * their size on screen. The first level must be the mesh itself.
+     *
+     * @param pLodChain the levels, or null to remove them
+     */
+    public void setLodChain(LodChain pLodChain) {
+        if (pLodChain != null && pLodChain.getLevel(0) != this) {
+            throw new Error("The first level of detail must be the mesh itself");
+        }
+        lodChain = pLodChain;
+    }
+
+    /**
+     * @return the arena of a shared mesh (null until the mesh is initialized)
+     */
+    public GeometryArena getArena() {
+        return arena;
+    }
+
+    /**
+     * Notify that a range of vertices of the geometry has been modified (in place) :
+     * the range is sent to the GPU before the next rendering.
+     *
+     * @param firstVertex the first modified vertex
+     * @param count       the number of modified vertices
+     */
+    public void updateVertices(int firstVertex, int count) {
+        if (!dynamic) {
+            throw new Error("Only dynamic meshes can be updated");
+        }
+        geometry.invalidateBounds();
+        if (vertexStream != null) {
+            vertexLayout.interleave(geometry, vertexStream.getShadow(), firstVertex, count);
+            int stride = vertexLayout.getStride();
+            vertexStream.markDirty(firstVertex * stride, count * stride);
+        }
+    }
+
+    /**
+     * Modify a range of vertices : the positions and/or the normals (if not null) are copied in the geometry,
+     * from the given first vertex.
+     *
+     * @param firstVertex the first vertex to modify
+     * @param positions   the new positions (x, y, z for each vertex), or null
+     * @param normals     the new normals (x, y, z for each vertex), or null
+     */
+    public void updateVertices(int firstVertex, float[] positions, float[] normals) {
+        // checked before the copies : the geometry of a static mesh is left unchanged
+        if (!dynamic) {
+            throw new Error("Only dynamic meshes can be updated");
+        }
+        int count = 0;
+        if (positions != null) {
+            System.arraycopy(positions, 0, geometry.getVertices(), firstVertex * 3, positions.length);
+            count = positions.length / 3;
+        }
+        if (normals != null) {
+            System.arraycopy(normals, 0, geometry.getNormals(), firstVertex * 3, normals.length);
+            count = Math.max(count, normals.length / 3);
+        }
+        updateVertices(firstVertex, count);
+    }
+
+    /**
+     * Notify that a range of the indices of the geometry has been modified (in place)
+     *
+     * @param first the first modified index
+     * @param count the number of modified indices
+     */
+    public void updateIndices(int first, int count) {
+        if (!dynamic) {
+            throw new Error("Only dynamic meshes can be updated");
+        }
+        if (indexStream != null) {
+            int[] indices = geometry.getIndices();
+            ByteBuffer shadow = indexStream.getShadow();
+            for (int i = first; i < first + count; i++) {
+                shadow.putInt(i * Integer.BYTES, indices[i]);
+            }
+            indexStream.markDirty(first * Integer.BYTES, count * Integer.BYTES);
+        }
+    }
+
+    /**
+     * Set the number of indices to draw (dynamic meshes), at most the number of indices of the geometry
+     *
+     * @param count the number of indices, or -1 to draw all the indices
+     */
+    public void setIndexCount(int count) {
+        if (!dynamic) {
+            throw new Error("Only dynamic meshes can change their number of indices");
+        }
+        if (count > geometry.getIndices().length) {
+            throw new Error("Too many indices: " + count);
+        }
+        dynamicIndexCount = count;
+    }
+
+    /**
+     * Send the pending updates of a dynamic mesh to the GPU, once per frame before its draws
+     */
+    public void commitUpdates() {
+        if (vertexStream == null) {
+            return;
+        }
+        // the index buffer binding belongs to the VAO
+        glBindVertexArray(vaoId);
+        vertexStream.commit();
+        indexStream.commit();
+        glBindVertexArray(0);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * Protect the buffers read by the draws of the frame from the next updates, after the draws
+     */
+    public void fenceUpdates() {
+        if (vertexStream == null) {
+            return;
+        }
+        vertexStream.fence();
+        indexStream.fence();
+    }
+
+    /**
+     * @return the type of the index buffer : GL_UNSIGNED_INT, or GL_UNSIGNED_SHORT for small quantized meshes
+     */
+    public int getIndexType() {
+        return indexType;
+    }
+
+    /**
+     * Compute the matrix from the vertex buffer positions to world space : the model matrix
+     * of the item, combined with the dequantization of the positions for quantized meshes.
+     * This is used by the programs that only read the positions (depth, helpers).
+     *
+     * @param item the item
+     * @param dest the result
+     * @return dest
+     */
+    public Matrix4f getPositionMatrix(ItemObject item, Matrix4f dest) {
+        dest.set(item.getModelMatrix());
+        if (vertexLayout != null && vertexLayout.isQuantized()) {
+            dest.translate(quantOffset).scale(quantScale);
+        }
+        return dest;
+    }
+
+    /**
+     * Switch the mesh to (or from) the quantized vertex formats : 16-bit positions (relative
+     * to the bounding box), octahedral normals, half-float texture coordinates, and 16-bit
+     * indices when there are at most 65536 vertices. This must be decided before the mesh
+     * is initialized.
+     *
+     * @param pQuantized true to quantize the vertices
+     */
+    public void setQuantized(boolean pQuantized) {
+        if (vaoId != 0) {
+            throw new Error("Cannot change the quantization of an initialized mesh");
+        }
+        if (pQuantized && dynamic) {
+            throw new Error("A dynamic mesh cannot be quantized");
+        }
+        if (pQuantized && shared) {
+            throw new Error("A shared mesh cannot be quantized");
+        }
+        quantized = pQuantized;
+        if (!autoVertexLayout && vertexLayout != null && vertexLayout.isQuantized() != quantized) {
+            // a forced layout of the other kind
+            vertexLayout = null;
+        }
+    }
+
+    public boolean isQuantized() {
+        return quantized;
+    }
+
+    /**
+     * @return the size (in bytes) of the vertex and index buffers, once initialized
+     */
+    public long getBufferBytes() {
+        return bufferBytes;
+    }
+
+    /**
+     * Compute the size of the buffers (in bytes) without quantization, and the size
+     * with quantization, from the geometry.
+     *
+     * @return a one-line report of the bytes saved by the quantization
+     */
+    public String getQuantizationReport() {
+        int vertexCount = geometry.getVertexCount();
+        int indexCount = getIndexCount();
+        long fullVertexBytes = (long) vertexCount * VertexLayout.select(geometry, material, false).getStride();
+        long fullIndexBytes = (long) indexCount * Integer.BYTES;
+        long quantizedVertexBytes = (long) vertexCount * VertexLayout.select(geometry, material, true).getStride();
+        long quantizedIndexBytes = (long) indexCount * (vertexCount <= 0x10000 ? Short.BYTES : Integer.BYTES);
+        long saved = fullVertexBytes + fullIndexBytes - quantizedVertexBytes - quantizedIndexBytes;
+        return String.format("Quantized mesh: vertices %d -> %d bytes, indices %d -> %d bytes, saved %d bytes (%.1f%%)",
+                fullVertexBytes, quantizedVertexBytes, fullIndexBytes, quantizedIndexBytes, saved,
+                fullVertexBytes + fullIndexBytes == 0 ? 0.0 : 100.0 * saved / (fullVertexBytes + fullIndexBytes));
+    }
+
+    /**
+     * @return the format of the vertex buffer (null until the mesh is initialized, unless set)
+     */
+    public VertexLayout getVertexLayout() {
+        return vertexLayout;
+    }
+
+    /**
+     * Force the format of the vertex buffer. By default, the smallest layout for the geometry
+     * and the material is selected, e.g. without texture coordinates for untextured meshes.
+     * This must be decided before the mesh is initialized.
+     *
+     * @param pVertexLayout the layout
+     */
+    public void setVertexLayout(VertexLayout pVertexLayout) {
+        if (vaoId != 0) {
+            throw new Error("Cannot change the vertex layout of an initialized mesh");
+        }
+        if (shared && pVertexLayout.isQuantized()) {
+            throw new Error("A shared mesh cannot be quantized");
+        }
+        vertexLayout = pVertexLayout;
+        autoVertexLayout = false;
+        quantized = pVertexLayout.isQuantized();
+    }
+
+    /**
+     * Switch the mesh to (or from) the instanced rendering mode, where all the items
+     * of the mesh are drawn with a single draw call. This must be decided before the mesh
+     * is initialized (i.e. before its first rendering).
+     *
+     * @param pInstanced true for instanced rendering
+     */
+    public void setInstanced(boolean pInstanced) {
+        if (pInstanced == instanced) {
+            return;
+        }
+        if (vaoId != 0) {
+            throw new Error("Cannot change the instancing mode of an initialized mesh");
+        }
+        if (pInstanced && shared) {
+            throw new Error("A shared mesh cannot be instanced");
+        }
+        instanced = pInstanced;
+        drawingStrategy = instanced ? new InstancedDrawingStrategy() : new DefaultDrawingStrategy();
+    }
+
+    public boolean isInstanced() {
+        return instanced;
+    }
+
+    /**
+     * @return the number of instances of the last instanced rendering
+     */
+    public int getInstanceCount() {
+        return instanceCount;
+    }
 }
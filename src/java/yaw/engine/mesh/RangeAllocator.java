@@ -0,0 +1,137 @@
+package yaw.engine.mesh;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Sub-allocation of ranges in a linear space (e.g. the vertices of a shared buffer).
+ *
+ * The free ranges are kept in a free list ordered by offset : an allocation takes the first
+ * free range large enough, and a freed range is merged with its free neighbours.
+ * The sizes and offsets are in abstract units (vertices, indices, ...).
+ */
+public class RangeAllocator {
+    private int capacity;
+    /* free ranges : offset -> size */
+    private final TreeMap<Integer, Integer> freeRanges;
+    /* allocated ranges : offset -> size */
+    private final TreeMap<Integer, Integer> allocated;
+    private int used;
+
+    public RangeAllocator(int capacity) {
+        this.capacity = capacity;
+        this.freeRanges = new TreeMap<>();
+        this.allocated = new TreeMap<>();
+        if (capacity > 0) {
+            freeRanges.put(0, capacity);
+        }
+    }
+
+    /**
+     * Allocate a range (first fit)
+     *
+     * @param size the size of the range
+     * @return the offset of the range, or -1 if there is no free range large enough
+     */
+    public int allocate(int size) {
+        if (size <= 0) {
+            throw new Error("Wrong allocation size: " + size);
+        }
+        for (Map.Entry<Integer, Integer> range : freeRanges.entrySet()) {
+            if (range.getValue() >= size) {
+                int offset = range.getKey();
+                int remaining = range.getValue() - size;
+                freeRanges.remove(offset);
+                if (remaining > 0) {
+                    freeRanges.put(offset + size, remaining);
+                }
+                allocated.put(offset, size);
+                used += size;
+                return offset;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Free an allocated range, merged with the adjacent free ranges
+     *
+     * @param offset the offset returned by the allocation
+     */
+    public void free(int offset) {
+        Integer size = allocated.remove(offset);
+        if (size == null) {
+            throw new Error("No range allocated at: " + offset);
+        }
+        used -= size;
+        int start = offset;
+        int end = offset + size;
+        Map.Entry<Integer, Integer> before = freeRanges.floorEntry(offset);
+        if (before != null && before.getKey() + before.getValue() == start) {
+            start = before.getKey();
+            freeRanges.remove(before.getKey());
+        }
+        Integer afterSize = freeRanges.get(end);
+        if (afterSize != null) {
+            freeRanges.remove(end);
+            end += afterSize;
+        }
+        freeRanges.put(start, end - start);
+    }
+
+    /**
+     * Extend the space (the new space is free)
+     *
+     * @param newCapacity the new capacity, at least the current one
+     */
+    public void grow(int newCapacity) {
+        if (newCapacity <= capacity) {
+            return;
+        }
+        int start = capacity;
+        Map.Entry<Integer, Integer> last = freeRanges.lastEntry();
+        if (last != null && last.getKey() + last.getValue() == capacity) {
+            start = last.getKey();
+        }
+        freeRanges.put(start, newCapacity - start);
+        capacity = newCapacity;
+    }
+
+    /**
+     * @return the allocated ranges (offset -> size), ordered by offset (must not be modified)
+     */
+    public Map<Integer, Integer> getAllocatedRanges() {
+        return allocated;
+    }
+
+    /**
+     * @return the size of the largest free range
+     */
+    public int getLargestFreeRange() {
+        int largest = 0;
+        for (Iterator<Integer> it = freeRanges.values().iterator(); it.hasNext(); ) {
+            largest = Math.max(largest, it.next());
+        }
+        return largest;
+    }
+
+    /**
+     * @return the number of free ranges (1 or 0 when the space is not fragmented)
+     */
+    public int getFreeRangeCount() {
+        return freeRanges.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getUsed() {
+        return used;
+    }
+
+    public int getFree() {
+        return capacity - used;
+    }
+}
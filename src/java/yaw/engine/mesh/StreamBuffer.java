@@ -0,0 +1,232 @@
+package yaw.engine.mesh;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GLCapabilities;
+
+import java.nio.ByteBuffer;
+
+import static org.lwjgl.opengl.GL44.*;
+import static org.lwjgl.system.MemoryUtil.memAddress;
+import static org.lwjgl.system.MemoryUtil.memCopy;
+
+/**
+ * A GPU buffer whose content is updated while it is being drawn (e.g. at each frame).
+ *
+ * The content is written in a CPU copy, and the modified ranges are sent once per frame by {@link #commit()}.
+ * When buffer storage is available (GL 4.4 or ARB_buffer_storage), the buffer is made of
+ * {@link #REGIONS} regions, persistently mapped : each commit writes the next region while the GPU may
+ * still read the previous ones, and a fence placed after the draws of a frame ({@link #fence()}) guarantees
+ * that a region is not overwritten before the GPU is done with it. Otherwise (GL 3.3), there is a single region
+ * updated with glBufferSubData, or orphaned when it is (mostly) rewritten.
+ *
+ * The draws must read the region given by {@link #getRegionOffset()}.
+ */
+public class StreamBuffer {
+    /** number of regions of persistent buffers (triple buffering) */
+    public static final int REGIONS = 3;
+    /* time to wait for a fence at once (in nanoseconds) */
+    private static final long FENCE_TIMEOUT = 1_000_000_000L;
+
+    private final int target;
+    private final int capacity;
+    private final ByteBuffer shadow;
+
+    private int bufferId;
+    private boolean persistent;
+    private ByteBuffer mapped;
+    private int regionCount;
+    private int region;
+    private long[] fences;
+
+    /* for each region, the (byte) range not up to date : [dirtyStart, dirtyEnd[ */
+    private int[] dirtyStart;
+    private int[] dirtyEnd;
+
+    /**
+     * Create the buffer (the GL object is created by init)
+     *
+     * @param target   the binding target, e.g. GL_ARRAY_BUFFER
+     * @param capacity the size of the content in bytes
+     */
+    public StreamBuffer(int target, int capacity) {
+        this.target = target;
+        this.capacity = capacity;
+        this.shadow = BufferUtils.createByteBuffer(capacity);
+    }
+
+    /**
+     * Create the GL buffer, the current content of the CPU copy is uploaded at the first commit.
+     * The buffer is left bound to its target.
+     */
+    public void init() {
+        GLCapabilities caps = GL.getCapabilities();
+        persistent = caps.OpenGL44 || caps.GL_ARB_buffer_storage;
+        regionCount = persistent ? REGIONS : 1;
+        fences = new long[regionCount];
+        dirtyStart = new int[regionCount];
+        dirtyEnd = new int[regionCount];
+        bufferId = glGenBuffers();
+        glBindBuffer(target, bufferId);
+        long size = (long) capacity * regionCount;
+        if (persistent) {
+            int flags = GL_MAP_WRITE_BIT | GL_MAP_PERSISTENT_BIT | GL_MAP_COHERENT_BIT;
+            glBufferStorage(target, size, flags);
+            mapped = glMapBufferRange(target, 0, size, flags);
+        } else {
+            glBufferData(target, size, GL_STREAM_DRAW);
+        }
+        // the last region is the current one, the first commit moves to the first region
+        region = regionCount - 1;
+        markDirty(0, capacity);
+    }
+
+    /**
+     * @return the CPU copy of the content, to be modified before {@link #markDirty(int, int)}
+     */
+    public ByteBuffer getShadow() {
+        return shadow;
+    }
+
+    /**
+     * Mark a range of the content as modified
+     *
+     * @param offset the start of the range (bytes)
+     * @param length the length of the range (bytes)
+     */
+    public void markDirty(int offset, int length) {
+        if (dirtyStart == null || length <= 0) {
+            // not initialized : the whole content is sent at the first commit
+            return;
+        }
+        int end = Math.min(offset + length, capacity);
+        for (int r = 0; r < regionCount; r++) {
+            if (dirtyStart[r] >= dirtyEnd[r]) {
+                dirtyStart[r] = offset;
+                dirtyEnd[r] = end;
+            } else {
+                dirtyStart[r] = Math.min(dirtyStart[r], offset);
+                dirtyEnd[r] = Math.max(dirtyEnd[r], end);
+            }
+        }
+    }
+
+    /**
+     * @return true if some modifications have not been sent to the GPU
+     */
+    public boolean isDirty() {
+        return dirtyStart != null && dirtyStart[region] < dirtyEnd[region];
+    }
+
+    /**
+     * Send the modifications to the GPU, at most once per frame and before the draws.
+     * If the buffer is persistent, the next region becomes the current one, once the GPU is done with it.
+     */
+    public void commit() {
+        if (!isDirty()) {
+            return;
+        }
+        if (persistent) {
+            region = (region + 1) % regionCount;
+            waitFence(region);
+            int start = dirtyStart[region];
+            int end = dirtyEnd[region];
+            if (start < end) {
+                memCopy(memAddress(shadow) + start, memAddress(mapped) + (long) region * capacity + start, end - start);
+            }
+        } else {
+            int start = dirtyStart[0];
+            int end = dirtyEnd[0];
+            glBindBuffer(target, bufferId);
+            if (end - start > capacity / 2) {
+                // orphan the storage : the driver allocates a new one instead of waiting for the GPU
+                glBufferData(target, capacity, GL_STREAM_DRAW);
+                shadow.limit(capacity).position(0);
+                glBufferSubData(target, 0, shadow);
+            } else {
+                shadow.limit(end).position(start);
+                glBufferSubData(target, start, shadow);
+            }
+            shadow.clear();
+        }
+        dirtyStart[region] = 0;
+        dirtyEnd[region] = 0;
+    }
+
+    /**
+     * Place a fence after the draws of the frame that read the current region (persistent buffers only)
+     */
+    public void fence() {
+        if (!persistent) {
+            return;
+        }
+        if (fences[region] != 0) {
+            glDeleteSync(fences[region]);
+        }
+        fences[region] = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+    }
+
+    private void waitFence(int r) {
+        long sync = fences[r];
+        if (sync == 0) {
+            return;
+        }
+        int status;
+        do {
+            status = glClientWaitSync(sync, GL_SYNC_FLUSH_COMMANDS_BIT, FENCE_TIMEOUT);
+        } while (status == GL_TIMEOUT_EXPIRED);
+        glDeleteSync(sync);
+        fences[r] = 0;
+        if (status == GL_WAIT_FAILED) {
+            throw new Error("Wait on a stream buffer fence failed");
+        }
+    }
+
+    /**
+     * @return the offset (in bytes) of the current region in the buffer
+     */
+    public long getRegionOffset() {
+        return (long) region * capacity;
+    }
+
+    /**
+     * @return the index of the current region
+     */
+    public int getRegion() {
+        return region;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getBufferId() {
+        return bufferId;
+    }
+
+    public boolean isPersistent() {
+        return persistent;
+    }
+
+    public void cleanUp() {
+        if (bufferId == 0) {
+            return;
+        }
+        for (int r = 0; r < regionCount; r++) {
+            if (fences[r] != 0) {
+                glDeleteSync(fences[r]);
+                fences[r] = 0;
+            }
+        }
+        if (persistent) {
+            glBindBuffer(target, bufferId);
+            glUnmapBuffer(target);
+            mapped = null;
+        }
+        glBindBuffer(target, 0);
+        glDeleteBuffers(bufferId);
+        bufferId = 0;
+        dirtyStart = null;
+        dirtyEnd = null;
+    }
+}
@@ -5,6 +5,7 @@ import de.matthiasmann.twl.utils.PNGDecoder;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL30.glGenerateMipmap;
@@ -18,6 +19,11 @@ public class Texture {
     private int mHeight;
     private int mNumRows = 1;
     private int mNumCols = 1;
+    /* the RGBA pixels of a texture built in memory (e.g. an atlas), null for a file */
+    private ByteBuffer mPixels;
+    /* the number of meshes drawn with the texture, and whether it belongs to a cache */
+    private final AtomicInteger mRefCount = new AtomicInteger();
+    private volatile boolean mCached;
 
 
     public Texture(String pFileName, int pNumCols, int pNumRows) {
@@ -38,12 +44,32 @@ public class Texture {
         mFileName = pFileName;
     }
 
+    /**
+     * Creates a texture from RGBA pixels (rows from the top), uploaded when it is needed
+     *
+     * @param pName    the name of the texture
+     * @param pPixels  the pixels (4 bytes per pixel)
+     * @param pWidth   the width of the image
+     * @param pHeight  the height of the image
+     * @param pNumCols the number of columns of the grid of sub-images
+     * @param pNumRows the number of rows of the grid of sub-images
+     */
+    public Texture(String pName, ByteBuffer pPixels, int pWidth, int pHeight, int pNumCols, int pNumRows) {
+        this(pName, pNumCols, pNumRows);
+        mPixels = pPixels;
+        mWidth = pWidth;
+        mHeight = pHeight;
+    }
+
 
     /**
      * Load the texture from the disk and transfer it to the graphic card
+     * (synchronously, see {@link TextureLoader} for the asynchronous loading)
      */
     public void init() {
-        if (mId < 0) {
+        if (mId < 0 && mPixels != null) {
+            upload(mPixels);
+        } else if (mId < 0) {
             InputStream lInputStream = null;
             try {
                 lInputStream = Texture.class.getResourceAsStream(mFileName);
@@ -59,21 +85,7 @@ public class Texture {
                 mDecoder.decode(lByteBuffer, mDecoder.getWidth() * 4, PNGDecoder.Format.RGBA);
                 lByteBuffer.flip();
 
-                // Create a new OpenGL texture
-                this.mId = glGenTextures();
-                
-                // Bind the texture
-                glBindTexture(GL_TEXTURE_2D, this.mId);
-
-                // Tell OpenGL how to unpack the RGBA bytes. Each component is 1 byte size
-                glPixelStorei(GL_UNPACK_ALIGNMENT, 1);
-
-                glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
-                glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
-                // Upload the texture data
-                glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA, this.mWidth, this.mHeight, 0, GL_RGBA, GL_UNSIGNED_BYTE, lByteBuffer);
-                // Generate Mip Map: A mipmap is a decreasing resolution set of images generated from a high detailed texture.
-                glGenerateMipmap(GL_TEXTURE_2D);
+                upload(lByteBuffer);
                 lInputStream.close();
             } catch (IOException pE) {
 
@@ -90,12 +102,109 @@ public class Texture {
         }
     }
 
+    private void upload(ByteBuffer pPixels) {
+        // Create a new OpenGL texture
+        this.mId = glGenTextures();
+
+        // Bind the texture
+        glBindTexture(GL_TEXTURE_2D, this.mId);
+
+        // Tell OpenGL how to unpack the RGBA bytes. Each component is 1 byte size
+        glPixelStorei(GL_UNPACK_ALIGNMENT, 1);
+
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+        // Upload the texture data
+        glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA, this.mWidth, this.mHeight, 0, GL_RGBA, GL_UNSIGNED_BYTE, pPixels);
+        // Generate Mip Map: A mipmap is a decreasing resolution set of images generated from a high detailed texture.
+        glGenerateMipmap(GL_TEXTURE_2D);
+    }
+
+    /**
+     * @return true if the pixels are in memory (no decoding needed)
+     */
+    public boolean isInMemory() {
+        return mPixels != null;
+    }
+
+    /**
+     * @return the pixels of a texture built in memory, or null
+     */
+    public ByteBuffer getPixels() {
+        return mPixels;
+    }
+
+    /**
+     * Install the texture uploaded by a loader
+     *
+     * @param id     the OpenGL texture
+     * @param width  the width of the image
+     * @param height the height of the image
+     */
+    /* package */ void setLoaded(int id, int width, int height) {
+        this.mId = id;
+        this.mWidth = width;
+        this.mHeight = height;
+    }
+
+    public String getFileName() {
+        return mFileName;
+    }
+
     public void bind() {
         glBindTexture(GL_TEXTURE_2D, mId);
     }
 
+    /**
+     * Delete the OpenGL texture (it is loaded again if it is drawn afterwards)
+     */
     public void cleanup() {
-        glDeleteTextures(mId);
+        if (mId >= 0) {
+            glDeleteTextures(mId);
+            mId = -1;
+        }
+    }
+
+    /**
+     * Count a new user of the texture
+     *
+     * @return the number of users
+     */
+    public int retain() {
+        return mRefCount.incrementAndGet();
+    }
+
+    /**
+     * Count a user less : the texture is deleted when it has no more users, unless it belongs to
+     * a cache (render thread)
+     *
+     * @return the number of users
+     */
+    public int release() {
+        int count = mRefCount.decrementAndGet();
+        if (count < 0) {
+            throw new Error("Texture released more than retained: " + mFileName);
+        }
+        if (count == 0 && !mCached) {
+            cleanup();
+        }
+        return count;
+    }
+
+    public int getRefCount() {
+        return mRefCount.get();
+    }
+
+    /* package */ void setCached(boolean cached) {
+        mCached = cached;
+    }
+
+    /**
+     * @return the memory used by the resident texture (with its mipmaps), in bytes, 0 if it is not resident
+     */
+    public long getMemorySize() {
+        // the mipmaps add a third
+        return isActivated() ? 4L * mWidth * mHeight * 4 / 3 : 0;
     }
 
     public boolean isActivated() {
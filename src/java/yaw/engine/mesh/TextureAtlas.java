@@ -0,0 +1,200 @@
+package yaw.engine.mesh;
+
+import de.matthiasmann.twl.utils.PNGDecoder;
+import yaw.engine.geom.Geometry;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A texture atlas : several images packed in the cells of a grid of a single texture
+ * (the columns and rows of the grid are those of the {@link Texture}), so that meshes with different images
+ * share the same texture, and are drawn without texture changes.
+ *
+ * The texture coordinates of a geometry are rewritten for the cell of its image ({@link #remap(Geometry, String)}).
+ * They must be in [0, 1] : the repeated textures cannot be packed. Each cell is sampled from the center of
+ * its border texels, so that the neighbour cells never bleed.
+ */
+public class TextureAtlas {
+    private final Texture texture;
+    private final int cellWidth;
+    private final int cellHeight;
+    private final int numCols;
+    private final int numRows;
+    /* the image names, and their size */
+    private final Map<String, Integer> regions;
+    private final int[] widths;
+    private final int[] heights;
+
+    /**
+     * Pack decoded images
+     *
+     * @param names   the names of the images
+     * @param images  the RGBA pixels of the images (rows from the top)
+     * @param widths  the widths of the images
+     * @param heights the heights of the images
+     */
+    public TextureAtlas(String[] names, ByteBuffer[] images, int[] widths, int[] heights) {
+        if (names.length == 0) {
+            throw new Error("Empty texture atlas");
+        }
+        int cellWidth = 0;
+        int cellHeight = 0;
+        for (int i = 0; i < names.length; i++) {
+            cellWidth = Math.max(cellWidth, widths[i]);
+            cellHeight = Math.max(cellHeight, heights[i]);
+        }
+        this.cellWidth = cellWidth;
+        this.cellHeight = cellHeight;
+        this.numCols = (int) Math.ceil(Math.sqrt(names.length));
+        this.numRows = (names.length + numCols - 1) / numCols;
+        this.widths = widths.clone();
+        this.heights = heights.clone();
+
+        int width = numCols * cellWidth;
+        int height = numRows * cellHeight;
+        ByteBuffer pixels = ByteBuffer.allocateDirect(4 * width * height);
+        regions = new HashMap<>();
+        for (int i = 0; i < names.length; i++) {
+            if (regions.put(names[i], i) != null) {
+                throw new Error("Image packed twice in the atlas: " + names[i]);
+            }
+            int x = (i % numCols) * cellWidth;
+            int y = (i / numCols) * cellHeight;
+            for (int row = 0; row < heights[i]; row++) {
+                ByteBuffer src = images[i].duplicate();
+                src.position(4 * row * widths[i]).limit(4 * (row + 1) * widths[i]);
+                pixels.position(4 * ((y + row) * width + x));
+                pixels.put(src);
+            }
+        }
+        pixels.clear();
+        texture = new Texture("atlas", pixels, width, height, numCols, numRows);
+    }
+
+    /**
+     * Decode and pack images (from the resources)
+     *
+     * @param fileNames the resource names of the PNG images
+     * @return the atlas
+     */
+    public static TextureAtlas build(String... fileNames) {
+        ByteBuffer[] images = new ByteBuffer[fileNames.length];
+        int[] widths = new int[fileNames.length];
+        int[] heights = new int[fileNames.length];
+        for (int i = 0; i < fileNames.length; i++) {
+            try (InputStream input = Texture.class.getResourceAsStream(fileNames[i])) {
+                if (input == null) {
+                    throw new Error("Texture not found: " + fileNames[i]);
+                }
+                PNGDecoder decoder = new PNGDecoder(input);
+                widths[i] = decoder.getWidth();
+                heights[i] = decoder.getHeight();
+                images[i] = ByteBuffer.allocateDirect(4 * widths[i] * heights[i]);
+                decoder.decode(images[i], 4 * widths[i], PNGDecoder.Format.RGBA);
+                images[i].flip();
+            } catch (IOException e) {
+                throw new Error("Cannot decode the texture " + fileNames[i] + ": " + e.getMessage());
+            }
+        }
+        return new TextureAtlas(fileNames, images, widths, heights);
+    }
+
+    /**
+     * @param name the name of an image
+     * @return true if the image is packed in the atlas
+     */
+    public boolean contains(String name) {
+        return regions.containsKey(name);
+    }
+
+    /**
+     * @param name       the name of an image
+     * @param textCoords texture coordinates in the image
+     * @return true if the image is packed in the atlas, and the coordinates can be remapped (in [0, 1])
+     */
+    public boolean accepts(String name, float[] textCoords) {
+        if (!regions.containsKey(name)) {
+            return false;
+        }
+        for (float t : textCoords) {
+            if (t < -1.0e-4f || t > 1 + 1.0e-4f) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compute the texture coordinates of an image in the atlas
+     *
+     * @param name       the name of the image
+     * @param textCoords the texture coordinates in the image (in [0, 1])
+     * @return the texture coordinates in the atlas
+     */
+    public float[] remap(String name, float[] textCoords) {
+        Integer region = regions.get(name);
+        if (region == null) {
+            throw new Error("Image not in the atlas: " + name);
+        }
+        float width = numCols * cellWidth;
+        float height = numRows * cellHeight;
+        // from the center of the first texel to the center of the last one
+        float u0 = ((region % numCols) * cellWidth + 0.5f) / width;
+        float v0 = ((region / numCols) * cellHeight + 0.5f) / height;
+        float du = (widths[region] - 1) / width;
+        float dv = (heights[region] - 1) / height;
+        float[] remapped = new float[textCoords.length];
+        for (int i = 0; i + 1 < textCoords.length; i += 2) {
+            float u = textCoords[i];
+            float v = textCoords[i + 1];
+            if (u < -1.0e-4f || u > 1 + 1.0e-4f || v < -1.0e-4f || v > 1 + 1.0e-4f) {
+                throw new Error("Texture coordinates out of [0, 1], the image cannot be packed: " + name);
+            }
+            remapped[i] = u0 + Math.min(Math.max(u, 0), 1) * du;
+            remapped[i + 1] = v0 + Math.min(Math.max(v, 0), 1) * dv;
+        }
+        return remapped;
+    }
+
+    /**
+     * Rewrite the texture coordinates of a geometry for an image of the atlas
+     *
+     * @param geometry a textured geometry (left unchanged)
+     * @param name     the name of its image
+     * @return the geometry, with the texture coordinates in the atlas (the other arrays are shared)
+     */
+    public Geometry remap(Geometry geometry, String name) {
+        if (!geometry.hasTextCoords()) {
+            throw new Error("Geometry without texture coordinates");
+        }
+        return new Geometry(geometry.getVertices(), remap(name, geometry.getTextCoords()),
+                geometry.getNormals(), geometry.getIndices());
+    }
+
+    /**
+     * @return the texture of the atlas, shared by the materials of the packed images
+     */
+    public Texture getTexture() {
+        return texture;
+    }
+
+    public int getNumCols() {
+        return numCols;
+    }
+
+    public int getNumRows() {
+        return numRows;
+    }
+
+    public int getCellWidth() {
+        return cellWidth;
+    }
+
+    public int getCellHeight() {
+        return cellHeight;
+    }
+}
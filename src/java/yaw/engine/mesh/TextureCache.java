@@ -0,0 +1,120 @@
+package yaw.engine.mesh;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * The textures loaded from the resources, shared by file name.
+ *
+ * The textures are counted by the meshes drawn with them ({@link Texture#retain()}) : a texture that is not
+ * referenced any more stays in the cache (it may be used again), until the memory of the resident textures
+ * exceeds the budget. The unreferenced textures are then evicted, the least recently used first : their GPU memory
+ * is freed, but they stay in the cache (the materials may still reference them), and they are loaded again if they
+ * are drawn afterwards.
+ */
+public class TextureCache {
+    /** the default budget of texture memory, in bytes */
+    public static final long DEFAULT_BUDGET = 256L << 20;
+
+    /* in access order : the least recently used first */
+    private final LinkedHashMap<String, Texture> textures;
+    private long budget;
+    private int evictions;
+
+    public TextureCache(long budget) {
+        this.textures = new LinkedHashMap<>(16, 0.75f, true);
+        this.budget = budget;
+    }
+
+    public TextureCache() {
+        this(DEFAULT_BUDGET);
+    }
+
+    /**
+     * Fetch the texture of a file, it is created if needed (and loaded when it is first drawn)
+     *
+     * @param fileName the resource name of the image
+     * @return the texture
+     */
+    public synchronized Texture get(String fileName) {
+        Texture texture = textures.get(fileName);
+        if (texture == null) {
+            texture = new Texture(fileName);
+            texture.setCached(true);
+            textures.put(fileName, texture);
+        }
+        return texture;
+    }
+
+    /**
+     * Evict unreferenced textures until the memory used is within the budget (render thread)
+     *
+     * @return the number of evicted textures
+     */
+    public synchronized int evict() {
+        long usage = getMemoryUsage();
+        if (usage <= budget) {
+            return 0;
+        }
+        int evicted = 0;
+        Iterator<Texture> it = textures.values().iterator();
+        while (usage > budget && it.hasNext()) {
+            Texture texture = it.next();
+            if (texture.getRefCount() == 0 && texture.isActivated()) {
+                usage -= texture.getMemorySize();
+                // kept in the cache : a reload is shared, and counted in the memory usage
+                texture.cleanup();
+                evicted++;
+            }
+        }
+        evictions += evicted;
+        return evicted;
+    }
+
+    /**
+     * @return the memory used by the resident textures of the cache (with their mipmaps), in bytes
+     */
+    public synchronized long getMemoryUsage() {
+        long usage = 0;
+        for (Texture texture : textures.values()) {
+            usage += texture.getMemorySize();
+        }
+        return usage;
+    }
+
+    /**
+     * @param budget the memory kept for the textures, in bytes (the referenced textures are never evicted)
+     */
+    public synchronized void setBudget(long budget) {
+        this.budget = budget;
+    }
+
+    public synchronized long getBudget() {
+        return budget;
+    }
+
+    /**
+     * @return the number of textures in the cache (resident or not)
+     */
+    public synchronized int size() {
+        return textures.size();
+    }
+
+    /**
+     * @return the number of textures evicted since the creation of the cache
+     */
+    public synchronized int getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Delete all the textures (render thread)
+     */
+    public synchronized void cleanUp() {
+        for (Texture texture : textures.values()) {
+            texture.setCached(false);
+            texture.cleanup();
+        }
+        textures.clear();
+    }
+}
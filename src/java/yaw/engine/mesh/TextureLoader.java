@@ -0,0 +1,282 @@
+package yaw.engine.mesh;
+
+import de.matthiasmann.twl.utils.PNGDecoder;
+import yaw.engine.util.DirectBufferPool;
+import yaw.engine.util.LoggerYAW;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.system.MemoryUtil.memAddress;
+import static org.lwjgl.system.MemoryUtil.memCopy;
+
+/**
+ * Asynchronous loading of the textures, in two steps :
+ *
+ *  - the images are decoded by a pool of worker threads, into pooled direct buffers ;
+ *
+ *  - the decoded images are uploaded by the render thread ({@link #update()}, once per frame) through a pixel
+ *  buffer object, with a budget of bytes per frame : a large image is uploaded by bands of rows over several
+ *  frames, so that no frame stalls.
+ *
+ * Until a texture is resident, a placeholder (a white texel) is bound instead ({@link #bind(Texture)}).
+ * The textures built in memory (e.g. atlases) are uploaded at once.
+ */
+public class TextureLoader {
+    /** the default number of bytes uploaded per frame */
+    public static final long DEFAULT_FRAME_BUDGET = 4L << 20;
+    /* the decoded buffers kept for the next images */
+    private static final long POOLED_BYTES = 64L << 20;
+
+    /* an image, from its decoding to the end of its upload */
+    private static class Image {
+        final Texture texture;
+        /* null if the decoding has failed */
+        ByteBuffer pixels;
+        int width;
+        int height;
+        int textureId;
+        /* the first row not yet uploaded */
+        int nextRow;
+
+        Image(Texture texture) {
+            this.texture = texture;
+        }
+    }
+
+    private final ExecutorService workers;
+    private final DirectBufferPool bufferPool;
+    /* decoded by the workers, to be uploaded */
+    private final ConcurrentLinkedQueue<Image> decoded;
+    /* the uploads, the first one is in progress (render thread) */
+    private final ArrayDeque<Image> uploads;
+    private final Set<Texture> requested;
+    private int pending;
+
+    private long frameBudget;
+    private long uploadedBytes;
+
+    private int placeholderId;
+    private int pboId;
+
+    public TextureLoader(int workerCount) {
+        workers = Executors.newFixedThreadPool(workerCount, runnable -> {
+            Thread thread = new Thread(runnable, "yaw-texture-decoder");
+            // the decoding must not keep the application alive
+            thread.setDaemon(true);
+            return thread;
+        });
+        bufferPool = new DirectBufferPool(POOLED_BYTES);
+        decoded = new ConcurrentLinkedQueue<>();
+        uploads = new ArrayDeque<>();
+        requested = Collections.newSetFromMap(new IdentityHashMap<>());
+        frameBudget = DEFAULT_FRAME_BUDGET;
+    }
+
+    public TextureLoader() {
+        this(Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1)));
+    }
+
+    /**
+     * Bind a texture to the current texture unit, or the placeholder if it is not resident yet
+     * (its loading is requested if needed)
+     *
+     * @param texture the texture
+     */
+    public void bind(Texture texture) {
+        if (texture.isInMemory() && !texture.isActivated()) {
+            // nothing to decode
+            texture.init();
+        }
+        if (texture.isActivated()) {
+            texture.bind();
+            return;
+        }
+        request(texture);
+        if (placeholderId == 0) {
+            placeholderId = createPlaceholder();
+        }
+        glBindTexture(GL_TEXTURE_2D, placeholderId);
+    }
+
+    /**
+     * Request the loading of a texture (nothing is done if it is resident or already requested)
+     *
+     * @param texture the texture
+     */
+    public void request(Texture texture) {
+        if (texture.isActivated() || !requested.add(texture)) {
+            return;
+        }
+        pending++;
+        workers.execute(() -> decoded.add(decode(texture)));
+    }
+
+    /* worker threads */
+    private Image decode(Texture texture) {
+        Image image = new Image(texture);
+        try (InputStream input = Texture.class.getResourceAsStream(texture.getFileName())) {
+            if (input == null) {
+                throw new IOException("resource not found");
+            }
+            PNGDecoder decoder = new PNGDecoder(input);
+            image.width = decoder.getWidth();
+            image.height = decoder.getHeight();
+            image.pixels = bufferPool.acquire(4 * image.width * image.height);
+            decoder.decode(image.pixels, 4 * image.width, PNGDecoder.Format.RGBA);
+            image.pixels.flip();
+        } catch (IOException | RuntimeException e) {
+            LoggerYAW.getLogger().warning("Cannot load the texture " + texture.getFileName() + ": " + e.getMessage());
+            if (image.pixels != null) {
+                bufferPool.release(image.pixels);
+                image.pixels = null;
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Upload the decoded images, within the budget of the frame (render thread, once per frame).
+     * At least one band of rows is uploaded per frame, even if it exceeds the budget.
+     */
+    public void update() {
+        Image image;
+        while ((image = decoded.poll()) != null) {
+            if (image.pixels == null) {
+                // failed : the placeholder is kept
+                pending--;
+            } else {
+                uploads.add(image);
+            }
+        }
+
+        uploadedBytes = 0;
+        while (!uploads.isEmpty() && uploadedBytes < frameBudget) {
+            image = uploads.peek();
+            upload(image, frameBudget - uploadedBytes);
+            if (image.nextRow == image.height) {
+                uploads.poll();
+                finish(image);
+            }
+        }
+    }
+
+    private void upload(Image image, long budget) {
+        if (image.textureId == 0) {
+            image.textureId = glGenTextures();
+            glBindTexture(GL_TEXTURE_2D, image.textureId);
+            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
+            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+            glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA, image.width, image.height, 0, GL_RGBA, GL_UNSIGNED_BYTE, (ByteBuffer) null);
+        } else {
+            glBindTexture(GL_TEXTURE_2D, image.textureId);
+        }
+        if (pboId == 0) {
+            pboId = glGenBuffers();
+        }
+
+        int rowBytes = 4 * image.width;
+        int rows = (int) Math.min(image.height - image.nextRow, Math.max(1, budget / rowBytes));
+        int bytes = rows * rowBytes;
+
+        // the buffer is orphaned, the previous upload may still be in progress
+        glBindBuffer(GL_PIXEL_UNPACK_BUFFER, pboId);
+        glBufferData(GL_PIXEL_UNPACK_BUFFER, bytes, GL_STREAM_DRAW);
+        ByteBuffer mapped = glMapBufferRange(GL_PIXEL_UNPACK_BUFFER, 0, bytes, GL_MAP_WRITE_BIT | GL_MAP_INVALIDATE_BUFFER_BIT);
+        if (mapped == null) {
+            throw new Error("Cannot map the pixel buffer");
+        }
+        memCopy(memAddress(image.pixels) + (long) image.nextRow * rowBytes, memAddress(mapped), bytes);
+        glUnmapBuffer(GL_PIXEL_UNPACK_BUFFER);
+
+        glPixelStorei(GL_UNPACK_ALIGNMENT, 1);
+        glTexSubImage2D(GL_TEXTURE_2D, 0, 0, image.nextRow, image.width, rows, GL_RGBA, GL_UNSIGNED_BYTE, 0L);
+        glBindBuffer(GL_PIXEL_UNPACK_BUFFER, 0);
+        glBindTexture(GL_TEXTURE_2D, 0);
+
+        image.nextRow += rows;
+        uploadedBytes += bytes;
+    }
+
+    private void finish(Image image) {
+        bufferPool.release(image.pixels);
+        image.pixels = null;
+        pending--;
+        // requested again if it is evicted
+        requested.remove(image.texture);
+        if (image.texture.isActivated()) {
+            // loaded synchronously in the meantime
+            glDeleteTextures(image.textureId);
+            return;
+        }
+        glBindTexture(GL_TEXTURE_2D, image.textureId);
+        glGenerateMipmap(GL_TEXTURE_2D);
+        glBindTexture(GL_TEXTURE_2D, 0);
+        image.texture.setLoaded(image.textureId, image.width, image.height);
+    }
+
+    private static int createPlaceholder() {
+        ByteBuffer white = ByteBuffer.allocateDirect(4);
+        white.put((byte) 0xFF).put((byte) 0xFF).put((byte) 0xFF).put((byte) 0xFF).flip();
+        int id = glGenTextures();
+        glBindTexture(GL_TEXTURE_2D, id);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+        glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA, 1, 1, 0, GL_RGBA, GL_UNSIGNED_BYTE, white);
+        return id;
+    }
+
+    /**
+     * @param frameBudget the number of bytes uploaded per frame
+     */
+    public void setFrameBudget(long frameBudget) {
+        this.frameBudget = frameBudget;
+    }
+
+    public long getFrameBudget() {
+        return frameBudget;
+    }
+
+    /**
+     * @return the number of bytes uploaded at the last frame
+     */
+    public long getUploadedBytes() {
+        return uploadedBytes;
+    }
+
+    /**
+     * @return the number of requested textures not resident yet
+     */
+    public int getPendingCount() {
+        return pending;
+    }
+
+    /**
+     * Stop the workers and delete the GL objects (the uploads in progress are abandoned)
+     */
+    public void cleanUp() {
+        workers.shutdownNow();
+        for (Image image : uploads) {
+            glDeleteTextures(image.textureId);
+        }
+        uploads.clear();
+        decoded.clear();
+        if (pboId != 0) {
+            glDeleteBuffers(pboId);
+            pboId = 0;
+        }
+        if (placeholderId != 0) {
+            glDeleteTextures(placeholderId);
+            placeholderId = 0;
+        }
+    }
+}
@@ -0,0 +1,460 @@
+package yaw.engine.mesh;
+
+import org.joml.Vector3f;
+import yaw.engine.geom.Geometry;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.lwjgl.opengl.GL30.*;
+
+/**
+ * The format of the vertices of a mesh, in a single (interleaved) vertex buffer.
+ *
+ * A layout is a list of attributes, each with its shader location, its number
+ * of components, its component type and its byte offset inside a vertex. The attributes that a mesh does
+ * not need are simply not part of its layout (rather than uploaded as placeholders) :
+ * an attribute array that is not enabled is read as a constant by the shaders.
+ *
+ * Besides floats, the quantized layouts use :
+ *   - positions as normalized unsigned shorts, relative to the bounding box of the geometry
+ *     (the shader maps them back with the box offset and size)
+ *   - normals as two normalized shorts, octahedral-encoded (decoded by the shader)
+ *   - texture coordinates as half floats
+ */
+public class VertexLayout {
+    /* the attribute locations of the vertex shaders */
+    public static final int POSITION_LOCATION = 0;
+    public static final int TEXT_COORDS_LOCATION = 1;
+    public static final int NORMAL_LOCATION = 2;
+
+    /* position + normal : 6 floats per vertex (24 bytes) */
+    private static final VertexLayout POSITION_NORMAL = new Builder()
+            .add(POSITION_LOCATION, 3)
+            .add(NORMAL_LOCATION, 3)
+            .build();
+
+    /* position + normal + texture coordinates : 8 floats per vertex (32 bytes) */
+    private static final VertexLayout POSITION_NORMAL_TEXT_COORDS = new Builder()
+            .add(POSITION_LOCATION, 3)
+            .add(NORMAL_LOCATION, 3)
+            .add(TEXT_COORDS_LOCATION, 2)
+            .build();
+
+    /* quantized position (6 bytes + 2 padding) + octahedral normal : 12 bytes per vertex */
+    private static final VertexLayout QUANTIZED_POSITION_NORMAL = new Builder()
+            .add(POSITION_LOCATION, 3, GL_UNSIGNED_SHORT, true)
+            .add(NORMAL_LOCATION, 2, GL_SHORT, true)
+            .build();
+
+    /* quantized position + octahedral normal + half-float texture coordinates : 16 bytes per vertex */
+    private static final VertexLayout QUANTIZED_POSITION_NORMAL_TEXT_COORDS = new Builder()
+            .add(POSITION_LOCATION, 3, GL_UNSIGNED_SHORT, true)
+            .add(NORMAL_LOCATION, 2, GL_SHORT, true)
+            .add(TEXT_COORDS_LOCATION, 2, GL_HALF_FLOAT, false)
+            .build();
+
+    public static class Attribute {
+        public final int location;
+        /* number of components */
+        public final int size;
+        /* GL type of the components : GL_FLOAT, GL_HALF_FLOAT, GL_SHORT or GL_UNSIGNED_SHORT */
+        public final int type;
+        /* integer components are mapped to [0, 1] (unsigned) or [-1, 1] (signed) */
+        public final boolean normalized;
+        /* offset in bytes from the start of the vertex */
+        public final int offset;
+
+        private Attribute(int location, int size, int type, boolean normalized, int offset) {
+            this.location = location;
+            this.size = size;
+            this.type = type;
+            this.normalized = normalized;
+            this.offset = offset;
+        }
+
+        /**
+         * @return the size of the attribute in bytes (without padding)
+         */
+        public int getBytes() {
+            return size * componentBytes(type);
+        }
+    }
+
+    public static class Builder {
+        private final List<Attribute> attributes = new ArrayList<>();
+        private int bytes = 0;
+
+        /**
+         * Append a float attribute to the vertex
+         *
+         * @param location the shader location of the attribute
+         * @param size     the number of components (1 to 4)
+         * @return the builder
+         */
+        public Builder add(int location, int size) {
+            return add(location, size, GL_FLOAT, false);
+        }
+
+        /**
+         * Append an attribute to the vertex, aligned on 4 bytes
+         *
+         * @param location   the shader location of the attribute
+         * @param size       the number of components (1 to 4)
+         * @param type       the type of the components
+         * @param normalized true if the (integer) components are normalized
+         * @return the builder
+         */
+        public Builder add(int location, int size, int type, boolean normalized) {
+            if (size < 1 || size > 4) {
+                throw new Error("Wrong attribute size: " + size);
+            }
+            for (Attribute attribute : attributes) {
+                if (attribute.location == location) {
+                    throw new Error("Attribute location already used: " + location);
+                }
+            }
+            Attribute attribute = new Attribute(location, size, type, normalized, bytes);
+            attributes.add(attribute);
+            bytes = align(bytes + attribute.getBytes());
+            return this;
+        }
+
+        public VertexLayout build() {
+            return new VertexLayout(attributes, bytes);
+        }
+    }
+
+    private final List<Attribute> attributes;
+    private final int stride;
+
+    private VertexLayout(List<Attribute> attributes, int stride) {
+        this.attributes = Collections.unmodifiableList(new ArrayList<>(attributes));
+        this.stride = stride;
+    }
+
+    private static int align(int bytes) {
+        return (bytes + 3) & ~3;
+    }
+
+    private static int componentBytes(int type) {
+        switch (type) {
+            case GL_FLOAT:
+                return Float.BYTES;
+            case GL_HALF_FLOAT:
+            case GL_SHORT:
+            case GL_UNSIGNED_SHORT:
+                return Short.BYTES;
+            default:
+                throw new Error("Unsupported attribute type: " + type);
+        }
+    }
+
+    /**
+     * @return the (interleaved) layout with positions and normals only
+     */
+    public static VertexLayout positionNormal() {
+        return POSITION_NORMAL;
+    }
+
+    /**
+     * @return the (interleaved) layout with positions, normals and texture coordinates
+     */
+    public static VertexLayout positionNormalTextCoords() {
+        return POSITION_NORMAL_TEXT_COORDS;
+    }
+
+    /**
+     * @param withTextCoords true to include (half-float) texture coordinates
+     * @return the quantized layout
+     */
+    public static VertexLayout quantized(boolean withTextCoords) {
+        return withTextCoords ? QUANTIZED_POSITION_NORMAL_TEXT_COORDS : QUANTIZED_POSITION_NORMAL;
+    }
+
+    /**
+     * Choose the smallest layout for a mesh : the texture coordinates are only kept
+     * if the geometry has some and the material is textured.
+     *
+     * @param geometry  the geometry of the mesh
+     * @param material  the material of the mesh (can be null)
+     * @param quantized true for a quantized layout
+     * @return the layout
+     */
+    public static VertexLayout select(Geometry geometry, Material material, boolean quantized) {
+        boolean withTextCoords = geometry.hasTextCoords() && material != null && material.isTextured();
+        if (quantized) {
+            return quantized(withTextCoords);
+        }
+        return withTextCoords ? POSITION_NORMAL_TEXT_COORDS : POSITION_NORMAL;
+    }
+
+    public static VertexLayout select(Geometry geometry, Material material) {
+        return select(geometry, material, false);
+    }
+
+    public List<Attribute> getAttributes() {
+        return attributes;
+    }
+
+    public boolean hasAttribute(int location) {
+        for (Attribute attribute : attributes) {
+            if (attribute.location == location) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the positions are quantized (with normalized integers), in which case
+     * the normals are octahedral-encoded
+     */
+    public boolean isQuantized() {
+        for (Attribute attribute : attributes) {
+            if (attribute.location == POSITION_LOCATION) {
+                return attribute.type != GL_FLOAT;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the size of a vertex in bytes
+     */
+    public int getStride() {
+        return stride;
+    }
+
+    /**
+     * Interleave (and encode) the vertex data of a geometry according to the layout.
+     *
+     * @param geometry the geometry
+     * @param dest     the destination buffer (in native order), from its position, with at least
+     *                 {@code vertexCount * stride} bytes remaining
+     */
+    public void interleave(Geometry geometry, ByteBuffer dest) {
+        int vertexCount = geometry.getVertexCount();
+        interleave(geometry, dest, 0, vertexCount);
+        dest.position(dest.position() + vertexCount * stride);
+    }
+
+    /**
+     * Interleave (and encode) a range of vertices of a geometry, e.g. to update a buffer.
+     * The vertex i is written at {@code dest.position() + i * stride}, the position of the buffer is unchanged.
+     *
+     * @param geometry    the geometry
+     * @param dest        the destination buffer (in native order), with room for all the vertices of the geometry
+     * @param firstVertex the first vertex to write
+     * @param count       the number of vertices to write
+     */
+    public void interleave(Geometry geometry, ByteBuffer dest, int firstVertex, int count) {
+        int vertexCount = geometry.getVertexCount();
+        if (firstVertex < 0 || count < 0 || firstVertex + count > vertexCount) {
+            throw new Error("Wrong vertex range: " + firstVertex + " + " + count + " (" + vertexCount + " vertices)");
+        }
+        int base = dest.position();
+        float[] octNormal = new float[2];
+        for (Attribute attribute : attributes) {
+            float[] source;
+            switch (attribute.location) {
+                case POSITION_LOCATION:
+                    source = geometry.getVertices();
+                    break;
+                case NORMAL_LOCATION:
+                    source = geometry.getNormals();
+                    break;
+                case TEXT_COORDS_LOCATION:
+                    source = geometry.getTextCoords();
+                    break;
+                default:
+                    throw new Error("No geometry data for the attribute location: " + attribute.location);
+            }
+            // the source components of the attribute (octahedral normals are encoded from 3 components)
+            boolean octahedral = attribute.location == NORMAL_LOCATION && attribute.type == GL_SHORT;
+            int sourceSize = octahedral ? 3 : attribute.size;
+            if (source.length < vertexCount * sourceSize) {
+                throw new Error("Missing data for the attribute location: " + attribute.location);
+            }
+            if (octahedral && attribute.size != 2) {
+                throw new Error("Octahedral normals have 2 components");
+            }
+            Vector3f min = geometry.getAabbMin();
+            Vector3f max = geometry.getAabbMax();
+            int index = base + firstVertex * stride + attribute.offset;
+            for (int v = firstVertex; v < firstVertex + count; v++) {
+                int s = v * sourceSize;
+                switch (attribute.type) {
+                    case GL_FLOAT:
+                        for (int c = 0; c < attribute.size; c++) {
+                            dest.putFloat(index + c * Float.BYTES, source[s + c]);
+                        }
+                        break;
+                    case GL_HALF_FLOAT:
+                        for (int c = 0; c < attribute.size; c++) {
+                            dest.putShort(index + c * Short.BYTES, toHalfFloat(source[s + c]));
+                        }
+                        break;
+                    case GL_UNSIGNED_SHORT:
+                        if (attribute.location != POSITION_LOCATION || attribute.size > 3 || !attribute.normalized) {
+                            throw new Error("Only normalized positions can be quantized to unsigned shorts");
+                        }
+                        for (int c = 0; c < attribute.size; c++) {
+                            float extent = max.get(c) - min.get(c);
+                            float t = extent > 0 ? (source[s + c] - min.get(c)) / extent : 0;
+                            dest.putShort(index + c * Short.BYTES, (short) Math.round(clamp(t, 0, 1) * 65535));
+                        }
+                        break;
+                    case GL_SHORT:
+                        if (!octahedral || !attribute.normalized) {
+                            throw new Error("Only normals can be quantized to (octahedral) shorts");
+                        }
+                        encodeOctahedral(source[s], source[s + 1], source[s + 2], octNormal);
+                        for (int c = 0; c < 2; c++) {
+                            dest.putShort(index + c * Short.BYTES, (short) Math.round(clamp(octNormal[c], -1, 1) * 32767));
+                        }
+                        break;
+                    default:
+                        throw new Error("Unsupported attribute type: " + attribute.type);
+                }
+                index += stride;
+            }
+        }
+    }
+
+    private static float clamp(float v, float min, float max) {
+        return Math.max(min, Math.min(max, v));
+    }
+
+    /**
+     * Octahedral encoding of a unit vector : the vector is projected on the octahedron |x|+|y|+|z| = 1,
+     * and the lower half is folded over the upper half, giving a point of the [-1, 1] square.
+     *
+     * @param x    the vector x
+     * @param y    the vector y
+     * @param z    the vector z
+     * @param dest the two encoded components
+     */
+    public static void encodeOctahedral(float x, float y, float z, float[] dest) {
+        float l1 = Math.abs(x) + Math.abs(y) + Math.abs(z);
+        if (l1 == 0) {
+            dest[0] = 0;
+            dest[1] = 0;
+            return;
+        }
+        float u = x / l1;
+        float v = y / l1;
+        if (z < 0) {
+            float fu = (1 - Math.abs(v)) * (u >= 0 ? 1 : -1);
+            float fv = (1 - Math.abs(u)) * (v >= 0 ? 1 : -1);
+            u = fu;
+            v = fv;
+        }
+        dest[0] = u;
+        dest[1] = v;
+    }
+
+    /**
+     * Inverse of the octahedral encoding (the same as the shaders)
+     *
+     * @param u    the first encoded component
+     * @param v    the second encoded component
+     * @param dest the decoded unit vector
+     * @return dest
+     */
+    public static Vector3f decodeOctahedral(float u, float v, Vector3f dest) {
+        dest.set(u, v, 1 - Math.abs(u) - Math.abs(v));
+        float t = Math.max(-dest.z, 0);
+        dest.x += dest.x >= 0 ? -t : t;
+        dest.y += dest.y >= 0 ? -t : t;
+        return dest.normalize();
+    }
+
+    /**
+     * Convert a float to a half float (IEEE 754 binary16), rounded to nearest even.
+     *
+     * @param value the float
+     * @return the bits of the half float
+     */
+    public static short toHalfFloat(float value) {
+        int bits = Float.floatToRawIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int exponent = (bits >>> 23) & 0xFF;
+        int mantissa = bits & 0x7FFFFF;
+        if (exponent == 0xFF) {
+            // infinity or NaN
+            return (short) (sign | 0x7C00 | (mantissa != 0 ? 0x200 : 0));
+        }
+        int halfExponent = exponent - 127 + 15;
+        if (halfExponent >= 0x1F) {
+            // overflow : infinity
+            return (short) (sign | 0x7C00);
+        }
+        if (halfExponent <= 0) {
+            // subnormal half (or zero)
+            if (halfExponent < -10) {
+                return (short) sign;
+            }
+            mantissa |= 0x800000;
+            int shift = 14 - halfExponent;
+            int half = mantissa >> shift;
+            int rest = mantissa & ((1 << shift) - 1);
+            int halfway = 1 << (shift - 1);
+            if (rest > halfway || (rest == halfway && (half & 1) != 0)) {
+                half++;
+            }
+            return (short) (sign | half);
+        }
+        int half = (halfExponent << 10) | (mantissa >> 13);
+        int rest = mantissa & 0x1FFF;
+        if (rest > 0x1000 || (rest == 0x1000 && (half & 1) != 0)) {
+            // may carry into the exponent, up to infinity, which is the correct rounding
+            half++;
+        }
+        return (short) (sign | half);
+    }
+
+    /**
+     * Convert a half float (IEEE 754 binary16) to a float.
+     *
+     * @param half the bits of the half float
+     * @return the float
+     */
+    public static float fromHalfFloat(short half) {
+        int bits = half & 0xFFFF;
+        int sign = (bits & 0x8000) << 16;
+        int exponent = (bits >>> 10) & 0x1F;
+        int mantissa = bits & 0x3FF;
+        if (exponent == 0x1F) {
+            return Float.intBitsToFloat(sign | 0x7F800000 | (mantissa << 13));
+        }
+        if (exponent == 0) {
+            float value = mantissa / 16777216.0f; // 2^-24
+            return sign != 0 ? -value : value;
+        }
+        return Float.intBitsToFloat(sign | ((exponent - 15 + 127) << 23) | (mantissa << 13));
+    }
+
+    /**
+     * Declare the attribute pointers (the vertex buffer must be bound to GL_ARRAY_BUFFER)
+     */
+    public void setupPointers() {
+        for (Attribute attribute : attributes) {
+            glVertexAttribPointer(attribute.location, attribute.size, attribute.type, attribute.normalized, stride, attribute.offset);
+        }
+    }
+
+    public void enableAttributes() {
+        for (Attribute attribute : attributes) {
+            glEnableVertexAttribArray(attribute.location);
+        }
+    }
+
+    public void disableAttributes() {
+        for (Attribute attribute : attributes) {
+            glDisableVertexAttribArray(attribute.location);
+        }
+    }
+}
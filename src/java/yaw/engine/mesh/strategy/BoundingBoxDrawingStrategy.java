@@ -19,7 +19,7 @@ public class BoundingBoxDrawingStrategy implements MeshDrawingStrategy {
             glEnable(GL_POLYGON_OFFSET_FILL);
             glEnable(GL_PROGRAM_POINT_SIZE);
             glPolygonOffset(1, 0);
-            glDrawElements(GL_LINES, pMesh.getGeometry().getIndices().length, GL_UNSIGNED_INT, 0);
+            pMesh.drawElements(GL_LINES);
         }
     }
 }
@@ -0,0 +1,18 @@
+package yaw.engine.mesh.strategy;
+
+import yaw.engine.mesh.Mesh;
+import yaw.engine.mesh.MeshDrawingStrategy;
+
+import static org.lwjgl.opengl.GL11.*;
+
+/**
+ * Draw all the instances of a mesh with a single draw call,
+ * the per-item matrices being streamed by the mesh in its instance buffer.
+ */
+public class InstancedDrawingStrategy implements MeshDrawingStrategy {
+
+    public void drawMesh(Mesh pMesh) {
+        pMesh.drawElementsInstanced(GL_TRIANGLES, pMesh.getInstanceCount());
+    }
+
+}
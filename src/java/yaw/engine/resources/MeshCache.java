@@ -0,0 +1,429 @@
+package yaw.engine.resources;
+
+import org.joml.Vector3f;
+import org.lwjgl.BufferUtils;
+import org.lwjgl.util.lz4.LZ4;
+import org.lwjgl.util.zstd.Zstd;
+import yaw.engine.geom.Geometry;
+import yaw.engine.util.LoggerYAW;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A cache of the OBJ models in a compact binary format, so that the text of the OBJ/MTL files is only parsed once.
+ *
+ * A model is stored under its source (resource or file), with the size and the modification time of the OBJ file
+ * and of its MTL libraries : the model is parsed again (and the cache rewritten) when one of them changes.
+ * The cached files are memory-mapped, and the geometry arrays are copied in bulk from the mapping.
+ * The content can be compressed with LZ4 or Zstd.
+ *
+ * The default directory is ~/.yaw/mesh-cache, it can be changed with the system property
+ * {@value #DIRECTORY_PROPERTY} ("none" disables the cache).
+ */
+public class MeshCache {
+    public static final String DIRECTORY_PROPERTY = "yaw.meshCache";
+
+    public enum Compression {NONE, LZ4, ZSTD}
+
+    private static final int MAGIC = 0x4D574159; // YAWM
+    private static final int VERSION = 1;
+    private static final int ZSTD_LEVEL = 3;
+
+    /**
+     * A source file of a model, identified by its path, size and modification time
+     */
+    public static class Source {
+        public final String path;
+        public final long size;
+        public final long lastModified;
+
+        public Source(String path, long size, long lastModified) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * @param filename the name of a file
+         * @return the source, or null if the file cannot be read
+         */
+        public static Source ofFile(String filename) {
+            try {
+                Path path = Paths.get(filename);
+                return new Source("file:" + path.toAbsolutePath().normalize(), Files.size(path),
+                        Files.getLastModifiedTime(path).toMillis());
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        /**
+         * @param name the name of a resource
+         * @return the source, or null if the resource cannot be found
+         */
+        public static Source ofResource(String name) {
+            URL url = ObjLoader.class.getResource(name);
+            if (url == null) {
+                return null;
+            }
+            try {
+                URLConnection connection = url.openConnection();
+                return new Source("resource:" + name, connection.getContentLengthLong(), connection.getLastModified());
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        private Source current() {
+            if (path.startsWith("file:")) {
+                return ofFile(path.substring("file:".length()));
+            }
+            return ofResource(path.substring("resource:".length()));
+        }
+
+        /**
+         * @return true if the source has not changed
+         */
+        public boolean isUpToDate() {
+            Source current = current();
+            return current != null && current.size == size && current.lastModified == lastModified;
+        }
+    }
+
+    private final Path directory;
+    private final Compression compression;
+    private int hits;
+
+    public MeshCache(Path directory, Compression compression) {
+        this.directory = directory;
+        this.compression = compression;
+    }
+
+    public MeshCache(Path directory) {
+        this(directory, Compression.NONE);
+    }
+
+    /**
+     * @return the cache in the default directory, or null if disabled
+     */
+    public static MeshCache createDefault() {
+        String property = System.getProperty(DIRECTORY_PROPERTY);
+        if ("none".equals(property)) {
+            return null;
+        }
+        Path directory = property != null ? Paths.get(property)
+                : Paths.get(System.getProperty("user.home"), ".yaw", "mesh-cache");
+        return new MeshCache(directory);
+    }
+
+    private Path fileOf(Source source) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            StringBuilder name = new StringBuilder();
+            for (byte b : digest.digest(source.path.getBytes(StandardCharsets.UTF_8))) {
+                name.append(String.format("%02x", b));
+            }
+            return directory.resolve(name.append(".yawm").toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new Error(e);
+        }
+    }
+
+    /**
+     * Read a cached model
+     *
+     * @param source the OBJ source of the model
+     * @return the model, or null if it is not cached or if one of its sources has changed
+     */
+    public ObjModel read(Source source) {
+        Path file = fileOf(source);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            if (data.getInt() != MAGIC || data.getInt() != VERSION) {
+                return null;
+            }
+            Compression stored = Compression.values()[data.getInt()];
+            int payloadSize = data.getInt();
+            int storedSize = data.getInt();
+            int sourceCount = data.getInt();
+            for (int i = 0; i < sourceCount; i++) {
+                Source dependency = new Source(getString(data), data.getLong(), data.getLong());
+                if ((i == 0 && !dependency.path.equals(source.path)) || !dependency.isUpToDate()) {
+                    return null;
+                }
+            }
+            ByteBuffer payload = data.slice().order(ByteOrder.LITTLE_ENDIAN);
+            payload.limit(storedSize);
+            if (stored != Compression.NONE) {
+                payload = decompress(stored, payload, payloadSize);
+            }
+            ObjModel model = readModel(source.path, payload);
+            hits++;
+            return model;
+        } catch (IOException | RuntimeException e) {
+            LoggerYAW.getLogger().warning("Cannot read the cached model " + file + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the number of models read from the cache
+     */
+    public int getHits() {
+        return hits;
+    }
+
+    private static ByteBuffer decompress(Compression compression, ByteBuffer src, int size) {
+        ByteBuffer dst = BufferUtils.createByteBuffer(size);
+        if (compression == Compression.LZ4) {
+            if (LZ4.LZ4_decompress_safe(src, dst) != size) {
+                throw new IllegalStateException("corrupted LZ4 content");
+            }
+        } else {
+            long result = Zstd.ZSTD_decompress(dst, src);
+            if (Zstd.ZSTD_isError(result) || result != size) {
+                throw new IllegalStateException("corrupted Zstd content");
+            }
+        }
+        return dst.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static ObjModel readModel(String sceneName, ByteBuffer data) {
+        ObjModel model = new ObjModel(sceneName);
+        int materialCount = data.getInt();
+        for (int i = 0; i < materialCount; i++) {
+            String name = getString(data);
+            MtlMaterial material = new MtlMaterial(name);
+            material.shineness = data.getFloat();
+            material.opacity = data.getFloat();
+            int mask = data.getInt();
+            material.ambient = (mask & 1) != 0 ? getVector(data) : null;
+            material.diffuse = (mask & 2) != 0 ? getVector(data) : null;
+            material.specular = (mask & 4) != 0 ? getVector(data) : null;
+            material.emissive = (mask & 8) != 0 ? getVector(data) : null;
+            model.addMaterial(name, material);
+        }
+        int geometryCount = data.getInt();
+        for (int i = 0; i < geometryCount; i++) {
+            String name = getString(data);
+            String materialName = getString(data);
+            int vertexCount = data.getInt();
+            boolean hasTextCoords = data.getInt() != 0;
+            int indexCount = data.getInt();
+            float[] vertices = getFloats(data, 3 * vertexCount);
+            float[] textCoords = hasTextCoords ? getFloats(data, 2 * vertexCount) : null;
+            float[] normals = getFloats(data, 3 * vertexCount);
+            int[] indices = new int[indexCount];
+            data.asIntBuffer().get(indices);
+            data.position(data.position() + 4 * indexCount);
+            model.addGeom(name, new Geometry(vertices, textCoords, normals, indices));
+            if (!materialName.isEmpty()) {
+                model.assignMaterial(name, materialName);
+            }
+        }
+        return model;
+    }
+
+    /**
+     * Store a model
+     *
+     * @param source       the OBJ source of the model
+     * @param dependencies the other sources of the model (MTL libraries)
+     * @param model        the model
+     */
+    public void write(Source source, List<Source> dependencies, ObjModel model) {
+        List<Source> sources = new ArrayList<>();
+        sources.add(source);
+        sources.addAll(dependencies);
+        for (Source dependency : sources) {
+            if (dependency == null) {
+                // a source cannot be checked, the model cannot be cached
+                return;
+            }
+        }
+
+        ByteBuffer payload = writeModel(model);
+        int payloadSize = payload.remaining();
+        if (compression != Compression.NONE) {
+            payload = compress(payload);
+        }
+
+        Writer header = new Writer(256);
+        header.putInt(MAGIC).putInt(VERSION).putInt(compression.ordinal()).putInt(payloadSize).putInt(payload.remaining());
+        header.putInt(sources.size());
+        for (Source dependency : sources) {
+            header.putString(dependency.path).putLong(dependency.size).putLong(dependency.lastModified);
+        }
+
+        Path file = fileOf(source);
+        try {
+            Files.createDirectories(directory);
+            Path tmp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                ByteBuffer head = header.buffer();
+                while (head.hasRemaining()) {
+                    channel.write(head);
+                }
+                while (payload.hasRemaining()) {
+                    channel.write(payload);
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LoggerYAW.getLogger().warning("Cannot write the cached model " + file + ": " + e.getMessage());
+        }
+    }
+
+    private ByteBuffer compress(ByteBuffer src) {
+        // the compressors need direct buffers
+        ByteBuffer direct = BufferUtils.createByteBuffer(src.remaining());
+        direct.put(src).flip();
+        if (compression == Compression.LZ4) {
+            ByteBuffer dst = BufferUtils.createByteBuffer(LZ4.LZ4_compressBound(direct.remaining()));
+            dst.limit(LZ4.LZ4_compress_default(direct, dst));
+            return dst;
+        }
+        ByteBuffer dst = BufferUtils.createByteBuffer((int) Zstd.ZSTD_compressBound(direct.remaining()));
+        long size = Zstd.ZSTD_compress(dst, direct, ZSTD_LEVEL);
+        if (Zstd.ZSTD_isError(size)) {
+            throw new Error("Zstd compression error: " + Zstd.ZSTD_getErrorName(size));
+        }
+        dst.limit((int) size);
+        return dst;
+    }
+
+    private static ByteBuffer writeModel(ObjModel model) {
+        Writer writer = new Writer(1 << 16);
+        writer.putInt(model.nbMaterials());
+        for (int i = 0; i < model.nbMaterials(); i++) {
+            MtlMaterial material = model.getMaterialByIndex(i);
+            writer.putString(model.getMaterialName(i)).putFloat(material.shineness).putFloat(material.opacity);
+            writer.putInt((material.ambient != null ? 1 : 0) | (material.diffuse != null ? 2 : 0)
+                    | (material.specular != null ? 4 : 0) | (material.emissive != null ? 8 : 0));
+            for (Vector3f v : new Vector3f[]{material.ambient, material.diffuse, material.specular, material.emissive}) {
+                if (v != null) {
+                    writer.putFloat(v.x).putFloat(v.y).putFloat(v.z);
+                }
+            }
+        }
+        writer.putInt(model.nbGeometries());
+        for (int i = 0; i < model.nbGeometries(); i++) {
+            String name = model.getGeometryName(i);
+            String materialName = model.getAssignedMaterial(name);
+            Geometry geom = model.getGeometry(i);
+            writer.putString(name).putString(materialName == null ? "" : materialName);
+            writer.putInt(geom.getVertexCount()).putInt(geom.hasTextCoords() ? 1 : 0).putInt(geom.getIndices().length);
+            writer.putFloats(geom.getVertices(), 3 * geom.getVertexCount());
+            if (geom.hasTextCoords()) {
+                writer.putFloats(geom.getTextCoords(), 2 * geom.getVertexCount());
+            }
+            writer.putFloats(geom.getNormals(), 3 * geom.getVertexCount());
+            writer.putInts(geom.getIndices());
+        }
+        return writer.buffer();
+    }
+
+    /* the strings are padded to 4 bytes, so that the arrays stay aligned */
+    private static String getString(ByteBuffer data) {
+        int length = data.getInt();
+        byte[] bytes = new byte[length];
+        data.get(bytes);
+        data.position(data.position() + (-length & 3));
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static Vector3f getVector(ByteBuffer data) {
+        return new Vector3f(data.getFloat(), data.getFloat(), data.getFloat());
+    }
+
+    private static float[] getFloats(ByteBuffer data, int count) {
+        float[] values = new float[count];
+        data.asFloatBuffer().get(values);
+        data.position(data.position() + 4 * count);
+        return values;
+    }
+
+    /* a growable little-endian buffer */
+    private static class Writer {
+        private ByteBuffer data;
+
+        Writer(int capacity) {
+            data = ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        private void ensure(int bytes) {
+            if (data.remaining() < bytes) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(2 * data.capacity(), data.position() + bytes))
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                data.flip();
+                larger.put(data);
+                data = larger;
+            }
+        }
+
+        Writer putInt(int value) {
+            ensure(4);
+            data.putInt(value);
+            return this;
+        }
+
+        Writer putLong(long value) {
+            ensure(8);
+            data.putLong(value);
+            return this;
+        }
+
+        Writer putFloat(float value) {
+            ensure(4);
+            data.putFloat(value);
+            return this;
+        }
+
+        Writer putString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            ensure(bytes.length + 3);
+            data.put(bytes);
+            data.position(data.position() + (-bytes.length & 3));
+            return this;
+        }
+
+        Writer putFloats(float[] values, int count) {
+            ensure(4 * count);
+            data.asFloatBuffer().put(values, 0, count);
+            data.position(data.position() + 4 * count);
+            return this;
+        }
+
+        Writer putInts(int[] values) {
+            ensure(4 * values.length);
+            data.asIntBuffer().put(values);
+            data.position(data.position() + 4 * values.length);
+            return this;
+        }
+
+        ByteBuffer buffer() {
+            ByteBuffer result = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            result.flip();
+            return result;
+        }
+    }
+}
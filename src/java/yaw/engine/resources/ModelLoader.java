@@ -0,0 +1,240 @@
+package yaw.engine.resources;
+
+import yaw.engine.mesh.Mesh;
+import yaw.engine.util.LoggerYAW;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Asynchronous loading of the OBJ models, in two steps :
+ *
+ *  - the models are parsed, and their geometries built (normals, reordering for the GPU) by worker threads :
+ *  virtual threads if the runtime has them (Java 21+), a pool of daemon threads otherwise. The number of models
+ *  loaded at the same time is bounded in both cases ;
+ *
+ *  - the meshes of the parsed models are uploaded by the render thread ({@link #update()}, once per frame),
+ *  with a budget of bytes per frame : the meshes of a large model are uploaded over several frames.
+ *
+ * The future of a model is completed by the render thread once all its meshes are uploaded, its dependent actions
+ * run on the render thread (outside the lock of the scene, e.g. to add items). The render thread (e.g. an update
+ * callback) must not wait for a future : it would never be completed, see {@link #isUploadThread()}.
+ */
+public class ModelLoader {
+    /** the default number of models loaded at the same time */
+    public static final int DEFAULT_MAX_LOADS = 4;
+    /** the default number of bytes uploaded per frame */
+    public static final long DEFAULT_FRAME_BUDGET = 4L << 20;
+
+    /* a model, from its parsing to the end of its upload */
+    private static class Model {
+        final String path;
+        final CompletableFuture<Mesh[]> future;
+        Mesh[] meshes;
+        /* the first mesh not yet uploaded */
+        int nextMesh;
+
+        Model(String path) {
+            this.path = path;
+            this.future = new CompletableFuture<>();
+        }
+    }
+
+    private final ExecutorService workers;
+    /* the bound of the concurrent loads (the virtual threads are not pooled) */
+    private final Semaphore loads;
+    /* requested, not parsed yet */
+    private final Set<Model> loading;
+    /* parsed by the workers, to be uploaded */
+    private final ConcurrentLinkedQueue<Model> parsed;
+    /* the uploads, the first one is in progress (render thread) */
+    private final ArrayDeque<Model> uploads;
+    private final AtomicInteger pending;
+
+    private long frameBudget;
+    private long uploadedBytes;
+    /* the thread of the uploads (null before the first frame) */
+    private volatile Thread uploadThread;
+
+    public ModelLoader(int maxLoads) {
+        workers = createWorkers(maxLoads);
+        loads = new Semaphore(maxLoads);
+        loading = ConcurrentHashMap.newKeySet();
+        parsed = new ConcurrentLinkedQueue<>();
+        uploads = new ArrayDeque<>();
+        pending = new AtomicInteger();
+        frameBudget = DEFAULT_FRAME_BUDGET;
+    }
+
+    public ModelLoader() {
+        this(DEFAULT_MAX_LOADS);
+    }
+
+    private static ExecutorService createWorkers(int maxLoads) {
+        try {
+            // Java 21+ (the sources target older runtimes)
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(maxLoads, runnable -> {
+                Thread thread = new Thread(runnable, "yaw-model-loader");
+                // the loading must not keep the application alive
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Load a model in the background (the method returns at once)
+     *
+     * @param path        the OBJ file, or a resource if there is no such file
+     * @param withShadows true if the materials of the meshes cast shadows
+     * @return the future meshes of the model (see {@link ObjModel#buildMeshes(boolean)}), uploaded to the GPU ;
+     * completed exceptionally if the model cannot be loaded
+     */
+    public CompletableFuture<Mesh[]> load(String path, boolean withShadows) {
+        Model model = new Model(path);
+        pending.incrementAndGet();
+        loading.add(model);
+        workers.execute(() -> parse(model, withShadows));
+        return model.future;
+    }
+
+    /* worker threads */
+    private void parse(Model model, boolean withShadows) {
+        try {
+            loads.acquire();
+        } catch (InterruptedException e) {
+            fail(model, e);
+            return;
+        }
+        try {
+            ObjLoader loader = new ObjLoader();
+            if (Files.isRegularFile(Paths.get(model.path))) {
+                loader.parseFromFile(model.path);
+            } else {
+                loader.parseFromResource(model.path);
+            }
+            model.meshes = loader.getScene().buildMeshes(withShadows);
+            if (loading.remove(model)) {
+                parsed.add(model);
+            }
+        } catch (IOException | RuntimeException | Error e) {
+            // the errors too (e.g. parse errors, duplicate objects, out of memory) : the future must be completed
+            LoggerYAW.getLogger().warning("Cannot load the model " + model.path + ": " + e.getMessage());
+            fail(model, e);
+        } finally {
+            loads.release();
+        }
+    }
+
+    private void fail(Model model, Throwable cause) {
+        loading.remove(model);
+        pending.decrementAndGet();
+        model.future.completeExceptionally(cause);
+    }
+
+    /**
+     * Upload the meshes of the parsed models, within the budget of the frame (render thread, once per frame).
+     * At least one mesh is uploaded per frame, even if it exceeds the budget.
+     */
+    public void update() {
+        uploadThread = Thread.currentThread();
+        Model model;
+        while ((model = parsed.poll()) != null) {
+            uploads.add(model);
+        }
+
+        uploadedBytes = 0;
+        while (!uploads.isEmpty() && uploadedBytes < frameBudget) {
+            model = uploads.peek();
+            if (model.future.isDone()) {
+                // cancelled : the remaining meshes are not uploaded
+                uploads.poll();
+                pending.decrementAndGet();
+                continue;
+            }
+            if (model.nextMesh < model.meshes.length) {
+                Mesh mesh = model.meshes[model.nextMesh++];
+                if (!mesh.isInitialized()) {
+                    mesh.initBuffers();
+                    uploadedBytes += mesh.getBufferBytes();
+                }
+            }
+            if (model.nextMesh == model.meshes.length) {
+                uploads.poll();
+                pending.decrementAndGet();
+                model.future.complete(model.meshes);
+            }
+        }
+    }
+
+    /**
+     * @param frameBudget the number of bytes uploaded per frame
+     */
+    public void setFrameBudget(long frameBudget) {
+        this.frameBudget = frameBudget;
+    }
+
+    public long getFrameBudget() {
+        return frameBudget;
+    }
+
+    /**
+     * @return the number of bytes uploaded at the last frame
+     */
+    public long getUploadedBytes() {
+        return uploadedBytes;
+    }
+
+    /**
+     * @return the number of requested models not uploaded yet
+     */
+    public int getPendingCount() {
+        return pending.get();
+    }
+
+    /**
+     * @return true if the current thread uploads the models (it must not wait for their futures)
+     */
+    public boolean isUploadThread() {
+        return Thread.currentThread() == uploadThread;
+    }
+
+    /**
+     * @return the number of models parsed since the last frame, waiting for their upload
+     */
+    public int getParsedCount() {
+        return parsed.size();
+    }
+
+    /**
+     * Stop the workers, the futures of the models not uploaded yet are cancelled
+     */
+    public void cleanUp() {
+        workers.shutdownNow();
+        for (Model model : loading) {
+            model.future.cancel(false);
+        }
+        loading.clear();
+        Model model;
+        while ((model = parsed.poll()) != null) {
+            uploads.add(model);
+        }
+        for (Model upload : uploads) {
+            upload.future.cancel(false);
+        }
+        uploads.clear();
+        pending.set(0);
+    }
+}
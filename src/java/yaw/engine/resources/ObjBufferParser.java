@@ -0,0 +1,751 @@
+package yaw.engine.resources;
+
+import yaw.engine.geom.Geometry;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * A streaming parser of the OBJ files, working directly on their bytes (e.g. a memory-mapped file) :
+ * the numbers are parsed in place and appended to primitive arrays, no string or object is created per line.
+ *
+ * The model is the same as the one of the line parser of {@link ObjLoader} : a geometry is started by an object
+ * name or a material (a second one ends it, as well as a MTL library), the indices of the faces are global to
+ * the file, the face vertices with the same attributes are shared, and the polygons are triangulated as fans.
+ * The negative (relative) indices are also supported, and the geometries without faces are skipped.
+ *
+ * A large file is parsed in parallel, on a fork-join pool :
+ *
+ *  - the file is split in chunks at line ends, each chunk is parsed into its own attribute arrays, and
+ *  the list of its statements (object names, materials, MTL libraries and the faces in between) ;
+ *
+ *  - the chunks are merged in order : the attributes are concatenated (the relative indices are shifted by
+ *  the attributes of the previous chunks), and the statements are replayed to form the geometries ;
+ *
+ *  - the geometries are assembled in parallel, and added to the model in the order of the file.
+ */
+public class ObjBufferParser {
+    /** the default minimal size of the chunks parsed in parallel, in bytes */
+    public static final int DEFAULT_CHUNK_SIZE = 4 << 20;
+
+    /* the exact powers of ten, in float and in double */
+    private static final float[] FLOAT_POW10 = {1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f};
+    private static final double[] DOUBLE_POW10 = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    /* a statement of a chunk : an object name, a material, a MTL library, or the faces in between */
+    private static class Statement {
+        static final int OBJNAME = 0;
+        static final int USEMTL = 1;
+        static final int MTLLIB = 2;
+        static final int FACES = 3;
+
+        final int type;
+        final String name;
+        final int linepos;
+
+        Statement(int type, String name, int linepos) {
+            this.type = type;
+            this.name = name;
+            this.linepos = linepos;
+        }
+    }
+
+    /* consecutive entries of a chunk : the attribute indices of the face vertices (-1 if absent), the face sizes,
+     * and the positions of the relative indices (shifted at the merge) */
+    private static class Faces extends Statement {
+        final IntArray refs = new IntArray(3 * 1024);
+        final IntArray faceSizes = new IntArray(1024);
+        final IntArray relatives = new IntArray(16);
+
+        Faces() {
+            super(FACES, null, 0);
+        }
+    }
+
+    /* a geometry of the file, with its faces from one chunk or more */
+    private static class Group {
+        String objName;
+        String matName;
+        final List<Faces> faces = new ArrayList<>();
+        Geometry geometry;
+
+        boolean hasFaces() {
+            for (Faces f : faces) {
+                if (f.faceSizes.size > 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private final ObjModel objModel;
+    private final ObjIntConsumer<String> mtlLibLoader;
+    private final ForkJoinPool pool;
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+    /* the attributes of the file, indexed globally */
+    private float[] positions;
+    private float[] textCoords;
+    private float[] normals;
+    private int positionCount;
+    private int textCoordCount;
+    private int normalCount;
+
+    /**
+     * @param objModel     the model receiving the geometries
+     * @param mtlLibLoader the loader of the MTL libraries (with their name and their line)
+     * @param pool         the pool parsing the chunks and assembling the geometries
+     */
+    public ObjBufferParser(ObjModel objModel, ObjIntConsumer<String> mtlLibLoader, ForkJoinPool pool) {
+        this.objModel = objModel;
+        this.mtlLibLoader = mtlLibLoader;
+        this.pool = pool;
+    }
+
+    public ObjBufferParser(ObjModel objModel, ObjIntConsumer<String> mtlLibLoader) {
+        this(objModel, mtlLibLoader, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param chunkSize the minimal size of the chunks parsed in parallel, in bytes
+     */
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    /**
+     * Parse the content of an OBJ file, and add its geometries to the model
+     *
+     * @param data the bytes of the file, from its position to its limit (left unchanged)
+     */
+    public void parse(ByteBuffer data) {
+        List<Chunk> chunks = split(data);
+        if (chunks.size() == 1) {
+            chunks.get(0).parse();
+        } else {
+            List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            for (Chunk chunk : chunks) {
+                tasks.add(pool.submit(chunk::parse));
+            }
+            for (ForkJoinTask<?> task : tasks) {
+                task.join();
+            }
+        }
+
+        List<Group> groups = merge(chunks);
+        chunks.clear();
+
+        List<Group> built = new ArrayList<>();
+        for (Group group : groups) {
+            if (group.hasFaces()) {
+                built.add(group);
+            }
+        }
+        if (built.size() == 1) {
+            build(built.get(0));
+        } else if (!built.isEmpty()) {
+            List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            for (Group group : built) {
+                tasks.add(pool.submit(() -> build(group)));
+            }
+            for (ForkJoinTask<?> task : tasks) {
+                task.join();
+            }
+        }
+        for (Group group : built) {
+            String objName = group.objName != null ? group.objName : objModel.getFreshGeomName();
+            objModel.addGeom(objName, group.geometry);
+            if (group.matName != null) {
+                objModel.assignMaterial(objName, group.matName);
+            }
+        }
+        positions = textCoords = normals = null;
+    }
+
+    /* chunks of at least chunkSize bytes, a few per thread of the pool */
+    private List<Chunk> split(ByteBuffer data) {
+        int begin = data.position();
+        int end = data.limit();
+        long size = end - begin;
+        int count = (int) Math.max(1, Math.min(4L * pool.getParallelism(), size / chunkSize));
+        List<Chunk> chunks = new ArrayList<>(count);
+        int start = begin;
+        for (int i = 1; i <= count && start < end; i++) {
+            int stop = i == count ? end : (int) Math.max(start, begin + size * i / count);
+            // up to the end of the line
+            while (stop < end && data.get(stop - 1) != '\n') {
+                stop++;
+            }
+            if (stop > start) {
+                chunks.add(new Chunk(data, begin, start, stop));
+            }
+            start = stop;
+        }
+        if (chunks.isEmpty()) {
+            chunks.add(new Chunk(data, begin, begin, end));
+        }
+        return chunks;
+    }
+
+    /* concatenate the attributes of the chunks, and replay their statements */
+    private List<Group> merge(List<Chunk> chunks) {
+        positionCount = textCoordCount = normalCount = 0;
+        for (Chunk chunk : chunks) {
+            positionCount += chunk.positions.size / 3;
+            textCoordCount += chunk.textCoords.size / 2;
+            normalCount += chunk.normals.size / 3;
+        }
+        positions = new float[3 * positionCount];
+        textCoords = new float[2 * textCoordCount];
+        normals = new float[3 * normalCount];
+
+        List<Group> groups = new ArrayList<>();
+        Group group = null;
+        int[] bases = new int[3];
+        for (Chunk chunk : chunks) {
+            System.arraycopy(chunk.positions.data, 0, positions, 3 * bases[0], chunk.positions.size);
+            System.arraycopy(chunk.textCoords.data, 0, textCoords, 2 * bases[1], chunk.textCoords.size);
+            System.arraycopy(chunk.normals.data, 0, normals, 3 * bases[2], chunk.normals.size);
+            for (Statement statement : chunk.statements) {
+                switch (statement.type) {
+                    case Statement.MTLLIB:
+                        // ends the geometry
+                        group = null;
+                        mtlLibLoader.accept(statement.name, chunk.lineOffset() + statement.linepos);
+                        break;
+                    case Statement.OBJNAME:
+                        if (group == null || group.objName != null) {
+                            group = new Group();
+                            groups.add(group);
+                        }
+                        group.objName = statement.name;
+                        break;
+                    case Statement.USEMTL:
+                        if (group == null || group.matName != null) {
+                            group = new Group();
+                            groups.add(group);
+                        }
+                        group.matName = statement.name;
+                        break;
+                    default:
+                        // any other entry starts a geometry
+                        if (group == null) {
+                            group = new Group();
+                            groups.add(group);
+                        }
+                        Faces faces = (Faces) statement;
+                        for (int i = 0; i < faces.relatives.size; i++) {
+                            int ref = faces.relatives.data[i];
+                            int index = faces.refs.data[ref] + bases[ref % 3];
+                            if (index < 0) {
+                                throw new ObjLoader.ParseError("Relative face index out of range");
+                            }
+                            faces.refs.data[ref] = index;
+                        }
+                        group.faces.add(faces);
+                }
+            }
+            bases[0] += chunk.positions.size / 3;
+            bases[1] += chunk.textCoords.size / 2;
+            bases[2] += chunk.normals.size / 3;
+        }
+        return groups;
+    }
+
+    /* a part of the file, parsed independently (from the start of a line to the end of a line) */
+    private static class Chunk {
+        final ByteBuffer data;
+        final int fileBegin;
+        final int begin;
+        final int end;
+        int pos;
+        int linepos;
+        int lineOffset = -1;
+
+        final FloatArray positions = new FloatArray(3 * 1024);
+        final FloatArray textCoords = new FloatArray(2 * 1024);
+        final FloatArray normals = new FloatArray(3 * 1024);
+        final List<Statement> statements = new ArrayList<>();
+
+        Chunk(ByteBuffer data, int fileBegin, int begin, int end) {
+            this.data = data;
+            this.fileBegin = fileBegin;
+            this.begin = begin;
+            this.end = end;
+        }
+
+        /* the number of lines before the chunk (only counted for the errors and the MTL libraries) */
+        int lineOffset() {
+            if (lineOffset < 0) {
+                lineOffset = 0;
+                for (int i = fileBegin; i < begin; i++) {
+                    if (data.get(i) == '\n') {
+                        lineOffset++;
+                    }
+                }
+            }
+            return lineOffset;
+        }
+
+        ObjLoader.ParseError error(String message) {
+            return new ObjLoader.ParseError(message, lineOffset() + linepos);
+        }
+
+        void parse() {
+            pos = begin;
+            linepos = 0;
+            Faces faces = null;
+            while (pos < end) {
+                linepos++;
+                skipBlanks();
+                int start = pos;
+                skipToken();
+                int length = pos - start;
+                if (length == 0 || data.get(start) == '#') {
+                    skipLine();
+                    continue;
+                }
+                if (matches(start, length, "mtllib")) {
+                    statements.add(new Statement(Statement.MTLLIB, parseName("Missing MTL library name"), linepos));
+                    faces = null;
+                } else if (length == 1 && data.get(start) == 'o') {
+                    statements.add(new Statement(Statement.OBJNAME, parseName("Missing object name"), linepos));
+                    faces = null;
+                } else if (matches(start, length, "usemtl")) {
+                    statements.add(new Statement(Statement.USEMTL, parseName("Missing MTL material name"), linepos));
+                    faces = null;
+                } else {
+                    if (faces == null) {
+                        faces = new Faces();
+                        statements.add(faces);
+                    }
+                    if (length == 1 && data.get(start) == 'v') {
+                        positions.add(parseFloat("vertex"), parseFloat("vertex"), parseFloat("vertex"));
+                    } else if (matches(start, length, "vt")) {
+                        textCoords.add(parseFloat("texture"), parseFloat("texture"));
+                    } else if (matches(start, length, "vn")) {
+                        normals.add(parseFloat("normal"), parseFloat("normal"), parseFloat("normal"));
+                    } else if (length == 1 && data.get(start) == 'f') {
+                        parseFace(faces);
+                    }
+                    // the other entries are not supported
+                }
+                skipLine();
+            }
+        }
+
+        private static boolean isBlank(byte b) {
+            return b == ' ' || b == '\t' || b == '\r' || b == '\f' || b == 0x0B;
+        }
+
+        private void skipBlanks() {
+            while (pos < end && isBlank(data.get(pos))) {
+                pos++;
+            }
+        }
+
+        private void skipToken() {
+            byte b;
+            while (pos < end && (b = data.get(pos)) != '\n' && !isBlank(b)) {
+                pos++;
+            }
+        }
+
+        private void skipLine() {
+            while (pos < end && data.get(pos) != '\n') {
+                pos++;
+            }
+            pos++;
+        }
+
+        private boolean atLineEnd() {
+            return pos >= end || data.get(pos) == '\n';
+        }
+
+        private boolean matches(int start, int length, String keyword) {
+            if (length != keyword.length()) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (data.get(start + i) != keyword.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private String parseName(String missing) {
+            skipBlanks();
+            int start = pos;
+            skipToken();
+            if (pos == start) {
+                throw error(missing);
+            }
+            byte[] bytes = new byte[pos - start];
+            data.get(start, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Parse a decimal number (with an optional exponent) as Float.parseFloat does. The mantissa is read as an
+         * integer, and scaled by an exact power of ten : the result is correctly rounded, the other forms (and the
+         * few numbers whose rounding is uncertain) are given to Float.parseFloat.
+         */
+        private float parseFloat(String what) {
+            skipBlanks();
+            if (atLineEnd()) {
+                throw error("Not enough coordinates for " + what);
+            }
+            int start = pos;
+            boolean negative = false;
+            byte b = data.get(pos);
+            if (b == '-' || b == '+') {
+                negative = b == '-';
+                pos++;
+            }
+            long mantissa = 0;
+            int digits = 0;
+            int exponent = 0;
+            boolean exact = true;
+            while (pos < end && (b = data.get(pos)) >= '0' && b <= '9') {
+                if (mantissa < 100_000_000_000_000_000L) {
+                    mantissa = mantissa * 10 + (b - '0');
+                } else {
+                    exponent++;
+                    exact = false;
+                }
+                digits++;
+                pos++;
+            }
+            if (pos < end && data.get(pos) == '.') {
+                pos++;
+                while (pos < end && (b = data.get(pos)) >= '0' && b <= '9') {
+                    if (mantissa < 100_000_000_000_000_000L) {
+                        mantissa = mantissa * 10 + (b - '0');
+                        exponent--;
+                    } else {
+                        exact = false;
+                    }
+                    digits++;
+                    pos++;
+                }
+            }
+            if (digits > 0 && pos < end && ((b = data.get(pos)) == 'e' || b == 'E')) {
+                pos++;
+                boolean negativeExp = false;
+                if (pos < end && ((b = data.get(pos)) == '-' || b == '+')) {
+                    negativeExp = b == '-';
+                    pos++;
+                }
+                int exp = 0;
+                int expDigits = 0;
+                while (pos < end && (b = data.get(pos)) >= '0' && b <= '9') {
+                    exp = Math.min(exp * 10 + (b - '0'), 100_000);
+                    expDigits++;
+                    pos++;
+                }
+                if (expDigits == 0) {
+                    digits = 0;
+                }
+                exponent += negativeExp ? -exp : exp;
+            }
+            if (digits == 0 || !atLineEnd() && !isBlank(data.get(pos)) || !exact || mantissa > (1L << 53)) {
+                return parseFloatToken(start, what);
+            }
+
+            float value;
+            if (exponent == 0) {
+                value = (float) mantissa;
+            } else if (mantissa < (1 << 24) && exponent >= -10 && exponent <= 10) {
+                // exact operands, a single rounding
+                value = exponent < 0 ? (float) mantissa / FLOAT_POW10[-exponent] : (float) mantissa * FLOAT_POW10[exponent];
+            } else if (exponent >= -22 && exponent <= 22) {
+                double scaled = exponent < 0 ? mantissa / DOUBLE_POW10[-exponent] : mantissa * DOUBLE_POW10[exponent];
+                value = (float) scaled;
+                // rounded twice : it may differ from a single rounding only near the middle of two floats
+                double middleUp = ((double) value + Math.nextUp(value)) / 2;
+                double middleDown = ((double) value + Math.nextDown(value)) / 2;
+                if (Math.abs(scaled - middleUp) <= Math.ulp(scaled) || Math.abs(scaled - middleDown) <= Math.ulp(scaled)) {
+                    return parseFloatToken(start, what);
+                }
+            } else {
+                return parseFloatToken(start, what);
+            }
+            return negative ? -value : value;
+        }
+
+        private float parseFloatToken(int start, String what) {
+            pos = start;
+            skipToken();
+            byte[] bytes = new byte[pos - start];
+            data.get(start, bytes);
+            try {
+                return Float.parseFloat(new String(bytes, StandardCharsets.ISO_8859_1));
+            } catch (NumberFormatException e) {
+                throw new ObjLoader.ParseError("Cannot parse " + what + " coordinates", lineOffset() + linepos, e);
+            }
+        }
+
+        private void parseFace(Faces faces) {
+            int size = 0;
+            while (true) {
+                skipBlanks();
+                if (atLineEnd()) {
+                    break;
+                }
+                int ref = faces.refs.size;
+                int v = parseIndex(faces, ref, positions.size / 3, true);
+                int t = -1;
+                int n = -1;
+                if (pos < end && data.get(pos) == '/') {
+                    pos++;
+                    t = parseIndex(faces, ref + 1, textCoords.size / 2, false);
+                    if (pos < end && data.get(pos) == '/') {
+                        pos++;
+                        n = parseIndex(faces, ref + 2, normals.size / 3, false);
+                    }
+                }
+                if (!atLineEnd() && !isBlank(data.get(pos))) {
+                    throw error("Cannot parse face : wrong indices");
+                }
+                faces.refs.add(v, t, n);
+                size++;
+            }
+            faces.faceSizes.add(size);
+        }
+
+        /**
+         * @return the global index (from 0) of the attribute, or -1 if it is absent (not for the vertices) ;
+         * a relative index is counted from the start of the chunk (it is shifted at the merge)
+         */
+        private int parseIndex(Faces faces, int ref, int count, boolean required) {
+            boolean negative = false;
+            byte b;
+            if (pos < end && ((b = data.get(pos)) == '-' || b == '+')) {
+                negative = b == '-';
+                pos++;
+            }
+            long value = 0;
+            int digits = 0;
+            while (pos < end && (b = data.get(pos)) >= '0' && b <= '9') {
+                value = Math.min(value * 10 + (b - '0'), Integer.MAX_VALUE);
+                digits++;
+                pos++;
+            }
+            if (digits == 0) {
+                if (required || negative) {
+                    throw error("Cannot parse face index");
+                }
+                return -1;
+            }
+            if (value == 0) {
+                if (required) {
+                    throw error("Wrong face index: 0");
+                }
+                return -1;
+            }
+            if (negative) {
+                // relative indices count back from the last attribute
+                faces.relatives.add(ref);
+                return (int) (count - value);
+            }
+            return (int) (value - 1);
+        }
+    }
+
+    private void build(Group group) {
+        int refCount = 0;
+        int faceCount = 0;
+        for (Faces f : group.faces) {
+            refCount += f.refs.size / 3;
+            faceCount += f.faceSizes.size;
+        }
+        int[] refs = new int[3 * refCount];
+        int[] faceSizes = new int[faceCount];
+        int r = 0;
+        int s = 0;
+        for (Faces f : group.faces) {
+            System.arraycopy(f.refs.data, 0, refs, r, f.refs.size);
+            System.arraycopy(f.faceSizes.data, 0, faceSizes, s, f.faceSizes.size);
+            r += f.refs.size;
+            s += f.faceSizes.size;
+        }
+
+        boolean hasTextCoords = false;
+        boolean hasNormals = false;
+        for (int i = 0; i < refCount; i++) {
+            int v = refs[3 * i];
+            int t = refs[3 * i + 1];
+            int n = refs[3 * i + 2];
+            if (v >= positionCount || t >= textCoordCount || n >= normalCount) {
+                String name = group.objName != null ? group.objName : "with the material " + group.matName;
+                throw new ObjLoader.ParseError("Face index out of range in the object '" + name + "'");
+            }
+            hasTextCoords |= t >= 0;
+            hasNormals |= n >= 0;
+        }
+        if (!hasTextCoords || !hasNormals) {
+            // the absent attributes are not compared
+            for (int i = 0; i < refCount; i++) {
+                refs[3 * i + 1] = hasTextCoords ? refs[3 * i + 1] : -1;
+                refs[3 * i + 2] = hasNormals ? refs[3 * i + 2] : -1;
+            }
+        }
+
+        // the face vertices are shared by value, with a hash table of the vertex indices (plus one)
+        int[] table = new int[Integer.highestOneBit(Math.max(refCount, 1)) << 2];
+        int mask = table.length - 1;
+        int[] vertexRefs = new int[3 * refCount];
+        int[] vertexOf = new int[refCount];
+        int vertexCount = 0;
+        for (int i = 0; i < refCount; i++) {
+            int slot = hash(refs, i) & mask;
+            int vertex;
+            while ((vertex = table[slot] - 1) >= 0 && !sameVertex(refs, i, vertexRefs, vertex)) {
+                slot = (slot + 1) & mask;
+            }
+            if (vertex < 0) {
+                vertex = vertexCount++;
+                System.arraycopy(refs, 3 * i, vertexRefs, 3 * vertex, 3);
+                table[slot] = vertex + 1;
+            }
+            vertexOf[i] = vertex;
+        }
+
+        float[] vertices = new float[3 * vertexCount];
+        float[] uvs = hasTextCoords ? new float[2 * vertexCount] : null;
+        float[] norms = hasNormals ? new float[3 * vertexCount] : null;
+        for (int vertex = 0; vertex < vertexCount; vertex++) {
+            System.arraycopy(positions, 3 * vertexRefs[3 * vertex], vertices, 3 * vertex, 3);
+            if (hasTextCoords && vertexRefs[3 * vertex + 1] >= 0) {
+                System.arraycopy(textCoords, 2 * vertexRefs[3 * vertex + 1], uvs, 2 * vertex, 2);
+            }
+            if (hasNormals && vertexRefs[3 * vertex + 2] >= 0) {
+                System.arraycopy(normals, 3 * vertexRefs[3 * vertex + 2], norms, 3 * vertex, 3);
+            }
+        }
+
+        // fan triangulation
+        IntArray indices = new IntArray(3 * refCount);
+        int first = 0;
+        for (int size : faceSizes) {
+            for (int i = 1; i < size - 1; i++) {
+                indices.add(vertexOf[first], vertexOf[first + i], vertexOf[first + i + 1]);
+            }
+            first += size;
+        }
+
+        // the normals are computed if there are none
+        group.geometry = new Geometry(vertices, uvs, norms, indices.toArray());
+    }
+
+    private int hash(int[] refs, int i) {
+        int v = refs[3 * i];
+        int t = refs[3 * i + 1];
+        int n = refs[3 * i + 2];
+        int h = Float.floatToIntBits(positions[3 * v]);
+        h = 31 * h + Float.floatToIntBits(positions[3 * v + 1]);
+        h = 31 * h + Float.floatToIntBits(positions[3 * v + 2]);
+        if (t >= 0) {
+            h = 31 * h + Float.floatToIntBits(textCoords[2 * t]);
+            h = 31 * h + Float.floatToIntBits(textCoords[2 * t + 1]);
+        }
+        if (n >= 0) {
+            h = 31 * h + Float.floatToIntBits(normals[3 * n]);
+            h = 31 * h + Float.floatToIntBits(normals[3 * n + 1]);
+            h = 31 * h + Float.floatToIntBits(normals[3 * n + 2]);
+        }
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        return h ^ (h >>> 13);
+    }
+
+    /* same attribute values (the indices may differ) */
+    private boolean sameVertex(int[] refs, int i, int[] vertexRefs, int vertex) {
+        return sameValues(positions, 3, refs[3 * i], vertexRefs[3 * vertex])
+                && sameValues(textCoords, 2, refs[3 * i + 1], vertexRefs[3 * vertex + 1])
+                && sameValues(normals, 3, refs[3 * i + 2], vertexRefs[3 * vertex + 2]);
+    }
+
+    private static boolean sameValues(float[] values, int stride, int a, int b) {
+        if (a == b) {
+            return true;
+        }
+        if (a < 0 || b < 0) {
+            return false;
+        }
+        for (int k = 0; k < stride; k++) {
+            if (Float.floatToIntBits(values[stride * a + k]) != Float.floatToIntBits(values[stride * b + k])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class FloatArray {
+        float[] data;
+        int size;
+
+        FloatArray(int capacity) {
+            data = new float[capacity];
+        }
+
+        private void reserve(int count) {
+            if (size + count > data.length) {
+                data = Arrays.copyOf(data, Math.max(2 * data.length, size + count));
+            }
+        }
+
+        void add(float x, float y) {
+            reserve(2);
+            data[size++] = x;
+            data[size++] = y;
+        }
+
+        void add(float x, float y, float z) {
+            reserve(3);
+            data[size++] = x;
+            data[size++] = y;
+            data[size++] = z;
+        }
+    }
+
+    private static final class IntArray {
+        int[] data;
+        int size;
+
+        IntArray(int capacity) {
+            data = new int[Math.max(capacity, 1)];
+        }
+
+        private void reserve(int count) {
+            if (size + count > data.length) {
+                data = Arrays.copyOf(data, Math.max(2 * data.length, size + count));
+            }
+        }
+
+        void add(int i) {
+            reserve(1);
+            data[size++] = i;
+        }
+
+        void add(int i, int j, int k) {
+            reserve(3);
+            data[size++] = i;
+            data[size++] = j;
+            data[size++] = k;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(data, size);
+        }
+    }
+}
@@ -3,6 +3,10 @@ package yaw.engine.resources;
 import yaw.engine.geom.GeometryBuilder;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 
 public class ObjLoader {
@@ -15,8 +19,31 @@ public class ObjLoader {
     private int textCount;
     private int normalCount;
 
+    /* the binary cache of the models (null if disabled), and the MTL libraries of the parsed model */
+    private MeshCache meshCache;
+    private List<MeshCache.Source> mtlSources;
+    /* parse the bytes of the files (see ObjBufferParser) instead of their lines */
+    private boolean byteParser = true;
+
     public ObjLoader() {
         objModel = null;
+        meshCache = MeshCache.createDefault();
+        mtlSources = new ArrayList<>();
+    }
+
+    /**
+     * @param byteParser true to parse the files with the byte-level parser ({@link ObjBufferParser}, the default),
+     *                   false to parse them line by line
+     */
+    public void setByteParser(boolean byteParser) {
+        this.byteParser = byteParser;
+    }
+
+    /**
+     * @param meshCache the binary cache of the models (read before parsing, written after), or null to always parse
+     */
+    public void setMeshCache(MeshCache meshCache) {
+        this.meshCache = meshCache;
     }
 
     public ObjModel getScene() {
@@ -24,11 +51,28 @@ public class ObjLoader {
     }
 
     public void parseFromFile(String filename) throws IOException {
+        MeshCache.Source source = meshCache != null ? MeshCache.Source.ofFile(filename) : null;
+        if (source != null && (objModel = meshCache.read(source)) != null) {
+            return;
+        }
         loadMode = LoadMode.LOAD_FROM_FILE;
         loadPath = filename;
         objModel = new ObjModel(filename);
         currentObject = null;
-        parseFromBufferedReader(new BufferedReader(new FileReader(filename)));
+        mtlSources.clear();
+        if (byteParser) {
+            try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+                if (channel.size() > Integer.MAX_VALUE) {
+                    throw new ParseError("OBJ file too large: " + filename);
+                }
+                new ObjBufferParser(objModel, this::loadMtlLib).parse(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            }
+        } else {
+            parseFromBufferedReader(new BufferedReader(new FileReader(filename)));
+        }
+        if (source != null) {
+            meshCache.write(source, mtlSources, objModel);
+        }
     }
 
     public void parseFromResource(String name) throws IOException {
@@ -36,12 +80,26 @@ public class ObjLoader {
         if (istream == null) {
             throw new ParseError("Cannot find resource: " + name);
         }
-        BufferedReader reader = new BufferedReader(new InputStreamReader(istream));
+        MeshCache.Source source = meshCache != null ? MeshCache.Source.ofResource(name) : null;
+        if (source != null && (objModel = meshCache.read(source)) != null) {
+            istream.close();
+            return;
+        }
         loadMode = LoadMode.LOAD_FROM_RESOURCE;
         loadPath = name;
         objModel = new ObjModel(name);
         currentObject = null;
-        parseFromBufferedReader(reader);
+        mtlSources.clear();
+        if (byteParser) {
+            try (InputStream input = istream) {
+                new ObjBufferParser(objModel, this::loadMtlLib).parse(ByteBuffer.wrap(input.readAllBytes()));
+            }
+        } else {
+            parseFromBufferedReader(new BufferedReader(new InputStreamReader(istream)));
+        }
+        if (source != null) {
+            meshCache.write(source, mtlSources, objModel);
+        }
     }
 
     public void parseFromBufferedReader(BufferedReader reader) throws IOException {
@@ -63,29 +121,7 @@ public class ObjLoader {
             ObjEntry entry = parseLine(linepos, lines[linepos - 1]);
             switch (entry.getType()) {
                 case MTLLIB:
-                    MtlLoader mtlLoader = new MtlLoader(objModel);
-                    switch (loadMode) {
-                        case LOAD_FROM_FILE: {
-                            String mtlName = Utils.fetchRelativeName(loadPath, ((MtlLibEntry) entry).mtllib);
-                            try {
-                                mtlLoader.parseFromFile(mtlName);
-                            } catch (IOException e) {
-                                throw new ParseError("Cannot parse MTL file '" + mtlName + "'", linepos, e);
-                            }
-                            break;
-                        }
-                        case LOAD_FROM_RESOURCE: {
-                            String mtlName = Utils.fetchRelativeName(loadPath, ((MtlLibEntry) entry).mtllib);
-                            try {
-                                mtlLoader.parseFromResource(mtlName);
-                            } catch (IOException e) {
-                                throw new ParseError("Cannot parse MTL resource '" + mtlName + "'", linepos, e);
-                            }
-                            break;
-                        }
-                        default:
-                            throw new Error("Undefined load mode (please report)");
-                    }
+                    loadMtlLib(((MtlLibEntry) entry).mtllib, linepos);
                     break;
                 case LINE_COMMENT:
                 case NO_ENTRY:
@@ -97,6 +133,32 @@ public class ObjLoader {
         }
     }
 
+    private void loadMtlLib(String mtllib, int linepos) {
+        if (loadMode == LoadMode.LOAD_UNDEFINED) {
+            throw new Error("Undefined load mode (please report)");
+        }
+        MtlLoader mtlLoader = new MtlLoader(objModel);
+        String mtlName = Utils.fetchRelativeName(loadPath, mtllib);
+        switch (loadMode) {
+            case LOAD_FROM_FILE:
+                try {
+                    mtlLoader.parseFromFile(mtlName);
+                    mtlSources.add(MeshCache.Source.ofFile(mtlName));
+                } catch (IOException e) {
+                    throw new ParseError("Cannot parse MTL file '" + mtlName + "'", linepos, e);
+                }
+                break;
+            case LOAD_FROM_RESOURCE:
+                try {
+                    mtlLoader.parseFromResource(mtlName);
+                    mtlSources.add(MeshCache.Source.ofResource(mtlName));
+                } catch (IOException e) {
+                    throw new ParseError("Cannot parse MTL resource '" + mtlName + "'", linepos, e);
+                }
+                break;
+        }
+    }
+
     public int parseGeometry(String[] lines, int startline) {
         int linepos = startline - 1;
         String objName = null;
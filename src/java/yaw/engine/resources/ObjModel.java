@@ -3,17 +3,24 @@ package yaw.engine.resources;
 import org.joml.Vector3f;
 import yaw.engine.geom.Geometry;
 import yaw.engine.geom.GeometryBuilder;
+import yaw.engine.geom.VertexCacheOptimizer;
 import yaw.engine.mesh.Material;
 import yaw.engine.mesh.Mesh;
+import yaw.engine.util.LoggerYAW;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 public class ObjModel {
     private String sceneName;
     private Map<String, GeometryBuilder> geometries;
+    /* the geometries built from the builders, or read from the binary cache */
+    private Map<String, Geometry> builtGeometries;
+    /* the geometries reordered for the GPU, by buildMeshes */
+    private Map<String, Geometry> optimizedGeometries;
     private List<String> geometryIds;
 
     private Map<String, MtlMaterial> materials;
@@ -23,6 +30,8 @@ public class ObjModel {
 
     public ObjModel(String sceneName) {
         geometries = new HashMap<>();
+        builtGeometries = new HashMap<>();
+        optimizedGeometries = new HashMap<>();
         geometryIds = new ArrayList<>();
         materials = new HashMap<>();
         materialIds = new ArrayList<>();
@@ -31,7 +40,7 @@ public class ObjModel {
     }
 
     public String getFreshGeomName() {
-        return "Geom-" + (geometries.size() + 1);
+        return "Geom-" + (geometryIds.size() + 1);
     }
 
     public void addGeom(String objName, GeometryBuilder geom) {
@@ -42,6 +51,20 @@ public class ObjModel {
         geometries.put(objName, geom);
     }
 
+    /**
+     * Add a geometry already built (e.g. read from the binary cache)
+     *
+     * @param objName the name of the object
+     * @param geom    the geometry
+     */
+    public void addGeom(String objName, Geometry geom) {
+        if (geometries.containsKey(objName) || builtGeometries.containsKey(objName)) {
+            throw new Error("Object '" + objName + "' already added.");
+        }
+        geometryIds.add(objName);
+        builtGeometries.put(objName, geom);
+    }
+
     public void addMaterial(String matName, MtlMaterial material) {
         if (materials.containsKey(matName)) {
             throw new Error("Material '" + matName + "' already added.");
@@ -58,9 +81,87 @@ public class ObjModel {
         return geometryIds.size();
     }
 
+    /**
+     * The byte parser (the default, see {@link ObjLoader#setByteParser(boolean)}) and the binary cache add
+     * the geometries already built : their builder is then created from the geometry, at the first call.
+     * {@link #getGeometry(int)} avoids the copy.
+     *
+     * @param index the index of the object
+     * @return the builder of the geometry
+     */
     public GeometryBuilder getGeometryByIndex(int index) {
         String geomName = geometryIds.get(index);
-        return geometries.get(geomName);
+        GeometryBuilder builder = geometries.get(geomName);
+        if (builder == null) {
+            builder = toBuilder(builtGeometries.get(geomName));
+            geometries.put(geomName, builder);
+        }
+        return builder;
+    }
+
+    private static GeometryBuilder toBuilder(Geometry geom) {
+        GeometryBuilder builder = new GeometryBuilder();
+        builder.addVertices(geom.getVertices());
+        builder.addNormals(geom.getNormals());
+        if (geom.hasTextCoords()) {
+            float[] textCoords = geom.getTextCoords();
+            for (int i = 0; i < textCoords.length; i += 2) {
+                builder.addTextCoord(textCoords[i], textCoords[i + 1]);
+            }
+        }
+        builder.addTriangles(geom.getIndices());
+        return builder;
+    }
+
+    /**
+     * @param index the index of the object
+     * @return the geometry of the object (built once)
+     */
+    public Geometry getGeometry(int index) {
+        return getGeometry(geometryIds.get(index));
+    }
+
+    private Geometry getGeometry(String objName) {
+        Geometry geom = builtGeometries.get(objName);
+        if (geom == null) {
+            geom = geometries.get(objName).build();
+            builtGeometries.put(objName, geom);
+        }
+        return geom;
+    }
+
+    private Geometry getOptimizedGeometry(String objName) {
+        Geometry geom = optimizedGeometries.get(objName);
+        if (geom == null) {
+            Geometry source = getGeometry(objName);
+            geom = VertexCacheOptimizer.optimize(source);
+            optimizedGeometries.put(objName, geom);
+            int cacheSize = VertexCacheOptimizer.DEFAULT_CACHE_SIZE;
+            LoggerYAW.getLogger().info(String.format(Locale.ROOT, "%s/%s: ACMR %.3f -> %.3f (%d triangles)",
+                    sceneName, objName, VertexCacheOptimizer.acmr(source.getIndices(), cacheSize),
+                    VertexCacheOptimizer.acmr(geom.getIndices(), cacheSize), geom.getIndices().length / 3));
+        }
+        return geom;
+    }
+
+    public String getGeometryName(int index) {
+        return geometryIds.get(index);
+    }
+
+    /**
+     * @param objName the name of an object
+     * @return the name of the material assigned to the object, or null
+     */
+    public String getAssignedMaterial(String objName) {
+        return materialMap.get(objName);
+    }
+
+    public int nbMaterials() {
+        return materialIds.size();
+    }
+
+    public String getMaterialName(int index) {
+        return materialIds.get(index);
     }
 
     public MtlMaterial getMaterialByIndex(int index) {
@@ -68,6 +169,10 @@ public class ObjModel {
         return materials.get(matName);
     }
 
+    public String getSceneName() {
+        return sceneName;
+    }
+
     /**
      * Create a list of Meshes from the OBJ/MTL objects, based on the following heuristics.
      * each "object" of the OBJ becomes a Mesh in the Yaw glossary
@@ -76,12 +181,15 @@ public class ObjModel {
      *
      * If more control is needed, then the meshes must be created manually
      *
+     * The triangles and the vertices of the geometries are reordered for the GPU (see {@link VertexCacheOptimizer}),
+     * the ACMR before and after is logged.
+     *
      * @return The Meshes corresponding to the OBJ/MTL model.
      */
     public Mesh[] buildMeshes(boolean withShadows) {
         List<Mesh> meshes = new ArrayList<>();
         for (String objName : geometryIds) {
-            Geometry geom = geometries.get(objName).build();
+            Geometry geom = getOptimizedGeometry(objName);
             Material mat;
             String matName = materialMap.get(objName);
             if (matName != null) {
@@ -0,0 +1,68 @@
+package yaw.engine.shader;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import yaw.engine.camera.Camera;
+
+/**
+ * The per-frame camera uniforms, shared by all the ADS programs :
+ * <pre>
+ * layout(std140) uniform CameraBlock {
+ *   mat4 worldMatrix;  // offset 0
+ *   vec3 camera_pos;   // offset 64
+ * };
+ * </pre>
+ */
+public class CameraBlock extends UniformBuffer {
+    public static final String NAME = "CameraBlock";
+    public static final int BINDING = 0;
+
+    private static final int WORLD_MATRIX_OFFSET = 0;
+    private static final int CAMERA_POS_OFFSET = 64;
+    private static final int SIZE = 80;
+
+    /* the camera (and its version) last uploaded */
+    private Camera uploadedCamera;
+    private long uploadedVersion;
+    private final Vector3f cameraPosition = new Vector3f();
+
+    public CameraBlock() {
+        super(BINDING, SIZE);
+    }
+
+    /**
+     * Declare the block in a shader
+     *
+     * @param code the shader code
+     * @return the shader code
+     */
+    public static ShaderCode declare(ShaderCode code) {
+        return code.beginUniformBlock(NAME, "Camera-level uniforms (shared)")
+                .item("mat4", "worldMatrix")
+                .item("vec3", "camera_pos")
+                .endUniformBlock();
+    }
+
+    /**
+     * Fill and upload the block for the frame, if the camera changed since the last upload
+     *
+     * @param pCamera the camera
+     * @return true if the block has been uploaded
+     */
+    public boolean update(Camera pCamera) {
+        long version = pCamera.getVersion();
+        if (pCamera == uploadedCamera && version == uploadedVersion) {
+            return false;
+        }
+        update(pCamera.getWorldMat(), pCamera.getPosition(cameraPosition));
+        uploadedCamera = pCamera;
+        uploadedVersion = version;
+        return true;
+    }
+
+    public void update(Matrix4f worldMatrix, Vector3f cameraPosition) {
+        worldMatrix.get(WORLD_MATRIX_OFFSET, getData());
+        cameraPosition.get(CAMERA_POS_OFFSET, getData());
+        upload();
+    }
+}
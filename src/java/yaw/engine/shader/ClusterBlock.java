@@ -0,0 +1,157 @@
+package yaw.engine.shader;
+
+import org.lwjgl.BufferUtils;
+import yaw.engine.light.LightClusters;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import static org.lwjgl.opengl.GL31.*;
+
+/**
+ * The light clusters, shared by the ADS programs with clustered lighting.
+ *
+ * The grid is described by a uniform block :
+ * <pre>
+ * layout(std140) uniform ClusterBlock {
+ *   ivec4 clusterSize;   // offset 0 : tiles in x and y, slices, number of lights
+ *   vec4 clusterDepth;   // offset 16 : near distance, far distance, slice scale
+ * };
+ * </pre>
+ * and the content of the clusters by three buffer textures : the lights ({@link LightClusters#LIGHT_FLOATS}
+ * floats per light, as RGBA texels), the offset and the count of each cluster (RG integers),
+ * and the light indices of the clusters (R integers).
+ */
+public class ClusterBlock extends UniformBuffer {
+    public static final String NAME = "ClusterBlock";
+    public static final int BINDING = 2;
+    /** texture units of the light buffer, of the cluster ranges, and of the light indices */
+    public static final int LIGHTS_TEXTURE_UNIT = 3;
+    public static final int RANGES_TEXTURE_UNIT = 4;
+    public static final int INDICES_TEXTURE_UNIT = 5;
+
+    private static final int SIZE = 32;
+
+    /* buffer and texture of the lights, the ranges and the indices */
+    private final int[] bufferIds = new int[3];
+    private final int[] textureIds = new int[3];
+    private FloatBuffer lights;
+    private IntBuffer ranges;
+    private IntBuffer indices;
+
+    public ClusterBlock() {
+        super(BINDING, SIZE);
+    }
+
+    /**
+     * Declare the block and the buffer textures in a shader
+     *
+     * @param code the shader code
+     * @return the shader code
+     */
+    public static ShaderCode declare(ShaderCode code) {
+        code.beginUniformBlock(NAME, "Light clusters (shared)")
+                .item("ivec4", "clusterSize")
+                .item("vec4", "clusterDepth")
+                .endUniformBlock();
+        return code.l().cmt("Lights (" + LightClusters.LIGHT_FLOATS / 4 + " texels per light), clusters and light indices")
+                .l("uniform samplerBuffer clusterLights")
+                .l("uniform isamplerBuffer clusterRanges")
+                .l("uniform isamplerBuffer clusterIndices");
+    }
+
+    /**
+     * Upload the clusters (the buffers are orphaned, the draws of the previous frame may still read them)
+     *
+     * @param clusters the clusters, binned for the frame
+     */
+    public void update(LightClusters clusters) {
+        if (bufferIds[0] == 0) {
+            glGenBuffers(bufferIds);
+            glGenTextures(textureIds);
+        }
+
+        ByteBuffer data = getData();
+        data.putInt(0, clusters.getSizeX());
+        data.putInt(4, clusters.getSizeY());
+        data.putInt(8, clusters.getSizeZ());
+        data.putInt(12, clusters.getLightCount());
+        data.putFloat(16, clusters.getNear());
+        data.putFloat(20, clusters.getFar());
+        data.putFloat(24, clusters.getSliceScale());
+        upload();
+
+        // empty buffers are not valid texture storage, at least one element is uploaded
+        int lightFloats = Math.max(clusters.getLightCount() * LightClusters.LIGHT_FLOATS, 4);
+        if (lights == null || lights.capacity() < lightFloats) {
+            lights = BufferUtils.createFloatBuffer(Math.max(lightFloats, lights == null ? 0 : 2 * lights.capacity()));
+        }
+        lights.clear();
+        lights.put(clusters.getLightData(), 0, lightFloats).flip();
+
+        int rangeInts = 2 * clusters.getClusterCount();
+        if (ranges == null || ranges.capacity() < rangeInts) {
+            ranges = BufferUtils.createIntBuffer(rangeInts);
+        }
+        ranges.clear();
+        ranges.put(clusters.getRanges(), 0, rangeInts).flip();
+
+        int indexInts = Math.max(clusters.getIndexCount(), 1);
+        if (indices == null || indices.capacity() < indexInts) {
+            indices = BufferUtils.createIntBuffer(Math.max(indexInts, indices == null ? 0 : 2 * indices.capacity()));
+        }
+        indices.clear();
+        indices.put(clusters.getIndices(), 0, indexInts).flip();
+
+        upload(0, lights, GL_RGBA32F);
+        upload(1, ranges, GL_RG32I);
+        upload(2, indices, GL_R32I);
+    }
+
+    private void upload(int i, FloatBuffer content, int format) {
+        glBindBuffer(GL_TEXTURE_BUFFER, bufferIds[i]);
+        glBufferData(GL_TEXTURE_BUFFER, content, GL_STREAM_DRAW);
+        attach(i, format);
+    }
+
+    private void upload(int i, IntBuffer content, int format) {
+        glBindBuffer(GL_TEXTURE_BUFFER, bufferIds[i]);
+        glBufferData(GL_TEXTURE_BUFFER, content, GL_STREAM_DRAW);
+        attach(i, format);
+    }
+
+    private void attach(int i, int format) {
+        glBindBuffer(GL_TEXTURE_BUFFER, 0);
+        glBindTexture(GL_TEXTURE_BUFFER, textureIds[i]);
+        glTexBuffer(GL_TEXTURE_BUFFER, format, bufferIds[i]);
+        glBindTexture(GL_TEXTURE_BUFFER, 0);
+    }
+
+    /**
+     * Bind the buffer textures to their units, before the draws
+     */
+    public void bindTextures() {
+        if (textureIds[0] == 0) {
+            return;
+        }
+        glActiveTexture(GL_TEXTURE0 + LIGHTS_TEXTURE_UNIT);
+        glBindTexture(GL_TEXTURE_BUFFER, textureIds[0]);
+        glActiveTexture(GL_TEXTURE0 + RANGES_TEXTURE_UNIT);
+        glBindTexture(GL_TEXTURE_BUFFER, textureIds[1]);
+        glActiveTexture(GL_TEXTURE0 + INDICES_TEXTURE_UNIT);
+        glBindTexture(GL_TEXTURE_BUFFER, textureIds[2]);
+        glActiveTexture(GL_TEXTURE0);
+    }
+
+    @Override
+    public void cleanUp() {
+        super.cleanUp();
+        if (bufferIds[0] != 0) {
+            glDeleteTextures(textureIds);
+            glDeleteBuffers(bufferIds);
+            bufferIds[0] = 0;
+            textureIds[0] = 0;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package yaw.engine.shader;
+
+import org.joml.Vector3f;
+import yaw.engine.light.DirectionalLight;
+import yaw.engine.light.LightModel;
+import yaw.engine.light.PointLight;
+import yaw.engine.light.SpotLight;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The lights of the scene, shared by all the ADS programs.
+ * The std140 layout depends on the light model (the maximum number of lights) :
+ * <pre>
+ * layout(std140) uniform LightBlock {
+ *   vec3 ambientLight;                           // offset 0
+ *   int nbPointLights;                           // offset 12
+ *   int nbSpotLights;                            // offset 16
+ *   DirectionalLight directionalLight;           // offset 32 (32 bytes), if any
+ *   PointLight pointLights[MAX_POINT_LIGHTS];    // 48 bytes each, if any
+ *   SpotLight spotLights[MAX_SPOT_LIGHTS];       // 64 bytes each, if any
+ * };
+ * </pre>
+ * The block is only uploaded when the version of the lights changed.
+ * With clustered lighting, the block has no light arrays : the point and spot lights are
+ * read from the buffers of the {@link ClusterBlock}.
+ */
+public class LightBlock extends UniformBuffer {
+    public static final String NAME = "LightBlock";
+    public static final int BINDING = 1;
+
+    private static final int DIRECTIONAL_LIGHT_SIZE = 32;
+    private static final int POINT_LIGHT_SIZE = 48;
+    private static final int SPOT_LIGHT_SIZE = 64;
+
+    private final int pointLightsOffset;
+    private final int spotLightsOffset;
+    private final boolean withLightArrays;
+
+    /* the lights (and their version) last uploaded */
+    private LightModel uploadedLights;
+    private long uploadedVersion;
+
+    public LightBlock(boolean hasDirectionalLight, int maxPointLights, int maxSpotLights) {
+        super(BINDING, size(hasDirectionalLight, maxPointLights, maxSpotLights));
+        pointLightsOffset = 32 + (hasDirectionalLight ? DIRECTIONAL_LIGHT_SIZE : 0);
+        spotLightsOffset = pointLightsOffset + maxPointLights * POINT_LIGHT_SIZE;
+        withLightArrays = maxPointLights > 0 || maxSpotLights > 0;
+    }
+
+    public LightBlock(LightModel lightModel) {
+        this(lightModel.hasDirectionalLight, lightModel.clustered ? 0 : lightModel.maxPointLights,
+                lightModel.clustered ? 0 : lightModel.maxSpotLights);
+    }
+
+    private static int size(boolean hasDirectionalLight, int maxPointLights, int maxSpotLights) {
+        return 32 + (hasDirectionalLight ? DIRECTIONAL_LIGHT_SIZE : 0)
+                + maxPointLights * POINT_LIGHT_SIZE + maxSpotLights * SPOT_LIGHT_SIZE;
+    }
+
+    /**
+     * Declare the block in a shader (the light structures must be declared before)
+     *
+     * @param code the shader code
+     * @return the shader code
+     */
+    public static ShaderCode declare(ShaderCode code, boolean hasDirectionalLight, int maxPointLights, int maxSpotLights) {
+        code.beginUniformBlock(NAME, "Lights (shared)")
+                .item("vec3", "ambientLight")
+                .item("int", "nbPointLights")
+                .item("int", "nbSpotLights");
+        if (hasDirectionalLight) {
+            code.item("DirectionalLight", "directionalLight");
+        }
+        if (maxPointLights > 0) {
+            code.item("PointLight", "pointLights[MAX_POINT_LIGHTS]");
+        }
+        if (maxSpotLights > 0) {
+            code.item("SpotLight", "spotLights[MAX_SPOT_LIGHTS]");
+        }
+        return code.endUniformBlock();
+    }
+
+    /**
+     * Fill and upload the block, if the lights changed since the last upload.
+     *
+     * @param lightModel the lights, updated for the frame
+     * @return true if the block has been uploaded
+     */
+    public boolean update(LightModel lightModel) {
+        if (lightModel == uploadedLights && lightModel.getVersion() == uploadedVersion) {
+            return false;
+        }
+        ByteBuffer data = getData();
+        lightModel.getAmbientLight().getShaderValue().get(0, data);
+        data.putInt(12, lightModel.getNbPointLights());
+        data.putInt(16, lightModel.getNbSpotLights());
+        if (lightModel.hasDirectionalLight) {
+            DirectionalLight directionalLight = lightModel.getDirectionalLight();
+            if (directionalLight != null) {
+                put(data, 32, directionalLight.getColor(), directionalLight.getIntensity());
+                directionalLight.getDirection().get(48, data);
+            } else {
+                // no contribution
+                data.putFloat(44, 0);
+            }
+        }
+        for (int i = 0; withLightArrays && i < lightModel.getNbPointLights(); i++) {
+            put(data, pointLightsOffset + i * POINT_LIGHT_SIZE, lightModel.getPointLight(i));
+        }
+        for (int i = 0; withLightArrays && i < lightModel.getNbSpotLights(); i++) {
+            SpotLight spotLight = lightModel.getSpotLight(i);
+            int offset = spotLightsOffset + i * SPOT_LIGHT_SIZE;
+            put(data, offset, spotLight);
+            // the cutoff angle is given in degrees, the shader compares cosines
+            put(data, offset + POINT_LIGHT_SIZE, spotLight.getConedir(),
+                    (float) Math.cos(Math.toRadians(spotLight.getCutoffAngle())));
+        }
+        upload();
+        uploadedLights = lightModel;
+        uploadedVersion = lightModel.getVersion();
+        return true;
+    }
+
+    private static void put(ByteBuffer data, int offset, Vector3f v, float w) {
+        v.get(offset, data);
+        data.putFloat(offset + 12, w);
+    }
+
+    private static void put(ByteBuffer data, int offset, PointLight pointLight) {
+        put(data, offset, pointLight.getColor(), pointLight.getIntensity());
+        put(data, offset + 16, pointLight.getPosition(), pointLight.getConstantAtt());
+        data.putFloat(offset + 32, pointLight.getLinearAtt());
+        data.putFloat(offset + 36, pointLight.getQuadraticAtt());
+    }
+}
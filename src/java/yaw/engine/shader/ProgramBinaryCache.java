@@ -0,0 +1,251 @@
+package yaw.engine.shader;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GLCapabilities;
+import yaw.engine.util.LoggerYAW;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import static org.lwjgl.opengl.GL41.*;
+
+/**
+ * An on-disk cache of linked programs (program binaries), so that the GLSL sources are only compiled
+ * at the first launch.
+ *
+ * A program is stored under a key, the hash of its sources and of the driver (vendor, renderer and version
+ * strings) : a change of the generated code or of the driver gives a new key. A binary rejected by the driver
+ * (e.g. after a driver update with the same strings) is deleted, and the program is compiled again.
+ * The cache requires GL 4.1 or ARB_get_program_binary, it is disabled otherwise.
+ *
+ * The default directory is ~/.yaw/shader-cache, it can be changed with the system property
+ * {@value #DIRECTORY_PROPERTY} ("none" disables the cache).
+ */
+public class ProgramBinaryCache {
+    public static final String DIRECTORY_PROPERTY = "yaw.shaderCache";
+
+    private static final int MAGIC = 0x59415742; // YAWB
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+
+    private final Path directory;
+    /* null until the support has been checked (with a current GL context) */
+    private Boolean supported;
+    private String driver;
+
+    private int hits;
+    private int misses;
+
+    public ProgramBinaryCache(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @return the cache in the default directory, or null if disabled
+     */
+    public static ProgramBinaryCache createDefault() {
+        String property = System.getProperty(DIRECTORY_PROPERTY);
+        if ("none".equals(property)) {
+            return null;
+        }
+        Path directory = property != null ? Paths.get(property)
+                : Paths.get(System.getProperty("user.home"), ".yaw", "shader-cache");
+        return new ProgramBinaryCache(directory);
+    }
+
+    /**
+     * @return true if the driver can retrieve program binaries (a GL context must be current)
+     */
+    public boolean isSupported() {
+        if (supported == null) {
+            GLCapabilities caps = GL.getCapabilities();
+            supported = (caps.OpenGL41 || caps.GL_ARB_get_program_binary)
+                    && glGetInteger(GL_NUM_PROGRAM_BINARY_FORMATS) > 0;
+            driver = glGetString(GL_VENDOR) + "|" + glGetString(GL_RENDERER) + "|" + glGetString(GL_VERSION);
+        }
+        return supported;
+    }
+
+    /**
+     * The key of a program
+     *
+     * @param driver  the driver identification
+     * @param sources the sources of the shaders (null for absent shaders)
+     * @return the key, in hexadecimal
+     */
+    public static String key(String driver, String... sources) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(driver.getBytes(StandardCharsets.UTF_8));
+            for (String source : sources) {
+                // separators, so that the boundaries between the sources (and the absent ones) matter
+                digest.update((byte) (source == null ? 0 : 1));
+                if (source != null) {
+                    digest.update(source.getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            StringBuilder key = new StringBuilder();
+            for (byte b : digest.digest()) {
+                key.append(String.format("%02x", b));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new Error(e);
+        }
+    }
+
+    /**
+     * @param sources the sources of the shaders of the program
+     * @return the key of the program for the current driver
+     */
+    public String programKey(String... sources) {
+        isSupported();
+        return key(driver, sources);
+    }
+
+    /**
+     * Read a stored binary
+     *
+     * @param key the key of the program
+     * @return the binary (format in the first int, then the binary from position 4), or null if absent
+     */
+    public ByteBuffer read(String key) {
+        Path file = directory.resolve(key + ".bin");
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try {
+            byte[] bytes = Files.readAllBytes(file);
+            ByteBuffer content = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+            if (bytes.length < HEADER_SIZE || content.getInt(0) != MAGIC || content.getInt(4) != VERSION
+                    || content.getInt(12) != bytes.length - HEADER_SIZE) {
+                Files.deleteIfExists(file);
+                return null;
+            }
+            ByteBuffer binary = BufferUtils.createByteBuffer(bytes.length - HEADER_SIZE + 4);
+            binary.putInt(0, content.getInt(8));
+            binary.position(4);
+            binary.put(bytes, HEADER_SIZE, bytes.length - HEADER_SIZE).position(0);
+            return binary;
+        } catch (IOException e) {
+            LoggerYAW.getLogger().warning("Cannot read the program binary " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Store a binary (written to a temporary file, then moved, so that a concurrent launch never reads
+     * a partial file)
+     *
+     * @param key    the key of the program
+     * @param format the format of the binary
+     * @param binary the binary, from its position to its limit
+     */
+    public void write(String key, int format, ByteBuffer binary) {
+        int length = binary.remaining();
+        ByteBuffer content = ByteBuffer.allocate(HEADER_SIZE + length).order(ByteOrder.LITTLE_ENDIAN);
+        content.putInt(MAGIC).putInt(VERSION).putInt(format).putInt(length).put(binary.duplicate());
+        try {
+            Files.createDirectories(directory);
+            Path tmp = Files.createTempFile(directory, key, ".tmp");
+            Files.write(tmp, content.array());
+            Files.move(tmp, directory.resolve(key + ".bin"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LoggerYAW.getLogger().warning("Cannot write the program binary " + key + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Delete a stored binary
+     *
+     * @param key the key of the program
+     */
+    public void delete(String key) {
+        try {
+            Files.deleteIfExists(directory.resolve(key + ".bin"));
+        } catch (IOException e) {
+            LoggerYAW.getLogger().warning("Cannot delete the program binary " + key + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Load a program from its stored binary
+     *
+     * @param programId the program
+     * @param key       the key of the program
+     * @return true if the program has been loaded and linked, false if it must be compiled
+     */
+    public boolean load(int programId, String key) {
+        ByteBuffer binary = read(key);
+        if (binary == null) {
+            misses++;
+            return false;
+        }
+        int format = binary.getInt(0);
+        binary.position(4);
+        glProgramBinary(programId, format, binary);
+        if (glGetProgrami(programId, GL_LINK_STATUS) == GL_FALSE) {
+            // rejected by the driver
+            delete(key);
+            misses++;
+            return false;
+        }
+        hits++;
+        return true;
+    }
+
+    /**
+     * Prepare a program for the retrieval of its binary (before linking)
+     *
+     * @param programId the program
+     */
+    public void prepare(int programId) {
+        glProgramParameteri(programId, GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GL_TRUE);
+    }
+
+    /**
+     * Store the binary of a linked program
+     *
+     * @param programId the program
+     * @param key       the key of the program
+     */
+    public void store(int programId, String key) {
+        int length = glGetProgrami(programId, GL_PROGRAM_BINARY_LENGTH);
+        if (length <= 0) {
+            return;
+        }
+        ByteBuffer binary = BufferUtils.createByteBuffer(length);
+        int[] written = new int[1];
+        int[] format = new int[1];
+        glGetProgramBinary(programId, written, format, binary);
+        binary.limit(written[0]);
+        write(key, format[0], binary);
+    }
+
+    /**
+     * @return the number of programs loaded from the cache
+     */
+    public int getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of programs compiled (absent or rejected binaries)
+     */
+    public int getMisses() {
+        return misses;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+}
@@ -105,6 +105,24 @@ public class ShaderCode {
         return this;
     }
 
+    /**
+     * Begin a uniform block, in std140 layout (members are declared with item)
+     */
+    public ShaderCode beginUniformBlock(String blockName, String cmt) {
+        if (cmt != null && !cmt.equals("")) {
+            mkIndent();
+            code.append("/* "); code.append(cmt); code.append(" */\n");
+        }
+        mkIndent();
+        code.append("layout(std140) uniform "); code.append(blockName); code.append("\n");
+        beginBlock();
+        return this;
+    }
+
+    public ShaderCode endUniformBlock() {
+        return endStruct();
+    }
+
     public ShaderCode function(String comment, String ret_type, String name, String[][] arguments) {
         mkIndent();
         code.append("/* "); code.append(comment); code.append(" */\n");
@@ -174,4 +192,4 @@ public class ShaderCode {
     public String toString() {
         return code.toString();
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -1,9 +1,11 @@
 package yaw.engine.shader;
 
 import yaw.engine.helper.*;
+import yaw.engine.light.LightModel;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -23,6 +25,10 @@ import java.util.Map;
  *
  *  - rendering time :  mostly setting the mesh-specific uniforms and issuing the draw commands.
  *  The method prefix is `render...`, and it is the responsability of the renderer.
+ *
+ * To avoid compiling programs during the first frames, the mesh programs reachable with the lights of the scene
+ * are created at initialization time ({@link #prewarm(LightModel, boolean)}), and the linked programs are
+ * stored in an on-disk binary cache, so that later launches skip the compilation.
  */
 public class ShaderManager {
 
@@ -30,9 +36,95 @@ public class ShaderManager {
 
     private Map<ShaderProperties, ShaderProgram> meshShadersMap;
 
-    public ShaderManager() {
+    /* null if disabled */
+    private final ProgramBinaryCache binaryCache;
+
+    public ShaderManager(ProgramBinaryCache binaryCache) {
         namedShadersMap = new HashMap<>();
         meshShadersMap = new HashMap<>();
+        this.binaryCache = binaryCache;
+    }
+
+    public ShaderManager() {
+        this(ProgramBinaryCache.createDefault());
+    }
+
+    /**
+     * Initialize a program (with the binary cache) and register it
+     *
+     * @param key           the name of the program
+     * @param shaderProgram the program, not yet initialized
+     */
+    public void create(String key, ShaderProgram shaderProgram) {
+        shaderProgram.setBinaryCache(binaryCache);
+        shaderProgram.init();
+        register(key, shaderProgram);
+    }
+
+    /**
+     * Fetch the mesh program of some properties, the program is created (and registered) if needed
+     *
+     * @param props the properties of the program
+     * @return the program
+     */
+    public ShaderProgramADS fetchOrCreate(ShaderProperties props) {
+        // TODO : ugly cast, fix when support for e.g. PBR materials
+        ShaderProgramADS program = (ShaderProgramADS) meshShadersMap.get(props);
+        if (program == null) {
+            program = new ShaderProgramADS(props);
+            program.setBinaryCache(binaryCache);
+            program.init();
+            register(props, program);
+        }
+        return program;
+    }
+
+    /**
+     * The properties of all the mesh programs reachable with some lights : with or without texture and shadows,
+     * for each vertex format (plain, instanced, quantized, quantized and instanced, shared)
+     *
+     * @param lightModel the lights of the scene
+     * @param deferred   true for the geometry pass of the deferred renderer
+     * @return the properties of the programs
+     */
+    public static List<ShaderProperties> prewarmProperties(LightModel lightModel, boolean deferred) {
+        List<ShaderProperties> properties = new ArrayList<>();
+        // instanced, quantized, per-draw data (the shared meshes are neither instanced nor quantized)
+        boolean[][] formats = {{false, false, false}, {true, false, false}, {false, true, false},
+                {true, true, false}, {false, false, true}};
+        for (int texture = 0; texture < 2; texture++) {
+            for (int shadows = 0; shadows < (lightModel.hasDirectionalLight ? 2 : 1); shadows++) {
+                for (boolean[] format : formats) {
+                    properties.add(ShaderProperties.of(lightModel, texture == 1, shadows == 1,
+                            format[0], format[1], format[2], deferred));
+                }
+            }
+        }
+        return properties;
+    }
+
+    /**
+     * Create all the mesh programs reachable with some lights (see {@link #prewarmProperties(LightModel, boolean)}).
+     * Each program is validated once its samplers have their units : a program that does not validate
+     * stops the initialization (an Error), instead of failing at its first draw.
+     *
+     * @param lightModel the lights of the scene
+     * @param deferred   true for the geometry pass of the deferred renderer
+     * @return the number of programs created
+     */
+    public int prewarm(LightModel lightModel, boolean deferred) {
+        int before = meshShadersMap.size();
+        for (ShaderProperties props : prewarmProperties(lightModel, deferred)) {
+            fetchOrCreate(props);
+        }
+        return meshShadersMap.size() - before;
+    }
+
+    /**
+     * @return the binary cache of the programs, or null if disabled
+     */
+    public ProgramBinaryCache getBinaryCache() {
+        return binaryCache;
     }
 
     public void register(String key, ShaderProgram shaderProgram) {
@@ -51,7 +143,7 @@ public class ShaderManager {
     }
 
     public void register(ShaderProperties props, ShaderProgram shaderProgram) {
-        if (namedShadersMap.containsKey(props)) {
+        if (meshShadersMap.containsKey(props)) {
             throw new Error("ShaderProgram (mesh-specific) already registered");
         }
         meshShadersMap.put(props, shaderProgram);
@@ -3,7 +3,7 @@ package yaw.engine.shader;
 import org.joml.Matrix3f;
 import org.joml.Matrix4f;
 import org.joml.Vector3f;
-import org.lwjgl.BufferUtils;
+import org.lwjgl.system.MemoryStack;
 import yaw.engine.light.AmbientLight;
 import yaw.engine.light.DirectionalLight;
 import yaw.engine.light.PointLight;
@@ -22,6 +22,11 @@ public abstract class ShaderProgram {
     private int mVertexShaderId;
     private int mFragmentShaderId;
     private int mGeometryShaderId;
+    /* the sources, compiled by link() unless the program is found in the binary cache */
+    private String mVertexSource;
+    private String mFragmentSource;
+    private String mGeometrySource;
+    private ProgramBinaryCache mBinaryCache;
 
 
     /**
@@ -37,24 +42,33 @@ public abstract class ShaderProgram {
     public abstract void init();
 
     /**
-     * Create a vertex type shader
+     * Use an on-disk cache of program binaries (to be set before linking)
+     *
+     * @param binaryCache the cache, or null to always compile the sources
+     */
+    public void setBinaryCache(ProgramBinaryCache binaryCache) {
+        mBinaryCache = binaryCache;
+    }
+
+    /**
+     * Create a vertex type shader (compiled when the program is linked)
      *
      * @param shaderCode source code for the shader
      */
     public void createVertexShader(String shaderCode) {
-        mVertexShaderId = createShader(shaderCode, GL_VERTEX_SHADER);
+        mVertexSource = shaderCode;
     }
 
     public void createVertexShader(ShaderCode code) {
         createVertexShader(code.toString());
     }
     /**
-     * Create a fragment shader
+     * Create a fragment shader (compiled when the program is linked)
      *
      * @param shaderCode source code for the shader
      */
     public void createFragmentShader(String shaderCode) {
-        mFragmentShaderId = createShader(shaderCode, GL_FRAGMENT_SHADER);
+        mFragmentSource = shaderCode;
     }
 
     public void createFragmentShader(ShaderCode shaderCode) {
@@ -62,12 +76,12 @@ public abstract class ShaderProgram {
     }
 
     /**
-     * Create a geometry shader
+     * Create a geometry shader (compiled when the program is linked)
      *
      * @param shaderCode source code for the shader
      */
     public void createGeometryShader(String shaderCode) {
-        mGeometryShaderId = createShader(shaderCode, GL_GEOMETRY_SHADER);
+        mGeometrySource = shaderCode;
     }
 
     public void createGeometryShader(ShaderCode shaderCode) {
@@ -80,21 +94,67 @@ public abstract class ShaderProgram {
         return "" + glGetShaderInfoLog(mProgramId, logLength[0]+1);
     }
 
+    /**
+     * Links the program object, and validates it (see {@link #link(boolean)}).
+     */
+    public void link() {
+        link(true);
+    }
+
     /**
      * Links the program object.
+     * With a binary cache, the program is loaded from its binary if it has already been linked
+     * (with the same sources and driver), otherwise the shaders are compiled and the binary is stored.
      *
+     * @param validate true to validate the program at once ; a program with samplers of different types must
+     *                 assign their texture units first (they are all on unit 0 after linking, which is invalid),
+     *                 and then call {@link #validate()}
      */
-    public void link()  {
-        glLinkProgram(mProgramId);
-        if (glGetProgrami(mProgramId, GL_LINK_STATUS) == 0) {
-            throw new Error("Error linking Shader code\n  ==> " + fetchInfoLog());
+    public void link(boolean validate) {
+        ProgramBinaryCache cache = mBinaryCache != null && mBinaryCache.isSupported() ? mBinaryCache : null;
+        String key = cache != null ? cache.programKey(mVertexSource, mGeometrySource, mFragmentSource) : null;
+        if (cache == null || !cache.load(mProgramId, key)) {
+            if (mVertexSource != null) {
+                mVertexShaderId = createShader(mVertexSource, GL_VERTEX_SHADER);
+            }
+            if (mGeometrySource != null) {
+                mGeometryShaderId = createShader(mGeometrySource, GL_GEOMETRY_SHADER);
+            }
+            if (mFragmentSource != null) {
+                mFragmentShaderId = createShader(mFragmentSource, GL_FRAGMENT_SHADER);
+            }
+            if (cache != null) {
+                cache.prepare(mProgramId);
+            }
+            glLinkProgram(mProgramId);
+            if (glGetProgrami(mProgramId, GL_LINK_STATUS) == 0) {
+                throw new Error("Error linking Shader code\n  ==> " + fetchInfoLog());
+            }
+            if (cache != null) {
+                cache.store(mProgramId, key);
+            }
         }
 
+        if (validate) {
+            validate();
+        }
+    }
+
+    /**
+     * Validates the linked program against the current state (e.g. its sampler units)
+     */
+    public void validate() {
         glValidateProgram(mProgramId);
         if (glGetProgrami(mProgramId, GL_VALIDATE_STATUS) == 0) {
             throw new Error("Error validating Shader code\n  ==> " + fetchInfoLog());
         }
+    }
 
+    /**
+     * @return the OpenGL handle of the program
+     */
+    public int getProgramId() {
+        return mProgramId;
     }
 
     /**
@@ -165,6 +225,20 @@ public abstract class ShaderProgram {
         return res;
     }
 
+    /**
+     * Attach a uniform block of the program to a binding point,
+     * the block is ignored if it is not used by the program
+     *
+     * @param blockName    the name of the uniform block
+     * @param bindingPoint the binding point of the (shared) uniform buffer
+     */
+    public void bindUniformBlock(String blockName, int bindingPoint) {
+        int index = glGetUniformBlockIndex(mProgramId, blockName);
+        if (index != GL_INVALID_INDEX) {
+            glUniformBlockBinding(mProgramId, index, bindingPoint);
+        }
+    }
+
     /**
      * Create a list of n spotlight uniform
      *
@@ -188,6 +262,32 @@ public abstract class ShaderProgram {
         createUniform(uniformName + ".intensity");
     }
 
+    /**
+     * Create a typed handle on a mat4 uniform (to be called once, after linking)
+     *
+     * @param uniformName uniform name
+     * @return the handle
+     */
+    public Uniform.Mat4 createMat4Uniform(String uniformName) {
+        return new Uniform.Mat4(uniformName, createUniform(uniformName));
+    }
+
+    public Uniform.Mat3 createMat3Uniform(String uniformName) {
+        return new Uniform.Mat3(uniformName, createUniform(uniformName));
+    }
+
+    public Uniform.Vec3 createVec3Uniform(String uniformName) {
+        return new Uniform.Vec3(uniformName, createUniform(uniformName));
+    }
+
+    public Uniform.Float createFloatUniform(String uniformName) {
+        return new Uniform.Float(uniformName, createUniform(uniformName));
+    }
+
+    public Uniform.Int createIntUniform(String uniformName) {
+        return new Uniform.Int(uniformName, createUniform(uniformName));
+    }
+
     /**
      * Retrieve a uniform location by name
      *
@@ -205,19 +305,23 @@ public abstract class ShaderProgram {
      * @param value       the value
      */
     public void setUniform(String uniformName, Matrix4f value) {
-        FloatBuffer fb = BufferUtils.createFloatBuffer(16);
-        /*load the value in th floatbuffer*/
-        value.get(fb);
-        /*Warning can cause nullpointer exception*/
-        glUniformMatrix4fv(mUniformsList.get(uniformName), false, fb);
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            FloatBuffer fb = stack.mallocFloat(16);
+            /*load the value in th floatbuffer*/
+            value.get(fb);
+            /*Warning can cause nullpointer exception*/
+            glUniformMatrix4fv(mUniformsList.get(uniformName), false, fb);
+        }
     }
 
     public void setUniform(String uniformName, Matrix3f value) {
-        FloatBuffer fb = BufferUtils.createFloatBuffer(16);
-        /*load the value in th floatbuffer*/
-        value.get(fb);
-        /*Warning can cause nullpointer exception*/
-        glUniformMatrix3fv(mUniformsList.get(uniformName), false, fb);
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            FloatBuffer fb = stack.mallocFloat(9);
+            /*load the value in th floatbuffer*/
+            value.get(fb);
+            /*Warning can cause nullpointer exception*/
+            glUniformMatrix3fv(mUniformsList.get(uniformName), false, fb);
+        }
     }
 
     /**
@@ -388,7 +492,7 @@ public abstract class ShaderProgram {
         setUniform(uniformName + ".intensity", pointLight.getIntensity());
         setUniform(uniformName + ".att_constant", pointLight.getConstantAtt());
         setUniform(uniformName + ".att_linear", pointLight.getLinearAtt());
-        setUniform(uniformName + ".att_exponent", pointLight.getQuadraticAtt());
+        setUniform(uniformName + ".att_quadratic", pointLight.getQuadraticAtt());
     }
 
     /**
@@ -400,7 +504,8 @@ public abstract class ShaderProgram {
     private void setUniform(String uniformName, SpotLight spotLight) {
         setUniform(uniformName + ".pl", (PointLight) spotLight);
         setUniform(uniformName + ".conedir", spotLight.getConedir());
-        setUniform(uniformName + ".cutoff", spotLight.getCutoffAngle());
+        // the cutoff angle is given in degrees, the shader compares cosines
+        setUniform(uniformName + ".cutoff", (float) Math.cos(Math.toRadians(spotLight.getCutoffAngle())));
     }
 
     public int getId() {
@@ -1,15 +1,55 @@
 package yaw.engine.shader;
 
+import org.joml.Matrix3f;
+import org.joml.Matrix4f;
 import org.joml.Vector3f;
-import yaw.engine.light.LightModel;
+import yaw.engine.light.LightClusters;
 import yaw.engine.mesh.Material;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 public class ShaderProgramADS extends ShaderProgram {
+    /** first attribute location of the per-instance model matrix (a mat4 uses 4 locations) */
+    public static final int INSTANCE_MODEL_LOCATION = 3;
+    /** first attribute location of the per-instance normal matrix (a mat3 uses 3 locations) */
+    public static final int INSTANCE_NORMAL_LOCATION = 7;
+    /** attribute location of the index of the draw in a batch (integer, per-draw data programs) */
+    public static final int DRAW_INDEX_LOCATION = 10;
+    /** number of RGBA texels per draw in the per-draw buffer : the model matrix (4), then the normal matrix (3) */
+    public static final int DRAW_DATA_TEXELS = 7;
+    /** texture unit of the texture of the material */
+    public static final int MATERIAL_TEXTURE_UNIT = 0;
+    /** texture unit of the shadow map */
+    public static final int SHADOW_MAP_TEXTURE_UNIT = 1;
+    /** texture unit of the per-draw buffer */
+    public static final int DRAW_DATA_TEXTURE_UNIT = 2;
+
     private final String glVersion;
     private final boolean glCoreProfile;
 
     private final ShaderProperties shaderProperties;
 
+    /* Uniform handles (resolved at init time) */
+    private Uniform.Mat4 modelMatrix;
+    private Uniform.Mat3 normalMatrix;
+    private Uniform.Mat4 directionalShadowMatrix;
+    private Uniform.Int shadowMapSampler;
+    private Uniform.Float shadowBias;
+
+    private Uniform.Vec3 quantOffset;
+    private Uniform.Vec3 quantScale;
+
+    private Uniform.Int drawDataSampler;
+
+    private Uniform.Int materialTextureSampler;
+    private Uniform.Vec3 materialColor;
+    private Uniform.Vec3 materialAmbient;
+    private Uniform.Vec3 materialEmissive;
+    private Uniform.Vec3 materialDiffuse;
+    private Uniform.Vec3 materialSpecular;
+    private Uniform.Float materialShineness;
+
     public ShaderProgramADS(String glVersion, boolean glCoreProfile, ShaderProperties shaderProperties) {
         this.glVersion = glVersion;
         this.glCoreProfile = glCoreProfile;
@@ -20,6 +60,33 @@ public class ShaderProgramADS extends ShaderProgram {
         this("330", true, shaderProperties);
     }
 
+    /**
+     * Declare the light structures (as in the light block)
+     */
+    public static ShaderCode lightStructs(ShaderCode code) {
+        code.beginStruct("DirectionalLight")
+                .item("vec3", "color")
+                .item("float", "intensity")
+                .item("vec3", "direction")
+                .endStruct().l();
+
+        code.beginStruct("PointLight")
+                .item("vec3", "color")
+                .item("float", "intensity")
+                .item("vec3", "position", "Position assumed in view coordinates")
+                .cmt("Attenuations")
+                .item("float", "att_constant")
+                .item("float", "att_linear")
+                .item("float", "att_quadratic")
+                .endStruct().l();
+
+        return code.beginStruct("SpotLight")
+                .item("PointLight", "pl")
+                .item("vec3", "conedir")
+                .item("float", "cutoff")
+                .endStruct().l();
+    }
+
     public static ShaderCode computeLight(ShaderCode code) {
         code.function("Compute diffuse and specular components of lights.",
                 "vec4", "computeLight", new String[][]{{"vec3", "light_color"},
@@ -133,14 +200,74 @@ public class ShaderProgramADS extends ShaderProgram {
 
 
 
-    public ShaderCode vertexShader(boolean withShadows) {
+    /**
+     * Accumulate the lights of the cluster of the fragment in totalLight (main function of the fragment shader)
+     */
+    public static ShaderCode computeClusteredLights(ShaderCode code) {
+        code.l().cmt("Cluster of the fragment : tile of the projected position, and exponential depth slice")
+                .l("vec4 clipPos = worldMatrix * vec4(vPos, 1.0)")
+                .l("ivec2 tile = clamp(ivec2((clipPos.xy / clipPos.w * 0.5 + 0.5) * vec2(clusterSize.xy)), ivec2(0), clusterSize.xy - 1)")
+                .l("int slice = clamp(int(floor(log(clipPos.w / clusterDepth.x) * clusterDepth.z)), 0, clusterSize.z - 1)")
+                .l("ivec2 range = texelFetch(clusterRanges, (slice * clusterSize.y + tile.y) * clusterSize.x + tile.x).xy");
+
+        code.beginFor("int i = 0", "i < range.y", "i++")
+                .l("int base = texelFetch(clusterIndices, range.x + i).x * " + LightClusters.LIGHT_FLOATS / 4)
+                .l("vec4 t0 = texelFetch(clusterLights, base)")
+                .l("vec4 t1 = texelFetch(clusterLights, base + 1)")
+                .l("vec4 t2 = texelFetch(clusterLights, base + 2)")
+                .l("PointLight pl = PointLight(t0.xyz, t0.w, t1.xyz, t1.w, t2.x, t2.y)")
+                .cmt("The cutoff of the point lights is below -1")
+                .beginIf("t2.z < -1.5")
+                .l("totalLight += computePointLight(pl, vPos, normal)")
+                .endIf()
+                .beginIf("t2.z >= -1.5")
+                .l("totalLight += computeSpotLight(SpotLight(pl, texelFetch(clusterLights, base + 3).xyz, t2.z), vPos, normal)")
+                .endIf();
+        return code.endFor();
+    }
+
+    public static ShaderCode octahedralDecode(ShaderCode code) {
+        code.function("Decoding of octahedral normals (unfold the lower half of the octahedron).",
+                "vec3", "octahedralDecode", new String[][]{{"vec2", "e"}});
+
+        code.l("vec3 n = vec3(e, 1.0 - abs(e.x) - abs(e.y))")
+                .l("float t = max(-n.z, 0.0)")
+                .l("n.x += n.x >= 0.0 ? -t : t")
+                .l("n.y += n.y >= 0.0 ? -t : t")
+                .l("return normalize(n)");
+
+        return code.endFunction();
+    }
+
+    public ShaderCode vertexShader(boolean withShadows, boolean instanced, boolean quantized) {
+        return vertexShader(withShadows, instanced, quantized, false);
+    }
+
+    public ShaderCode vertexShader(boolean withShadows, boolean instanced, boolean quantized, boolean perDrawData) {
         ShaderCode code = new ShaderCode(glVersion, glCoreProfile)
                 .l()
-                .cmt("Input buffer components")
-                .l("layout(location = 0) in vec3 position")
-                .l("layout(location = 1) in vec2 texCoord")
-                .l("layout(location = 2) in vec3 normal")
-                .l()
+                .cmt("Input buffer components");
+        if (quantized) {
+            code.cmt("(positions normalized in the bounding box, octahedral normals)")
+                    .l("layout(location = 0) in vec3 qPosition")
+                    .l("layout(location = 1) in vec2 texCoord")
+                    .l("layout(location = 2) in vec2 qNormal");
+        } else {
+            code.l("layout(location = 0) in vec3 position")
+                    .l("layout(location = 1) in vec2 texCoord")
+                    .l("layout(location = 2) in vec3 normal");
+        }
+
+        if (instanced) {
+            code.l().cmt("Per-instance components (one per item)")
+                    .l("layout(location = " + INSTANCE_MODEL_LOCATION + ") in mat4 modelMatrix")
+                    .l("layout(location = " + INSTANCE_NORMAL_LOCATION + ") in mat3 normalMatrix");
+        } else if (perDrawData) {
+            code.l().cmt("Index of the draw in the batch")
+                    .l("layout(location = " + DRAW_INDEX_LOCATION + ") in int drawIndex");
+        }
+
+        code.l()
                 .cmt("Output values")
                 .l("out vec3 vPos")
                 .l("out vec2 vTexCoord")
@@ -151,20 +278,46 @@ public class ShaderProgramADS extends ShaderProgram {
                     .l("out vec4 vDirectionalShadowSpace");
         }
 
-        code.l().cmt("Camera-level uniforms")
-                .l("uniform mat4 worldMatrix")
-                .l()
-                .cmt("Model-level uniforms")
-                .l("uniform mat4 modelMatrix")
-                .l("uniform mat3 normalMatrix");
+        code.l();
+        CameraBlock.declare(code);
+
+        if (perDrawData) {
+            code.l().cmt("Per-draw matrices (" + DRAW_DATA_TEXELS + " texels per draw)")
+                    .l("uniform samplerBuffer drawData");
+        } else if (!instanced) {
+            code.l().cmt("Model-level uniforms")
+                    .l("uniform mat4 modelMatrix")
+                    .l("uniform mat3 normalMatrix");
+        }
 
         if (withShadows) {
             code.l().cmt("Shadow uniforms")
                     .l("uniform mat4 directionalShadowMatrix");
         }
 
-        code.l().beginMain()
-                .cmt("World vertex position")
+        if (quantized) {
+            code.l().cmt("Dequantization of the positions (bounding box of the mesh)")
+                    .l("uniform vec3 quantOffset")
+                    .l("uniform vec3 quantScale");
+            code.l();
+            octahedralDecode(code);
+        }
+
+        code.l().beginMain();
+        if (perDrawData) {
+            code.cmt("Fetch the matrices of the draw")
+                    .l("int base = drawIndex * " + DRAW_DATA_TEXELS)
+                    .l("mat4 modelMatrix = mat4(texelFetch(drawData, base), texelFetch(drawData, base + 1), "
+                            + "texelFetch(drawData, base + 2), texelFetch(drawData, base + 3))")
+                    .l("mat3 normalMatrix = mat3(texelFetch(drawData, base + 4).xyz, texelFetch(drawData, base + 5).xyz, "
+                            + "texelFetch(drawData, base + 6).xyz)");
+        }
+        if (quantized) {
+            code.cmt("Decode the vertex")
+                    .l("vec3 position = quantOffset + qPosition * quantScale")
+                    .l("vec3 normal = octahedralDecode(qNormal)");
+        }
+        code.cmt("World vertex position")
                 .l("vec4 mvPos = modelMatrix * vec4(position, 1.0)")
                 .cmt("Projected position")
                 .l("gl_Position = worldMatrix * mvPos")
@@ -186,18 +339,44 @@ public class ShaderProgramADS extends ShaderProgram {
     }
 
     public ShaderCode fragmentShader(boolean hasDirectionalLight, int maxPointLights, int maxSpotLights, boolean hasTexture, boolean withShadows) {
+        return fragmentShader(hasDirectionalLight, maxPointLights, maxSpotLights, hasTexture, withShadows, false, false);
+    }
+
+    /**
+     * @param clustered the point and spot lights are read from the light clusters, instead of the light block
+     *                  (the maximum numbers of lights are then ignored)
+     * @param deferred  the shader writes the G-buffer of the deferred renderer : the ambient, directional and
+     *                  emissive lighting, then the normal and the material of the fragment, for the point
+     *                  and spot lights computed by the light passes (the maximum numbers of lights are then ignored)
+     */
+    public ShaderCode fragmentShader(boolean hasDirectionalLight, int maxPointLights, int maxSpotLights, boolean hasTexture, boolean withShadows, boolean clustered, boolean deferred) {
+        if (deferred) {
+            clustered = false;
+        }
+        if (clustered || deferred) {
+            maxPointLights = 0;
+            maxSpotLights = 0;
+        }
         ShaderCode code = new ShaderCode(glVersion, glCoreProfile)
                 .cmt("Fragment shader for A(mbient) D(iffuse) S(pecular) rendering")
                 .l();
 
         code.cmt("Max lights constants (forward rendering)");
-        if (maxPointLights == 0) {
+        if (deferred) {
+            code.cmt("No limit (deferred lights)");
+        } else if (clustered) {
+            code.cmt("No limit (clustered lights)");
+        } else if (maxPointLights == 0) {
             code.cmt("No point light");
         } else {
             code.l("const int MAX_POINT_LIGHTS = " + maxPointLights);
         }
 
-        if (maxSpotLights == 0) {
+        if (deferred) {
+            code.cmt("(the point and spot lights are computed by the light passes)");
+        } else if (clustered) {
+            code.cmt("(the lights of the cluster of each fragment are computed)");
+        } else if (maxSpotLights == 0) {
             code.cmt("No spot light");
         } else {
             code.l("const int MAX_SPOT_LIGHTS = " + maxSpotLights);
@@ -214,32 +393,20 @@ public class ShaderProgramADS extends ShaderProgram {
         }
 
         code.l()
-                .cmt("Output values")
-                .l("out vec4 fragColor");
+                .cmt("Output values");
+        if (deferred) {
+            code.cmt("(lighting accumulation, then the G-buffer)")
+                    .l("layout(location = 0) out vec4 fragColor")
+                    .l("layout(location = 1) out vec4 gNormal")
+                    .l("layout(location = 2) out vec4 gDiffuse")
+                    .l("layout(location = 3) out vec4 gSpecular");
+        } else {
+            code.l("out vec4 fragColor");
+        }
 
         code.l().cmt("Structures").l();
 
-        code.beginStruct("DirectionalLight")
-                .item("vec3", "color")
-                .item("float", "intensity")
-                .item("vec3", "direction")
-                .endStruct().l();
-
-        code.beginStruct("PointLight")
-                .item("vec3", "color")
-                .item("float", "intensity")
-                .item("vec3", "position", "Position assumed in view coordinates")
-                .cmt("Attenuations")
-                .item("float", "att_constant")
-                .item("float", "att_linear")
-                .item("float", "att_quadratic")
-                .endStruct().l();
-
-        code.beginStruct("SpotLight")
-                .item("PointLight", "pl")
-                .item("vec3", "conedir")
-                .item("float", "cutoff")
-                .endStruct().l();
+        lightStructs(code);
 
         code.beginStruct("Material");
 
@@ -257,25 +424,14 @@ public class ShaderProgramADS extends ShaderProgram {
                 .item("float", "shineness", "for reflectance computation")
                 .endStruct().l();
 
-        code.cmt("Fragment shader uniforms")
-                .l("uniform vec3 camera_pos")
-                .l("uniform Material material")
-                .l().cmt("Lights")
-                .l("uniform vec3 ambientLight");
-
-        if (hasDirectionalLight) {
-            code.l("uniform DirectionalLight directionalLight");
-        }
-
-        if (maxPointLights > 0) {
-            code.l("uniform PointLight pointLights[MAX_POINT_LIGHTS]");
-            code.l("uniform int nbPointLights");
+        CameraBlock.declare(code).l();
+        LightBlock.declare(code, hasDirectionalLight, maxPointLights, maxSpotLights).l();
+        if (clustered) {
+            ClusterBlock.declare(code).l();
         }
 
-        if (maxSpotLights > 0) {
-            code.l("uniform SpotLight spotLights[MAX_SPOT_LIGHTS]");
-            code.l("uniform int nbSpotLights");
-        }
+        code.cmt("Fragment shader uniforms")
+                .l("uniform Material material");
 
         if (withShadows) {
             code.l().cmt("Shadow map uniforms")
@@ -297,12 +453,12 @@ public class ShaderProgramADS extends ShaderProgram {
             code = computeDirectionalLight(code, withShadows);
         }
 
-        if (maxPointLights > 0) {
+        if (maxPointLights > 0 || clustered) {
             code.l();
             code = computePointLight(code);
         }
 
-        if (maxSpotLights > 0) {
+        if (maxSpotLights > 0 || clustered) {
             code.l();
             code = computeSpotLight(code);
         }
@@ -338,10 +494,21 @@ public class ShaderProgramADS extends ShaderProgram {
             code.endFor();
         }
 
+        if (clustered) {
+            computeClusteredLights(code);
+        }
+
         code.l().l("vec4 finalColor = basecolor * totalLight")
                 .l("finalColor += vec4(material.emissiveAmount * material.emissive, 1)")
                 .l("fragColor = vec4((finalColor).xyz,1)");
 
+        if (deferred) {
+            code.l().cmt("G-buffer : the material colors are multiplied by the base color, as in the lighting")
+                    .l("gNormal = vec4(normalize(normal), material.shineness)")
+                    .l("gDiffuse = vec4(basecolor.rgb * material.diffuse, 1)")
+                    .l("gSpecular = vec4(basecolor.rgb * material.specular, 1)");
+        }
+
         return code.endMain();
 
     }
@@ -353,41 +520,114 @@ public class ShaderProgramADS extends ShaderProgram {
      */
     public void createMaterialUniform(String uniformName, boolean textured) {
         if (textured) {
-            createUniform(uniformName + ".texture_sampler");
+            materialTextureSampler = createIntUniform(uniformName + ".texture_sampler");
         } else {
-            createUniform(uniformName + ".color");
+            materialColor = createVec3Uniform(uniformName + ".color");
         }
-        createUniform(uniformName + ".ambient");
-        createUniform(uniformName + ".emissive");
-        createUniform(uniformName + ".diffuse");
-        createUniform(uniformName + ".specular");
-        createUniform(uniformName + ".shineness");
+        materialAmbient = createVec3Uniform(uniformName + ".ambient");
+        materialEmissive = createVec3Uniform(uniformName + ".emissive");
+        materialDiffuse = createVec3Uniform(uniformName + ".diffuse");
+        materialSpecular = createVec3Uniform(uniformName + ".specular");
+        materialShineness = createFloatUniform(uniformName + ".shineness");
     }
 
     /**
-     * Modifies the value of a uniform material with the specified material
+     * Set the material uniforms (the program must be bound),
+     * the unchanged values are not uploaded again.
      *
-     * @param uniformName the uniform name
-     * @param material    the material
+     * @param material the material
      */
-    public void setUniform(String uniformName, Material material) {
+    public void setupMaterial(Material material) {
         if (material.isTextured()) {
-            setUniform(uniformName + ".texture_sampler", 0); // TODO : assign sampler slots more dynamically
+            materialTextureSampler.set(MATERIAL_TEXTURE_UNIT);
         } else {
-            setUniform(uniformName + ".color", material.getBaseColor());
-        }
-        setUniform(uniformName + ".ambient", material.getAmbientColor());
-        Vector3f emissiveColor = new Vector3f();
-        material.getEmissiveColor().mul(material.getEmissiveAmount(), emissiveColor);
-        setUniform(uniformName + ".emissive", emissiveColor);
-        setUniform(uniformName + ".diffuse", material.getDiffuseColor());
-        setUniform(uniformName + ".specular", material.getSpecularColor());
-        setUniform(uniformName + ".shineness", material.getShineness());
+            materialColor.set(material.getBaseColor());
+        }
+        materialAmbient.set(material.getAmbientColor());
+        Vector3f emissiveColor = material.getEmissiveColor();
+        float emissiveAmount = material.getEmissiveAmount();
+        materialEmissive.set(emissiveColor.x * emissiveAmount, emissiveColor.y * emissiveAmount, emissiveColor.z * emissiveAmount);
+        materialDiffuse.set(material.getDiffuseColor());
+        materialSpecular.set(material.getSpecularColor());
+        materialShineness.set(material.getShineness());
+    }
+
+    /**
+     * Set the item-level uniforms (non-instanced programs only)
+     *
+     * @param pModelMatrix  the model matrix of the item
+     * @param pNormalMatrix the normal matrix of the item
+     */
+    public void setupItem(Matrix4f pModelMatrix, Matrix3f pNormalMatrix) {
+        modelMatrix.set(pModelMatrix);
+        normalMatrix.set(pNormalMatrix);
+    }
+
+    /**
+     * Set the shadow uniforms (programs with shadows only)
+     *
+     * @param pShadowMatrix the projection * view matrix of the light
+     * @param sampler       the texture unit of the shadow map
+     * @param bias          the depth bias
+     */
+    public void setupShadows(Matrix4f pShadowMatrix, int sampler, float bias) {
+        directionalShadowMatrix.set(pShadowMatrix);
+        shadowMapSampler.set(sampler);
+        shadowBias.set(bias);
+    }
+
+    /**
+     * Set the dequantization of the positions (quantized programs only) :
+     * position = offset + quantized position * scale
+     *
+     * @param pOffset the minimum corner of the bounding box of the mesh
+     * @param pScale  the size of the bounding box of the mesh
+     */
+    public void setupQuantization(Vector3f pOffset, Vector3f pScale) {
+        quantOffset.set(pOffset);
+        quantScale.set(pScale);
+    }
+
+    /**
+     * Set the texture unit of the per-draw buffer (per-draw data programs only)
+     *
+     * @param unit the texture unit
+     */
+    public void setupDrawData(int unit) {
+        drawDataSampler.set(unit);
+    }
+
+    /**
+     * The samplers of a program and their texture units : each sampler has its own unit, the samplers of
+     * different types must not share a unit (the program would not validate)
+     *
+     * @param props the properties of the program
+     * @return the texture unit of each sampler uniform
+     */
+    public static Map<String, Integer> samplerUnits(ShaderProperties props) {
+        Map<String, Integer> units = new LinkedHashMap<>();
+        if (props.hasTexture) {
+            units.put("material.texture_sampler", MATERIAL_TEXTURE_UNIT);
+        }
+        if (props.withShadows) {
+            units.put("shadowMapSampler", SHADOW_MAP_TEXTURE_UNIT);
+        }
+        if (props.perDrawData) {
+            units.put("drawData", DRAW_DATA_TEXTURE_UNIT);
+        }
+        if (props.clusteredLights) {
+            // the buffer textures of the clusters (samplerBuffer, isamplerBuffer)
+            units.put("clusterLights", ClusterBlock.LIGHTS_TEXTURE_UNIT);
+            units.put("clusterRanges", ClusterBlock.RANGES_TEXTURE_UNIT);
+            units.put("clusterIndices", ClusterBlock.INDICES_TEXTURE_UNIT);
+        }
+        return units;
     }
 
     public void init() {
         /* Initialization of the shader program. */
-        ShaderCode vertexCode = vertexShader(shaderProperties.withShadows);
+        ShaderCode vertexCode = vertexShader(shaderProperties.withShadows, shaderProperties.instanced,
+                shaderProperties.quantized, shaderProperties.perDrawData);
         //System.out.println("Vertex shader:\n" + vertexCode);
         createVertexShader(vertexCode);
 
@@ -395,44 +635,65 @@ public class ShaderProgramADS extends ShaderProgram {
                 shaderProperties.maxPointLights,
                 shaderProperties.maxSpotLights,
                 shaderProperties.hasTexture,
-                shaderProperties.withShadows);
+                shaderProperties.withShadows,
+                shaderProperties.clusteredLights,
+                shaderProperties.deferred);
         //System.out.println("Fragment shader:\n" + fragmentCode);
         createFragmentShader(fragmentCode);
 
-        /* Binds the code and checks that everything has been done correctly. */
-        link();
+        /* Binds the code, it is validated once its samplers have their units. */
+        link(false);
 
-        createUniform("worldMatrix");
-        createUniform("modelMatrix");
-        createUniform("normalMatrix");
+        /* The camera and the lights are read from the shared uniform buffers. */
+        bindUniformBlock(CameraBlock.NAME, CameraBlock.BINDING);
+        bindUniformBlock(LightBlock.NAME, LightBlock.BINDING);
+        if (shaderProperties.clusteredLights) {
+            bindUniformBlock(ClusterBlock.NAME, ClusterBlock.BINDING);
+        }
+
+        if (shaderProperties.perDrawData) {
+            drawDataSampler = createIntUniform("drawData");
+        } else if (!shaderProperties.instanced) {
+            modelMatrix = createMat4Uniform("modelMatrix");
+            normalMatrix = createMat3Uniform("normalMatrix");
+        }
 
         /* Initialization of the shadow map matrix uniform. */
         if (shaderProperties.withShadows) {
-            createUniform("directionalShadowMatrix");
+            directionalShadowMatrix = createMat4Uniform("directionalShadowMatrix");
         }
 
         /* Create uniform for material. */
         createMaterialUniform("material", shaderProperties.hasTexture);
 
-        /* Initialization of the light's uniform. */
-        createUniform("camera_pos");
-
-        createUniform("ambientLight");
-        if (shaderProperties.hasDirectionalLight) {
-            createDirectionalLightUniform("directionalLight");
+        if (shaderProperties.withShadows) {
+            shadowMapSampler = createIntUniform("shadowMapSampler");
+            shadowBias = createFloatUniform("shadowBias");
         }
 
-        if (shaderProperties.maxPointLights > 0) {
-            createPointLightListUniform("pointLights", shaderProperties.maxPointLights);
+        if (shaderProperties.quantized) {
+            quantOffset = createVec3Uniform("quantOffset");
+            quantScale = createVec3Uniform("quantScale");
         }
 
-        if (shaderProperties.maxSpotLights > 0) {
-            createSpotLightUniformList("spotLights", shaderProperties.maxSpotLights);
+        /* The samplers have fixed units, assigned before the validation */
+        Map<String, Integer> units = samplerUnits(shaderProperties);
+        bind();
+        if (shaderProperties.hasTexture) {
+            materialTextureSampler.set(units.get("material.texture_sampler"));
         }
-
         if (shaderProperties.withShadows) {
-            createUniform("shadowMapSampler");
-            createUniform("shadowBias");
+            shadowMapSampler.set(units.get("shadowMapSampler"));
+        }
+        if (shaderProperties.perDrawData) {
+            drawDataSampler.set(units.get("drawData"));
+        }
+        if (shaderProperties.clusteredLights) {
+            createIntUniform("clusterLights").set(units.get("clusterLights"));
+            createIntUniform("clusterRanges").set(units.get("clusterRanges"));
+            createIntUniform("clusterIndices").set(units.get("clusterIndices"));
         }
+        unbind();
+        validate();
     }
 }
@@ -0,0 +1,180 @@
+package yaw.engine.shader;
+
+import org.joml.Matrix4f;
+import yaw.engine.light.LightClusters;
+
+/**
+ * The light passes of the deferred renderer : the point and spot lights are drawn as volumes
+ * (instanced spheres, or full-screen triangles for the lights without range), and each fragment
+ * adds the contribution of the light to the surface of the G-buffer under it.
+ *
+ * The lights are read from a buffer texture ({@link LightClusters#LIGHT_FLOATS} floats per light, as in
+ * the light clusters, with the range of the light in the last float), the surface is rebuilt from
+ * the depth and the G-buffer, and lit with the same functions as the forward ADS programs.
+ */
+public class ShaderProgramDeferred extends ShaderProgram {
+    /** texture units of the G-buffer : depth, normal and shininess, diffuse color, specular color */
+    public static final int DEPTH_TEXTURE_UNIT = 0;
+    public static final int NORMAL_TEXTURE_UNIT = 1;
+    public static final int DIFFUSE_TEXTURE_UNIT = 2;
+    public static final int SPECULAR_TEXTURE_UNIT = 3;
+    /** texture unit of the light buffer */
+    public static final int LIGHTS_TEXTURE_UNIT = 4;
+
+    private final String glVersion;
+    private final boolean glCoreProfile;
+
+    private Uniform.Mat4 invWorldMatrix;
+    private Uniform.Int firstLight;
+    private Uniform.Int fullScreen;
+
+    public ShaderProgramDeferred(String glVersion, boolean glCoreProfile) {
+        this.glVersion = glVersion;
+        this.glCoreProfile = glCoreProfile;
+    }
+
+    public ShaderProgramDeferred() {
+        this("330", true);
+    }
+
+    public ShaderCode vertexShader() {
+        ShaderCode code = new ShaderCode(glVersion, glCoreProfile)
+                .l()
+                .cmt("Vertices of the light volume (unit sphere, or full-screen triangle)")
+                .l("layout(location = 0) in vec3 position");
+
+        code.l().cmt("Output values")
+                .l("flat out int vLight");
+
+        code.l();
+        CameraBlock.declare(code);
+
+        code.l().cmt("Lights (" + LightClusters.LIGHT_FLOATS / 4 + " texels per light)")
+                .l("uniform samplerBuffer lights")
+                .l("uniform int firstLight")
+                .l("uniform int fullScreen");
+
+        code.l().beginMain()
+                .cmt("One instance per light")
+                .l("vLight = firstLight + gl_InstanceID")
+                .l("vec4 center = texelFetch(lights, vLight * " + LightClusters.LIGHT_FLOATS / 4 + " + 1)")
+                .l("float radius = texelFetch(lights, vLight * " + LightClusters.LIGHT_FLOATS / 4 + " + 3).w")
+                .l("gl_Position = fullScreen != 0 ? vec4(position.xy, 0.0, 1.0) : worldMatrix * vec4(center.xyz + position * radius, 1.0)");
+        return code.endMain();
+    }
+
+    public ShaderCode fragmentShader() {
+        ShaderCode code = new ShaderCode(glVersion, glCoreProfile)
+                .cmt("Light passes of the deferred renderer")
+                .l();
+
+        code.l().cmt("Input values")
+                .l("flat in int vLight");
+
+        code.l().cmt("Output values (added to the lighting accumulation)")
+                .l("out vec4 fragColor");
+
+        code.l().cmt("Structures").l();
+        ShaderProgramADS.lightStructs(code);
+
+        code.beginStruct("Material")
+                .item("vec3", "diffuse", "the diffuse color, multiplied by the base color")
+                .item("vec3", "specular", "the specular color, multiplied by the base color")
+                .item("float", "shineness", "for reflectance computation")
+                .endStruct().l();
+
+        CameraBlock.declare(code).l();
+
+        code.cmt("G-buffer, and lights")
+                .l("uniform sampler2D gDepth")
+                .l("uniform sampler2D gNormal")
+                .l("uniform sampler2D gDiffuse")
+                .l("uniform sampler2D gSpecular")
+                .l("uniform samplerBuffer lights")
+                .l("uniform mat4 invWorldMatrix")
+                .l("uniform int fullScreen");
+
+        code.l().cmt("Material of the fragment (read from the G-buffer)")
+                .l("Material material");
+
+        code.l().cmt("Auxiliary functions").l();
+        ShaderProgramADS.computeLight(code).l();
+        ShaderProgramADS.computePointLight(code).l();
+        ShaderProgramADS.computeSpotLight(code);
+
+        code.l().beginMain()
+                .cmt("Position rebuilt from the depth (the background is not lit)")
+                .l("ivec2 texel = ivec2(gl_FragCoord.xy)")
+                .l("float depth = texelFetch(gDepth, texel, 0).r")
+                .beginIf("depth >= 1.0")
+                .l("discard")
+                .endIf()
+                .l("vec2 ndc = (gl_FragCoord.xy / vec2(textureSize(gDepth, 0))) * 2.0 - 1.0")
+                .l("vec4 worldPos = invWorldMatrix * vec4(ndc, depth * 2.0 - 1.0, 1.0)")
+                .l("vec3 position = worldPos.xyz / worldPos.w");
+
+        code.l().l("vec4 t0 = texelFetch(lights, vLight * " + LightClusters.LIGHT_FLOATS / 4 + ")")
+                .l("vec4 t1 = texelFetch(lights, vLight * " + LightClusters.LIGHT_FLOATS / 4 + " + 1)")
+                .l("vec4 t2 = texelFetch(lights, vLight * " + LightClusters.LIGHT_FLOATS / 4 + " + 2)")
+                .l("vec4 t3 = texelFetch(lights, vLight * " + LightClusters.LIGHT_FLOATS / 4 + " + 3)")
+                .cmt("Out of the range of the light")
+                .beginIf("fullScreen == 0 && distance(position, t1.xyz) > t3.w")
+                .l("discard")
+                .endIf();
+
+        code.l().l("vec4 n = texelFetch(gNormal, texel, 0)")
+                .l("vec3 normal = n.xyz")
+                .l("material.diffuse = texelFetch(gDiffuse, texel, 0).rgb")
+                .l("material.specular = texelFetch(gSpecular, texel, 0).rgb")
+                .l("material.shineness = n.w");
+
+        code.l().l("PointLight pl = PointLight(t0.xyz, t0.w, t1.xyz, t1.w, t2.x, t2.y)")
+                .l("vec4 color = vec4(0, 0, 0, 0)")
+                .cmt("The cutoff of the point lights is below -1")
+                .beginIf("t2.z < -1.5")
+                .l("color = computePointLight(pl, position, normal)")
+                .endIf()
+                .beginIf("t2.z >= -1.5")
+                .l("color = computeSpotLight(SpotLight(pl, t3.xyz, t2.z), position, normal)")
+                .endIf()
+                .l("fragColor = vec4(color.rgb, 1.0)");
+
+        return code.endMain();
+    }
+
+    /**
+     * Set the inverse of the projection * view matrix of the camera, and the lights of the draw (the program must be bound)
+     *
+     * @param pInvWorldMatrix the inverse of the world matrix of the camera
+     * @param pFirstLight     the light of the first instance
+     * @param pFullScreen     true for full-screen triangles, false for spheres
+     */
+    public void setupLights(Matrix4f pInvWorldMatrix, int pFirstLight, boolean pFullScreen) {
+        invWorldMatrix.set(pInvWorldMatrix);
+        firstLight.set(pFirstLight);
+        fullScreen.set(pFullScreen ? 1 : 0);
+    }
+
+    public void init() {
+        createVertexShader(vertexShader());
+        createFragmentShader(fragmentShader());
+        // validated once the samplers (sampler2D and samplerBuffer) have their units
+        link(false);
+
+        bindUniformBlock(CameraBlock.NAME, CameraBlock.BINDING);
+
+        invWorldMatrix = createMat4Uniform("invWorldMatrix");
+        firstLight = createIntUniform("firstLight");
+        fullScreen = createIntUniform("fullScreen");
+
+        // the textures have fixed units
+        bind();
+        createIntUniform("gDepth").set(DEPTH_TEXTURE_UNIT);
+        createIntUniform("gNormal").set(NORMAL_TEXTURE_UNIT);
+        createIntUniform("gDiffuse").set(DIFFUSE_TEXTURE_UNIT);
+        createIntUniform("gSpecular").set(SPECULAR_TEXTURE_UNIT);
+        createIntUniform("lights").set(LIGHTS_TEXTURE_UNIT);
+        unbind();
+        validate();
+    }
+}
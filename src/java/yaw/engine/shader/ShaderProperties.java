@@ -1,5 +1,7 @@
 package yaw.engine.shader;
 
+import yaw.engine.light.LightModel;
+
 import java.util.Objects;
 
 public class ShaderProperties {
@@ -13,12 +15,71 @@ public class ShaderProperties {
 
     public final boolean withShadows;
 
-    public ShaderProperties(boolean hasDirectionalLight, int maxPointLights, int maxSpotLights, boolean hasTexture, boolean withShadows) {
+    /** per-item matrices are read from instance attributes instead of uniforms */
+    public final boolean instanced;
+
+    /** quantized positions and octahedral normals, decoded by the vertex shader */
+    public final boolean quantized;
+
+    /** per-draw matrices are read from a buffer texture, indexed by the draw (shared meshes) */
+    public final boolean perDrawData;
+
+    /** the point and spot lights are read from the light clusters (the maximums are then 0) */
+    public final boolean clusteredLights;
+
+    /** the program writes the G-buffer of the deferred renderer, the point and spot lights are
+     * computed afterwards (the maximums are then 0) */
+    public final boolean deferred;
+
+    // the properties are used as keys at each frame, the hash is computed once
+    private final int hash;
+
+    public ShaderProperties(boolean hasDirectionalLight, int maxPointLights, int maxSpotLights, boolean hasTexture, boolean withShadows, boolean instanced, boolean quantized, boolean perDrawData, boolean clusteredLights, boolean deferred) {
         this.hasDirectionalLight = hasDirectionalLight;
         this.maxPointLights = maxPointLights;
         this.maxSpotLights = maxSpotLights;
         this.hasTexture = hasTexture;
         this.withShadows = withShadows;
+        this.instanced = instanced;
+        this.quantized = quantized;
+        this.perDrawData = perDrawData;
+        this.clusteredLights = clusteredLights;
+        this.deferred = deferred;
+        this.hash = Objects.hash(hasDirectionalLight, maxPointLights, maxSpotLights, hasTexture, withShadows, instanced, quantized, perDrawData, clusteredLights, deferred);
+    }
+
+    /**
+     * The properties of a basic program (without instancing, quantization, per-draw data, clusters or deferred pass)
+     */
+    public ShaderProperties(boolean hasDirectionalLight, int maxPointLights, int maxSpotLights, boolean hasTexture, boolean withShadows) {
+        this(hasDirectionalLight, maxPointLights, maxSpotLights, hasTexture, withShadows, false, false, false, false, false);
+    }
+
+    /**
+     * The properties of a program for the lights of a scene
+     *
+     * @param lightModel  the lights of the scene
+     * @param hasTexture  true for a textured material
+     * @param withShadows true if the material receives shadows (only with a directional light)
+     * @param instanced   true for per-item matrices in instance attributes
+     * @param quantized   true for quantized vertices
+     * @param perDrawData true for per-draw matrices in a buffer texture
+     * @param deferred    true for the geometry pass of the deferred renderer
+     * @return the properties
+     */
+    public static ShaderProperties of(LightModel lightModel, boolean hasTexture, boolean withShadows, boolean instanced, boolean quantized, boolean perDrawData, boolean deferred) {
+        // with clustered or deferred lighting, the programs do not depend on the maximum numbers of lights
+        boolean lightArrays = !lightModel.clustered && !deferred;
+        return new ShaderProperties(lightModel.hasDirectionalLight,
+                lightArrays ? lightModel.maxPointLights : 0,
+                lightArrays ? lightModel.maxSpotLights : 0,
+                hasTexture,
+                withShadows && lightModel.hasDirectionalLight,
+                instanced,
+                quantized,
+                perDrawData,
+                lightModel.clustered && !deferred,
+                deferred);
     }
 
     @Override
@@ -26,11 +87,11 @@ public class ShaderProperties {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         ShaderProperties that = (ShaderProperties) o;
-        return hasDirectionalLight == that.hasDirectionalLight && maxPointLights == that.maxPointLights && maxSpotLights == that.maxSpotLights && hasTexture == that.hasTexture && withShadows == that.withShadows;
+        return hasDirectionalLight == that.hasDirectionalLight && maxPointLights == that.maxPointLights && maxSpotLights == that.maxSpotLights && hasTexture == that.hasTexture && withShadows == that.withShadows && instanced == that.instanced && quantized == that.quantized && perDrawData == that.perDrawData && clusteredLights == that.clusteredLights && deferred == that.deferred;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(hasDirectionalLight, maxPointLights, maxSpotLights, hasTexture, withShadows);
+        return hash;
     }
 }
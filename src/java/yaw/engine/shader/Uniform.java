@@ -0,0 +1,164 @@
+package yaw.engine.shader;
+
+import org.joml.Matrix3f;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.lwjgl.system.MemoryStack;
+
+import java.nio.FloatBuffer;
+
+import static org.lwjgl.opengl.GL20.*;
+
+/**
+ * A typed handle on a uniform of a shader program.
+ *
+ * The location is resolved once (when the handle is created, after linking),
+ * and the handle shadows the last uploaded value : setting the same value again
+ * does not issue any GL call. The values of uniforms are stored per program,
+ * so the shadow remains valid when the program is unbound then bound again.
+ * As for the other uniform setters, the program must be bound when a value is set.
+ */
+public abstract class Uniform {
+    protected final String name;
+    protected final int location;
+    /* false until a first value is uploaded */
+    protected boolean uploaded;
+
+    protected Uniform(String name, int location) {
+        this.name = name;
+        this.location = location;
+        this.uploaded = false;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getLocation() {
+        return location;
+    }
+
+    /**
+     * Forget the shadowed value, e.g. if the uniform has been set through its name
+     */
+    public void invalidate() {
+        uploaded = false;
+    }
+
+    public static class Mat4 extends Uniform {
+        private final Matrix4f value = new Matrix4f();
+
+        public Mat4(String name, int location) {
+            super(name, location);
+        }
+
+        /**
+         * @return true if the value has been uploaded
+         */
+        public boolean set(Matrix4f pValue) {
+            if (uploaded && value.equals(pValue)) {
+                return false;
+            }
+            value.set(pValue);
+            uploaded = true;
+            try (MemoryStack stack = MemoryStack.stackPush()) {
+                FloatBuffer fb = stack.mallocFloat(16);
+                pValue.get(fb);
+                glUniformMatrix4fv(location, false, fb);
+            }
+            return true;
+        }
+    }
+
+    public static class Mat3 extends Uniform {
+        private final Matrix3f value = new Matrix3f();
+
+        public Mat3(String name, int location) {
+            super(name, location);
+        }
+
+        /**
+         * @return true if the value has been uploaded
+         */
+        public boolean set(Matrix3f pValue) {
+            if (uploaded && value.equals(pValue)) {
+                return false;
+            }
+            value.set(pValue);
+            uploaded = true;
+            try (MemoryStack stack = MemoryStack.stackPush()) {
+                FloatBuffer fb = stack.mallocFloat(9);
+                pValue.get(fb);
+                glUniformMatrix3fv(location, false, fb);
+            }
+            return true;
+        }
+    }
+
+    public static class Vec3 extends Uniform {
+        private final Vector3f value = new Vector3f();
+
+        public Vec3(String name, int location) {
+            super(name, location);
+        }
+
+        /**
+         * @return true if the value has been uploaded
+         */
+        public boolean set(float x, float y, float z) {
+            if (uploaded && value.equals(x, y, z)) {
+                return false;
+            }
+            value.set(x, y, z);
+            uploaded = true;
+            glUniform3f(location, x, y, z);
+            return true;
+        }
+
+        public boolean set(Vector3f pValue) {
+            return set(pValue.x, pValue.y, pValue.z);
+        }
+    }
+
+    public static class Float extends Uniform {
+        private float value;
+
+        public Float(String name, int location) {
+            super(name, location);
+        }
+
+        /**
+         * @return true if the value has been uploaded
+         */
+        public boolean set(float pValue) {
+            if (uploaded && java.lang.Float.floatToRawIntBits(value) == java.lang.Float.floatToRawIntBits(pValue)) {
+                return false;
+            }
+            value = pValue;
+            uploaded = true;
+            glUniform1f(location, pValue);
+            return true;
+        }
+    }
+
+    public static class Int extends Uniform {
+        private int value;
+
+        public Int(String name, int location) {
+            super(name, location);
+        }
+
+        /**
+         * @return true if the value has been uploaded
+         */
+        public boolean set(int pValue) {
+            if (uploaded && value == pValue) {
+                return false;
+            }
+            value = pValue;
+            uploaded = true;
+            glUniform1i(location, pValue);
+            return true;
+        }
+    }
+}
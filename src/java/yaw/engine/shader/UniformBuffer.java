@@ -0,0 +1,73 @@
+package yaw.engine.shader;
+
+import org.lwjgl.BufferUtils;
+
+import java.nio.ByteBuffer;
+
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL30.glBindBufferBase;
+import static org.lwjgl.opengl.GL31.GL_UNIFORM_BUFFER;
+
+/**
+ * A uniform buffer object (UBO) shared by all the programs declaring the corresponding uniform block.
+ *
+ * The content is written (in std140 layout) in a client-side buffer, then uploaded at once,
+ * and the buffer is attached to a fixed binding point.
+ */
+public class UniformBuffer {
+    private final int bindingPoint;
+    private final ByteBuffer data;
+    private int bufferId;
+
+    public UniformBuffer(int bindingPoint, int size) {
+        this.bindingPoint = bindingPoint;
+        // std140 blocks are a multiple of vec4
+        this.data = BufferUtils.createByteBuffer((size + 15) & ~15);
+        this.bufferId = 0;
+    }
+
+    /**
+     * Create the buffer on the GPU and attach it to its binding point
+     */
+    public void init() {
+        bufferId = glGenBuffers();
+        glBindBuffer(GL_UNIFORM_BUFFER, bufferId);
+        glBufferData(GL_UNIFORM_BUFFER, data.capacity(), GL_DYNAMIC_DRAW);
+        glBindBuffer(GL_UNIFORM_BUFFER, 0);
+        glBindBufferBase(GL_UNIFORM_BUFFER, bindingPoint, bufferId);
+    }
+
+    /**
+     * Upload the whole content of the client-side buffer
+     */
+    public void upload() {
+        if (bufferId == 0) {
+            init();
+        }
+        glBindBuffer(GL_UNIFORM_BUFFER, bufferId);
+        // orphan the previous storage so that the driver does not wait for the last frame
+        glBufferData(GL_UNIFORM_BUFFER, data.capacity(), GL_DYNAMIC_DRAW);
+        glBufferSubData(GL_UNIFORM_BUFFER, 0, data);
+        glBindBuffer(GL_UNIFORM_BUFFER, 0);
+        // the binding point could have been reused in between
+        glBindBufferBase(GL_UNIFORM_BUFFER, bindingPoint, bufferId);
+    }
+
+    /**
+     * @return the client-side content, written with absolute puts
+     */
+    public ByteBuffer getData() {
+        return data;
+    }
+
+    public int getBindingPoint() {
+        return bindingPoint;
+    }
+
+    public void cleanUp() {
+        if (bufferId != 0) {
+            glDeleteBuffers(bufferId);
+            bufferId = 0;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package yaw.engine.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+
+/**
+ * A pool of direct buffers, shared between threads (e.g. the workers decoding images and the render thread
+ * uploading them), so that the large buffers are not allocated for each use.
+ *
+ * The buffers are pooled by size class (powers of two), and the pool keeps at most a given number of bytes,
+ * the other released buffers are left to the garbage collector.
+ */
+public class DirectBufferPool {
+    /* the smallest size class */
+    private static final int MIN_CLASS = 12;
+
+    private final ArrayDeque<ByteBuffer>[] free;
+    private final long maxPooledBytes;
+    private long pooledBytes;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public DirectBufferPool(long maxPooledBytes) {
+        this.free = (ArrayDeque<ByteBuffer>[]) new ArrayDeque[Integer.SIZE];
+        this.maxPooledBytes = maxPooledBytes;
+    }
+
+    private static int sizeClass(int size) {
+        return Math.max(MIN_CLASS, Integer.SIZE - Integer.numberOfLeadingZeros(Math.max(size, 1) - 1));
+    }
+
+    /**
+     * Get a buffer
+     *
+     * @param size the number of bytes needed
+     * @return a direct buffer (native order), with position 0 and limit size
+     */
+    public ByteBuffer acquire(int size) {
+        int sizeClass = sizeClass(size);
+        ByteBuffer buffer = null;
+        synchronized (this) {
+            ArrayDeque<ByteBuffer> buffers = free[sizeClass];
+            if (buffers != null && !buffers.isEmpty()) {
+                buffer = buffers.pop();
+                pooledBytes -= buffer.capacity();
+            }
+        }
+        if (buffer == null) {
+            // the largest class is limited by the maximum array size
+            int capacity = sizeClass < Integer.SIZE - 1 ? 1 << sizeClass : Integer.MAX_VALUE;
+            buffer = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+        }
+        buffer.clear().limit(size);
+        return buffer;
+    }
+
+    /**
+     * Give a buffer back to the pool (it must not be used afterwards)
+     *
+     * @param buffer a buffer obtained by acquire
+     */
+    public synchronized void release(ByteBuffer buffer) {
+        if (pooledBytes + buffer.capacity() > maxPooledBytes) {
+            return;
+        }
+        int sizeClass = sizeClass(buffer.capacity());
+        if (free[sizeClass] == null) {
+            free[sizeClass] = new ArrayDeque<>();
+        }
+        free[sizeClass].push(buffer);
+        pooledBytes += buffer.capacity();
+    }
+
+    /**
+     * @return the number of bytes kept by the pool
+     */
+    public synchronized long getPooledBytes() {
+        return pooledBytes;
+    }
+}
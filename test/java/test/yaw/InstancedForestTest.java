@@ -0,0 +1,48 @@
+package test.yaw;
+
+import org.joml.Vector3f;
+import yaw.engine.SceneRenderer;
+import yaw.engine.UpdateCallback;
+import yaw.engine.World;
+import yaw.engine.items.ItemObject;
+import yaw.engine.light.DirectionalLight;
+import yaw.engine.light.LightModel;
+import yaw.engine.mesh.Mesh;
+
+/**
+ * Thousands of copies of the same tree mesh, drawn with a single instanced draw call
+ */
+public class InstancedForestTest implements UpdateCallback {
+
+    private World world;
+
+    public InstancedForestTest(int size) {
+        world = new World(0, 0, 800, 600);
+        world.installScene(new SceneRenderer(new LightModel()));
+        world.getCamera().lookAt(new Vector3f(-10, 15, 15), new Vector3f(0, 1f, 0), new Vector3f(0, 1, 0));
+        world.getSceneLight().setDirectionalLight(new DirectionalLight(new Vector3f(1, 1, 1), 0.7f, new Vector3f(-1, -1, -1)));
+
+        Mesh treem = TreeTest.generateTreeMesh(6, 2.0f, 0.6);
+        treem.setInstanced(true);
+
+        int side = (int) Math.floor(Math.sqrt(size));
+        for (int i = 0; i < size; i++) {
+            int x = i / side;
+            int z = i % side;
+            Vector3f pos = new Vector3f(x, 0, z).sub(new Vector3f(side / 2.f)).mul(2.0f);
+            world.createItemObject("tree" + i, pos.x, 0, pos.z, 1.0f, treem);
+        }
+
+        world.registerUpdateCallback(this);
+    }
+
+    public void update(double deltaTime) {
+        world.getCamera().getCameraMat().rotateLocalY((float) (deltaTime));
+    }
+
+    public static void main(String[] args) {
+        InstancedForestTest test = new InstancedForestTest(5000);
+        test.world.launchSync();
+    }
+
+}
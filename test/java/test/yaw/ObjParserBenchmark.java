@@ -0,0 +1,88 @@
+package test.yaw;
+
+import yaw.engine.resources.ObjLoader;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Throughput of the OBJ parsers : the line parser and the byte-level parser of {@link ObjLoader}
+ * (in parallel on the common fork-join pool) on a generated file (a textured grid, in objects of 64K quads).
+ *
+ * Arguments : the size of the file in MB (256 by default), and the number of runs (3 by default).
+ * The line parser keeps all the lines of the file in memory : large files need a large heap (e.g. -Xmx8g).
+ */
+public class ObjParserBenchmark {
+    private static final int GRID = 256;
+
+    private static Path generate(long size) throws IOException {
+        Path file = Files.createTempFile("yaw-benchmark", ".obj");
+        file.toFile().deleteOnExit();
+        try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+            long written = 0;
+            int base = 1;
+            for (int object = 0; written < size; object++) {
+                StringBuilder text = new StringBuilder();
+                text.append("o Grid").append(object).append('\n');
+                for (int y = 0; y <= GRID; y++) {
+                    for (int x = 0; x <= GRID; x++) {
+                        float z = (float) Math.sin(0.1 * (x + object)) * (float) Math.cos(0.1 * y);
+                        text.append(String.format(Locale.ROOT, "v %.6f %.6f %.6f\n", x / (float) GRID, y / (float) GRID, z));
+                        text.append(String.format(Locale.ROOT, "vt %.6f %.6f\n", x / (float) GRID, y / (float) GRID));
+                        text.append("vn 0.000000 0.000000 1.000000\n");
+                    }
+                }
+                for (int y = 0; y < GRID; y++) {
+                    for (int x = 0; x < GRID; x++) {
+                        int i = base + y * (GRID + 1) + x;
+                        int j = i + GRID + 1;
+                        text.append("f ").append(i).append('/').append(i).append('/').append(i)
+                                .append(' ').append(i + 1).append('/').append(i + 1).append('/').append(i + 1)
+                                .append(' ').append(j + 1).append('/').append(j + 1).append('/').append(j + 1)
+                                .append(' ').append(j).append('/').append(j).append('/').append(j).append('\n');
+                    }
+                }
+                base += (GRID + 1) * (GRID + 1);
+                writer.write(text.toString());
+                written += text.length();
+            }
+        }
+        return file;
+    }
+
+    private static double run(String filename, boolean byteParser) throws IOException {
+        ObjLoader loader = new ObjLoader();
+        loader.setMeshCache(null);
+        loader.setByteParser(byteParser);
+        long start = System.nanoTime();
+        loader.parseFromFile(filename);
+        // the geometries are built from the builders of the line parser
+        for (int i = 0; i < loader.getScene().nbGeometries(); i++) {
+            loader.getScene().getGeometry(i);
+        }
+        return (System.nanoTime() - start) / 1e9;
+    }
+
+    public static void main(String[] args) throws IOException {
+        long megabytes = args.length > 0 ? Long.parseLong(args[0]) : 256;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        Path file = generate(megabytes << 20);
+        double size = Files.size(file) / (double) (1 << 20);
+        System.out.printf(Locale.ROOT, "OBJ file: %.1f MB, %d parsing threads%n", size,
+                ForkJoinPool.commonPool().getParallelism());
+        for (boolean byteParser : new boolean[]{false, true}) {
+            double best = Double.MAX_VALUE;
+            for (int i = 0; i < runs; i++) {
+                best = Math.min(best, run(file.toString(), byteParser));
+                System.gc();
+            }
+            System.out.printf(Locale.ROOT, "%-12s %8.3f s %10.1f MB/s%n", byteParser ? "byte parser" : "line parser",
+                    best, size / best);
+        }
+        Files.delete(file);
+    }
+}
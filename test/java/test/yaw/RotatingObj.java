@@ -77,7 +77,7 @@ public class RotatingObj implements UpdateCallback {
 		}
 
 		/* DEBUG
-		Geometry geom = objLoader.getScene().getGeometryByIndex(10).build();
+		Geometry geom = objLoader.getScene().getGeometry(10);
 		Mesh objm = new Mesh(geom);
 
 		objm.setDrawingStrategy(new DefaultDrawingStrategy());
@@ -82,7 +82,7 @@ public class RotatingObjHelper implements UpdateCallback {
             System.out.println("Error : " + e.getMessage());
             System.exit(1);
         }
-        Geometry geom = objLoader.getScene().getGeometryByIndex(0).build();
+        Geometry geom = objLoader.getScene().getGeometry(0);
 
         Mesh objm = new Mesh(geom, objLoader.getScene().getMaterialByIndex(0).getMaterial());
         objm.setDrawingStrategy(new DefaultDrawingStrategy());
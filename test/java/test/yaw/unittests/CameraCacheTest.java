@@ -0,0 +1,47 @@
+package test.yaw.unittests;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import yaw.engine.camera.Camera;
+
+public class CameraCacheTest {
+
+    public static void testCachedMatrices() {
+        Camera camera = new Camera();
+        Matrix4f view = camera.getViewMat();
+        if (camera.getViewMat() != view || camera.getWorldMat() != camera.getWorldMat()) {
+            throw new TestLib.TestError("Camera matrices should be cached");
+        }
+        long version = camera.getVersion();
+        if (camera.getVersion() != version) {
+            throw new TestLib.TestError("Version changed without camera change");
+        }
+
+        // the camera matrix is mutable : in-place changes must be detected
+        camera.getCameraMat().translate(1, 2, 3);
+        long moved = camera.getVersion();
+        if (moved == version) {
+            throw new TestLib.TestError("Version unchanged after a camera move");
+        }
+        Matrix4f expected = new Matrix4f().translation(1, 2, 3).invert();
+        if (!camera.getViewMat().equals(expected, 1.0e-5f)) {
+            throw new TestLib.TestError("Wrong view matrix: " + camera.getViewMat());
+        }
+        if (!camera.getPosition(new Vector3f()).equals(new Vector3f(1, 2, 3), 1.0e-5f)) {
+            throw new TestLib.TestError("Wrong camera position");
+        }
+
+        camera.setFieldOfView((float) Math.toRadians(45));
+        if (camera.getVersion() == moved) {
+            throw new TestLib.TestError("Version unchanged after a projection change");
+        }
+    }
+
+    public static void testAll() {
+        testCachedMatrices();
+    }
+
+    public static void main(String... args) {
+        testAll();
+    }
+}
@@ -0,0 +1,69 @@
+package test.yaw.unittests;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import yaw.engine.culling.FrustumCuller;
+import yaw.engine.geom.GeomLib;
+import yaw.engine.geom.Geometry;
+import yaw.engine.items.ItemObject;
+import yaw.engine.mesh.Mesh;
+
+public class CullingTest {
+
+    public static void testGeometryBounds() {
+        Geometry geom = GeomLib.makeCuboid(2, 4, 6).build();
+        if (!geom.getAabbMin().equals(new Vector3f(-1, -2, -3))) {
+            throw new TestLib.TestError("Wrong bounding box min: " + geom.getAabbMin());
+        }
+        if (!geom.getAabbMax().equals(new Vector3f(1, 2, 3))) {
+            throw new TestLib.TestError("Wrong bounding box max: " + geom.getAabbMax());
+        }
+        float expected = (float) Math.sqrt(1 + 4 + 9);
+        if (Math.abs(geom.getBoundingSphereRadius() - expected) > 1.0e-5f) {
+            throw new TestLib.TestError("Wrong bounding sphere radius: " + geom.getBoundingSphereRadius());
+        }
+    }
+
+    public static void testFrustumCulling() {
+        Mesh mesh = new Mesh(GeomLib.makeCuboid(1, 1, 1).build());
+        ItemObject front = new ItemObject("front", new Vector3f(0, 0, -10), mesh);
+        ItemObject behind = new ItemObject("behind", new Vector3f(0, 0, 10), mesh);
+        ItemObject far = new ItemObject("far", new Vector3f(0, 0, -900), mesh);
+
+        // camera at the origin, looking towards -z
+        Matrix4f projection = new Matrix4f().perspective((float) Math.toRadians(60), 1.0f, 0.1f, 1000f);
+        FrustumCuller culler = new FrustumCuller();
+        culler.beginFrame(projection, new Vector3f(), projection.m11());
+
+        if (!culler.isVisible(front)) {
+            throw new TestLib.TestError("Item in front of the camera should be visible");
+        }
+        if (culler.isVisible(behind)) {
+            throw new TestLib.TestError("Item behind the camera should be culled");
+        }
+        if (!culler.isVisible(far)) {
+            throw new TestLib.TestError("Far item inside the frustum should be visible");
+        }
+        if (culler.getVisibleCount() != 2 || culler.getCulledCount() != 1) {
+            throw new TestLib.TestError("Wrong culling counters");
+        }
+
+        culler.setMinScreenSize(0.01f);
+        culler.beginFrame(projection, new Vector3f(), projection.m11());
+        if (culler.isVisible(far)) {
+            throw new TestLib.TestError("Far item should be culled by the screen-size threshold");
+        }
+        if (!culler.isVisible(front)) {
+            throw new TestLib.TestError("Close item should pass the screen-size threshold");
+        }
+    }
+
+    public static void testAll() {
+        testGeometryBounds();
+        testFrustumCulling();
+    }
+
+    public static void main(String... args) {
+        testAll();
+    }
+}
@@ -0,0 +1,51 @@
+package test.yaw.unittests;
+
+import yaw.engine.util.DirectBufferPool;
+
+import java.nio.ByteBuffer;
+
+public class DirectBufferPoolTest {
+
+    public static void testAcquire() {
+        DirectBufferPool pool = new DirectBufferPool(1 << 20);
+        ByteBuffer buffer = pool.acquire(10000);
+        if (!buffer.isDirect() || buffer.position() != 0 || buffer.limit() != 10000 || buffer.capacity() != 16384) {
+            throw new TestLib.TestError("Wrong buffer: " + buffer);
+        }
+        buffer.position(100);
+        pool.release(buffer);
+        if (pool.getPooledBytes() != 16384) {
+            throw new TestLib.TestError("Buffer not pooled");
+        }
+        // same size class : reused, and reset
+        ByteBuffer reused = pool.acquire(9000);
+        if (reused != buffer || reused.position() != 0 || reused.limit() != 9000 || pool.getPooledBytes() != 0) {
+            throw new TestLib.TestError("Buffer not reused");
+        }
+        // another size class
+        pool.release(reused);
+        if (pool.acquire(20000) == reused) {
+            throw new TestLib.TestError("Buffer reused for a larger size");
+        }
+    }
+
+    public static void testLimit() {
+        DirectBufferPool pool = new DirectBufferPool(8192);
+        ByteBuffer a = pool.acquire(8192);
+        ByteBuffer b = pool.acquire(8192);
+        pool.release(a);
+        pool.release(b);
+        if (pool.getPooledBytes() != 8192) {
+            throw new TestLib.TestError("Pool limit exceeded: " + pool.getPooledBytes());
+        }
+    }
+
+    public static void testAll() {
+        testAcquire();
+        testLimit();
+    }
+
+    public static void main(String... args) {
+        testAll();
+    }
+}
@@ -1,7 +1,9 @@
 package test.yaw.unittests;
 
 import org.joml.Vector2f;
+import org.joml.Vector3f;
 import yaw.engine.geom.GeomLib;
+import yaw.engine.geom.Geometry;
 
 import java.util.List;
 
@@ -27,8 +29,30 @@ public class GeomLibTest {
         if(coords.get(3).y != -1.0f) { throw new TestLib.TestError("Wrong coordinate"); }
     }
 
+    public static void testMakeSphere() {
+        Geometry sphere = GeomLib.makeSphere(2, 8, 4).build();
+        float[] vertices = sphere.getVertices();
+        if (sphere.getVertexCount() != 2 + 3 * 8 || sphere.getIndices().length != 3 * 2 * 8 * 3) {
+            throw new TestLib.TestError("Wrong sphere size");
+        }
+        for (int v = 0; v < sphere.getVertexCount(); v++) {
+            Vector3f p = new Vector3f(vertices[3 * v], vertices[3 * v + 1], vertices[3 * v + 2]);
+            if (Math.abs(p.length() - 2) > 1.0e-5f) { throw new TestLib.TestError("Vertex out of the sphere"); }
+        }
+        // all the triangles face outward
+        int[] indices = sphere.getIndices();
+        for (int t = 0; t < indices.length; t += 3) {
+            Vector3f a = new Vector3f(vertices[3 * indices[t]], vertices[3 * indices[t] + 1], vertices[3 * indices[t] + 2]);
+            Vector3f b = new Vector3f(vertices[3 * indices[t + 1]], vertices[3 * indices[t + 1] + 1], vertices[3 * indices[t + 1] + 2]);
+            Vector3f c = new Vector3f(vertices[3 * indices[t + 2]], vertices[3 * indices[t + 2] + 1], vertices[3 * indices[t + 2] + 2]);
+            Vector3f normal = new Vector3f(b).sub(a).cross(new Vector3f(c).sub(a));
+            if (normal.dot(a.add(b).add(c)) <= 0) { throw new TestLib.TestError("Triangle facing inward: " + t / 3); }
+        }
+    }
+
     public static void testAll() {
         testMakeCircleApprox();
+        testMakeSphere();
     }
 
     public static void main(String... args) {
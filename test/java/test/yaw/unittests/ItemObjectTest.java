@@ -0,0 +1,48 @@
+package test.yaw.unittests;
+
+import org.joml.Matrix3f;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import yaw.engine.geom.GeomLib;
+import yaw.engine.items.ItemObject;
+import yaw.engine.mesh.Mesh;
+
+public class ItemObjectTest {
+
+    public static void testModelMatrix() {
+        Mesh mesh = new Mesh(GeomLib.makeCuboid(1, 1, 1).build());
+        ItemObject item = new ItemObject("item", new Vector3f(1, 2, 3), 2.0f, mesh);
+        item.translate(1, 0, 0);
+        item.rotateY(0.5f);
+        item.translate(0, 1, 0);
+
+        Matrix4f expected = new Matrix4f().translate(2, 3, 3).rotateY(0.5f).scale(2.0f);
+        if (!item.getModelMatrix().equals(expected, 1.0e-5f)) {
+            throw new TestLib.TestError("Wrong model matrix: " + item.getModelMatrix());
+        }
+        if (!item.getWorldSphereCenter().equals(new Vector3f(2, 3, 3), 1.0e-5f)) {
+            throw new TestLib.TestError("Wrong world bounds after moves: " + item.getWorldSphereCenter());
+        }
+    }
+
+    public static void testNormalMatrix() {
+        Mesh mesh = new Mesh(GeomLib.makeCuboid(1, 1, 1).build());
+        ItemObject item = new ItemObject("item", new Vector3f(5, 0, -1), 3.0f, mesh);
+        item.rotateXYZ(0.3f, -1.2f, 0.7f);
+
+        // uniform-scale fast path vs. inverse transpose
+        Matrix3f expected = new Matrix3f(item.getModelMatrix()).invert().transpose();
+        if (!item.getNormalMatrix().equals(expected, 1.0e-5f)) {
+            throw new TestLib.TestError("Wrong normal matrix: " + item.getNormalMatrix());
+        }
+    }
+
+    public static void testAll() {
+        testModelMatrix();
+        testNormalMatrix();
+    }
+
+    public static void main(String... args) {
+        testAll();
+    }
+}
@@ -0,0 +1,105 @@
+package test.yaw.unittests;
+
+import org.joml.Matrix4f;
+import yaw.engine.light.LightClusters;
+import yaw.engine.light.LightModel;
+import yaw.engine.light.PointLight;
+import yaw.engine.light.SpotLight;
+
+public class LightClustersTest {
+
+    private static boolean inCluster(LightClusters clusters, int cluster, int light) {
+        int[] ranges = clusters.getRanges();
+        for (int i = ranges[2 * cluster]; i < ranges[2 * cluster] + ranges[2 * cluster + 1]; i++) {
+            if (clusters.getIndices()[i] == light) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static void testRange() {
+        // 1 + 16 d^2 = 256
+        float range = LightClusters.getRange(new PointLight(1, 1, 1, 0, 0, 0, 1, 1, 0, 16));
+        if (Math.abs(range - (float) Math.sqrt(255.0 / 16)) > 1.0e-4f) {
+            throw new TestLib.TestError("Wrong range: " + range);
+        }
+        if (LightClusters.getRange(new PointLight(1, 1, 1, 0, 0, 0, 1, 1, 0, 0)) != Float.POSITIVE_INFINITY) {
+            throw new TestLib.TestError("A light without attenuation has no limit");
+        }
+        if (LightClusters.getRange(new PointLight(1, 1, 1, 0, 0, 0, 0, 1, 0, 1)) >= 0) {
+            throw new TestLib.TestError("A light without intensity has no range");
+        }
+    }
+
+    public static void testBinning() {
+        // camera at the origin looking down -z
+        Matrix4f view = new Matrix4f().lookAt(0, 0, 0, 0, 0, -1, 0, 1, 0);
+        Matrix4f projection = new Matrix4f().perspective((float) Math.toRadians(60), 2, 0.1f, 100);
+        LightModel lightModel = new LightModel(false, 8, 8, true);
+        // 0 : in front of the camera, range about 4
+        lightModel.addPointLight(new PointLight(1, 1, 1, 0, 0, -10, 1, 1, 0, 16));
+        // 1 : behind the camera
+        lightModel.addPointLight(new PointLight(1, 1, 1, 0, 0, 20, 1, 1, 0, 16));
+        // 2 : no attenuation, everywhere
+        lightModel.addPointLight(new PointLight(1, 1, 1, 0, 0, 20, 1, 1, 0, 0));
+        // 3 : spot light, in front of the camera
+        lightModel.addSpotLight(new SpotLight(1, 1, 1, 0, 0, -10, 1, 1, 0, 16, 0, 0, -1, 60));
+
+        LightClusters clusters = new LightClusters();
+        clusters.update(view, projection, 0.1f, 100, lightModel);
+        if (clusters.getLightCount() != 4) {
+            throw new TestLib.TestError("Wrong light count: " + clusters.getLightCount());
+        }
+        if (clusters.slice(0.1f) != 0 || clusters.slice(100) != clusters.getSizeZ() - 1) {
+            throw new TestLib.TestError("Wrong depth slices");
+        }
+
+        int center = clusters.cluster(clusters.getSizeX() / 2, clusters.getSizeY() / 2, clusters.slice(10));
+        if (!inCluster(clusters, center, 0) || !inCluster(clusters, center, 3)) {
+            throw new TestLib.TestError("Light missing from the cluster of its position");
+        }
+        // beyond the range of the light, in depth and on screen
+        if (inCluster(clusters, clusters.cluster(clusters.getSizeX() / 2, clusters.getSizeY() / 2, clusters.slice(20)), 0)
+                || inCluster(clusters, clusters.cluster(0, 0, clusters.slice(10)), 0)) {
+            throw new TestLib.TestError("Light in a cluster out of its range");
+        }
+        int lightsEverywhere = 0;
+        for (int cluster = 0; cluster < clusters.getClusterCount(); cluster++) {
+            if (inCluster(clusters, cluster, 1)) {
+                throw new TestLib.TestError("Light behind the camera in a cluster");
+            }
+            if (inCluster(clusters, cluster, 2)) {
+                lightsEverywhere++;
+            }
+        }
+        if (lightsEverywhere != clusters.getClusterCount()) {
+            throw new TestLib.TestError("Light without attenuation missing from clusters");
+        }
+
+        // light data : the point lights have a cutoff below -1, the spot lights the cosine of their angle
+        float[] data = clusters.getLightData();
+        if (data[LightClusters.LIGHT_FLOATS * 0 + 10] != LightClusters.POINT_LIGHT_CUTOFF
+                || Math.abs(data[LightClusters.LIGHT_FLOATS * 3 + 10] - 0.5f) > 1.0e-5f
+                || data[LightClusters.LIGHT_FLOATS * 3 + 14] != -1) {
+            throw new TestLib.TestError("Wrong light data");
+        }
+
+        // the lights move : binned again
+        lightModel.getPointLight(0).setPosition(0, 0, -50);
+        clusters.update(view, projection, 0.1f, 100, lightModel);
+        if (inCluster(clusters, center, 0) || !inCluster(clusters,
+                clusters.cluster(clusters.getSizeX() / 2, clusters.getSizeY() / 2, clusters.slice(50)), 0)) {
+            throw new TestLib.TestError("Moved light not binned again");
+        }
+    }
+
+    public static void testAll() {
+        testRange();
+        testBinning();
+    }
+
+    public static void main(String... args) {
+        testAll();
+    }
+}
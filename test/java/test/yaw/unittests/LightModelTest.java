@@ -0,0 +1,64 @@
+package test.yaw.unittests;
+
+import org.joml.Vector3f;
+import yaw.engine.light.DirectionalLight;
+import yaw.engine.light.LightModel;
+import yaw.engine.light.PointLight;
+
+public class LightModelTest {
+
+    public static void testAddLights() {
+        LightModel lights = new LightModel(true, 2, 1);
+        int index = lights.addPointLight(new PointLight());
+        if (index != 0 || lights.getNbPointLights() != 1) {
+            throw new TestLib.TestError("Point light not counted");
+        }
+        lights.addPointLight(new PointLight());
+        try {
+            lights.addPointLight(new PointLight());
+            throw new TestLib.TestError("Too many point lights accepted");
+        } catch (Error e) {
+            // expected
+        }
+    }
+
+    public static void testVersion() {
+        LightModel lights = new LightModel(true, 2, 2);
+        long v0 = lights.update();
+        if (lights.update() != v0) {
+            throw new TestLib.TestError("Version changed without light change");
+        }
+
+        DirectionalLight sun = new DirectionalLight(new Vector3f(1, 1, 1), 0.7f, new Vector3f(0, -1, 0));
+        lights.setDirectionalLight(sun);
+        long v1 = lights.update();
+        if (v1 == v0) {
+            throw new TestLib.TestError("Version unchanged after adding a light");
+        }
+
+        PointLight bulb = new PointLight();
+        lights.addPointLight(bulb);
+        long v2 = lights.update();
+        if (v2 == v1 || lights.update() != v2) {
+            throw new TestLib.TestError("Wrong version after adding a point light");
+        }
+
+        // lights are mutable objects : in-place changes must be detected
+        bulb.mPosition.x += 1;
+        long v3 = lights.update();
+        sun.mDirection.set(1, -1, 0);
+        long v4 = lights.update();
+        if (v3 == v2 || v4 == v3 || lights.update() != v4) {
+            throw new TestLib.TestError("In-place light changes not detected");
+        }
+    }
+
+    public static void testAll() {
+        testAddLights();
+        testVersion();
+    }
+
+    public static void main(String... args) {
+        testAll();
+    }
+}
@@ -0,0 +1,91 @@
+package test.yaw.unittests;
+
+import yaw.engine.geom.Geometry;
+import yaw.engine.resources.MeshCache;
+import yaw.engine.resources.ObjLoader;
+import yaw.engine.resources.ObjModel;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+
+public class MeshCacheTest {
+
+    private static ObjModel load(MeshCache cache, String filename) throws IOException {
+        ObjLoader loader = new ObjLoader();
+        loader.setMeshCache(cache);
+        loader.parseFromFile(filename);
+        return loader.getScene();
+    }
+
+    private static void checkSame(ObjModel parsed, ObjModel cached) {
+        if (parsed.nbGeometries() != cached.nbGeometries() || parsed.nbMaterials() != cached.nbMaterials()) {
+            throw new TestLib.TestError("Wrong number of objects or materials");
+        }
+        for (int i = 0; i < parsed.nbGeometries(); i++) {
+            Geometry a = parsed.getGeometry(i);
+            Geometry b = cached.getGeometry(i);
+            if (!Arrays.equals(a.getVertices(), b.getVertices()) || !Arrays.equals(a.getNormals(), b.getNormals())
+                    || !Arrays.equals(a.getIndices(), b.getIndices()) || a.hasTextCoords() != b.hasTextCoords()
+                    || (a.hasTextCoords() && !Arrays.equals(a.getTextCoords(), b.getTextCoords()))) {
+                throw new TestLib.TestError("Wrong cached geometry " + i);
+            }
+            String name = parsed.getGeometryName(i);
+            if (!name.equals(cached.getGeometryName(i))
+                    || !String.valueOf(parsed.getAssignedMaterial(name)).equals(String.valueOf(cached.getAssignedMaterial(name)))) {
+                throw new TestLib.TestError("Wrong cached object " + name);
+            }
+        }
+        for (int i = 0; i < parsed.nbMaterials(); i++) {
+            if (!parsed.getMaterialByIndex(i).toString().equals(cached.getMaterialByIndex(i).toString())) {
+                throw new TestLib.TestError("Wrong cached material " + parsed.getMaterialName(i));
+            }
+        }
+    }
+
+    public static void testRoundTrip() throws IOException {
+        Path dir = Files.createTempDirectory("yaw-mesh-cache");
+        Path models = Files.createDirectories(dir.resolve("models"));
+        for (String name : new String[]{"cube.obj", "cube.mtl"}) {
+            Files.copy(MeshCacheTest.class.getResourceAsStream("/resources/models/" + name), models.resolve(name));
+        }
+        String obj = models.resolve("cube.obj").toString();
+        MeshCache cache = new MeshCache(dir.resolve("cache"));
+
+        ObjModel parsed = load(cache, obj);
+        if (cache.getHits() != 0) {
+            throw new TestLib.TestError("First load not parsed");
+        }
+        ObjModel cached = load(cache, obj);
+        if (cache.getHits() != 1) {
+            throw new TestLib.TestError("Second load not read from the cache");
+        }
+        checkSame(parsed, cached);
+
+        // the MTL library changes : parsed again
+        Path mtl = models.resolve("cube.mtl");
+        Files.setLastModifiedTime(mtl, FileTime.fromMillis(Files.getLastModifiedTime(mtl).toMillis() + 10000));
+        load(cache, obj);
+        if (cache.getHits() != 1) {
+            throw new TestLib.TestError("Stale cache used");
+        }
+        load(cache, obj);
+        if (cache.getHits() != 2) {
+            throw new TestLib.TestError("Cache not rewritten");
+        }
+    }
+
+    public static void testAll() {
+        try {
+            testRoundTrip();
+        } catch (IOException e) {
+            throw new TestLib.TestError("I/O error: " + e.getMessage());
+        }
+    }
+
+    public static void main(String... args) {
+        testAll();
+    }
+}
@@ -0,0 +1,59 @@
+package test.yaw.unittests;
+
+import org.joml.Vector3f;
+import yaw.engine.geom.GeomLib;
+import yaw.engine.items.ItemObject;
+import yaw.engine.mesh.Mesh;
+
+public class MeshTest {
+
+    public static void testDynamicBounds() {
+        Mesh mesh = new Mesh(GeomLib.makeCuboid(1, 1, 1).build());
+        mesh.setDynamic(true);
+        ItemObject item = new ItemObject("item", new Vector3f(0, 0, 0), mesh);
+        if (item.getWorldAabbMax().x != 0.5f) {
+            throw new TestLib.TestError("Wrong initial bounds: " + item.getWorldAabbMax());
+        }
+        // move the first vertex away : the bounds of the item follow the geometry
+        mesh.updateVertices(0, new float[]{ 4, 0, 0 }, null);
+        if (item.getWorldAabbMax().x != 4) {
+            throw new TestLib.TestError("The bounds were not updated: " + item.getWorldAabbMax());
+        }
+    }
+
+    public static void testStaticUpdate() {
+        // a static mesh is not modified
+        Mesh mesh = new Mesh(GeomLib.makeCuboid(1, 1, 1).build());
+        float first = mesh.getGeometry().getVertices()[0];
+        boolean refused = false;
+        try {
+            mesh.updateVertices(0, new float[]{ 4, 0, 0 }, null);
+        } catch (Error e) {
+            refused = true;
+        }
+        if (!refused || mesh.getGeometry().getVertices()[0] != first) {
+            throw new TestLib.TestError("A static mesh was updated");
+        }
+    }
+
+    public static void testDynamicNotQuantized() {
+        Mesh mesh = new Mesh(GeomLib.makeCuboid(1, 1, 1).build());
+        mesh.setDynamic(true);
+        try {
+            mesh.setQuantized(true);
+            throw new TestLib.TestError("A dynamic mesh should not be quantized");
+        } catch (Error e) {
+            // expected
+        }
+    }
+
+    public static void testAll() {
+        testDynamicBounds();
+        testStaticUpdate();
+        testDynamicNotQuantized();
+    }
+
+    public static void main(String... args) {
+        testAll();
+    }
+}
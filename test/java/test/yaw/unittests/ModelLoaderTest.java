@@ -0,0 +1,113 @@
+package test.yaw.unittests;
+
+import yaw.engine.mesh.Mesh;
+import yaw.engine.resources.ModelLoader;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class ModelLoaderTest {
+
+    /* the models are parsed in the background (no GL : nothing is uploaded) */
+    private static void waitParsed(ModelLoader loader, int count) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (loader.getParsedCount() < count) {
+            if (System.nanoTime() > deadline) {
+                throw new TestLib.TestError("Models not parsed: " + loader.getParsedCount() + " of " + count);
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    public static void testParsed() {
+        ModelLoader loader = new ModelLoader(2);
+        try {
+            List<CompletableFuture<Mesh[]>> futures = new ArrayList<>();
+            for (int i = 0; i < 6; i++) {
+                futures.add(loader.load(i % 2 == 0 ? "/resources/models/cube.obj" : "/resources/models/icosphere.obj", false));
+            }
+            waitParsed(loader, futures.size());
+            // completed by the render thread only, once uploaded
+            for (CompletableFuture<Mesh[]> future : futures) {
+                if (future.isDone()) {
+                    throw new TestLib.TestError("Model completed before its upload");
+                }
+            }
+            if (loader.getPendingCount() != futures.size()) {
+                throw new TestLib.TestError("Wrong number of pending models: " + loader.getPendingCount());
+            }
+        } finally {
+            loader.cleanUp();
+        }
+    }
+
+    public static void testFailure() {
+        ModelLoader loader = new ModelLoader();
+        try {
+            loader.load("/resources/models/missing.obj", false).get(30, TimeUnit.SECONDS);
+            throw new TestLib.TestError("Missing model loaded");
+        } catch (ExecutionException e) {
+            if (loader.getPendingCount() != 0) {
+                throw new TestLib.TestError("Failed model still pending");
+            }
+        } catch (InterruptedException | TimeoutException e) {
+            throw new TestLib.TestError("Missing model not reported: " + e);
+        } finally {
+            loader.cleanUp();
+        }
+    }
+
+    /* an error of the model (not a parse error) completes the future too */
+    public static void testDuplicateObjects() {
+        ModelLoader loader = new ModelLoader();
+        Path file = null;
+        try {
+            file = Files.createTempFile("yaw-duplicate", ".obj");
+            Files.writeString(file, "v 0 0 0\nv 1 0 0\nv 1 1 0\n"
+                    + "o Same\nf 1 2 3\n"
+                    + "o Same\nf 3 2 1\n");
+            loader.load(file.toString(), false).get(30, TimeUnit.SECONDS);
+            throw new TestLib.TestError("Duplicate objects loaded");
+        } catch (ExecutionException e) {
+            if (loader.getPendingCount() != 0) {
+                throw new TestLib.TestError("Failed model still pending");
+            }
+        } catch (IOException | InterruptedException | TimeoutException e) {
+            throw new TestLib.TestError("Duplicate objects not reported: " + e);
+        } finally {
+            loader.cleanUp();
+            if (file != null) {
+                file.toFile().delete();
+            }
+        }
+    }
+
+    public static void testCleanUp() {
+        ModelLoader loader = new ModelLoader(1);
+        CompletableFuture<Mesh[]> parsed = loader.load("/resources/models/cube.obj", false);
+        waitParsed(loader, 1);
+        CompletableFuture<Mesh[]> other = loader.load("/resources/models/icosphere.obj", false);
+        loader.cleanUp();
+        if (!parsed.isCancelled() || !other.isDone()) {
+            throw new TestLib.TestError("Models not cancelled by the clean up");
+        }
+    }
+
+    public static void testAll() {
+        testParsed();
+        testFailure();
+        testDuplicateObjects();
+        testCleanUp();
+    }
+
+    public static void main(String... args) {
+        testAll();
+    }
+}
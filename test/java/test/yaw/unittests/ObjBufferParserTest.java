@@ -0,0 +1,243 @@
+package test.yaw.unittests;
+
+import yaw.engine.geom.Geometry;
+import yaw.engine.resources.ObjBufferParser;
+import yaw.engine.resources.ObjLoader;
+import yaw.engine.resources.ObjModel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+public class ObjBufferParserTest {
+
+    private static ObjModel parse(String text, int chunkSize, ForkJoinPool pool) {
+        ObjModel model = new ObjModel("test");
+        ObjBufferParser parser = new ObjBufferParser(model, (name, linepos) -> {
+            throw new TestLib.TestError("Unexpected MTL library: " + name);
+        }, pool);
+        parser.setChunkSize(chunkSize);
+        parser.parse(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)));
+        return model;
+    }
+
+    private static ObjModel parse(String text) {
+        return parse(text, ObjBufferParser.DEFAULT_CHUNK_SIZE, ForkJoinPool.commonPool());
+    }
+
+    private static void checkSame(ObjModel parsed, ObjModel expected, String what) {
+        if (parsed.nbGeometries() != expected.nbGeometries() || parsed.nbMaterials() != expected.nbMaterials()) {
+            throw new TestLib.TestError("Wrong number of objects or materials in " + what);
+        }
+        for (int i = 0; i < parsed.nbGeometries(); i++) {
+            Geometry a = parsed.getGeometry(i);
+            Geometry b = expected.getGeometry(i);
+            String name = parsed.getGeometryName(i);
+            if (!name.equals(expected.getGeometryName(i))
+                    || !String.valueOf(parsed.getAssignedMaterial(name)).equals(String.valueOf(expected.getAssignedMaterial(name)))
+                    || !Arrays.equals(a.getVertices(), b.getVertices()) || !Arrays.equals(a.getNormals(), b.getNormals())
+                    || !Arrays.equals(a.getIndices(), b.getIndices()) || a.hasTextCoords() != b.hasTextCoords()
+                    || (a.hasTextCoords() && !Arrays.equals(a.getTextCoords(), b.getTextCoords()))) {
+                throw new TestLib.TestError("Wrong geometry " + name + " in " + what);
+            }
+        }
+    }
+
+    public static void testFloats() {
+        List<String> numbers = new ArrayList<>(Arrays.asList("0", "-0", "1.000000", "-1.000000", "0.375000",
+                "123.456789", "1e5", "1.5E-3", "+2.5", "3.", ".5", "-.25", "1e-30", "3.4028235e38", "NaN",
+                "-Infinity", "12345678901234567890", "0.1000000000000000055511151231257827", "1.17549435E-38",
+                "16777217", "0.000000059604645", "9007199254740993"));
+        Random random = new Random(42);
+        for (int i = 0; i < 20000; i++) {
+            double value = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(16) - 8);
+            switch (i % 4) {
+                case 0:
+                    numbers.add(String.format(Locale.ROOT, "%.6f", value));
+                    break;
+                case 1:
+                    numbers.add(String.format(Locale.ROOT, "%.9f", value));
+                    break;
+                case 2:
+                    numbers.add(String.format(Locale.ROOT, "%e", value));
+                    break;
+                default:
+                    numbers.add(Double.toString(value));
+            }
+        }
+        while (numbers.size() % 3 != 0) {
+            numbers.add("0");
+        }
+        // one vertex per number (distinct by their second coordinate), one triangle per three vertices
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < numbers.size(); i++) {
+            text.append("v ").append(numbers.get(i)).append(' ').append(i).append(" 0\n");
+        }
+        for (int i = 0; i < numbers.size(); i += 3) {
+            text.append("f ").append(i + 1).append(' ').append(i + 2).append(' ').append(i + 3).append('\n');
+        }
+        float[] vertices = parse(text.toString()).getGeometry(0).getVertices();
+        for (int i = 0; i < numbers.size(); i++) {
+            float expected = Float.parseFloat(numbers.get(i));
+            if (Float.floatToIntBits(vertices[3 * i]) != Float.floatToIntBits(expected)) {
+                throw new TestLib.TestError("Wrong parsing of '" + numbers.get(i) + "': " + vertices[3 * i]
+                        + " instead of " + expected);
+            }
+        }
+    }
+
+    public static void testGroups() {
+        String text = "# comment\r\n"
+                + "o First\r\n"
+                + "v 0 0 0\r\nv 1 0 0\r\nv 1 1 0\r\nv 0 1 0\r\n"
+                + "vn 0 0 1\r\n"
+                + "usemtl Red\r\n"
+                + "f 1//1 2//1 3//1 4//1\r\n"
+                + "usemtl Blue\r\n"
+                + "f -4//-1 -2//-1 -1//-1\r\n"
+                + "usemtl Green\n"
+                + "o Second\n"
+                + "v 0 0 1\nv 1 0 1\nv 1 1 1\n"
+                + "vt 0 0\nvt 1 0\nvt 1 1\n"
+                + "s off\n"
+                + "f 5/1 6/2 7/3\n"
+                + "\n";
+        ObjModel model = parse(text);
+        if (model.nbGeometries() != 3) {
+            throw new TestLib.TestError("Wrong number of geometries: " + model.nbGeometries());
+        }
+        // the quad is a fan of two triangles, its four vertices are shared
+        Geometry quad = model.getGeometry(0);
+        if (!Arrays.equals(quad.getIndices(), new int[]{0, 1, 2, 0, 2, 3}) || quad.getVertices().length != 12) {
+            throw new TestLib.TestError("Wrong triangulation: " + Arrays.toString(quad.getIndices()));
+        }
+        if (!"First".equals(model.getGeometryName(0)) || !"Red".equals(model.getAssignedMaterial("First"))) {
+            throw new TestLib.TestError("Wrong first geometry");
+        }
+        // the second material starts an unnamed geometry, with relative indices
+        String name = model.getGeometryName(1);
+        if (!"Blue".equals(model.getAssignedMaterial(name)) || name.equals("First")) {
+            throw new TestLib.TestError("Wrong second geometry: " + name);
+        }
+        if (!Arrays.equals(model.getGeometry(1).getVertices(), new float[]{0, 0, 0, 1, 1, 0, 0, 1, 0})) {
+            throw new TestLib.TestError("Wrong relative indices");
+        }
+        Geometry textured = model.getGeometry(2);
+        if (!"Second".equals(model.getGeometryName(2)) || !"Green".equals(model.getAssignedMaterial("Second"))
+                || !textured.hasTextCoords()
+                || !Arrays.equals(textured.getTextCoords(), new float[]{0, 0, 1, 0, 1, 1})) {
+            throw new TestLib.TestError("Wrong textured geometry");
+        }
+    }
+
+    public static void testErrors() {
+        String[] wrong = {"v 1 2\n", "v 1 2 x\n", "v 0 0 0\nf 1 2 3\n", "v 0 0 0\nf 0 1 1\n", "v 0 0 0\nf 1/1/1/1 1 1\n",
+                "v 0 0 0\nf -2 1 1\n", "o\n"};
+        for (String text : wrong) {
+            try {
+                parse(text);
+            } catch (ObjLoader.ParseError e) {
+                continue;
+            }
+            throw new TestLib.TestError("No parse error for: " + text);
+        }
+    }
+
+    private static ObjModel load(String resource, boolean byteParser) throws IOException {
+        ObjLoader loader = new ObjLoader();
+        loader.setMeshCache(null);
+        loader.setByteParser(byteParser);
+        loader.parseFromResource(resource);
+        return loader.getScene();
+    }
+
+    /* same model as the line parser */
+    public static void testSameModel() throws IOException {
+        for (String resource : new String[]{"/resources/models/cube.obj", "/resources/models/icosphere.obj"}) {
+            checkSame(load(resource, true), load(resource, false), resource);
+        }
+    }
+
+    /* the builders of the geometries are available with the byte parser too */
+    public static void testBuilders() throws IOException {
+        ObjModel model = load("/resources/models/cube.obj", true);
+        for (int i = 0; i < model.nbGeometries(); i++) {
+            Geometry built = model.getGeometryByIndex(i).build();
+            Geometry expected = model.getGeometry(i);
+            if (!Arrays.equals(built.getVertices(), expected.getVertices())
+                    || !Arrays.equals(built.getNormals(), expected.getNormals())
+                    || !Arrays.equals(built.getIndices(), expected.getIndices())
+                    || built.hasTextCoords() != expected.hasTextCoords()
+                    || (built.hasTextCoords() && !Arrays.equals(built.getTextCoords(), expected.getTextCoords()))) {
+                throw new TestLib.TestError("Wrong builder of " + model.getGeometryName(i));
+            }
+        }
+    }
+
+    /* the same model from small chunks, parsed in parallel */
+    public static void testChunks() {
+        StringBuilder text = new StringBuilder("# chunked\n");
+        Random random = new Random(7);
+        int vertices = 0;
+        for (int object = 0; object < 20; object++) {
+            text.append("o Object").append(object).append('\n');
+            for (int part = 0; part < 3; part++) {
+                text.append("usemtl Mat").append(part).append('\n');
+                for (int i = 0; i < 30; i++) {
+                    text.append(String.format(Locale.ROOT, "v %.4f %.4f %.4f\nvn 0 0 1\n",
+                            random.nextFloat(), random.nextFloat(), random.nextFloat()));
+                }
+                vertices += 30;
+                for (int i = 0; i < 20; i++) {
+                    // absolute and relative indices, over the previous parts too
+                    int a = vertices - random.nextInt(60);
+                    text.append("f ").append(a).append("//").append(a)
+                            .append(" -").append(1 + random.nextInt(30)).append("//-1")
+                            .append(' ').append(vertices - i).append("//").append(vertices - i).append('\n');
+                }
+            }
+        }
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            ObjModel expected = parse(text.toString());
+            for (int chunkSize : new int[]{1, 64, 1000}) {
+                checkSame(parse(text.toString(), chunkSize, pool), expected, "chunks of " + chunkSize + " bytes");
+            }
+            // the lines of the errors are counted over the chunks
+            try {
+                parse(text + "v 1 2\n", 64, pool);
+                throw new TestLib.TestError("No parse error in the last chunk");
+            } catch (ObjLoader.ParseError e) {
+                int lines = text.toString().split("\n").length;
+                if (!e.getMessage().contains("line " + (lines + 1))) {
+                    throw new TestLib.TestError("Wrong line of the error: " + e.getMessage());
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public static void testAll() {
+        testFloats();
+        testGroups();
+        testErrors();
+        testChunks();
+        try {
+            testSameModel();
+            testBuilders();
+        } catch (IOException e) {
+            throw new TestLib.TestError("I/O error: " + e.getMessage());
+        }
+    }
+
+    public static void main(String... args) {
+        testAll();
+    }
+}
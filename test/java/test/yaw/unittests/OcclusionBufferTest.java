@@ -0,0 +1,80 @@
+package test.yaw.unittests;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import yaw.engine.culling.OcclusionBuffer;
+import yaw.engine.geom.Geometry;
+
+public class OcclusionBufferTest {
+
+    /* a square wall in the plane z = 0, from -size to size */
+    private static Geometry makeWall(float size) {
+        float[] vertices = {-size, -size, 0, size, -size, 0, size, size, 0, -size, size, 0};
+        float[] normals = {0, 0, 1, 0, 0, 1, 0, 0, 1, 0, 0, 1};
+        int[] indices = {0, 1, 2, 0, 2, 3};
+        return new Geometry(vertices, normals, indices);
+    }
+
+    /* camera at the origin looking down -z */
+    private static Matrix4f makeViewProjection() {
+        return new Matrix4f().perspective((float) Math.toRadians(60), 2, 0.1f, 100)
+                .lookAt(0, 0, 0, 0, 0, -1, 0, 1, 0);
+    }
+
+    private static void testOcclusion(int threads) {
+        OcclusionBuffer buffer = new OcclusionBuffer(64, 32, threads);
+        buffer.beginFrame(makeViewProjection());
+        // a wall 10 units away
+        buffer.addOccluder(makeWall(3), new Matrix4f().translation(0, 0, -10));
+        buffer.rasterize();
+        buffer.cleanUp();
+        if (buffer.getTriangleCount() != 2) {
+            throw new TestLib.TestError("Wrong number of occluder triangles: " + buffer.getTriangleCount());
+        }
+        if (buffer.getDepth(32, 16) == Float.POSITIVE_INFINITY || buffer.getDepth(0, 0) != Float.POSITIVE_INFINITY) {
+            throw new TestLib.TestError("Wrong rasterization of the wall");
+        }
+
+        // behind the wall
+        if (buffer.isVisible(new Vector3f(-1, -1, -21), new Vector3f(1, 1, -19))) {
+            throw new TestLib.TestError("Box behind the wall not occluded (" + threads + " threads)");
+        }
+        // in front of the wall
+        if (!buffer.isVisible(new Vector3f(-1, -1, -6), new Vector3f(1, 1, -4))) {
+            throw new TestLib.TestError("Box in front of the wall occluded");
+        }
+        // behind, but partly beside the wall
+        if (!buffer.isVisible(new Vector3f(2, -1, -21), new Vector3f(8, 1, -19))) {
+            throw new TestLib.TestError("Box partly beside the wall occluded");
+        }
+        // intersecting the wall
+        if (!buffer.isVisible(new Vector3f(-1, -1, -11), new Vector3f(1, 1, -9))) {
+            throw new TestLib.TestError("Box through the wall occluded");
+        }
+        // crossing the near plane
+        if (!buffer.isVisible(new Vector3f(-1, -1, -1), new Vector3f(1, 1, 1))) {
+            throw new TestLib.TestError("Box around the camera occluded");
+        }
+    }
+
+    public static void testNoOccluders() {
+        OcclusionBuffer buffer = new OcclusionBuffer(64, 32, 1);
+        buffer.beginFrame(makeViewProjection());
+        // the wall is behind the camera
+        buffer.addOccluder(makeWall(3), new Matrix4f().translation(0, 0, 10));
+        buffer.rasterize();
+        if (buffer.getTriangleCount() != 0 || !buffer.isVisible(new Vector3f(-1, -1, -21), new Vector3f(1, 1, -19))) {
+            throw new TestLib.TestError("Occluder behind the camera");
+        }
+    }
+
+    public static void testAll() {
+        testOcclusion(1);
+        testOcclusion(3);
+        testNoOccluders();
+    }
+
+    public static void main(String... args) {
+        testAll();
+    }
+}
@@ -0,0 +1,135 @@
+package test.yaw.unittests;
+
+import yaw.engine.light.LightModel;
+import yaw.engine.shader.ProgramBinaryCache;
+import yaw.engine.shader.ShaderManager;
+import yaw.engine.shader.ShaderProgramADS;
+import yaw.engine.shader.ShaderProperties;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+
+public class ProgramBinaryCacheTest {
+
+    public static void testKey() {
+        String key = ProgramBinaryCache.key("driver", "vertex", null, "fragment");
+        if (!key.equals(ProgramBinaryCache.key("driver", "vertex", null, "fragment"))) {
+            throw new TestLib.TestError("The key is not deterministic");
+        }
+        if (key.length() != 64) {
+            throw new TestLib.TestError("Wrong key length: " + key.length());
+        }
+        if (key.equals(ProgramBinaryCache.key("driver 2", "vertex", null, "fragment"))
+                || key.equals(ProgramBinaryCache.key("driver", "vertex ", null, "fragment"))
+                || key.equals(ProgramBinaryCache.key("driver", "vertexfragment", null, ""))
+                || key.equals(ProgramBinaryCache.key("driver", "vertex", "", "fragment"))) {
+            throw new TestLib.TestError("The key must depend on the driver and on each source");
+        }
+    }
+
+    public static void testReadWrite() throws IOException {
+        Path dir = Files.createTempDirectory("yaw-shader-cache");
+        ProgramBinaryCache cache = new ProgramBinaryCache(dir);
+        if (cache.read("missing") != null) {
+            throw new TestLib.TestError("Missing binary found");
+        }
+
+        ByteBuffer binary = ByteBuffer.wrap(new byte[]{1, 2, 3, 4, 5, 6, 7});
+        binary.position(2);
+        cache.write("abc", 0x1234, binary);
+        ByteBuffer read = cache.read("abc");
+        if (read == null || read.getInt(0) != 0x1234 || read.remaining() != 4 + 5) {
+            throw new TestLib.TestError("Wrong binary read");
+        }
+        for (int i = 0; i < 5; i++) {
+            if (read.get(4 + i) != 3 + i) {
+                throw new TestLib.TestError("Wrong binary content at " + i);
+            }
+        }
+
+        // truncated file : rejected and deleted
+        Path file = dir.resolve("abc.bin");
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 1));
+        if (cache.read("abc") != null || Files.exists(file)) {
+            throw new TestLib.TestError("Truncated binary not rejected");
+        }
+
+        cache.write("def", 1, ByteBuffer.wrap(new byte[]{9}));
+        cache.delete("def");
+        if (cache.read("def") != null) {
+            throw new TestLib.TestError("Binary not deleted");
+        }
+        Files.deleteIfExists(dir);
+    }
+
+    public static void testProperties() {
+        LightModel forward = new LightModel(true, 4, 2);
+        ShaderProperties props = ShaderProperties.of(forward, true, true, false, false, false, false);
+        if (!props.equals(new ShaderProperties(true, 4, 2, true, true))) {
+            throw new TestLib.TestError("Wrong forward properties");
+        }
+        // no shadows without directional light, no light arrays with clustered or deferred lighting
+        props = ShaderProperties.of(new LightModel(false, 4, 2, true), false, true, true, false, false, false);
+        if (props.withShadows || props.maxPointLights != 0 || !props.clusteredLights) {
+            throw new TestLib.TestError("Wrong clustered properties");
+        }
+        props = ShaderProperties.of(forward, false, false, false, false, true, true);
+        if (props.maxSpotLights != 0 || props.clusteredLights || !props.deferred || !props.perDrawData) {
+            throw new TestLib.TestError("Wrong deferred properties");
+        }
+    }
+
+    /* the prewarmed programs validate only if their samplers have distinct units (the types differ) */
+    public static void testPrewarmSamplers() {
+        int samplerBuffers = 0;
+        int clustered = 0;
+        for (LightModel lights : new LightModel[]{new LightModel(true, 4, 2), new LightModel(false, 4, 2),
+                new LightModel(true, 4, 2, true)}) {
+            for (boolean deferred : new boolean[]{false, true}) {
+                for (ShaderProperties props : ShaderManager.prewarmProperties(lights, deferred)) {
+                    Map<String, Integer> units = ShaderProgramADS.samplerUnits(props);
+                    if (new HashSet<>(units.values()).size() != units.size()) {
+                        throw new TestLib.TestError("Samplers sharing a unit: " + units);
+                    }
+                    if (props.hasTexture != units.containsKey("material.texture_sampler")
+                            || props.withShadows != units.containsKey("shadowMapSampler")
+                            || props.perDrawData != units.containsKey("drawData")
+                            || props.clusteredLights != units.containsKey("clusterLights")) {
+                        throw new TestLib.TestError("Missing sampler units: " + units);
+                    }
+                    if (props.hasTexture && props.perDrawData) {
+                        samplerBuffers++;
+                    }
+                    if (props.clusteredLights) {
+                        clustered++;
+                    }
+                }
+            }
+        }
+        // the variants mixing the sampler types are prewarmed
+        if (samplerBuffers == 0 || clustered == 0) {
+            throw new TestLib.TestError("Variants not prewarmed");
+        }
+    }
+
+    public static void testAll() {
+        testKey();
+        try {
+            testReadWrite();
+        } catch (IOException e) {
+            throw new TestLib.TestError("I/O error: " + e.getMessage());
+        }
+        testProperties();
+        testPrewarmSamplers();
+    }
+
+    public static void main(String... args) {
+        testAll();
+    }
+}
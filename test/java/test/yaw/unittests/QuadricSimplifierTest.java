@@ -0,0 +1,120 @@
+package test.yaw.unittests;
+
+import yaw.engine.geom.Geometry;
+import yaw.engine.geom.QuadricSimplifier;
+import yaw.engine.mesh.LodChain;
+import yaw.engine.mesh.Mesh;
+
+import java.util.Arrays;
+
+public class QuadricSimplifierTest {
+
+    /* a flat n x n grid of quads in the plane z = 0, in [0, 1] x [0, 1] */
+    private static Geometry makeGrid(int n) {
+        float[] vertices = new float[3 * (n + 1) * (n + 1)];
+        float[] normals = new float[vertices.length];
+        for (int j = 0; j <= n; j++) {
+            for (int i = 0; i <= n; i++) {
+                int v = j * (n + 1) + i;
+                vertices[3 * v] = (float) i / n;
+                vertices[3 * v + 1] = (float) j / n;
+                normals[3 * v + 2] = 1;
+            }
+        }
+        int[] indices = new int[6 * n * n];
+        int k = 0;
+        for (int j = 0; j < n; j++) {
+            for (int i = 0; i < n; i++) {
+                int v = j * (n + 1) + i;
+                indices[k++] = v;
+                indices[k++] = v + 1;
+                indices[k++] = v + n + 2;
+                indices[k++] = v;
+                indices[k++] = v + n + 2;
+                indices[k++] = v + n + 1;
+            }
+        }
+        return new Geometry(vertices, normals, indices);
+    }
+
+    public static void testFlatGrid() {
+        Geometry grid = makeGrid(16);
+        Geometry simplified = QuadricSimplifier.simplify(grid, 50);
+        int triangles = simplified.getIndices().length / 3;
+        if (triangles > 50 || triangles < 2) {
+            throw new TestLib.TestError("Wrong number of triangles: " + triangles);
+        }
+        // no error on a plane : the vertices stay on it, and the boundary keeps the same extent
+        float[] vertices = simplified.getVertices();
+        for (int v = 0; v < simplified.getVertexCount(); v++) {
+            if (Math.abs(vertices[3 * v + 2]) > 1.0e-5f) {
+                throw new TestLib.TestError("Vertex out of the plane: " + vertices[3 * v + 2]);
+            }
+        }
+        if (simplified.getAabbMin().distance(grid.getAabbMin()) > 1.0e-5f
+                || simplified.getAabbMax().distance(grid.getAabbMax()) > 1.0e-5f) {
+            throw new TestLib.TestError("Boundary not preserved: " + simplified.getAabbMin() + " " + simplified.getAabbMax());
+        }
+        // the triangles keep their orientation
+        int[] indices = simplified.getIndices();
+        for (int t = 0; t < triangles; t++) {
+            int a = 3 * indices[3 * t], b = 3 * indices[3 * t + 1], c = 3 * indices[3 * t + 2];
+            float nz = (vertices[b] - vertices[a]) * (vertices[c + 1] - vertices[a + 1])
+                    - (vertices[b + 1] - vertices[a + 1]) * (vertices[c] - vertices[a]);
+            if (nz < 0) {
+                throw new TestLib.TestError("Flipped triangle " + t);
+            }
+        }
+        // the attributes of the remaining vertices are kept
+        if (simplified.getNormals()[2] != 1) {
+            throw new TestLib.TestError("Normal not kept");
+        }
+    }
+
+    public static void testNoSimplification() {
+        Geometry grid = makeGrid(2);
+        if (QuadricSimplifier.simplify(grid, 100) != grid) {
+            throw new TestLib.TestError("A geometry under the target should be returned as is");
+        }
+    }
+
+    public static void testLodSelection() {
+        Mesh base = new Mesh(makeGrid(16));
+        LodChain chain = LodChain.build(base, new float[]{0.5f, 0.1f}, new float[]{0.5f, 0.1f});
+        if (chain.getLevelCount() != 3 || chain.getLevel(0) != base) {
+            throw new TestLib.TestError("Wrong levels");
+        }
+        int[] triangles = new int[3];
+        for (int level = 0; level < 3; level++) {
+            triangles[level] = chain.getLevel(level).getGeometry().getIndices().length / 3;
+        }
+        if (!(triangles[0] > triangles[1] && triangles[1] > triangles[2])) {
+            throw new TestLib.TestError("Levels not simplified: " + Arrays.toString(triangles));
+        }
+
+        chain.setHysteresis(0.2f);
+        if (chain.selectLevel(1.0f, 0) != 0 || chain.selectLevel(0.3f, 0) != 1 || chain.selectLevel(0.01f, 0) != 2) {
+            throw new TestLib.TestError("Wrong level selection");
+        }
+        // around the first switch size, the level does not change
+        if (chain.selectLevel(0.45f, 0) != 0) {
+            throw new TestLib.TestError("Switched to a coarser level within the margin");
+        }
+        if (chain.selectLevel(0.55f, 1) != 1) {
+            throw new TestLib.TestError("Switched to a finer level within the margin");
+        }
+        if (chain.selectLevel(0.65f, 1) != 0 || chain.selectLevel(0.35f, 0) != 1) {
+            throw new TestLib.TestError("No switch beyond the margin");
+        }
+    }
+
+    public static void testAll() {
+        testFlatGrid();
+        testNoSimplification();
+        testLodSelection();
+    }
+
+    public static void main(String... args) {
+        testAll();
+    }
+}
@@ -0,0 +1,84 @@
+package test.yaw.unittests;
+
+import yaw.engine.mesh.RangeAllocator;
+
+public class RangeAllocatorTest {
+
+    public static void testFirstFit() {
+        RangeAllocator allocator = new RangeAllocator(100);
+        int a = allocator.allocate(30);
+        int b = allocator.allocate(30);
+        int c = allocator.allocate(30);
+        if (a != 0 || b != 30 || c != 60) {
+            throw new TestLib.TestError("Wrong offsets: " + a + ", " + b + ", " + c);
+        }
+        if (allocator.allocate(20) != -1) {
+            throw new TestLib.TestError("Allocation beyond the capacity");
+        }
+        if (allocator.getUsed() != 90 || allocator.getFree() != 10) {
+            throw new TestLib.TestError("Wrong used space: " + allocator.getUsed());
+        }
+
+        // the first free range large enough is reused
+        allocator.free(a);
+        if (allocator.allocate(20) != 0) {
+            throw new TestLib.TestError("Freed range not reused");
+        }
+        // free ranges [20, 30[ and [90, 100[
+        if (allocator.allocate(15) != -1 || allocator.allocate(10) != 20 || allocator.allocate(10) != 90) {
+            throw new TestLib.TestError("Wrong first fit");
+        }
+    }
+
+    public static void testCoalescing() {
+        RangeAllocator allocator = new RangeAllocator(100);
+        int a = allocator.allocate(25);
+        int b = allocator.allocate(25);
+        int c = allocator.allocate(25);
+        allocator.free(a);
+        allocator.free(c);
+        // [a] and [c + end] are separate free ranges
+        if (allocator.getFreeRangeCount() != 2 || allocator.getLargestFreeRange() != 50) {
+            throw new TestLib.TestError("Wrong free ranges: " + allocator.getFreeRangeCount());
+        }
+        if (allocator.allocate(60) != -1) {
+            throw new TestLib.TestError("Allocation in a fragmented space");
+        }
+        allocator.free(b);
+        if (allocator.getFreeRangeCount() != 1 || allocator.getLargestFreeRange() != 100 || allocator.getUsed() != 0) {
+            throw new TestLib.TestError("Free ranges not merged");
+        }
+    }
+
+    public static void testGrow() {
+        RangeAllocator allocator = new RangeAllocator(10);
+        allocator.allocate(4);
+        allocator.grow(20);
+        // the free end is extended
+        if (allocator.getFreeRangeCount() != 1 || allocator.getLargestFreeRange() != 16) {
+            throw new TestLib.TestError("Wrong free range after growing: " + allocator.getLargestFreeRange());
+        }
+        if (allocator.allocate(16) != 4 || allocator.getCapacity() != 20) {
+            throw new TestLib.TestError("Wrong allocation after growing");
+        }
+
+        RangeAllocator empty = new RangeAllocator(0);
+        if (empty.allocate(1) != -1) {
+            throw new TestLib.TestError("Allocation in an empty space");
+        }
+        empty.grow(8);
+        if (empty.allocate(8) != 0) {
+            throw new TestLib.TestError("Wrong allocation after growing an empty space");
+        }
+    }
+
+    public static void testAll() {
+        testFirstFit();
+        testCoalescing();
+        testGrow();
+    }
+
+    public static void main(String... args) {
+        testAll();
+    }
+}
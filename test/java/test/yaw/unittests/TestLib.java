@@ -10,5 +10,23 @@ public class TestLib {
     public static void main(String ... args) {
         GeomLibTest.testAll();
         ObjLoaderTest.testAll();
+        CullingTest.testAll();
+        LightModelTest.testAll();
+        CameraCacheTest.testAll();
+        ItemObjectTest.testAll();
+        MeshTest.testAll();
+        VertexLayoutTest.testAll();
+        RangeAllocatorTest.testAll();
+        QuadricSimplifierTest.testAll();
+        OcclusionBufferTest.testAll();
+        LightClustersTest.testAll();
+        ProgramBinaryCacheTest.testAll();
+        DirectBufferPoolTest.testAll();
+        TextureAtlasTest.testAll();
+        TextureCacheTest.testAll();
+        MeshCacheTest.testAll();
+        ObjBufferParserTest.testAll();
+        VertexCacheOptimizerTest.testAll();
+        ModelLoaderTest.testAll();
     }
 }
@@ -0,0 +1,72 @@
+package test.yaw.unittests;
+
+import yaw.engine.geom.Geometry;
+import yaw.engine.mesh.TextureAtlas;
+
+import java.nio.ByteBuffer;
+
+public class TextureAtlasTest {
+
+    private static ByteBuffer image(int width, int height, int value) {
+        ByteBuffer pixels = ByteBuffer.allocateDirect(4 * width * height);
+        for (int i = 0; i < 4 * width * height; i++) {
+            pixels.put((byte) value);
+        }
+        return pixels.flip();
+    }
+
+    private static TextureAtlas makeAtlas() {
+        return new TextureAtlas(new String[]{"a", "b", "c"},
+                new ByteBuffer[]{image(2, 2, 1), image(2, 2, 2), image(1, 1, 3)},
+                new int[]{2, 2, 1}, new int[]{2, 2, 1});
+    }
+
+    public static void testPacking() {
+        TextureAtlas atlas = makeAtlas();
+        if (atlas.getNumCols() != 2 || atlas.getNumRows() != 2 || atlas.getCellWidth() != 2 || atlas.getCellHeight() != 2) {
+            throw new TestLib.TestError("Wrong grid");
+        }
+        if (atlas.getTexture().getWidth() != 4 || atlas.getTexture().getHeight() != 4 || !atlas.getTexture().isInMemory()) {
+            throw new TestLib.TestError("Wrong atlas texture");
+        }
+        // row by row : a a b b / a a b b / c 0 0 0 / 0 0 0 0
+        int[] expected = {1, 1, 2, 2, 1, 1, 2, 2, 3, 0, 0, 0, 0, 0, 0, 0};
+        ByteBuffer pixels = atlas.getTexture().getPixels();
+        for (int i = 0; i < expected.length; i++) {
+            if (pixels.get(4 * i) != expected[i]) {
+                throw new TestLib.TestError("Wrong pixel " + i + ": " + pixels.get(4 * i));
+            }
+        }
+    }
+
+    public static void testRemap() {
+        TextureAtlas atlas = makeAtlas();
+        float[] uv = atlas.remap("b", new float[]{0, 0, 1, 1});
+        // from the center of the first texel to the center of the last one of the cell
+        float[] expected = {2.5f / 4, 0.5f / 4, 3.5f / 4, 1.5f / 4};
+        for (int i = 0; i < expected.length; i++) {
+            if (Math.abs(uv[i] - expected[i]) > 1.0e-6f) {
+                throw new TestLib.TestError("Wrong remapped coordinate " + i + ": " + uv[i]);
+            }
+        }
+        if (atlas.accepts("b", new float[]{0, 2}) || atlas.accepts("d", new float[]{0, 0}) || !atlas.accepts("c", new float[]{1, 0})) {
+            throw new TestLib.TestError("Wrong acceptance");
+        }
+        Geometry geom = new Geometry(new float[]{0, 0, 0, 1, 0, 0, 0, 1, 0}, new float[]{0, 0, 1, 0, 0, 1},
+                new float[]{0, 0, 1, 0, 0, 1, 0, 0, 1}, new int[]{0, 1, 2});
+        Geometry remapped = atlas.remap(geom, "a");
+        if (remapped.getVertices() != geom.getVertices() || Math.abs(remapped.getTextCoords()[2] - 1.5f / 4) > 1.0e-6f
+                || geom.getTextCoords()[2] != 1) {
+            throw new TestLib.TestError("Wrong remapped geometry");
+        }
+    }
+
+    public static void testAll() {
+        testPacking();
+        testRemap();
+    }
+
+    public static void main(String... args) {
+        testAll();
+    }
+}
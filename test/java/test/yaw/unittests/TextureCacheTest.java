@@ -0,0 +1,50 @@
+package test.yaw.unittests;
+
+import yaw.engine.mesh.Texture;
+import yaw.engine.mesh.TextureCache;
+
+public class TextureCacheTest {
+
+    public static void testSharing() {
+        TextureCache cache = new TextureCache();
+        Texture sand = cache.get("/resources/sand.png");
+        if (cache.get("/resources/sand.png") != sand || cache.get("/resources/dice1.png") == sand || cache.size() != 2) {
+            throw new TestLib.TestError("Textures not shared by file name");
+        }
+        // nothing resident : no memory, nothing to evict
+        cache.setBudget(0);
+        if (cache.getMemoryUsage() != 0 || cache.evict() != 0 || cache.size() != 2) {
+            throw new TestLib.TestError("Wrong eviction of non-resident textures");
+        }
+    }
+
+    public static void testRefCount() {
+        TextureCache cache = new TextureCache();
+        Texture texture = cache.get("/resources/sand.png");
+        if (texture.retain() != 1 || texture.retain() != 2 || texture.release() != 1 || texture.release() != 0) {
+            throw new TestLib.TestError("Wrong reference count");
+        }
+        // unreferenced, but still cached
+        if (cache.get("/resources/sand.png") != texture) {
+            throw new TestLib.TestError("Unreferenced texture removed from the cache");
+        }
+        boolean released = false;
+        try {
+            texture.release();
+        } catch (Error e) {
+            released = true;
+        }
+        if (!released) {
+            throw new TestLib.TestError("Texture released more than retained");
+        }
+    }
+
+    public static void testAll() {
+        testSharing();
+        testRefCount();
+    }
+
+    public static void main(String... args) {
+        testAll();
+    }
+}
@@ -0,0 +1,117 @@
+package test.yaw.unittests;
+
+import yaw.engine.geom.Geometry;
+import yaw.engine.geom.VertexCacheOptimizer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class VertexCacheOptimizerTest {
+
+    /* a n x n grid of quads, with its triangles in a random order */
+    private static Geometry makeShuffledGrid(int n) {
+        float[] vertices = new float[3 * (n + 1) * (n + 1)];
+        float[] normals = new float[vertices.length];
+        for (int j = 0; j <= n; j++) {
+            for (int i = 0; i <= n; i++) {
+                int v = j * (n + 1) + i;
+                vertices[3 * v] = (float) i / n;
+                vertices[3 * v + 1] = (float) j / n;
+                vertices[3 * v + 2] = (float) Math.sin(i * 0.3) * 0.1f;
+                normals[3 * v + 2] = 1;
+            }
+        }
+        List<int[]> triangles = new ArrayList<>();
+        for (int j = 0; j < n; j++) {
+            for (int i = 0; i < n; i++) {
+                int v = j * (n + 1) + i;
+                triangles.add(new int[]{v, v + 1, v + n + 2});
+                triangles.add(new int[]{v, v + n + 2, v + n + 1});
+            }
+        }
+        Collections.shuffle(triangles, new Random(3));
+        int[] indices = new int[3 * triangles.size()];
+        for (int t = 0; t < triangles.size(); t++) {
+            System.arraycopy(triangles.get(t), 0, indices, 3 * t, 3);
+        }
+        return new Geometry(vertices, normals, indices);
+    }
+
+    /* the triangles as positions, from their lowest corner (the orientation is kept) */
+    private static List<String> triangles(Geometry geom) {
+        float[] vertices = geom.getVertices();
+        int[] indices = geom.getIndices();
+        List<String> result = new ArrayList<>();
+        for (int t = 0; t < indices.length / 3; t++) {
+            String[] corners = new String[3];
+            for (int k = 0; k < 3; k++) {
+                int v = indices[3 * t + k];
+                corners[k] = vertices[3 * v] + "," + vertices[3 * v + 1] + "," + vertices[3 * v + 2];
+            }
+            int first = 0;
+            for (int k = 1; k < 3; k++) {
+                if (corners[k].compareTo(corners[first]) < 0) {
+                    first = k;
+                }
+            }
+            result.add(corners[first] + " " + corners[(first + 1) % 3] + " " + corners[(first + 2) % 3]);
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    private static void checkSameTriangles(Geometry a, Geometry b) {
+        if (!triangles(a).equals(triangles(b))) {
+            throw new TestLib.TestError("The triangles have changed");
+        }
+    }
+
+    public static void testCache() {
+        Geometry grid = makeShuffledGrid(48);
+        int cacheSize = VertexCacheOptimizer.DEFAULT_CACHE_SIZE;
+        float before = VertexCacheOptimizer.acmr(grid.getIndices(), cacheSize);
+        Geometry optimized = VertexCacheOptimizer.optimize(grid);
+        float after = VertexCacheOptimizer.acmr(optimized.getIndices(), cacheSize);
+        if (before < 2 || after > 0.8f) {
+            throw new TestLib.TestError("Wrong ACMR: " + before + " -> " + after);
+        }
+        checkSameTriangles(grid, optimized);
+    }
+
+    public static void testVertexFetch() {
+        Geometry optimized = VertexCacheOptimizer.optimize(makeShuffledGrid(16));
+        // the vertices are numbered in their order of first use
+        int next = 0;
+        for (int index : optimized.getIndices()) {
+            if (index > next) {
+                throw new TestLib.TestError("Vertex " + index + " used before vertex " + next);
+            }
+            next = Math.max(next, index + 1);
+        }
+        if (optimized.getNormals()[2] != 1) {
+            throw new TestLib.TestError("Normals not reordered with the vertices");
+        }
+    }
+
+    public static void testOverdraw() {
+        Geometry grid = makeShuffledGrid(48);
+        Geometry optimized = VertexCacheOptimizer.optimize(grid, true);
+        float acmr = VertexCacheOptimizer.acmr(optimized.getIndices(), VertexCacheOptimizer.DEFAULT_CACHE_SIZE);
+        if (acmr > 1.0f) {
+            throw new TestLib.TestError("Wrong ACMR after the overdraw sort: " + acmr);
+        }
+        checkSameTriangles(grid, optimized);
+    }
+
+    public static void testAll() {
+        testCache();
+        testVertexFetch();
+        testOverdraw();
+    }
+
+    public static void main(String... args) {
+        testAll();
+    }
+}
@@ -0,0 +1,135 @@
+package test.yaw.unittests;
+
+import org.joml.Vector3f;
+import org.lwjgl.BufferUtils;
+import yaw.engine.geom.GeomLib;
+import yaw.engine.geom.Geometry;
+import yaw.engine.mesh.Material;
+import yaw.engine.mesh.Mesh;
+import yaw.engine.mesh.Texture;
+import yaw.engine.mesh.VertexLayout;
+
+import java.nio.ByteBuffer;
+
+public class VertexLayoutTest {
+
+    private static Geometry makeTriangle(boolean withTextCoords) {
+        float[] vertices = { 0, 0, 0, 1, 0, 0, 0, 1, 0 };
+        float[] normals = { 0, 0, 1, 0, 0, 1, 0, 0, 1 };
+        float[] textCoords = withTextCoords ? new float[]{ 0, 0, 1, 0, 0, 1 } : null;
+        return new Geometry(vertices, textCoords, normals, new int[]{ 0, 1, 2 });
+    }
+
+    public static void testInterleave() {
+        Geometry geom = makeTriangle(true);
+        VertexLayout layout = VertexLayout.positionNormalTextCoords();
+        if (layout.getStride() != 8 * Float.BYTES) {
+            throw new TestLib.TestError("Wrong stride: " + layout.getStride());
+        }
+        ByteBuffer buffer = BufferUtils.createByteBuffer(geom.getVertexCount() * layout.getStride());
+        layout.interleave(geom, buffer);
+        if (buffer.position() != 3 * 8 * Float.BYTES) {
+            throw new TestLib.TestError("Wrong number of interleaved bytes: " + buffer.position());
+        }
+        // second vertex : position (1,0,0), normal (0,0,1), uv (1,0)
+        float[] expected = { 1, 0, 0, 0, 0, 1, 1, 0 };
+        for (int i = 0; i < expected.length; i++) {
+            float value = buffer.getFloat((8 + i) * Float.BYTES);
+            if (value != expected[i]) {
+                throw new TestLib.TestError("Wrong interleaved value at " + i + ": " + value);
+            }
+        }
+    }
+
+    public static void testSelect() {
+        Geometry plain = makeTriangle(false);
+        if (plain.hasTextCoords()) {
+            throw new TestLib.TestError("The geometry should not have texture coordinates");
+        }
+        Geometry textured = makeTriangle(true);
+        Material untexturedMaterial = new Material();
+        Material texturedMaterial = new Material();
+        texturedMaterial.setTexture(new Texture("/resources/sea.png"));
+        if (VertexLayout.select(plain, texturedMaterial).hasAttribute(VertexLayout.TEXT_COORDS_LOCATION)) {
+            throw new TestLib.TestError("No texture coordinates should be uploaded without UVs");
+        }
+        if (VertexLayout.select(textured, untexturedMaterial).getStride() != 6 * Float.BYTES) {
+            throw new TestLib.TestError("An untextured mesh should use the skinny layout");
+        }
+        if (!VertexLayout.select(textured, texturedMaterial).hasAttribute(VertexLayout.TEXT_COORDS_LOCATION)) {
+            throw new TestLib.TestError("A textured mesh should keep its texture coordinates");
+        }
+    }
+
+    public static void testOctahedral() {
+        float[] encoded = new float[2];
+        Vector3f decoded = new Vector3f();
+        Vector3f[] normals = { new Vector3f(0, 0, 1), new Vector3f(0, 0, -1), new Vector3f(1, 0, 0),
+                new Vector3f(0, -1, 0), new Vector3f(1, 2, -3).normalize(), new Vector3f(-0.3f, 0.1f, -0.9f).normalize() };
+        for (Vector3f n : normals) {
+            VertexLayout.encodeOctahedral(n.x, n.y, n.z, encoded);
+            // the shaders read the 16-bit normalized values
+            float u = Math.round(encoded[0] * 32767) / 32767.0f;
+            float v = Math.round(encoded[1] * 32767) / 32767.0f;
+            VertexLayout.decodeOctahedral(u, v, decoded);
+            if (decoded.angle(n) > 1.0e-3f) {
+                throw new TestLib.TestError("Wrong octahedral normal: " + n + " decoded as " + decoded);
+            }
+        }
+    }
+
+    public static void testHalfFloat() {
+        float[] values = { 0, 1, -2, 0.5f, 0.1f, 1000.25f, 65504, 6.0e-8f };
+        for (float value : values) {
+            float result = VertexLayout.fromHalfFloat(VertexLayout.toHalfFloat(value));
+            if (Math.abs(result - value) > Math.abs(value) * 1.0e-3f + 6.0e-8f) {
+                throw new TestLib.TestError("Wrong half float: " + value + " converted to " + result);
+            }
+        }
+        if (VertexLayout.toHalfFloat(1) != (short) 0x3C00) {
+            throw new TestLib.TestError("Wrong half float bits for 1");
+        }
+        if (!Float.isInfinite(VertexLayout.fromHalfFloat(VertexLayout.toHalfFloat(1.0e6f)))) {
+            throw new TestLib.TestError("Half float overflow should give infinity");
+        }
+    }
+
+    public static void testQuantized() {
+        Geometry geom = makeTriangle(true);
+        VertexLayout layout = VertexLayout.quantized(true);
+        if (!layout.isQuantized() || layout.getStride() != 16) {
+            throw new TestLib.TestError("Wrong quantized stride: " + layout.getStride());
+        }
+        if (VertexLayout.quantized(false).getStride() != 12) {
+            throw new TestLib.TestError("Wrong quantized stride without texture coordinates");
+        }
+        ByteBuffer buffer = BufferUtils.createByteBuffer(geom.getVertexCount() * layout.getStride());
+        layout.interleave(geom, buffer);
+        // second vertex : position (1,0,0) at the max x of the bounding box
+        if ((buffer.getShort(16) & 0xFFFF) != 65535 || buffer.getShort(18) != 0) {
+            throw new TestLib.TestError("Wrong quantized position");
+        }
+        if (VertexLayout.fromHalfFloat(buffer.getShort(16 + 12)) != 1) {
+            throw new TestLib.TestError("Wrong half-float texture coordinate");
+        }
+
+        Mesh mesh = new Mesh(GeomLib.makeCuboid(1, 2, 3).build());
+        String report = mesh.getQuantizationReport();
+        // 24 vertices : 24 * (24 - 12) bytes saved, 36 indices : 36 * 2 bytes saved
+        if (!report.contains("saved " + (24 * 12 + 36 * 2) + " bytes")) {
+            throw new TestLib.TestError("Wrong quantization report: " + report);
+        }
+    }
+
+    public static void testAll() {
+        testInterleave();
+        testSelect();
+        testOctahedral();
+        testHalfFloat();
+        testQuantized();
+    }
+
+    public static void main(String... args) {
+        testAll();
+    }
+}